@@ -0,0 +1,147 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.calc.impl;
+
+import mondrian.calc.Calc;
+import mondrian.calc.ExpCompiler;
+import mondrian.olap.Formula;
+import mondrian.olap.Query;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test for {@link CommonSubexpressionCompiler}. Each query is run with the
+ * common subexpression cache disabled and enabled, and must give the same
+ * results.
+ *
+ * @see mondrian.olap.MondrianProperties#EnableCommonSubexpressionCache
+ */
+public class CommonSubexpressionCompilerTest extends FoodMartTestCase {
+
+    public CommonSubexpressionCompilerTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Runs a query with and without the common subexpression cache, and
+     * checks that the results are the same, and which of the query's
+     * calculated members were cached.
+     */
+    private void assertSameAsUncached(String query, String... cachedMembers) {
+        propSaver.set(
+            propSaver.properties.EnableCommonSubexpressionCache, false);
+        final String expected = TestContext.toString(executeQuery(query));
+
+        propSaver.set(
+            propSaver.properties.EnableCommonSubexpressionCache, true);
+        final String actual = TestContext.toString(executeQuery(query));
+        assertEquals(expected, actual);
+
+        final Query parsedQuery =
+            getTestContext().getConnection().parseQuery(query);
+        final ExpCompiler compiler = parsedQuery.createCompiler();
+        final List<String> cached = new ArrayList<String>();
+        for (Formula formula : parsedQuery.getFormulas()) {
+            final Calc calc = compiler.compile(formula.getExpression());
+            if (calc instanceof CacheCalc) {
+                cached.add(formula.getName());
+            }
+        }
+        assertEquals(Arrays.asList(cachedMembers), cached);
+    }
+
+    /**
+     * Tests an aggregate that occurs in two calculated members, and depends
+     * on a hierarchy on an axis.
+     */
+    public void testRepeated() {
+        assertSameAsUncached(
+            "with member [Measures].[Drink Sales] as\n"
+            + " 'Sum([Product].[Drink].Children, [Measures].[Unit Sales])'\n"
+            + " member [Measures].[Drink Share] as\n"
+            + " '[Measures].[Unit Sales]\n"
+            + "  / Sum([Product].[Drink].Children, [Measures].[Unit Sales])',\n"
+            + " format_string = '0.0000'\n"
+            + "select {[Measures].[Drink Sales],\n"
+            + "  [Measures].[Drink Share]} on 0,\n"
+            + " [Time].[1997].Children on 1\n"
+            + "from [Sales]",
+            "Drink Sales");
+    }
+
+    /**
+     * Tests an aggregate that does not depend on the axes, because it
+     * iterates over the hierarchy on the rows, but on the slicer: its value
+     * must be computed for the query's slicer.
+     */
+    public void testSlicer() {
+        final String withMember =
+            "with member [Measures].[All Families] as\n"
+            + " 'Sum([Product].[Product Family].Members,\n"
+            + "  [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[Unit Sales],\n"
+            + "  [Measures].[All Families]} on 0,\n"
+            + " [Product].Children on 1\n"
+            + "from [Sales]\n";
+        assertSameAsUncached(
+            withMember + "where [Time].[1997].[Q1]", "All Families");
+        assertSameAsUncached(
+            withMember + "where [Time].[1997].[Q2]", "All Families");
+        assertSameAsUncached(
+            withMember + "where {[Time].[1997].[Q1], [Time].[1997].[Q2]}",
+            "All Families");
+        assertSameAsUncached(
+            withMember + "where ([Time].[1997].[Q3], [Store].[USA].[CA])",
+            "All Families");
+    }
+
+    /**
+     * Tests an aggregate that depends on a calculated member in the
+     * slicer.
+     */
+    public void testCalculatedSlicer() {
+        assertSameAsUncached(
+            "with member [Time].[1997].[H1] as\n"
+            + " 'Aggregate({[Time].[1997].[Q1], [Time].[1997].[Q2]})'\n"
+            + " member [Measures].[All Families] as\n"
+            + " 'Sum([Product].[Product Family].Members,\n"
+            + "  [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[All Families]} on 0,\n"
+            + " [Product].Children on 1\n"
+            + "from [Sales]\n"
+            + "where [Time].[1997].[H1]",
+            "All Families");
+    }
+
+    /**
+     * Tests an aggregate that depends on a hierarchy on an axis and occurs
+     * once: it is not cached.
+     */
+    public void testAxisDependent() {
+        assertSameAsUncached(
+            "with member [Measures].[Children Sales] as\n"
+            + " 'Sum([Product].CurrentMember.Children,\n"
+            + "  [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[Children Sales]} on 0,\n"
+            + " [Product].[Product Family].Members on 1\n"
+            + "from [Sales]\n"
+            + "where [Time].[1997].[Q1]");
+    }
+}
+
+// End CommonSubexpressionCompilerTest.java
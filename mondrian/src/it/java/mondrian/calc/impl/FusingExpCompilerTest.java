@@ -0,0 +1,160 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.calc.impl;
+
+import mondrian.calc.Calc;
+import mondrian.calc.ExpCompiler;
+import mondrian.olap.Formula;
+import mondrian.olap.Query;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Test for {@link FusingExpCompiler}. Each query is run with the default
+ * compiler and with the fusing compiler, and must give the same results.
+ */
+public class FusingExpCompilerTest extends FoodMartTestCase {
+
+    public FusingExpCompilerTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Runs a query with the default compiler and with
+     * {@link FusingExpCompiler}, and checks that the results are the same,
+     * and that at least one of the query's calculated members was fused.
+     */
+    private void assertSameAsUnfused(String query) {
+        propSaver.set(
+            propSaver.properties.ExpCompilerClass,
+            BetterExpCompiler.class.getName());
+        final String expected = TestContext.toString(executeQuery(query));
+
+        propSaver.set(
+            propSaver.properties.ExpCompilerClass,
+            FusingExpCompiler.class.getName());
+        final String actual = TestContext.toString(executeQuery(query));
+        assertEquals(expected, actual);
+
+        final Query parsedQuery =
+            getTestContext().getConnection().parseQuery(query);
+        final ExpCompiler compiler = parsedQuery.createCompiler();
+        boolean fused = false;
+        for (Formula formula : parsedQuery.getFormulas()) {
+            final Calc calc = compiler.compile(formula.getExpression());
+            fused |= calc.getClass().getSimpleName().startsWith("Fused");
+        }
+        assertTrue("no calculated member was fused", fused);
+    }
+
+    public void testArithmetic() {
+        assertSameAsUnfused(
+            "with member [Measures].[Margin] as\n"
+            + " '([Measures].[Store Sales] - [Measures].[Store Cost])\n"
+            + "  / [Measures].[Store Sales]', format_string = '0.0000'\n"
+            + " member [Measures].[Mixed] as\n"
+            + " '- [Measures].[Unit Sales] * 2 + [Measures].[Store Cost] / 3\n"
+            + "  - 1.5', format_string = '#,##0.00'\n"
+            + "select {[Measures].[Margin], [Measures].[Mixed]} on 0,\n"
+            + " {[Product].Children, [Product].[All Products]} on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests operators on empty cells. There are no sales in 1998, so every
+     * measure is null there.
+     */
+    public void testNull() {
+        assertSameAsUnfused(
+            "with member [Measures].[Plus] as\n"
+            + " '[Measures].[Unit Sales] + [Measures].[Store Cost] * 2'\n"
+            + " member [Measures].[Minus] as\n"
+            + " '[Measures].[Unit Sales] - [Measures].[Store Sales] * 2'\n"
+            + " member [Measures].[Null Minus] as\n"
+            + " '([Measures].[Unit Sales], [Time].[1998]) - 2 * 3'\n"
+            + " member [Measures].[Negate] as\n"
+            + " '- ([Measures].[Unit Sales] * [Measures].[Store Cost])'\n"
+            + " member [Measures].[Compare] as\n"
+            + " 'IIf([Measures].[Unit Sales] > 0 + 0, 1, 0)'\n"
+            + " member [Measures].[Nested IIf] as\n"
+            + " '1 + IIf([Measures].[Unit Sales] = [Measures].[Unit Sales],\n"
+            + "   [Measures].[Store Sales], [Measures].[Store Cost])'\n"
+            + "select {[Measures].[Plus], [Measures].[Minus],\n"
+            + "  [Measures].[Null Minus], [Measures].[Negate],\n"
+            + "  [Measures].[Compare], [Measures].[Nested IIf]} on 0,\n"
+            + " {[Time].[1997], [Time].[1998]} on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests that an empty set on an axis, and hence no cells, is handled.
+     */
+    public void testEmpty() {
+        assertSameAsUnfused(
+            "with member [Measures].[Plus] as\n"
+            + " '[Measures].[Unit Sales] + [Measures].[Store Cost] * 2'\n"
+            + "select {[Measures].[Plus]} on 0,\n"
+            + " Filter([Product].Children, 1 = 0) on 1\n"
+            + "from [Sales]");
+    }
+
+    public void testDivideByZero() {
+        assertDivideByZero();
+    }
+
+    public void testDivideByZeroNullDenominatorProducesNull() {
+        propSaver.set(
+            propSaver.properties.NullDenominatorProducesNull, true);
+        assertDivideByZero();
+    }
+
+    private void assertDivideByZero() {
+        assertSameAsUnfused(
+            "with member [Measures].[Zero] as\n"
+            + " '[Measures].[Unit Sales]\n"
+            + "  / ([Measures].[Store Cost] - [Measures].[Store Cost])'\n"
+            + " member [Measures].[Zero By Zero] as\n"
+            + " '([Measures].[Unit Sales] - [Measures].[Unit Sales])\n"
+            + "  / ([Measures].[Store Cost] - [Measures].[Store Cost])'\n"
+            + " member [Measures].[Null Denominator] as\n"
+            + " '1 + ([Measures].[Unit Sales], [Time].[1997])\n"
+            + "  / ([Measures].[Unit Sales], [Time].[1998])'\n"
+            + " member [Measures].[Null Numerator] as\n"
+            + " '1 + ([Measures].[Unit Sales], [Time].[1998])\n"
+            + "  / ([Measures].[Unit Sales], [Time].[1997])'\n"
+            + "select {[Measures].[Zero], [Measures].[Zero By Zero],\n"
+            + "  [Measures].[Null Denominator],\n"
+            + "  [Measures].[Null Numerator]} on 0,\n"
+            + " {[Time].[1997], [Time].[1998]} on 1\n"
+            + "from [Sales]");
+    }
+
+    public void testBoolean() {
+        assertSameAsUnfused(
+            "with member [Measures].[Flag] as\n"
+            + " '[Measures].[Unit Sales] > 10000\n"
+            + "  and not ([Measures].[Store Cost] < 5000\n"
+            + "   or [Measures].[Unit Sales] = [Measures].[Store Sales])'\n"
+            + " member [Measures].[Null Flag] as\n"
+            + " '([Measures].[Unit Sales], [Time].[1998]) >= 0\n"
+            + "  or ([Measures].[Unit Sales], [Time].[1998]) <> 1'\n"
+            + "select {[Measures].[Flag], [Measures].[Null Flag]} on 0,\n"
+            + " Filter([Product].[Product Department].Members,\n"
+            + "  [Measures].[Unit Sales] > 10000\n"
+            + "  and [Measures].[Store Cost] <= 20000 * 2) on 1\n"
+            + "from [Sales]");
+    }
+}
+
+// End FusingExpCompilerTest.java
@@ -0,0 +1,121 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.olap.fun.sort;
+
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Test for {@link TupleSelector}, through the TopCount and BottomCount functions.
+ *
+ * <p>TopCount and BottomCount used to stably sort the set and keep its head; so their results are compared with those
+ * of Head and Order, which still do.</p>
+ */
+public class TupleSelectorTest extends FoodMartTestCase {
+
+  public TupleSelectorTest( String name ) {
+    super( name );
+  }
+
+  /**
+   * Checks that TopCount and BottomCount return the same tuples, in the same order, as Head applied to a stable
+   * descending or ascending Order of the set.
+   */
+  private void assertSameAsOrder( String set, int n, String exp ) {
+    assertSameAsOrder( "TopCount", "BDESC", set, n, exp );
+    assertSameAsOrder( "BottomCount", "BASC", set, n, exp );
+  }
+
+  private void assertSameAsOrder( String fun, String flag, String set, int n, String exp ) {
+    final String query =
+      "with member [Measures].[Key] as '" + exp + "'\n"
+        + "select {[Measures].[Key], [Measures].[Unit Sales]} on 0,\n"
+        + " %s on 1\n"
+        + "from [Sales]";
+    final String expected =
+      TestContext.toString(
+        executeQuery( String.format( query, "Head(Order(" + set + ", [Measures].[Key], " + flag + "), " + n + ")" ) ) );
+    final String actual =
+      TestContext.toString(
+        executeQuery( String.format( query, fun + "(" + set + ", " + n + ", [Measures].[Key])" ) ) );
+    assertEquals( fun + "(" + set + ", " + n + ", " + exp + ")", expected, actual );
+  }
+
+  public void testDistinctValues() {
+    for ( int n : new int[] { 1, 2, 5, 10, 100 } ) {
+      assertSameAsOrder( "[Product].[Product Department].Members", n, "[Measures].[Unit Sales]" );
+    }
+  }
+
+  /**
+   * Tests a set with many ties: tuples with equal values must keep their order in the set.
+   */
+  public void testTies() {
+    for ( int n : new int[] { 1, 3, 7, 20, 50 } ) {
+      assertSameAsOrder( "[Product].[Brand Name].Members", n, "Int([Measures].[Unit Sales] / 1000)" );
+      assertSameAsOrder( "[Product].[Product Department].Members", n, "1" );
+    }
+  }
+
+  /**
+   * Tests a set whose values include nulls: many cities have no sales. Nulls are below every value, so BottomCount
+   * returns them first.
+   */
+  public void testNulls() {
+    for ( int n : new int[] { 1, 5, 30, 200 } ) {
+      assertSameAsOrder( "[Store].[Store City].Members", n, "[Measures].[Unit Sales]" );
+      assertSameAsOrder( "[Store].[Store City].Members", n, "([Measures].[Unit Sales], [Time].[1998])" );
+    }
+  }
+
+  /**
+   * Tests a set of tuples, including a member that appears twice.
+   */
+  public void testTuples() {
+    for ( int n : new int[] { 1, 4, 13 } ) {
+      assertSameAsOrder(
+        "CrossJoin({[Gender].[M], [Gender].[F], [Gender].[M]}, [Product].[Product Family].Members)", n,
+        "[Measures].[Unit Sales]" );
+      assertSameAsOrder(
+        "CrossJoin([Product].[Product Family].Members, [Store Type].[Store Type].Members)", n,
+        "[Measures].[Store Sales] - [Measures].[Store Cost]" );
+    }
+  }
+
+  public void testTieKeepsSetOrder() {
+    assertAxisReturns(
+      "TopCount({[Product].[Non-Consumable], [Product].[Drink], [Product].[Food]}, 2, 1)",
+      "[Product].[Non-Consumable]\n"
+        + "[Product].[Drink]" );
+    assertAxisReturns(
+      "BottomCount({[Product].[Non-Consumable], [Product].[Drink], [Product].[Food]}, 2, 1)",
+      "[Product].[Non-Consumable]\n"
+        + "[Product].[Drink]" );
+  }
+
+  public void testCountLargerThanSet() {
+    assertAxisReturns(
+      "TopCount({[Product].[Non-Consumable], [Product].[Drink], [Product].[Food]}, 5, [Measures].[Unit Sales])",
+      "[Product].[Food]\n"
+        + "[Product].[Non-Consumable]\n"
+        + "[Product].[Drink]" );
+    assertAxisReturns(
+      "BottomCount({[Product].[Non-Consumable], [Product].[Drink], [Product].[Food]}, 5, [Measures].[Unit Sales])",
+      "[Product].[Drink]\n"
+        + "[Product].[Non-Consumable]\n"
+        + "[Product].[Food]" );
+  }
+}
+
+// End TupleSelectorTest.java
@@ -89,6 +89,52 @@ public class CancellationTest extends FoodMartTestCase {
         verify(execution, times(expectedCallsQuantity)).checkCancelOrTimeout();
     }
 
+    /**
+     * Tests that an execution times out when its timer fires, without
+     * checking for cancellation and therefore without reading the clock in
+     * the meantime.
+     */
+    public void testTimeoutFiresWithoutChecks() throws Exception {
+        final Execution execution =
+            new Execution(
+                ((RolapConnection) getConnection()).getInternalStatement(),
+                100);
+        execution.start();
+        assertFalse(execution.isCancelOrTimeout());
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!execution.isCancelOrTimeout()
+            && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+        assertTrue(execution.isCancelOrTimeout());
+        assertTrue(execution.isDone());
+        try {
+            execution.checkCancelOrTimeout();
+            fail("expected QueryTimeoutException");
+        } catch (QueryTimeoutException e) {
+            // expected
+        }
+        execution.end();
+    }
+
+    /**
+     * Tests that the timer of an execution is cancelled when the execution
+     * ends, so that the execution does not time out afterwards.
+     */
+    public void testTimeoutCancelledWhenExecutionEnds() throws Exception {
+        final Execution execution =
+            new Execution(
+                ((RolapConnection) getConnection()).getInternalStatement(),
+                100);
+        execution.start();
+        execution.checkCancelOrTimeout();
+        execution.end();
+        Thread.sleep(500);
+        assertFalse(execution.isCancelOrTimeout());
+        execution.checkCancelOrTimeout();
+    }
+
     private TupleList mutableCrossJoin(
         final TupleList list1, final TupleList list2, final Execution execution)
         {
@@ -0,0 +1,252 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.olap.Cell;
+import mondrian.olap.Property;
+import mondrian.olap.Result;
+import mondrian.server.Execution;
+import mondrian.test.BasicQueryTest;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Unit test for the evaluation of the cells of a {@link RolapResult} a page
+ * at a time, when they are requested.
+ *
+ * <p>The result cache is disabled, so that each query is evaluated, not
+ * copied from a previous result.
+ *
+ * @see mondrian.olap.MondrianProperties#LazyCellEvaluation
+ * @see mondrian.olap.MondrianProperties#LazyCellPageSize
+ */
+public class LazyCellEvaluationTest extends FoodMartTestCase {
+    /**
+     * Query with stored and calculated measures, a format string that
+     * depends on the cell, and a slicer; its rows are a crossjoin, so that
+     * pages do not start at the start of a row.
+     */
+    private static final String QUERY =
+        "with member [Measures].[Profit Share] as\n"
+        + " '[Measures].[Profit]\n"
+        + "  / ([Measures].[Profit], [Store].[All Stores])',\n"
+        + " format_string = Iif([Measures].[Profit] > 10000, '0.00%', '0%')\n"
+        + "select {[Measures].[Unit Sales], [Measures].[Store Sales],\n"
+        + "  [Measures].[Profit Share]} on 0,\n"
+        + " CrossJoin([Store].[Store State].Members, [Gender].Members) on 1\n"
+        + "from [Sales]\n"
+        + "where [Time].[1997].[Q1]";
+
+    /**
+     * Query whose cells each sleep for 1 ms, so that a page of all of its
+     * cells takes more than 2 seconds to evaluate.
+     */
+    private static final String SLEEPY_QUERY =
+        "with member [Measures].[Sleepy] as\n"
+        + " 'SleepUdf([Measures].[Unit Sales])'\n"
+        + "select {[Measures].[Sleepy]} on 0,\n"
+        + " [Product].Members on 1\n"
+        + "from [Sales]";
+
+    public LazyCellEvaluationTest() {
+    }
+
+    public LazyCellEvaluationTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        propSaver.set(propSaver.properties.ResultCacheMaxEntries, 0);
+    }
+
+    /**
+     * Tests that the cells of a lazy result, read in order and in reverse
+     * order, with pages evicted in between, are the same as those of a
+     * result whose cells were evaluated up front.
+     */
+    public void testPagesMatchEager() {
+        propSaver.set(propSaver.properties.LazyCellEvaluation, false);
+        final RolapResult expected = (RolapResult) executeQuery(QUERY);
+        assertFalse(expected.isLazy());
+        final int cellCount = getCellCount(expected);
+
+        propSaver.set(propSaver.properties.LazyCellEvaluation, true);
+        propSaver.set(propSaver.properties.LazyCellPageSize, 4);
+        final RolapResult actual = (RolapResult) executeQuery(QUERY);
+        assertTrue(actual.isLazy());
+        // More pages than the result holds at a time, which is 16.
+        assertTrue(cellCount > 4 * 16);
+
+        assertEquals(
+            TestContext.toString(expected), TestContext.toString(actual));
+        assertEquals(describe(expected, false), describe(actual, true));
+        assertEquals(describe(expected, false), describe(actual, false));
+    }
+
+    /**
+     * Tests that queries with a NON EMPTY axis are evaluated in full.
+     */
+    public void testNonEmptyIsEager() {
+        propSaver.set(propSaver.properties.LazyCellEvaluation, true);
+        final Result result =
+            executeQuery(
+                "select {[Measures].[Unit Sales]} on 0,\n"
+                + " non empty [Store].[Store State].Members on 1\n"
+                + "from [Sales]");
+        final Result underlying =
+            ((RolapConnection.NonEmptyResult) result).underlying;
+        assertFalse(((RolapResult) underlying).isLazy());
+    }
+
+    /**
+     * Tests that a statement canceled after its query returns cancels the
+     * evaluation of the next page.
+     */
+    public void testCancelBeforePage() throws Exception {
+        propSaver.set(propSaver.properties.LazyCellEvaluation, true);
+        final RolapResult result = (RolapResult) executeQuery(QUERY);
+        assertTrue(result.isLazy());
+        result.getQuery().getStatement().cancel();
+        Throwable throwable = null;
+        try {
+            result.getCell(new int[] {0, 0});
+        } catch (Throwable e) {
+            throwable = e;
+        }
+        TestContext.checkThrowable(throwable, "canceled");
+    }
+
+    /**
+     * Tests that a statement canceled while a page is evaluated stops the
+     * evaluation of the page.
+     */
+    public void testCancelDuringPage() throws Exception {
+        propSaver.set(propSaver.properties.LazyCellEvaluation, true);
+        final RolapResult result =
+            (RolapResult) getSleepyTestContext().executeQuery(SLEEPY_QUERY);
+        assertTrue(result.isLazy());
+        final Throwable[] throwables = {null};
+        final Timer timer = new Timer(true);
+        timer.schedule(
+            new TimerTask() {
+                public void run() {
+                    try {
+                        result.getQuery().getStatement().cancel();
+                    } catch (Exception e) {
+                        throwables[0] = e;
+                    }
+                }
+            },
+            500);
+        Throwable throwable = null;
+        try {
+            result.getCell(new int[] {0, 0});
+        } catch (Throwable e) {
+            throwable = e;
+        } finally {
+            timer.cancel();
+        }
+        assertNull(throwables[0]);
+        TestContext.checkThrowable(throwable, "canceled");
+    }
+
+    /**
+     * Tests that the timeout of a query is not running between pages, and
+     * that it is re-armed for a full interval while a page is evaluated.
+     */
+    public void testTimeoutBetweenPages() throws Exception {
+        propSaver.set(propSaver.properties.QueryTimeout, 1);
+        propSaver.set(propSaver.properties.LazyCellEvaluation, true);
+        propSaver.set(propSaver.properties.LazyCellPageSize, 10);
+        final RolapResult result = (RolapResult) executeQuery(QUERY);
+        assertTrue(result.isLazy());
+        final Execution execution = result.getExecution();
+        Thread.sleep(1500);
+        assertFalse(execution.isCancelOrTimeout());
+        assertNotNull(result.getCell(new int[] {0, 0}).getValue());
+        Thread.sleep(1500);
+        assertFalse(execution.isCancelOrTimeout());
+        assertNotNull(result.getCell(new int[] {0, 10}).getValue());
+    }
+
+    /**
+     * Tests that a page that takes longer than the timeout of its query
+     * times out.
+     */
+    public void testTimeoutDuringPage() throws Exception {
+        propSaver.set(propSaver.properties.QueryTimeout, 1);
+        propSaver.set(propSaver.properties.LazyCellEvaluation, true);
+        final RolapResult result =
+            (RolapResult) getSleepyTestContext().executeQuery(SLEEPY_QUERY);
+        assertTrue(result.isLazy());
+        Throwable throwable = null;
+        try {
+            result.getCell(new int[] {0, 0});
+        } catch (Throwable e) {
+            throwable = e;
+        }
+        TestContext.checkThrowable(
+            throwable, "Query timeout of 1 seconds reached");
+    }
+
+    private TestContext getSleepyTestContext() {
+        return getTestContext().create(
+            null, null, null, null,
+            "<UserDefinedFunction name=\"SleepUdf\" className=\""
+            + BasicQueryTest.SleepUdf.class.getName() + "\"/>",
+            null);
+    }
+
+    private static int getCellCount(Result result) {
+        return result.getAxes()[0].getPositions().size()
+            * result.getAxes()[1].getPositions().size();
+    }
+
+    /**
+     * Describes every cell of a two-axis result: its value, formatted value
+     * and format string, reading them in order of ordinal or in reverse.
+     */
+    private static String describe(Result result, boolean reverse) {
+        final StringBuilder buf = new StringBuilder();
+        final int columnCount = result.getAxes()[0].getPositions().size();
+        final int cellCount = getCellCount(result);
+        for (int i = 0; i < cellCount; i++) {
+            final int ordinal = reverse ? cellCount - 1 - i : i;
+            final Cell cell =
+                result.getCell(
+                    new int[] {ordinal % columnCount, ordinal / columnCount});
+            buf.append(ordinal)
+                .append(": ").append(cell.getValue())
+                .append(" formatted=").append(cell.getFormattedValue())
+                .append(" format=")
+                .append(cell.getPropertyValue(Property.FORMAT_STRING.name))
+                .append('\n');
+        }
+        if (reverse) {
+            // Put the lines back in order of ordinal.
+            final String[] lines = buf.toString().split("\n");
+            buf.setLength(0);
+            for (int i = lines.length - 1; i >= 0; i--) {
+                buf.append(lines[i]).append('\n');
+            }
+        }
+        return buf.toString();
+    }
+}
+
+// End LazyCellEvaluationTest.java
@@ -0,0 +1,260 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Cube;
+import mondrian.test.TestContext;
+import mondrian.test.loader.CsvDBTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that a NON EMPTY CrossJoin returns the same tuples whether it is
+ * computed by {@link RolapHashNonEmptyCrossJoin} or by evaluating each
+ * tuple.
+ *
+ * <p>Some key combinations of the fact table only have rows whose amount is
+ * null; they are empty for the sum, min and max measures of the amount, but
+ * not for the measures that count rows.
+ *
+ * @see mondrian.olap.MondrianProperties#EnableHashNonEmptyCrossJoin
+ */
+public class RolapHashNonEmptyCrossJoinTest extends CsvDBTestCase {
+    private static final String CROSS_JOIN =
+        "CrossJoin([Region].[Region Name].Members,"
+        + " [Product].[Product Name].Members)";
+
+    public RolapHashNonEmptyCrossJoinTest() {
+        super();
+    }
+
+    public RolapHashNonEmptyCrossJoinTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        getConnection().getCacheControl(null).flushSchemaCache();
+        // Non-native evaluation is what the hash crossjoin replaces.
+        propSaver.set(propSaver.properties.EnableNativeCrossJoin, false);
+        propSaver.set(propSaver.properties.CrossJoinOptimizerSize, 0);
+        super.setUp();
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        getConnection().getCacheControl(null).flushSchemaCache();
+    }
+
+    protected String getFileName() {
+        return "RolapHashNonEmptyCrossJoinTest.csv";
+    }
+
+    protected String getCubeDescription() {
+        return "<Cube name='Hash'>\n"
+            + "  <Table name='hash_fact'/>\n"
+            + "  <Dimension name='Region' foreignKey='region_id'>\n"
+            + "    <Hierarchy hasAll='true' primaryKey='region_id'>\n"
+            + "      <Table name='hash_region'/>\n"
+            + "      <Level name='Region Name' column='region_name'"
+            + " uniqueMembers='true'/>\n"
+            + "    </Hierarchy>\n"
+            + "  </Dimension>\n"
+            + "  <Dimension name='Product' foreignKey='product_id'>\n"
+            + "    <Hierarchy hasAll='true' primaryKey='product_id'>\n"
+            + "      <Table name='hash_product'/>\n"
+            + "      <Level name='Product Name' column='product_name'"
+            + " uniqueMembers='true'/>\n"
+            + "    </Hierarchy>\n"
+            + "  </Dimension>\n"
+            + "  <Dimension name='Channel'>\n"
+            + "    <Hierarchy hasAll='true'>\n"
+            + "      <Level name='Channel Name' column='channel'"
+            + " uniqueMembers='true'/>\n"
+            + "    </Hierarchy>\n"
+            + "  </Dimension>\n"
+            + "  <Measure name='Amount' column='amount' aggregator='sum'"
+            + " formatString='#,##0.00'/>\n"
+            + "  <Measure name='Min Amount' column='amount' aggregator='min'"
+            + " formatString='#,##0.00'/>\n"
+            + "  <Measure name='Avg Amount' column='amount' aggregator='avg'"
+            + " formatString='#,##0.00'/>\n"
+            + "  <Measure name='Amount Count' column='amount'"
+            + " aggregator='count' formatString='#,##0'/>\n"
+            + "  <Measure name='Qty' column='qty' aggregator='sum'"
+            + " formatString='#,##0'/>\n"
+            + "</Cube>";
+    }
+
+    /**
+     * Tests that key combinations whose rows all have a null amount are
+     * empty, and that the hash crossjoin, not tuple by tuple evaluation,
+     * computed them.
+     */
+    public void testNullMeasure() {
+        final String query =
+            "select {[Measures].[Amount]} on 0,\n"
+            + " NON EMPTY " + CROSS_JOIN + " on 1\n"
+            + "from [Hash]";
+        final String expected =
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Amount]}\n"
+            + "Axis #2:\n"
+            + "{[Region].[East], [Product].[P3]}\n"
+            + "{[Region].[North], [Product].[P2]}\n"
+            + "{[Region].[South], [Product].[P1]}\n"
+            + "{[Region].[South], [Product].[P3]}\n"
+            + "Row #0: 0.00\n"
+            + "Row #1: 10.00\n"
+            + "Row #2: 20.00\n"
+            + "Row #3: -5.00\n";
+        assertSameWithAndWithoutHash(query);
+        propSaver.set(propSaver.properties.EnableHashNonEmptyCrossJoin, true);
+        final List<String> sqls = executeAndCaptureSql(query);
+        boolean found = false;
+        for (String sql : sqls) {
+            if (sql.contains("region_name")
+                && sql.contains("product_name")
+                && sql.contains(" is not null"))
+            {
+                found = true;
+            }
+        }
+        assertTrue(sqls.toString(), found);
+        getTestContext().assertQueryReturns(query, expected);
+    }
+
+    /**
+     * Tests the tuples of the hash crossjoin before the axis removes empty
+     * positions: the first key combination, [East].[P1], has a fact row but
+     * no amount, so it is not the head of the set.
+     */
+    public void testNullMeasureHead() {
+        propSaver.set(propSaver.properties.EnableHashNonEmptyCrossJoin, true);
+        getTestContext().assertQueryReturns(
+            "select {[Measures].[Amount]} on 0,\n"
+            + " NON EMPTY Head(" + CROSS_JOIN + ", 1) on 1\n"
+            + "from [Hash]",
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Amount]}\n"
+            + "Axis #2:\n"
+            + "{[Region].[East], [Product].[P3]}\n"
+            + "Row #0: 0.00\n");
+    }
+
+    /**
+     * Tests each aggregator: min and avg are null if all rows are, count and
+     * the sum of another column are not.
+     */
+    public void testAggregators() {
+        for (String measure
+            : new String[] {"Min Amount", "Avg Amount", "Amount Count", "Qty"})
+        {
+            assertSameWithAndWithoutHash(
+                "select {[Measures].[" + measure + "]} on 0,\n"
+                + " NON EMPTY " + CROSS_JOIN + " on 1\n"
+                + "from [Hash]");
+        }
+    }
+
+    /**
+     * Tests a slicer, under which other key combinations only have rows
+     * whose amount is null.
+     */
+    public void testSlicer() {
+        assertSameWithAndWithoutHash(
+            "select {[Measures].[Amount]} on 0,\n"
+            + " NON EMPTY " + CROSS_JOIN + " on 1\n"
+            + "from [Hash]\n"
+            + "where [Channel].[A]");
+        assertSameWithAndWithoutHash(
+            "select {[Measures].[Amount]} on 0,\n"
+            + " NON EMPTY " + CROSS_JOIN + " on 1\n"
+            + "from [Hash]\n"
+            + "where {[Channel].[A], [Channel].[B]}");
+    }
+
+    /**
+     * Tests a calculated member in the slicer, and a calculated measure that
+     * refers to a member of a hierarchy of the inputs; its value for a tuple
+     * does not depend on the tuple's member of that hierarchy.
+     */
+    public void testCalculatedContext() {
+        assertSameWithAndWithoutHash(
+            "with member [Channel].[AB] as\n"
+            + " 'Aggregate({[Channel].[A], [Channel].[B]})'\n"
+            + "select {[Measures].[Amount]} on 0,\n"
+            + " NON EMPTY " + CROSS_JOIN + " on 1\n"
+            + "from [Hash]\n"
+            + "where [Channel].[AB]");
+        assertSameWithAndWithoutHash(
+            "with member [Measures].[North Amount] as\n"
+            + " '([Measures].[Amount], [Region].[North])'\n"
+            + "select {[Measures].[North Amount]} on 0,\n"
+            + " NON EMPTY " + CROSS_JOIN + " on 1\n"
+            + "from [Hash]");
+    }
+
+    /**
+     * Runs a query with the hash crossjoin disabled, then enabled, each over
+     * an empty cache, and checks that the results are the same.
+     */
+    private void assertSameWithAndWithoutHash(String query) {
+        final TestContext testContext = getTestContext();
+        propSaver.set(propSaver.properties.EnableHashNonEmptyCrossJoin, false);
+        flushCells();
+        final String expected =
+            TestContext.toString(testContext.executeQuery(query));
+
+        propSaver.set(propSaver.properties.EnableHashNonEmptyCrossJoin, true);
+        flushCells();
+        assertEquals(
+            query,
+            expected,
+            TestContext.toString(testContext.executeQuery(query)));
+    }
+
+    private List<String> executeAndCaptureSql(String query) {
+        flushCells();
+        final List<String> sqls = new ArrayList<String>();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    sqls.add(sql);
+                }
+            });
+        try {
+            getTestContext().executeQuery(query);
+        } finally {
+            RolapUtil.setHook(null);
+        }
+        return sqls;
+    }
+
+    private void flushCells() {
+        final CacheControl cacheControl =
+            getTestContext().getConnection().getCacheControl(null);
+        final Cube cube =
+            getTestContext().getConnection().getSchema()
+                .lookupCube("Hash", true);
+        cacheControl.flush(cacheControl.createMeasuresRegion(cube));
+    }
+}
+
+// End RolapHashNonEmptyCrossJoinTest.java
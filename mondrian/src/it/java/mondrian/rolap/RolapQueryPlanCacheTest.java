@@ -0,0 +1,257 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Cube;
+import mondrian.olap.Id;
+import mondrian.olap.Member;
+import mondrian.olap.QueryTiming;
+import mondrian.spi.ProfileHandler;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import org.olap4j.CellSet;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapStatement;
+import org.olap4j.PreparedOlapStatement;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit test for {@link RolapQueryPlanCache}.
+ *
+ * @see mondrian.olap.MondrianProperties#QueryPlanCacheMaxEntries
+ */
+public class RolapQueryPlanCacheTest extends FoodMartTestCase {
+    private static final String QUERY =
+        "select [Gender].Children on 0,\n"
+        + " [Product].Children on 1\n"
+        + "from [Sales]";
+
+    private static final String PARAMETER_QUERY =
+        "with member [Measures].[Scaled] as\n"
+        + " 'Parameter(\"Factor\", NUMERIC, 1, \"Factor\")"
+        + " * [Measures].[Unit Sales]'\n"
+        + "select {[Measures].[Scaled]} on 0,\n"
+        + " [Gender].Children on 1\n"
+        + "from [Sales]";
+
+    public RolapQueryPlanCacheTest() {
+    }
+
+    public RolapQueryPlanCacheTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        propSaver.set(propSaver.properties.QueryPlanCacheMaxEntries, 10);
+        getPlanCache().clear();
+    }
+
+    protected void tearDown() throws Exception {
+        getPlanCache().clear();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that closing a prepared statement returns its query to the
+     * cache, and that the next statement that prepares the same MDX takes it
+     * and returns the same result.
+     */
+    public void testPreparedStatementHit() throws SQLException {
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        try {
+            PreparedOlapStatement statement =
+                connection.prepareOlapStatement(QUERY);
+            final String expected =
+                TestContext.toString(statement.executeQuery());
+            assertEquals(0, getPlanCache().size());
+            statement.close();
+            assertEquals(1, getPlanCache().size());
+
+            statement = connection.prepareOlapStatement(QUERY);
+            assertEquals(0, getPlanCache().size());
+            assertEquals(
+                expected, TestContext.toString(statement.executeQuery()));
+            assertEquals(
+                expected, TestContext.toString(statement.executeQuery()));
+
+            // Another statement that prepares the same MDX while the plan is
+            // in use parses it again.
+            final PreparedOlapStatement statement2 =
+                connection.prepareOlapStatement(QUERY);
+            assertEquals(
+                expected, TestContext.toString(statement2.executeQuery()));
+            statement.close();
+            statement2.close();
+            assertEquals(2, getPlanCache().size());
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Tests that a statement that executes several queries returns each of
+     * them to the cache when it executes the next.
+     */
+    public void testStatementHit() throws SQLException {
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        try {
+            final OlapStatement statement = connection.createStatement();
+            final String expected =
+                TestContext.toString(statement.executeOlapQuery(QUERY));
+            statement.executeOlapQuery(PARAMETER_QUERY);
+            assertEquals(1, getPlanCache().size());
+            assertEquals(
+                expected,
+                TestContext.toString(statement.executeOlapQuery(QUERY)));
+            assertEquals(1, getPlanCache().size());
+            statement.close();
+            assertEquals(2, getPlanCache().size());
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Tests that the parameters of a plan that was executed with values are
+     * reset when the plan is taken by another statement, and can be bound
+     * again.
+     */
+    public void testParameterRebinding() throws SQLException {
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        try {
+            PreparedOlapStatement statement =
+                connection.prepareOlapStatement(PARAMETER_QUERY);
+            final String expected =
+                TestContext.toString(statement.executeQuery());
+            statement.setInt(1, 2);
+            final String doubled =
+                TestContext.toString(statement.executeQuery());
+            assertFalse(expected.equals(doubled));
+            statement.close();
+
+            statement = connection.prepareOlapStatement(PARAMETER_QUERY);
+            assertEquals(0, getPlanCache().size());
+            assertEquals(
+                expected, TestContext.toString(statement.executeQuery()));
+            statement.setInt(1, 2);
+            assertEquals(
+                doubled, TestContext.toString(statement.executeQuery()));
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Tests that statements that profile their queries neither use nor fill
+     * the cache: each profile counts the calls of one execution.
+     */
+    public void testProfilingNotCached() throws SQLException {
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        try {
+            final List<String> plans = new ArrayList<String>();
+            for (int i = 0; i < 2; i++) {
+                final OlapStatement statement = connection.createStatement();
+                ((mondrian.server.Statement) statement).enableProfiling(
+                    new ProfileHandler() {
+                        public void explain(
+                            String plan, QueryTiming timing)
+                        {
+                            plans.add(
+                                plan.replaceAll(
+                                    "callMillis=[0-9]+", "callMillis=nnn"));
+                        }
+                    });
+                final CellSet cellSet = statement.executeOlapQuery(QUERY);
+                TestContext.toString(cellSet);
+                statement.close();
+                assertEquals(0, getPlanCache().size());
+            }
+            assertEquals(0, plans.size() % 2);
+            final int n = plans.size() / 2;
+            assertEquals(plans.subList(0, n), plans.subList(n, 2 * n));
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Tests that flushing members or the schema discards the plans, which
+     * refer to members.
+     */
+    public void testInvalidation() throws SQLException {
+        final RolapQueryPlanCache planCache = getPlanCache();
+        executeAndClose(QUERY);
+        assertEquals(1, planCache.size());
+
+        final CacheControl cacheControl =
+            getConnection().getCacheControl(null);
+        final Cube cube = getConnection().getSchema().lookupCube("Sales", true);
+        final Member member =
+            cube.getSchemaReader(null).withLocus().getMemberByUniqueName(
+                Id.Segment.toList("Product", "Drink"), true);
+        cacheControl.flush(cacheControl.createMemberSet(member, true));
+        assertEquals(0, planCache.size());
+
+        // A plan that is in use when its members are flushed is not returned
+        // to the cache.
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        try {
+            final PreparedOlapStatement statement =
+                connection.prepareOlapStatement(QUERY);
+            statement.executeQuery();
+            cacheControl.flush(cacheControl.createMemberSet(member, true));
+            statement.close();
+            assertEquals(0, planCache.size());
+        } finally {
+            connection.close();
+        }
+
+        executeAndClose(QUERY);
+        assertEquals(1, planCache.size());
+        getTestContext().flushSchemaCache();
+        assertEquals(0, planCache.size());
+    }
+
+    private void executeAndClose(String mdx) throws SQLException {
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        try {
+            final PreparedOlapStatement statement =
+                connection.prepareOlapStatement(mdx);
+            statement.executeQuery();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private RolapQueryPlanCache getPlanCache() {
+        return ((RolapSchema) getConnection().getSchema())
+            .getQueryPlanCache();
+    }
+}
+
+// End RolapQueryPlanCacheTest.java
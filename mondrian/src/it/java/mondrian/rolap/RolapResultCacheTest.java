@@ -0,0 +1,200 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Connection;
+import mondrian.olap.DriverManager;
+import mondrian.olap.MondrianServer;
+import mondrian.olap.Util;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Unit test for {@link RolapResultCache}.
+ *
+ * @see mondrian.olap.MondrianProperties#ResultCacheMaxEntries
+ */
+public class RolapResultCacheTest extends FoodMartTestCase {
+    private static final String QUERY =
+        "select [Gender].Children on 0,\n"
+        + " [Product].Children on 1\n"
+        + "from [Sales]";
+
+    public RolapResultCacheTest() {
+    }
+
+    public RolapResultCacheTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        propSaver.set(propSaver.properties.ResultCacheMaxEntries, 10);
+        getResultCache().clear();
+    }
+
+    protected void tearDown() throws Exception {
+        getResultCache().clear();
+        super.tearDown();
+    }
+
+    public void testHit() {
+        final String expected =
+            TestContext.toString(getTestContext().executeQuery(QUERY));
+        assertEquals(1, getResultCache().size());
+
+        final int hits = getHitCount();
+        assertEquals(
+            expected,
+            TestContext.toString(getTestContext().executeQuery(QUERY)));
+        assertEquals(1, getResultCache().size());
+        assertEquals(hits + 1, getHitCount());
+
+        // The key is the parsed query, so white space does not matter.
+        assertEquals(
+            expected,
+            TestContext.toString(
+                getTestContext().executeQuery(
+                    QUERY.replace("\n", "  \n "))));
+        assertEquals(1, getResultCache().size());
+    }
+
+    public void testRoleIsPartOfKey() {
+        final TestContext testContext =
+            TestContext.instance().create(
+                null, null, null, null, null,
+                "<Role name=\"Role1\">\n"
+                + "  <SchemaGrant access=\"none\">\n"
+                + "    <CubeGrant cube=\"Sales\" access=\"all\">\n"
+                + "      <HierarchyGrant hierarchy=\"[Gender]\""
+                + " access=\"custom\">\n"
+                + "        <MemberGrant member=\"[Gender].[F]\""
+                + " access=\"all\"/>\n"
+                + "      </HierarchyGrant>\n"
+                + "    </CubeGrant>\n"
+                + "  </SchemaGrant>\n"
+                + "</Role>");
+        final String query =
+            "select [Gender].Children on 0\n"
+            + "from [Sales]";
+        testContext.assertQueryReturns(
+            query,
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Gender].[F]}\n"
+            + "{[Gender].[M]}\n"
+            + "Row #0: 131,558\n"
+            + "Row #0: 135,215\n");
+        testContext.withRole("Role1").assertQueryReturns(
+            query,
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Gender].[F]}\n"
+            + "Row #0: 131,558\n");
+        assertEquals(2, getResultCache().size());
+    }
+
+    public void testLocaleIsPartOfKey() {
+        final String query =
+            "select {[Measures].[Unit Sales]} on 0\n"
+            + "from [Sales]";
+        assertEquals(
+            "266,773",
+            executeWithLocale(query, "en_US"));
+        assertEquals(
+            "266.773",
+            executeWithLocale(query, "de_DE"));
+        assertEquals(2, getResultCache().size());
+    }
+
+    public void testFlushInvalidates() {
+        final String expected =
+            TestContext.toString(getTestContext().executeQuery(QUERY));
+        assertEquals(1, getResultCache().size());
+
+        final CacheControl cacheControl =
+            getConnection().getCacheControl(null);
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(
+                getConnection().getSchema().lookupCube("Sales", true)));
+        assertEquals(0, getResultCache().size());
+
+        final int hits = getHitCount();
+        assertEquals(
+            expected,
+            TestContext.toString(getTestContext().executeQuery(QUERY)));
+        assertEquals(hits, getHitCount());
+        assertEquals(1, getResultCache().size());
+
+        // Flushing another cube's cells keeps the result.
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(
+                getConnection().getSchema().lookupCube("Warehouse", true)));
+        assertEquals(1, getResultCache().size());
+
+        getTestContext().flushSchemaCache();
+        assertEquals(0, getResultCache().size());
+    }
+
+    /**
+     * Tests that queries that call a function whose value changes over
+     * time, or a user-defined function, are not cached.
+     */
+    public void testVolatileNotCached() {
+        final String[] queries = {
+            "with member [Measures].[X] as 'Now()'\n"
+            + "select {[Measures].[X]} on 0 from [Sales]",
+            "with member [Measures].[X] as 'CurrentDateString(\"yyyy\")'\n"
+            + "select {[Measures].[X]} on 0 from [Sales]",
+            "select {CurrentDateMember([Time].[Time],"
+            + " \"[Ti\\me]\\.[yyyy]\\.[Qq]\\.[m]\", BEFORE)}"
+            + " on 0 from [Sales]",
+            "with member [Measures].[X] as 'Rnd()'\n"
+            + "select {[Measures].[X]} on 0 from [Sales]",
+        };
+        for (String query : queries) {
+            getTestContext().executeQuery(query);
+            assertEquals(query, 0, getResultCache().size());
+        }
+    }
+
+    private String executeWithLocale(String query, String locale) {
+        final Util.PropertyList properties =
+            TestContext.instance().getConnectionProperties().clone();
+        properties.put(RolapConnectionProperties.Locale.name(), locale);
+        final Connection connection =
+            DriverManager.getConnection(properties, null);
+        try {
+            return connection.execute(connection.parseQuery(query))
+                .getCell(new int[] {0}).getFormattedValue();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private RolapResultCache getResultCache() {
+        return ((RolapConnection) getConnection()).getServer()
+            .getResultShepherd().getResultCache();
+    }
+
+    private int getHitCount() {
+        return MondrianServer.forConnection(getConnection()).getMonitor()
+            .getServer().resultCacheHitCount;
+    }
+}
+
+// End RolapResultCacheTest.java
@@ -13,6 +13,8 @@
 
 package mondrian.rolap;
 
+import mondrian.olap.Cell;
+import mondrian.olap.Property;
 import mondrian.olap.Result;
 import mondrian.rolap.aggmatcher.AggTableTestCase;
 import mondrian.test.TestContext;
@@ -49,6 +51,26 @@ public class RolapResultTest extends AggTableTestCase {
         + "Row #2: \n"
         + "Row #2: 15\n";
 
+    /**
+     * Query over cube FTCompact whose cells include nulls and zeros,
+     * negative numbers, strings, errors, division by zero and a format
+     * string that depends on the value.
+     */
+    private static final String COMPACT_MDX =
+        "with member [Measures].[Name] as '[D1].CurrentMember.Name'\n"
+        + " member [Measures].[Str] as 'Cast(123 as String)'\n"
+        + " member [Measures].[Err] as '[Measures].[Str] / 2'\n"
+        + " member [Measures].[Ratio] as '[Measures].[Value] / [Measures].[Qty]',"
+        + " FORMAT_STRING = '0.0%'\n"
+        + " member [Measures].[Fmt] as '[Measures].[Value]',"
+        + " FORMAT_STRING = IIf([Measures].[Value] < 0,"
+        + " '|#,##0.00|style=red', '#,##0.00')\n"
+        + "select {[Measures].[Value], [Measures].[Qty], [Measures].[Count],"
+        + " [Measures].[Name], [Measures].[Err], [Measures].[Ratio],"
+        + " [Measures].[Fmt]} on columns,\n"
+        + " CrossJoin([D1].Members, [D2].Members) on rows\n"
+        + "from FTCompact";
+
     private static final String RESULTS =
         "Axis #0:\n"
         + "{}\n"
@@ -195,6 +217,97 @@ Axis #2:
 
 
 
+    /**
+     * Tests that a result with at least
+     * {@link mondrian.olap.MondrianProperties#CompactCellThreshold} cells,
+     * whose cells are stored in compact form, has the same values, value
+     * classes, formatted values and format strings as one whose cells are
+     * stored as objects.
+     */
+    public void testCompactCells() throws Exception {
+        if (!isApplicable()) {
+            return;
+        }
+        propSaver.set(propSaver.properties.CompactCellThreshold, 0);
+        final RolapResult expected =
+            (RolapResult) getTestContext().executeQuery(COMPACT_MDX);
+        assertFalse(
+            expected.getCellInfoContainer()
+                instanceof RolapResult.CompactCellInfoContainer);
+
+        // A null cell, a zero cell, and a cell in error.
+        final int columnCount = expected.getAxes()[0].getPositions().size();
+        final int rowCount = expected.getAxes()[1].getPositions().size();
+        assertTrue(expected.getCell(new int[] {0, 11}).isNull());
+        assertEquals("0", expected.getCell(new int[] {2, 11}).getFormattedValue());
+        assertFalse(expected.getCell(new int[] {0, 7}).isNull());
+        assertEquals("0.00", expected.getCell(new int[] {0, 7}).getFormattedValue());
+        assertTrue(expected.getCell(new int[] {4, 0}).isError());
+
+        propSaver.set(
+            propSaver.properties.CompactCellThreshold, columnCount * rowCount);
+        final RolapResult actual =
+            (RolapResult) getTestContext().executeQuery(COMPACT_MDX);
+        assertTrue(
+            actual.getCellInfoContainer()
+                instanceof RolapResult.CompactCellInfoContainer);
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    /**
+     * Tests that a result with fewer cells than
+     * {@link mondrian.olap.MondrianProperties#CompactCellThreshold} keeps
+     * its cells as objects.
+     */
+    public void testCompactCellsBelowThreshold() throws Exception {
+        if (!isApplicable()) {
+            return;
+        }
+        propSaver.set(propSaver.properties.CompactCellThreshold, 0);
+        final RolapResult expected =
+            (RolapResult) getTestContext().executeQuery(COMPACT_MDX);
+        final int cellCount =
+            expected.getAxes()[0].getPositions().size()
+            * expected.getAxes()[1].getPositions().size();
+
+        propSaver.set(
+            propSaver.properties.CompactCellThreshold, cellCount + 1);
+        final RolapResult actual =
+            (RolapResult) getTestContext().executeQuery(COMPACT_MDX);
+        assertFalse(
+            actual.getCellInfoContainer()
+                instanceof RolapResult.CompactCellInfoContainer);
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    /**
+     * Describes every cell of a two-axis result: its value and the value's
+     * class, whether it is null or in error, its formatted value and its
+     * format string.
+     */
+    private static String describe(Result result) {
+        final StringBuilder buf = new StringBuilder();
+        final int columnCount = result.getAxes()[0].getPositions().size();
+        final int rowCount = result.getAxes()[1].getPositions().size();
+        for (int row = 0; row < rowCount; row++) {
+            for (int column = 0; column < columnCount; column++) {
+                final Cell cell = result.getCell(new int[] {column, row});
+                final Object value = cell.getValue();
+                buf.append(row).append(", ").append(column)
+                    .append(": ").append(value)
+                    .append(" (")
+                    .append(value == null ? null : value.getClass().getName())
+                    .append(") null=").append(cell.isNull())
+                    .append(" error=").append(cell.isError())
+                    .append(" formatted=").append(cell.getFormattedValue())
+                    .append(" format=")
+                    .append(cell.getPropertyValue(Property.FORMAT_STRING.name))
+                    .append('\n');
+            }
+        }
+        return buf.toString();
+    }
+
     protected String getFileName() {
         return RolapResultTest;
     }
@@ -281,6 +394,28 @@ Axis #2:
             + "<Measure name='Value' \n"
             + "    column='value' aggregator='sum'\n"
             + "   formatString='#,###'/>\n"
+            + "</Cube>\n"
+
+            + "<Cube name='FTCompact'>\n"
+            + "<Table name='FT3'/>\n"
+            + "<Dimension name='D1' foreignKey='d1_id' >\n"
+            + " <Hierarchy hasAll='true' primaryKey='d1_id'>\n"
+            + " <Table name='D1'/>\n"
+            + " <Level name='Name' column='name' type='String' uniqueMembers='true'/>\n"
+            + " </Hierarchy>\n"
+            + "</Dimension>\n"
+            + "<Dimension name='D2' foreignKey='d2_id' >\n"
+            + " <Hierarchy hasAll='true' primaryKey='d2_id'>\n"
+            + " <Table name='D2'/>\n"
+            + " <Level name='Name' column='name' type='String' uniqueMembers='true'/>\n"
+            + " </Hierarchy>\n"
+            + "</Dimension>\n"
+            + "<Measure name='Value' column='value' aggregator='sum'\n"
+            + "   formatString='#,##0.00'/>\n"
+            + "<Measure name='Qty' column='qty' aggregator='sum'\n"
+            + "   formatString='#,###'/>\n"
+            + "<Measure name='Count' column='value' aggregator='count'\n"
+            + "   formatString='#,##0'/>\n"
             + "</Cube>";
     }
 
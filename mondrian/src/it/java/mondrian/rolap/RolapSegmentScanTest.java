@@ -0,0 +1,249 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Cube;
+import mondrian.olap.Id;
+import mondrian.olap.Member;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+/**
+ * Tests that aggregate functions return the same results whether they read
+ * cells directly from a segment ({@link RolapSegmentScan}) or evaluate each
+ * tuple in turn.
+ *
+ * @see mondrian.olap.MondrianProperties#EnableSegmentScan
+ */
+public class RolapSegmentScanTest extends FoodMartTestCase {
+    public RolapSegmentScanTest() {
+    }
+
+    public RolapSegmentScanTest(String name) {
+        super(name);
+    }
+
+    public void testSumOverLevel() {
+        assertSameWithAndWithoutScan(
+            getTestContext(),
+            "with member [Measures].[X] as\n"
+            + " 'Sum([Product].[Product Family].Members,"
+            + " [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[X]} on 0,\n"
+            + " {[Time].[1997], [Time].[1997].Children} on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests a set some of whose cells are null: there are no sales in 1998.
+     */
+    public void testNullCells() {
+        assertSameWithAndWithoutScan(
+            getTestContext(),
+            "with set [S] as\n"
+            + " '{[Time].[1997].[Q1].Children, [Time].[1998].[Q1].Children}'\n"
+            + " member [Measures].[Sum] as"
+            + " 'Sum([S], [Measures].[Unit Sales])'\n"
+            + " member [Measures].[Avg] as"
+            + " 'Avg([S], [Measures].[Unit Sales])'\n"
+            + " member [Measures].[Min] as"
+            + " 'Min([S], [Measures].[Unit Sales])'\n"
+            + " member [Measures].[Max] as"
+            + " 'Max([S], [Measures].[Unit Sales])'\n"
+            + " member [Measures].[Empty] as"
+            + " 'Sum([Time].[1998].[Q1].Children, [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[Sum], [Measures].[Avg], [Measures].[Min],"
+            + " [Measures].[Max], [Measures].[Empty]} on 0,\n"
+            + " [Product].[Product Family].Members on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests tuples of several hierarchies, including two hierarchies of the
+     * same dimension, which constrain the same columns.
+     */
+    public void testMultiHierarchyTuples() {
+        assertSameWithAndWithoutScan(
+            getTestContext(),
+            "with member [Measures].[Gender Marital] as\n"
+            + " 'Sum(CrossJoin([Gender].[Gender].Members,"
+            + " [Marital Status].[Marital Status].Members),"
+            + " [Measures].[Unit Sales])'\n"
+            + " member [Measures].[Quarter State] as\n"
+            + " 'Sum(CrossJoin([Time].[1997].Children,"
+            + " [Store].[USA].Children), [Measures].[Store Sales])'\n"
+            + " member [Measures].[Time Weekly] as\n"
+            + " 'Sum(CrossJoin({[Time].[1997].[Q1]},"
+            + " [Time.Weekly].[1997].Children), [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[Gender Marital],"
+            + " [Measures].[Quarter State], [Measures].[Time Weekly]} on 0,\n"
+            + " [Product].[Product Family].Members on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests a set whose cells are stored in a sparse segment.
+     */
+    public void testSparseSegment() {
+        assertSameWithAndWithoutScan(
+            getTestContext(),
+            "with member [Measures].[X] as\n"
+            + " 'Sum(CrossJoin([Store].[Store Name].Members,"
+            + " [Product].[Brand Name].Members), [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[X]} on 0,\n"
+            + " [Gender].[Gender].Members on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Tests a set whose cells are in a segment from which a region has been
+     * flushed; the segment has an excluded region and cannot be scanned.
+     */
+    public void testExcludedRegion() {
+        final String query =
+            "with member [Measures].[X] as\n"
+            + " 'Sum([Product].[Product Family].Members,"
+            + " [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[X]} on 0,\n"
+            + " [Gender].[Gender].Members on 1\n"
+            + "from [Sales]";
+        final TestContext testContext = getTestContext();
+        propSaver.set(propSaver.properties.EnableSegmentScan, false);
+        flushCells(testContext);
+        final String expected =
+            TestContext.toString(testContext.executeQuery(query));
+
+        propSaver.set(propSaver.properties.EnableSegmentScan, true);
+        final CacheControl cacheControl =
+            testContext.getConnection().getCacheControl(null);
+        final Cube cube = getSalesCube(testContext);
+        final Member drink =
+            cube.getSchemaReader(null).withLocus().getMemberByUniqueName(
+                Id.Segment.toList("Product", "Drink"), true);
+        cacheControl.flush(
+            cacheControl.createCrossjoinRegion(
+                cacheControl.createMeasuresRegion(cube),
+                cacheControl.createMemberRegion(drink, true)));
+        assertEquals(
+            expected,
+            TestContext.toString(testContext.executeQuery(query)));
+    }
+
+    /**
+     * Tests a set only some of whose cells are cached: the tuples must be
+     * evaluated one by one, which loads the others.
+     */
+    public void testPartiallyCached() {
+        final String partial =
+            "select [Product].[Drink].Children on 0\n"
+            + "from [Sales]";
+        final String query =
+            "with member [Measures].[X] as\n"
+            + " 'Sum([Product].[Product Department].Members,"
+            + " [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[X]} on 0\n"
+            + "from [Sales]";
+        final TestContext testContext = getTestContext();
+        propSaver.set(propSaver.properties.EnableSegmentScan, false);
+        flushCells(testContext);
+        final String expected =
+            TestContext.toString(testContext.executeQuery(query));
+
+        propSaver.set(propSaver.properties.EnableSegmentScan, true);
+        flushCells(testContext);
+        testContext.executeQuery(partial);
+        assertEquals(
+            expected,
+            TestContext.toString(testContext.executeQuery(query)));
+    }
+
+    /**
+     * Tests a role whose access to a hierarchy rolls up partially: the
+     * visible ancestors of restricted members are aggregated over only the
+     * visible children, so their cells are not the segment's.
+     */
+    public void testPartialRollup() {
+        final TestContext testContext =
+            TestContext.instance().create(
+                null, null, null, null, null,
+                "<Role name=\"Role1\">\n"
+                + "  <SchemaGrant access=\"none\">\n"
+                + "    <CubeGrant cube=\"Sales\" access=\"all\">\n"
+                + "      <HierarchyGrant hierarchy=\"[Store]\""
+                + " access=\"custom\" rollupPolicy=\"partial\">\n"
+                + "        <MemberGrant member=\"[Store].[USA].[CA]\""
+                + " access=\"all\"/>\n"
+                + "        <MemberGrant member=\"[Store].[USA].[OR]\""
+                + " access=\"all\"/>\n"
+                + "      </HierarchyGrant>\n"
+                + "    </CubeGrant>\n"
+                + "  </SchemaGrant>\n"
+                + "</Role>")
+                .withRole("Role1");
+        assertSameWithAndWithoutScan(
+            testContext,
+            "with member [Measures].[States] as\n"
+            + " 'Sum([Store].[Store State].Members, [Measures].[Unit Sales])'\n"
+            + " member [Measures].[Countries] as\n"
+            + " 'Sum([Store].[Store Country].Members,"
+            + " [Measures].[Unit Sales])'\n"
+            + " member [Measures].[Families] as\n"
+            + " 'Sum([Product].[Product Family].Members,"
+            + " [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[States], [Measures].[Countries],"
+            + " [Measures].[Families]} on 0,\n"
+            + " {[Store].[USA], [Store].[USA].Children} on 1\n"
+            + "from [Sales]");
+    }
+
+    /**
+     * Runs a query with segment scans disabled, then enabled, first over the
+     * cells cached by the previous run and then over an empty cache, and
+     * checks that the results are the same.
+     */
+    private void assertSameWithAndWithoutScan(
+        TestContext testContext,
+        String query)
+    {
+        propSaver.set(propSaver.properties.EnableSegmentScan, false);
+        flushCells(testContext);
+        final String expected =
+            TestContext.toString(testContext.executeQuery(query));
+
+        propSaver.set(propSaver.properties.EnableSegmentScan, true);
+        assertEquals(
+            expected,
+            TestContext.toString(testContext.executeQuery(query)));
+
+        flushCells(testContext);
+        assertEquals(
+            expected,
+            TestContext.toString(testContext.executeQuery(query)));
+    }
+
+    private static Cube getSalesCube(TestContext testContext) {
+        return testContext.getConnection().getSchema()
+            .lookupCube("Sales", true);
+    }
+
+    private static void flushCells(TestContext testContext) {
+        final CacheControl cacheControl =
+            testContext.getConnection().getCacheControl(null);
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(getSalesCube(testContext)));
+    }
+}
+
+// End RolapSegmentScanTest.java
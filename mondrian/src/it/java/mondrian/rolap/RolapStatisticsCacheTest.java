@@ -0,0 +1,238 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.olap.Connection;
+import mondrian.olap.DriverManager;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Unit test for {@link RolapStatisticsCache}.
+ *
+ * <p>Each test uses statistics keys of its own, and a provider that counts
+ * how many times it is called, so that it does not depend on the statistics
+ * computed by other tests or on the database's statistics providers.
+ */
+public class RolapStatisticsCacheTest extends FoodMartTestCase {
+    public RolapStatisticsCacheTest() {
+    }
+
+    public RolapStatisticsCacheTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Tests that a statistic that is not known is computed in the
+     * background, and that lookups return -1 until it is.
+     */
+    public void testMissComputedInBackground() throws Exception {
+        final RolapStatisticsCache cache = getCache(getConnection());
+        final List<String> key = key("miss");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Provider provider = new Provider(42) {
+            public long getAsLong() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.getAsLong();
+            }
+        };
+
+        // Lookups do not wait for the provider, and do not start another
+        // task while one is running.
+        assertEquals(-1, cache.get(key, provider));
+        assertEquals(-1, cache.get(key, provider));
+        assertEquals(-1, cache.get(key, provider));
+        latch.countDown();
+        RolapStatisticsCache.awaitTasks();
+
+        assertEquals(42, cache.get(key, provider));
+        assertEquals(1, provider.count.get());
+    }
+
+    /**
+     * Tests that a statistic whose providers fail is not computed again
+     * every time it is asked for.
+     */
+    public void testFailureNotRetried() throws Exception {
+        final RolapStatisticsCache cache = getCache(getConnection());
+        final List<String> key = key("failure");
+        final Provider provider = new Provider(-1);
+        assertEquals(-1, cache.get(key, provider));
+        RolapStatisticsCache.awaitTasks();
+        assertEquals(-1, cache.get(key, provider));
+        RolapStatisticsCache.awaitTasks();
+        assertEquals(1, provider.count.get());
+
+        final List<String> key2 = key("exception");
+        final Provider provider2 = new Provider(0) {
+            public long getAsLong() {
+                super.getAsLong();
+                throw new RuntimeException("provider failed");
+            }
+        };
+        assertEquals(-1, cache.get(key2, provider2));
+        RolapStatisticsCache.awaitTasks();
+        assertEquals(-1, cache.get(key2, provider2));
+        RolapStatisticsCache.awaitTasks();
+        assertEquals(1, provider2.count.get());
+    }
+
+    /**
+     * Tests that an expired statistic is still returned, and is recomputed
+     * in the background.
+     */
+    public void testTimeToLiveRefresh() throws Exception {
+        propSaver.set(propSaver.properties.StatisticsCacheTimeToLive, 1);
+        final RolapStatisticsCache cache = getCache(getConnection());
+        final List<String> key = key("ttl");
+        final Provider provider = new Provider(10);
+        cache.get(key, provider);
+        RolapStatisticsCache.awaitTasks();
+        assertEquals(10, cache.get(key, provider));
+        assertEquals(1, provider.count.get());
+
+        provider.value.set(20);
+        Thread.sleep(1100);
+        assertEquals(10, cache.get(key, provider));
+        RolapStatisticsCache.awaitTasks();
+        assertEquals(20, cache.get(key, provider));
+        assertEquals(2, provider.count.get());
+    }
+
+    /**
+     * Tests that statistics saved to disk are loaded when the schema is next
+     * loaded, and are not computed again.
+     */
+    public void testPersistence() throws Exception {
+        final File directory =
+            File.createTempFile("mondrian-statistics", "");
+        assertTrue(directory.delete());
+        propSaver.set(
+            propSaver.properties.StatisticsCacheDirectory,
+            directory.getPath());
+        try {
+            getTestContext().flushSchemaCache();
+            final List<String> key = key("persistence");
+            Connection connection = getFreshConnection();
+            try {
+                final Provider provider = new Provider(7);
+                getCache(connection).get(key, provider);
+                // Wait for the statistic, then for the save it schedules.
+                RolapStatisticsCache.awaitTasks();
+                RolapStatisticsCache.awaitTasks();
+                assertEquals(1, provider.count.get());
+            } finally {
+                connection.close();
+            }
+            final File[] files = directory.listFiles();
+            assertNotNull(files);
+            assertEquals(1, files.length);
+
+            getTestContext().flushSchemaCache();
+            connection = getFreshConnection();
+            try {
+                final Provider provider = new Provider(8);
+                assertEquals(7, getCache(connection).get(key, provider));
+                assertEquals(0, provider.count.get());
+            } finally {
+                connection.close();
+            }
+        } finally {
+            getTestContext().flushSchemaCache();
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Tests that flushing the schema discards the statistics of the database
+     * it reads from, so that they are read again.
+     */
+    public void testReleaseOnSchemaFlush() throws Exception {
+        final List<String> key = key("release");
+        Connection connection = getFreshConnection();
+        try {
+            final Provider provider = new Provider(3);
+            getCache(connection).get(key, provider);
+            RolapStatisticsCache.awaitTasks();
+            assertEquals(3, getCache(connection).get(key, provider));
+        } finally {
+            connection.close();
+        }
+
+        getTestContext().flushSchemaCache();
+        connection = getFreshConnection();
+        try {
+            final Provider provider = new Provider(4);
+            assertEquals(-1, getCache(connection).get(key, provider));
+            RolapStatisticsCache.awaitTasks();
+            assertEquals(4, getCache(connection).get(key, provider));
+            assertEquals(1, provider.count.get());
+        } finally {
+            connection.close();
+        }
+    }
+
+    private List<String> key(String name) {
+        return Arrays.asList("test", getClass().getName(), name);
+    }
+
+    private static Connection getFreshConnection() {
+        return DriverManager.getConnection(
+            TestContext.instance().getConnectionProperties().clone(), null);
+    }
+
+    private static RolapStatisticsCache getCache(Connection connection) {
+        final RolapCube cube =
+            (RolapCube) connection.getSchema().lookupCube("Sales", true);
+        return cube.getStar().getStatisticsCache();
+    }
+
+    /**
+     * Provider that returns a given value and counts how many times it is
+     * called.
+     */
+    private static class Provider implements LongSupplier {
+        final AtomicLong value;
+        final AtomicInteger count = new AtomicInteger();
+
+        Provider(long value) {
+            this.value = new AtomicLong(value);
+        }
+
+        public long getAsLong() {
+            count.incrementAndGet();
+            return value.get();
+        }
+    }
+}
+
+// End RolapStatisticsCacheTest.java
@@ -0,0 +1,292 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import org.olap4j.AllocationPolicy;
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.OlapConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test for {@link ScenarioLog}, and for the replay of persisted scenarios
+ * by {@link ScenarioImpl}.
+ */
+public class ScenarioLogTest extends FoodMartTestCase {
+    private File directory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("scenario", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        propSaver.set(
+            propSaver.properties.ScenarioLogDirectory, directory.getPath());
+    }
+
+    protected void tearDown() throws Exception {
+        delete(directory);
+        super.tearDown();
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private RolapSchema getSchema() {
+        return (RolapSchema) getTestContext().getConnection().getSchema();
+    }
+
+    private static ScenarioLog.Entry entry(double newValue) {
+        return new ScenarioLog.Entry(
+            "Sales",
+            Arrays.asList("[Measures].[Unit Sales]", "[Product].[Drink]"),
+            newValue,
+            24597d,
+            1234d,
+            AllocationPolicy.EQUAL_ALLOCATION);
+    }
+
+    private static void assertEntries(
+        List<ScenarioLog.Entry> entries,
+        double... newValues)
+    {
+        assertEquals(newValues.length, entries.size());
+        for (int i = 0; i < newValues.length; i++) {
+            final ScenarioLog.Entry entry = entries.get(i);
+            assertEquals(newValues[i], entry.newValue, 0d);
+            assertEquals("Sales", entry.cubeName);
+            assertEquals(
+                Arrays.asList("[Measures].[Unit Sales]", "[Product].[Drink]"),
+                entry.memberNames);
+            assertEquals(24597d, entry.currentValue, 0d);
+            assertEquals(1234d, entry.atomicCellCount, 0d);
+            assertEquals(
+                AllocationPolicy.EQUAL_ALLOCATION, entry.allocationPolicy);
+        }
+    }
+
+    private static void setLength(File file, long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Tests that records are read back in the order they were appended.
+     */
+    public void testAppendAndRead() {
+        final RolapSchema schema = getSchema();
+        final ScenarioLog log = ScenarioLog.forId(schema, 1000);
+        assertEntries(log.read());
+        log.append(entry(1));
+        log.append(entry(2));
+        assertEntries(ScenarioLog.forId(schema, 1000).read(), 1, 2);
+    }
+
+    /**
+     * Tests that a record which was only partly written, because the server
+     * stopped while writing it, is ignored, and is truncated before the next
+     * record is appended.
+     */
+    public void testTornFinalRecord() throws IOException {
+        final RolapSchema schema = getSchema();
+        final ScenarioLog log = ScenarioLog.forId(schema, 1001);
+        log.append(entry(1));
+        log.append(entry(2));
+        final File file = log.getFile();
+        final long validLength = file.length();
+        log.append(entry(3));
+        final long recordLength = file.length() - validLength;
+
+        // Every prefix of the last record is ignored, whether it cuts the
+        // length, the body or the checksum.
+        for (long torn = 1; torn < recordLength; torn++) {
+            setLength(file, validLength + torn);
+            assertEntries(ScenarioLog.forId(schema, 1001).read(), 1, 2);
+        }
+
+        // As after a restart: a new log appends after the valid records.
+        final ScenarioLog log2 = ScenarioLog.forId(schema, 1001);
+        log2.append(entry(4));
+        assertEquals(validLength + recordLength, file.length());
+        assertEntries(ScenarioLog.forId(schema, 1001).read(), 1, 2, 4);
+    }
+
+    /**
+     * Tests that a record whose body does not match its checksum ends the
+     * log.
+     */
+    public void testCorruptRecord() throws IOException {
+        final RolapSchema schema = getSchema();
+        final ScenarioLog log = ScenarioLog.forId(schema, 1002);
+        log.append(entry(1));
+        final long validLength = log.getFile().length();
+        log.append(entry(2));
+        log.append(entry(3));
+
+        // Flip a byte of the cube name of the second record.
+        final RandomAccessFile raf =
+            new RandomAccessFile(log.getFile(), "rw");
+        try {
+            raf.seek(validLength + 6);
+            final int b = raf.read();
+            raf.seek(validLength + 6);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+        assertEntries(ScenarioLog.forId(schema, 1002).read(), 1);
+
+        // A huge length is not believed either.
+        setLength(log.getFile(), validLength);
+        final RandomAccessFile raf2 =
+            new RandomAccessFile(log.getFile(), "rw");
+        try {
+            raf2.seek(validLength);
+            raf2.writeInt(Integer.MAX_VALUE);
+        } finally {
+            raf2.close();
+        }
+        assertEntries(ScenarioLog.forId(schema, 1002).read(), 1);
+    }
+
+    /**
+     * Tests that each catalog has its own directory of scenario logs.
+     */
+    public void testLogsArePerCatalog() {
+        final RolapSchema schema = getSchema();
+        final ScenarioLog log = ScenarioLog.forId(schema, 1003);
+        assertEquals(
+            new File(directory, schema.key.left.toString()),
+            log.getFile().getParentFile());
+        log.append(entry(1));
+        assertTrue(ScenarioLog.getPersistedIds(schema).contains(1003));
+        assertTrue(ScenarioLog.getMaxPersistedId() >= 1003);
+
+        final RolapSchema otherSchema =
+            (RolapSchema) createWritebackContext().getConnection()
+                .getSchema();
+        assertFalse(otherSchema.key.left.equals(schema.key.left));
+        assertEquals(
+            Arrays.<Integer>asList(),
+            ScenarioLog.getPersistedIds(otherSchema));
+        log.delete();
+        assertFalse(log.getFile().exists());
+    }
+
+    private static TestContext createWritebackContext() {
+        return TestContext.instance().createSubstitutingCube(
+            "Sales",
+            "<Dimension name='Scenario' foreignKey='time_id'>\n"
+            + "  <Hierarchy primaryKey='time_id' hasAll='true'>\n"
+            + "    <InlineTable alias='foo'>\n"
+            + "      <ColumnDefs>\n"
+            + "        <ColumnDef name='foo' type='Numeric'/>\n"
+            + "      </ColumnDefs>\n"
+            + "      <Rows/>\n"
+            + "    </InlineTable>\n"
+            + "    <Level name='Scenario' column='foo'/>\n"
+            + "  </Hierarchy>\n"
+            + "</Dimension>",
+            "<Measure name='Atomic Cell Count' aggregator='count'/>");
+    }
+
+    /**
+     * Tests that a scenario is replayed when its schema is loaded again, even
+     * if its log ends with a torn record; that the same scenario object is
+     * restored; and that a deleted scenario is not restored.
+     */
+    public void testReplayAfterReload() throws Exception {
+        final TestContext testContext = createWritebackContext().withScenario();
+        final OlapConnection connection = testContext.getOlap4jConnection();
+        final ScenarioImpl scenario = (ScenarioImpl) connection.getScenario();
+        final String id = scenario.getId();
+        final CellSet cellSet =
+            connection.createStatement().executeOlapQuery(
+                "select {[Measures].[Unit Sales]} on 0,\n"
+                + "{[Product].Children} on 1\n"
+                + "from [Sales]\n"
+                + "where [Scenario].[" + id + "]");
+        // Update ([Product].[Drink], [Measures].[Unit Sales])
+        // from 24,597 to 23,597.
+        final Cell cell = cellSet.getCell(Arrays.asList(0, 0));
+        cell.setValue(23597, AllocationPolicy.EQUAL_ALLOCATION);
+
+        final RolapSchema schema =
+            (RolapSchema) testContext.getConnection().getSchema();
+        final ScenarioLog log =
+            ScenarioLog.forId(schema, Integer.parseInt(id));
+        assertEquals(1, log.read().size());
+        final long validLength = log.getFile().length();
+        final RandomAccessFile raf =
+            new RandomAccessFile(log.getFile(), "rw");
+        try {
+            raf.seek(validLength);
+            raf.writeInt(100);
+            raf.writeUTF("Sal");
+        } finally {
+            raf.close();
+        }
+
+        // Load the schema again, as after a restart.
+        testContext.flushSchemaCache();
+        final TestContext testContext2 = createWritebackContext();
+        final RolapConnection connection2 =
+            (RolapConnection) testContext2.getConnection();
+        final RolapSchema schema2 = connection2.getSchema();
+        assertNotSame(schema, schema2);
+        assertSame(
+            scenario,
+            ScenarioImpl.lookupPersisted(schema2, Integer.parseInt(id)));
+        testContext2.assertQueryReturns(
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + "{[Product].[Drink]} on 1\n"
+            + "from [Sales]\n"
+            + "where [Scenario].[" + id + "]",
+            "Axis #0:\n"
+            + "{[Scenario].[" + id + "]}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Unit Sales]}\n"
+            + "Axis #2:\n"
+            + "{[Product].[Drink]}\n"
+            + "Row #0: 23,597\n");
+
+        assertTrue(connection2.deleteScenario(id));
+        assertFalse(log.getFile().exists());
+        assertNull(
+            ScenarioImpl.lookupPersisted(schema2, Integer.parseInt(id)));
+        assertFalse(connection2.deleteScenario(id));
+        testContext2.flushSchemaCache();
+    }
+}
+
+// End ScenarioLogTest.java
@@ -23,6 +23,12 @@ import mondrian.server.monitor.Monitor;
 import junit.framework.TestCase;
 import mondrian.spi.Dialect;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import javax.sql.DataSource;
+
 import static org.mockito.Mockito.*;
 
 /**
@@ -114,5 +120,64 @@ public class SqlStatementTest extends TestCase {
     assertNotNull(dialectReturn);
     assertEquals(dialect, dialectReturn);
   }
+
+  public void testStreamingSetup() throws Exception {
+    final Connection jdbcConnection = mockJdbcConnection(true);
+    final SqlStatement sqlStatement = createRunningStatement(jdbcConnection);
+    sqlStatement.setFetchSize(500);
+    sqlStatement.setManualCommit(true);
+    sqlStatement.execute();
+
+    final Statement jdbcStatement = jdbcConnection.createStatement();
+    verify(jdbcConnection).setAutoCommit(false);
+    verify(jdbcStatement).setFetchSize(500);
+
+    // Closing ends the read-only transaction and restores auto-commit
+    // before the connection goes back to the pool.
+    sqlStatement.close();
+    verify(jdbcConnection).rollback();
+    verify(jdbcConnection).setAutoCommit(true);
+    verify(jdbcConnection).close();
+  }
+
+  public void testManualCommitWithoutAutoCommit() throws Exception {
+    final Connection jdbcConnection = mockJdbcConnection(false);
+    final SqlStatement sqlStatement = createRunningStatement(jdbcConnection);
+    sqlStatement.setManualCommit(true);
+    sqlStatement.execute();
+    sqlStatement.close();
+
+    // The connection was already in a transaction that is not ours.
+    verify(jdbcConnection, never()).setAutoCommit(anyBoolean());
+    verify(jdbcConnection, never()).rollback();
+    verify(jdbcConnection.createStatement(), never()).setFetchSize(anyInt());
+  }
+
+  private Connection mockJdbcConnection(boolean autoCommit) throws Exception {
+    final ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+    when(metaData.getColumnCount()).thenReturn(0);
+    final ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getMetaData()).thenReturn(metaData);
+    final Statement jdbcStatement = mock(Statement.class);
+    when(jdbcStatement.executeQuery("sql")).thenReturn(resultSet);
+    final Connection jdbcConnection = mock(Connection.class);
+    when(jdbcConnection.getAutoCommit()).thenReturn(autoCommit);
+    when(jdbcConnection.createStatement()).thenReturn(jdbcStatement);
+    return jdbcConnection;
+  }
+
+  private SqlStatement createRunningStatement(Connection jdbcConnection)
+    throws Exception
+  {
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(jdbcConnection);
+    Execution runningExecution = spy(new Execution(statMock, 0));
+    doNothing().when(runningExecution).checkCancelOrTimeout();
+    doNothing().when(runningExecution)
+      .registerStatement(any(Locus.class), any(Statement.class));
+    return new SqlStatement(
+      dataSource, "sql", null, 0, 0,
+      new Locus(runningExecution, "component", "message"), -1, -1, null);
+  }
 }
 // End SqlStatementTest.java
@@ -0,0 +1,346 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Cube;
+import mondrian.rolap.RolapUtil;
+import mondrian.spi.Dialect;
+import mondrian.test.loader.CsvDBTestCase;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link CacheControl#refreshAppended}, which merges the rows
+ * appended to a fact table into the cells already cached.
+ *
+ * <p>Each test appends rows to a fact table of its own, and checks that the
+ * refreshed cells equal the cells read afresh after a flush.
+ *
+ * @see SegmentCacheManager#refreshAppended
+ */
+public class RefreshAppendedTest extends CsvDBTestCase {
+    private static final String QUERY =
+        "select {[Measures].[Amount], [Measures].[Row Count],\n"
+        + " [Measures].[Min Amount], [Measures].[Max Amount]} on columns,\n"
+        + " {[Region].[All Regions], [Region].[North], [Region].[South]}"
+        + " on rows\n"
+        + "from [Append]";
+
+    private static final String BEFORE =
+        "Axis #0:\n"
+        + "{}\n"
+        + "Axis #1:\n"
+        + "{[Measures].[Amount]}\n"
+        + "{[Measures].[Row Count]}\n"
+        + "{[Measures].[Min Amount]}\n"
+        + "{[Measures].[Max Amount]}\n"
+        + "Axis #2:\n"
+        + "{[Region].[All Regions]}\n"
+        + "{[Region].[North]}\n"
+        + "{[Region].[South]}\n"
+        + "Row #0: 75.00\n"
+        + "Row #0: 4\n"
+        + "Row #0: 5.00\n"
+        + "Row #0: 40.00\n"
+        + "Row #1: 15.00\n"
+        + "Row #1: 2\n"
+        + "Row #1: 5.00\n"
+        + "Row #1: 10.00\n"
+        + "Row #2: 60.00\n"
+        + "Row #2: 2\n"
+        + "Row #2: 20.00\n"
+        + "Row #2: 40.00\n";
+
+    private static final String AFTER =
+        "Axis #0:\n"
+        + "{}\n"
+        + "Axis #1:\n"
+        + "{[Measures].[Amount]}\n"
+        + "{[Measures].[Row Count]}\n"
+        + "{[Measures].[Min Amount]}\n"
+        + "{[Measures].[Max Amount]}\n"
+        + "Axis #2:\n"
+        + "{[Region].[All Regions]}\n"
+        + "{[Region].[North]}\n"
+        + "{[Region].[South]}\n"
+        + "Row #0: 127.00\n"
+        + "Row #0: 6\n"
+        + "Row #0: 2.00\n"
+        + "Row #0: 50.00\n"
+        + "Row #1: 17.00\n"
+        + "Row #1: 3\n"
+        + "Row #1: 2.00\n"
+        + "Row #1: 10.00\n"
+        + "Row #2: 110.00\n"
+        + "Row #2: 3\n"
+        + "Row #2: 20.00\n"
+        + "Row #2: 50.00\n";
+
+    /** Rows of the third load; they change every cell of {@link #QUERY}. */
+    private static final String[] LOAD_3 = {
+        "3, 1, 2.00",
+        "3, 2, 50.00",
+        "3, 2, null"
+    };
+
+    public RefreshAppendedTest() {
+        super();
+    }
+
+    public RefreshAppendedTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        // Each test recreates the tables, so it must not see the segments
+        // cached by the previous one.
+        getConnection().getCacheControl(null).flushSchemaCache();
+        propSaver.set(propSaver.properties.UseAggregates, false);
+        propSaver.set(propSaver.properties.ReadAggregates, true);
+        super.setUp();
+    }
+
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        getConnection().getCacheControl(null).flushSchemaCache();
+    }
+
+    protected String getFileName() {
+        return "RefreshAppendedTest.csv";
+    }
+
+    protected String getCubeDescription() {
+        return "<Cube name='Append'>\n"
+            + "  <Table name='append_fact'>\n"
+            + "    <AggName name='agg_c_append_fact'>\n"
+            + "      <AggFactCount column='fact_count'/>\n"
+            + "      <AggMeasure name='[Measures].[Amount]' column='amount'/>\n"
+            + "      <AggLevel name='[Region].[Region Name]'"
+            + " column='region_name'/>\n"
+            + "    </AggName>\n"
+            + "  </Table>\n"
+            + "  <Dimension name='Region' foreignKey='region_id'>\n"
+            + "    <Hierarchy hasAll='true' primaryKey='region_id'>\n"
+            + "      <Table name='append_region'/>\n"
+            + "      <Level name='Region Name' column='region_name'"
+            + " uniqueMembers='true'/>\n"
+            + "    </Hierarchy>\n"
+            + "  </Dimension>\n"
+            + "  <Dimension name='Load'>\n"
+            + "    <Hierarchy hasAll='true'>\n"
+            + "      <Level name='Load Id' column='load_id' type='Numeric'"
+            + " uniqueMembers='true'/>\n"
+            + "    </Hierarchy>\n"
+            + "  </Dimension>\n"
+            + "  <Measure name='Amount' column='amount' aggregator='sum'"
+            + " formatString='#,##0.00'/>\n"
+            + "  <Measure name='Row Count' column='amount' aggregator='count'"
+            + " formatString='#,###'/>\n"
+            + "  <Measure name='Min Amount' column='amount' aggregator='min'"
+            + " formatString='#,##0.00'/>\n"
+            + "  <Measure name='Max Amount' column='amount' aggregator='max'"
+            + " formatString='#,##0.00'/>\n"
+            + "</Cube>";
+    }
+
+    /**
+     * Tests that the rows appended after a refresh are not seen until the
+     * next refresh, which merges them into cached sum, count, min and max
+     * cells without reading the fact table again when the cells are next
+     * asked for.
+     */
+    public void testMergeSumCountMinMax() throws SQLException {
+        refresh();
+        getTestContext().assertQueryReturns(QUERY, BEFORE);
+
+        append(LOAD_3);
+        getTestContext().assertQueryReturns(QUERY, BEFORE);
+
+        refresh();
+        final List<String> sqls = new ArrayList<String>();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    sqls.add(sql);
+                }
+            });
+        try {
+            getTestContext().assertQueryReturns(QUERY, AFTER);
+        } finally {
+            RolapUtil.setHook(null);
+        }
+        for (String sql : sqls) {
+            assertFalse(sql, sql.contains("append_fact"));
+        }
+
+        // The merged cells equal those read afresh.
+        flush();
+        getTestContext().assertQueryReturns(QUERY, AFTER);
+    }
+
+    /**
+     * Tests that a refresh brings in cells of members that had no rows when
+     * the segment was loaded, and that native evaluation of NON EMPTY sees
+     * only the rows up to the last refresh, as the cells do.
+     */
+    public void testAppendedMemberAndNative() throws SQLException {
+        final String query =
+            "select {[Measures].[Amount]} on columns,\n"
+            + " NON EMPTY [Region].[Region Name].Members on rows\n"
+            + "from [Append]";
+        final String before =
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Amount]}\n"
+            + "Axis #2:\n"
+            + "{[Region].[North]}\n"
+            + "{[Region].[South]}\n"
+            + "Row #0: 15.00\n"
+            + "Row #1: 60.00\n";
+        refresh();
+        getTestContext().assertQueryReturns(query, before);
+
+        append("3, 3, 8.00");
+        getTestContext().assertQueryReturns(query, before);
+
+        refresh();
+        getTestContext().assertQueryReturns(
+            query,
+            "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Amount]}\n"
+            + "Axis #2:\n"
+            + "{[Region].[East]}\n"
+            + "{[Region].[North]}\n"
+            + "{[Region].[South]}\n"
+            + "Row #0: 8.00\n"
+            + "Row #1: 15.00\n"
+            + "Row #2: 60.00\n");
+    }
+
+    /**
+     * Tests that a flush after a refresh reads the rows appended since, and
+     * that the next refresh discards, rather than merges, the segments loaded
+     * in between, which already contain them.
+     */
+    public void testFlushAfterRefresh() throws SQLException {
+        refresh();
+        getTestContext().assertQueryReturns(QUERY, BEFORE);
+
+        append(LOAD_3);
+        flush();
+        getTestContext().assertQueryReturns(QUERY, AFTER);
+
+        refresh();
+        getTestContext().assertQueryReturns(QUERY, AFTER);
+
+        append("4, 1, 1.00");
+        refresh();
+        getTestContext().assertQueryReturns(
+            QUERY,
+            AFTER.replace("Row #0: 127.00", "Row #0: 128.00")
+                .replace("Row #0: 6", "Row #0: 7")
+                .replace("Row #0: 2.00", "Row #0: 1.00")
+                .replace("Row #1: 17.00", "Row #1: 18.00")
+                .replace("Row #1: 3", "Row #1: 4")
+                .replace("Row #1: 2.00", "Row #1: 1.00"));
+    }
+
+    /**
+     * Tests that loads that match an aggregate table still read it after a
+     * refresh. The aggregate table is not bounded by the watermark, so the
+     * next refresh discards the segments read from it.
+     */
+    public void testAggregateTableUsedAfterRefresh() throws SQLException {
+        propSaver.set(propSaver.properties.UseAggregates, true);
+        final String query =
+            "select {[Measures].[Amount]} on columns,\n"
+            + " [Region].[Region Name].Members on rows\n"
+            + "from [Append]";
+        refresh();
+        assertReadsAggregateTable(query);
+
+        append(LOAD_3);
+        refresh();
+        assertReadsAggregateTable(query);
+    }
+
+    private void assertReadsAggregateTable(String query) {
+        final List<String> sqls = new ArrayList<String>();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    sqls.add(sql);
+                }
+            });
+        try {
+            getTestContext().executeQuery(query);
+        } finally {
+            RolapUtil.setHook(null);
+        }
+        boolean found = false;
+        for (String sql : sqls) {
+            if (sql.contains("agg_c_append_fact")) {
+                found = true;
+            }
+        }
+        assertTrue(sqls.toString(), found);
+    }
+
+    private Cube getCube() {
+        return getTestContext().getConnection().getSchema()
+            .lookupCube("Append", true);
+    }
+
+    private void refresh() {
+        getTestContext().getConnection().getCacheControl(null)
+            .refreshAppended(getCube(), "append_fact", "load_id");
+    }
+
+    private void flush() {
+        final CacheControl cacheControl =
+            getTestContext().getConnection().getCacheControl(null);
+        cacheControl.flush(cacheControl.createMeasuresRegion(getCube()));
+    }
+
+    /**
+     * Appends rows to the fact table.
+     *
+     * @param rows Values of load_id, region_id and amount, comma-separated
+     */
+    private void append(String... rows) throws SQLException {
+        final Dialect dialect = getTestContext().getDialect();
+        final Connection connection = getSqlConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            for (String row : rows) {
+                statement.executeUpdate(
+                    "insert into " + dialect.quoteIdentifier("append_fact")
+                    + " values (" + row + ")");
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
+
+// End RefreshAppendedTest.java
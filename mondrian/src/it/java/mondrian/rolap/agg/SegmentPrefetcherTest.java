@@ -0,0 +1,121 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.CacheControl;
+import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapSchema;
+import mondrian.test.FoodMartTestCase;
+
+/**
+ * Unit test for {@link SegmentPrefetcher}.
+ *
+ * @see mondrian.olap.MondrianProperties#SegmentPrefetch
+ */
+public class SegmentPrefetcherTest extends FoodMartTestCase {
+    private static final String YEAR_QUERY =
+        "select {[Measures].[Unit Sales]} on 0,\n"
+        + " {[Time].[1997]} on 1\n"
+        + "from [Sales]";
+
+    private static final String QUARTER_QUERY =
+        "select {[Measures].[Unit Sales]} on 0,\n"
+        + " [Time].[1997].Children on 1\n"
+        + "from [Sales]";
+
+    public SegmentPrefetcherTest() {
+    }
+
+    public SegmentPrefetcherTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        getPrefetcher().flush(getSchema());
+    }
+
+    protected void tearDown() throws Exception {
+        getPrefetcher().flush(getSchema());
+        super.tearDown();
+    }
+
+    /**
+     * Tests that a drill-down from one query to the next is learned as a
+     * transition of the star.
+     */
+    public void testLearnDrillDown() {
+        propSaver.set(propSaver.properties.SegmentPrefetch, true);
+        final SegmentPrefetcher prefetcher = getPrefetcher();
+        execute(YEAR_QUERY);
+        assertEquals(1, prefetcher.getConnectionCount());
+        assertEquals(0, prefetcher.getStarCount());
+        execute(QUARTER_QUERY);
+        assertEquals(1, prefetcher.getConnectionCount());
+        assertEquals(1, prefetcher.getStarCount());
+    }
+
+    /**
+     * Tests that flushing the schema forgets the transitions of its stars
+     * and the last queries that read them, which would otherwise keep the
+     * schema reachable.
+     */
+    public void testFlushSchema() {
+        propSaver.set(propSaver.properties.SegmentPrefetch, true);
+        final SegmentPrefetcher prefetcher = getPrefetcher();
+        execute(YEAR_QUERY);
+        execute(QUARTER_QUERY);
+        assertEquals(1, prefetcher.getStarCount());
+
+        getTestContext().flushSchemaCache();
+        assertEquals(0, prefetcher.getStarCount());
+        assertEquals(0, prefetcher.getConnectionCount());
+    }
+
+    /**
+     * Tests that nothing is recorded while prefetching is disabled.
+     */
+    public void testDisabled() {
+        propSaver.set(propSaver.properties.SegmentPrefetch, false);
+        final SegmentPrefetcher prefetcher = getPrefetcher();
+        execute(YEAR_QUERY);
+        execute(QUARTER_QUERY);
+        assertEquals(0, prefetcher.getConnectionCount());
+        assertEquals(0, prefetcher.getStarCount());
+    }
+
+    /**
+     * Executes a query over an empty cache, so that its cells are requested
+     * and recorded.
+     */
+    private void execute(String query) {
+        final CacheControl cacheControl =
+            getConnection().getCacheControl(null);
+        cacheControl.flush(
+            cacheControl.createMeasuresRegion(
+                getConnection().getSchema().lookupCube("Sales", true)));
+        getTestContext().executeQuery(query);
+    }
+
+    private RolapSchema getSchema() {
+        return (RolapSchema) getConnection().getSchema();
+    }
+
+    private SegmentPrefetcher getPrefetcher() {
+        return ((RolapConnection) getConnection()).getServer()
+            .getAggregationManager().prefetcher;
+    }
+}
+
+// End SegmentPrefetcherTest.java
@@ -0,0 +1,282 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap.aggmatcher;
+
+import mondrian.olap.CacheControl;
+import mondrian.olap.Cube;
+import mondrian.olap.Util;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapCube;
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.RolapUtil;
+import mondrian.test.FoodMartTestCase;
+import mondrian.test.TestContext;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit test for {@link AggAdvisor}, and for building and refreshing its
+ * tables through {@link CacheControl}.
+ *
+ * <p>Pre-defined aggregate tables are not read, so that the workload falls
+ * through to the fact table, and the only aggregate tables are the ones the
+ * test builds. They are dropped when the test ends.
+ *
+ * @see mondrian.olap.MondrianProperties#AggregateAdvisor
+ */
+public class AggAdvisorTest extends FoodMartTestCase {
+    private static final String QUERY =
+        "select {[Measures].[Unit Sales]} on 0,\n"
+        + " CrossJoin([Gender].Children, [Marital Status].Children) on 1\n"
+        + "from [Sales]";
+
+    private final List<String> builtTables = new ArrayList<String>();
+
+    public AggAdvisorTest() {
+    }
+
+    public AggAdvisorTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        propSaver.set(propSaver.properties.ReadAggregates, false);
+        propSaver.set(propSaver.properties.UseAggregates, false);
+        propSaver.set(propSaver.properties.AggregateAdvisor, true);
+        getTestContext().flushSchemaCache();
+        AggAdvisor.clear(getStar());
+    }
+
+    protected void tearDown() throws Exception {
+        AggAdvisor.clear(getStar());
+        for (String table : builtTables) {
+            execute("DROP TABLE " + table);
+        }
+        builtTables.clear();
+        getTestContext().flushSchemaCache();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that each load from the fact table is recorded, and that nothing
+     * is recorded while the advisor is disabled.
+     */
+    public void testRecord() {
+        final RolapStar star = getStar();
+        executeOverEmptyCache(QUERY);
+        final Map<BitKey, Long> workload = AggAdvisor.getWorkload(star);
+        assertFalse(workload.isEmpty());
+        final BitKey bitKey = getMostFrequent(workload);
+        final long count = workload.get(bitKey);
+
+        executeOverEmptyCache(QUERY);
+        assertEquals(
+            count + 1, (long) AggAdvisor.getWorkload(star).get(bitKey));
+
+        propSaver.set(propSaver.properties.AggregateAdvisor, false);
+        executeOverEmptyCache(QUERY);
+        assertEquals(
+            count + 1, (long) AggAdvisor.getWorkload(star).get(bitKey));
+
+        AggAdvisor.clear(star);
+        assertTrue(AggAdvisor.getWorkload(star).isEmpty());
+    }
+
+    /**
+     * Tests that the recommended tables cover the workload, within the
+     * budget.
+     */
+    public void testRecommend() throws Exception {
+        final RolapStar star = getStar();
+        executeOverEmptyCache(QUERY);
+        final BitKey bitKey = getMostFrequent(AggAdvisor.getWorkload(star));
+        final List<AggAdvisor.Recommendation> recommendations =
+            awaitRecommendations(star);
+        boolean covered = false;
+        long rowCount = 0;
+        for (AggAdvisor.Recommendation recommendation : recommendations) {
+            covered |= recommendation.getLevelBitKey().isSuperSetOf(bitKey);
+            rowCount += recommendation.getRowCount();
+        }
+        assertTrue(recommendations.toString(), covered);
+        assertTrue(
+            rowCount
+            <= propSaver.properties.AggregateAdvisorMaxRows.get());
+
+        assertTrue(AggAdvisor.recommend(star, 0).isEmpty());
+    }
+
+    /**
+     * Tests that tables built through {@link CacheControl} answer the
+     * workload's queries with the same results, and that refreshing them
+     * re-populates them from the fact table.
+     */
+    public void testBuildAndRefresh() throws Exception {
+        if (!getTestContext().getDialect().allowsDdl()) {
+            return;
+        }
+        final RolapStar star = getStar();
+        final String expected =
+            TestContext.toString(executeOverEmptyCache(QUERY));
+        final BitKey bitKey = getMostFrequent(AggAdvisor.getWorkload(star));
+        awaitRecommendations(star);
+
+        final CacheControl cacheControl =
+            getConnection().getCacheControl(null);
+        final List<String> names =
+            cacheControl.buildAggregateTables(getCube());
+        builtTables.addAll(names);
+        assertFalse(names.isEmpty());
+        for (String name : names) {
+            assertTrue(name, name.startsWith("agg_c_"));
+        }
+        // Loads answered by the tables are no longer part of the workload.
+        assertNull(AggAdvisor.getWorkload(star).get(bitKey));
+
+        propSaver.set(propSaver.properties.UseAggregates, true);
+        final List<String> sqls = new ArrayList<String>();
+        final String actual =
+            TestContext.toString(executeOverEmptyCache(QUERY, sqls));
+        assertEquals(expected, actual);
+        assertTrue(sqls.toString(), readsAny(sqls, names));
+
+        // Empty the tables behind mondrian's back; the query no longer sees
+        // the fact table's rows until they are refreshed.
+        for (String name : names) {
+            execute("DELETE FROM " + name);
+        }
+        assertFalse(
+            expected.equals(
+                TestContext.toString(executeOverEmptyCache(QUERY))));
+
+        assertEquals(names, cacheControl.refreshAggregateTables(getCube()));
+        assertEquals(
+            expected, TestContext.toString(executeOverEmptyCache(QUERY)));
+    }
+
+    /**
+     * Tests that a virtual cube's tables cannot be built, because it has no
+     * fact table of its own.
+     */
+    public void testVirtualCube() {
+        final CacheControl cacheControl =
+            getConnection().getCacheControl(null);
+        final Cube cube =
+            getConnection().getSchema().lookupCube("Warehouse and Sales", true);
+        try {
+            cacheControl.buildAggregateTables(cube);
+            fail("expected error");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("is virtual"));
+        }
+    }
+
+    /**
+     * Returns the recommendations for the workload of a star, waiting for the
+     * statistics cache to compute the number of rows of the fact table.
+     */
+    private List<AggAdvisor.Recommendation> awaitRecommendations(
+        RolapStar star) throws InterruptedException
+    {
+        final long maxRows =
+            propSaver.properties.AggregateAdvisorMaxRows.get();
+        List<AggAdvisor.Recommendation> recommendations =
+            AggAdvisor.recommend(star, maxRows);
+        for (int i = 0; i < 100 && recommendations.isEmpty(); i++) {
+            Thread.sleep(100);
+            recommendations = AggAdvisor.recommend(star, maxRows);
+        }
+        assertFalse(recommendations.isEmpty());
+        return recommendations;
+    }
+
+    private static BitKey getMostFrequent(Map<BitKey, Long> workload) {
+        BitKey bitKey = null;
+        for (Map.Entry<BitKey, Long> entry : workload.entrySet()) {
+            if (bitKey == null || entry.getValue() > workload.get(bitKey)) {
+                bitKey = entry.getKey();
+            }
+        }
+        return bitKey;
+    }
+
+    private static boolean readsAny(List<String> sqls, List<String> tables) {
+        for (String sql : sqls) {
+            for (String table : tables) {
+                if (sql.contains(table)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private mondrian.olap.Result executeOverEmptyCache(String query) {
+        return executeOverEmptyCache(query, new ArrayList<String>());
+    }
+
+    /**
+     * Executes a query over an empty cell cache, so that its cells are loaded
+     * from the database, and collects the SQL it executes.
+     */
+    private mondrian.olap.Result executeOverEmptyCache(
+        String query,
+        final List<String> sqls)
+    {
+        final CacheControl cacheControl =
+            getConnection().getCacheControl(null);
+        cacheControl.flush(cacheControl.createMeasuresRegion(getCube()));
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    sqls.add(sql);
+                }
+            });
+        try {
+            return getTestContext().executeQuery(query);
+        } finally {
+            RolapUtil.setHook(null);
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        final Connection connection =
+            ((RolapConnection) getConnection()).getDataSource()
+                .getConnection();
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute(sql);
+        } finally {
+            Util.close(null, statement, connection);
+        }
+    }
+
+    private Cube getCube() {
+        return getConnection().getSchema().lookupCube("Sales", true);
+    }
+
+    private RolapStar getStar() {
+        return ((RolapCube) getCube()).getStar();
+    }
+}
+
+// End AggAdvisorTest.java
@@ -0,0 +1,221 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.server;
+
+import mondrian.olap.MemoryLimitExceededException;
+import mondrian.rolap.RolapConnection;
+import mondrian.test.FoodMartTestCase;
+
+/**
+ * Unit test for {@link MemoryGovernor}.
+ *
+ * <p>Most tests use a governor of their own, so that they do not depend on
+ * executions that other tests leave running.
+ *
+ * @see mondrian.olap.MondrianProperties#QueryMemoryLimit
+ * @see mondrian.olap.MondrianProperties#RoleMemoryLimit
+ * @see mondrian.olap.MondrianProperties#ServerMemoryLimit
+ */
+public class MemoryGovernorTest extends FoodMartTestCase {
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    public MemoryGovernorTest() {
+    }
+
+    public MemoryGovernorTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Tests that nothing is accounted for while no limit is set.
+     */
+    public void testInactiveWithoutLimits() {
+        final MemoryGovernor governor = new MemoryGovernor();
+        final Execution execution = createExecution();
+        governor.admit(execution);
+        execution.allocateMemory(MEGABYTE);
+        assertEquals(0, execution.getMemoryBytes());
+        assertEquals(0, governor.getRunningCount());
+    }
+
+    /**
+     * Tests that an execution that exceeds the query limit fails at its next
+     * check for cancellation.
+     */
+    public void testQueryLimit() {
+        propSaver.set(propSaver.properties.QueryMemoryLimit, 1);
+        final MemoryGovernor governor = new MemoryGovernor();
+        final Execution execution = createExecution();
+        governor.admit(execution);
+        try {
+            execution.allocateMemory(MEGABYTE / 2);
+            assertEquals(MEGABYTE / 2, execution.getMemoryBytes());
+            execution.checkCancelOrTimeout();
+
+            execution.allocateMemory(MEGABYTE);
+            try {
+                execution.checkCancelOrTimeout();
+                fail("expected MemoryLimitExceededException");
+            } catch (MemoryLimitExceededException e) {
+                assertTrue(
+                    e.getMessage(),
+                    e.getMessage().contains("Query memory limit exceeded"));
+            }
+        } finally {
+            governor.release(execution);
+        }
+        assertEquals(0, governor.getRunningCount());
+    }
+
+    /**
+     * Tests that the executions of a role share the role limit, and that the
+     * execution that exceeds it is the one that fails.
+     */
+    public void testRoleLimit() {
+        propSaver.set(propSaver.properties.RoleMemoryLimit, 1);
+        final MemoryGovernor governor = new MemoryGovernor();
+        final Execution execution1 = createExecution();
+        final Execution execution2 = createExecution();
+        governor.admit(execution1);
+        governor.admit(execution2);
+        try {
+            execution1.allocateMemory(MEGABYTE * 6 / 10);
+            execution1.checkCancelOrTimeout();
+            execution2.allocateMemory(MEGABYTE * 6 / 10);
+            try {
+                execution2.checkCancelOrTimeout();
+                fail("expected MemoryLimitExceededException");
+            } catch (MemoryLimitExceededException e) {
+                assertTrue(
+                    e.getMessage(),
+                    e.getMessage().contains("Role memory limit exceeded"));
+            }
+            execution1.checkCancelOrTimeout();
+        } finally {
+            governor.release(execution1);
+            governor.release(execution2);
+        }
+
+        // The memory of finished executions no longer counts.
+        final Execution execution3 = createExecution();
+        governor.admit(execution3);
+        try {
+            execution3.allocateMemory(MEGABYTE * 6 / 10);
+            execution3.checkCancelOrTimeout();
+        } finally {
+            governor.release(execution3);
+        }
+    }
+
+    /**
+     * Tests that an execution is not admitted while running executions hold
+     * more than the server limit, and that it is admitted if it is the only
+     * one.
+     */
+    public void testAdmissionTimeout() {
+        propSaver.set(propSaver.properties.ServerMemoryLimit, 1);
+        propSaver.set(propSaver.properties.MemoryAdmissionTimeout, 1);
+        final MemoryGovernor governor = new MemoryGovernor();
+        final Execution execution1 = createExecution();
+        final Execution execution2 = createExecution();
+        governor.admit(execution1);
+        try {
+            execution1.allocateMemory(2 * MEGABYTE);
+            final long start = System.currentTimeMillis();
+            try {
+                governor.admit(execution2);
+                fail("expected MemoryLimitExceededException");
+            } catch (MemoryLimitExceededException e) {
+                assertTrue(
+                    e.getMessage(),
+                    e.getMessage().contains("Query not admitted"));
+            }
+            assertTrue(System.currentTimeMillis() - start >= 900);
+            assertEquals(0, execution2.getMemoryBytes());
+        } finally {
+            governor.release(execution1);
+        }
+
+        // Nothing else is running. The projection, the peak of the previous
+        // execution, exceeds the limit, but the execution is admitted.
+        governor.admit(execution2);
+        assertEquals(1, governor.getRunningCount());
+        governor.release(execution2);
+        assertEquals(0, governor.getRunningCount());
+    }
+
+    /**
+     * Tests that an execution waiting for admission starts when a running
+     * execution releases its memory.
+     */
+    public void testAdmissionWaits() throws Exception {
+        propSaver.set(propSaver.properties.ServerMemoryLimit, 1);
+        propSaver.set(propSaver.properties.MemoryAdmissionTimeout, 30);
+        final MemoryGovernor governor = new MemoryGovernor();
+        final Execution execution1 = createExecution();
+        final Execution execution2 = createExecution();
+        governor.admit(execution1);
+        execution1.allocateMemory(2 * MEGABYTE);
+        final Thread thread = new Thread(
+            new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    governor.release(execution1);
+                }
+            });
+        thread.start();
+        try {
+            governor.admit(execution2);
+            assertEquals(1, governor.getRunningCount());
+            execution2.allocateMemory(100);
+            assertEquals(100, execution2.getMemoryBytes());
+        } finally {
+            thread.join();
+            governor.release(execution2);
+        }
+    }
+
+    /**
+     * Tests that the memory of an execution is released when the execution
+     * ends, and that nothing is charged to it afterwards.
+     */
+    public void testReleasedWhenExecutionEnds() {
+        propSaver.set(propSaver.properties.QueryMemoryLimit, 100);
+        final MemoryGovernor governor = MemoryGovernor.instance();
+        final int runningCount = governor.getRunningCount();
+        final Execution execution = createExecution();
+        governor.admit(execution);
+        execution.start();
+        execution.allocateMemory(1000);
+        assertEquals(1000, execution.getMemoryBytes());
+        assertEquals(runningCount + 1, governor.getRunningCount());
+
+        execution.end();
+        assertEquals(0, execution.getMemoryBytes());
+        assertEquals(runningCount, governor.getRunningCount());
+        execution.allocateMemory(1000);
+        assertEquals(0, execution.getMemoryBytes());
+    }
+
+    private Execution createExecution() {
+        return new Execution(
+            ((RolapConnection) getConnection()).getInternalStatement(), 0);
+    }
+}
+
+// End MemoryGovernorTest.java
@@ -0,0 +1,173 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.server.monitor;
+
+import junit.framework.TestCase;
+import mondrian.olap.MondrianProperties;
+
+import java.io.StringWriter;
+
+/**
+ * Unit test for {@link LatencyHistogram} and the Prometheus output of
+ * {@link Metrics}.
+ */
+public class LatencyHistogramTest extends TestCase {
+    private boolean latencyMetrics;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        latencyMetrics = MondrianProperties.instance().LatencyMetrics.get();
+        MondrianProperties.instance().LatencyMetrics.set(true);
+        Metrics.reset();
+    }
+
+    protected void tearDown() throws Exception {
+        Metrics.reset();
+        MondrianProperties.instance().LatencyMetrics.set(latencyMetrics);
+        super.tearDown();
+    }
+
+    /**
+     * Tests that each bucket holds its upper bound, and that the value after
+     * it falls in the next bucket.
+     */
+    public void testBucketEdges() {
+        final int count = LatencyHistogram.getBucketCount();
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(1));
+        assertEquals(1024, LatencyHistogram.getUpperBound(0));
+        assertEquals(0, LatencyHistogram.bucketOf(1024));
+        assertEquals(1, LatencyHistogram.bucketOf(1025));
+        assertEquals(1280, LatencyHistogram.getUpperBound(1));
+        for (int i = 0; i < count - 1; i++) {
+            final long upper = LatencyHistogram.getUpperBound(i);
+            assertEquals(
+                "bucket " + i, i, LatencyHistogram.bucketOf(upper));
+            assertEquals(
+                "bucket " + i, i + 1, LatencyHistogram.bucketOf(upper + 1));
+            if (i > 0) {
+                // Log-linear buckets: a bound is at most 25% above the
+                // previous one.
+                final long lower = LatencyHistogram.getUpperBound(i - 1);
+                assertTrue(upper > lower);
+                assertTrue("bucket " + i, upper * 4 <= lower * 5);
+            }
+        }
+        assertEquals(
+            Long.MAX_VALUE, LatencyHistogram.getUpperBound(count - 1));
+        assertEquals(count - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(
+            count - 1, LatencyHistogram.bucketOf((1L << 37) + 1));
+        assertEquals(count - 2, LatencyHistogram.bucketOf(1L << 37));
+    }
+
+    /**
+     * Tests counts, sum and quantiles, and that negative latencies are
+     * counted as zero.
+     */
+    public void testRecord() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        histogram.record(-5);
+        histogram.record(1500);
+        for (int i = 0; i < 98; i++) {
+            histogram.record(1000000);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(LatencyHistogram.bucketOf(1500)));
+        assertEquals(1500 + 98 * 1000000L, histogram.getSumNanos());
+        assertEquals(
+            LatencyHistogram.getUpperBound(0),
+            histogram.getValueAtQuantile(0.01));
+        assertEquals(
+            LatencyHistogram.getUpperBound(LatencyHistogram.bucketOf(1500)),
+            histogram.getValueAtQuantile(0.02));
+        final long p99 = histogram.getValueAtQuantile(0.99);
+        assertEquals(
+            LatencyHistogram.getUpperBound(
+                LatencyHistogram.bucketOf(1000000)),
+            p99);
+        assertTrue(p99 >= 1000000 && p99 <= 1250000);
+    }
+
+    /**
+     * Tests the Prometheus text exposition format: help and type lines,
+     * cumulative buckets, sum and count, and escaping of label values.
+     */
+    public void testPrometheusText() throws Exception {
+        Metrics.QUEUE_WAIT.record(2000, "te\"st\\q");
+        Metrics.QUEUE_WAIT.record(1000000, "te\"st\\q");
+        final StringWriter sw = new StringWriter();
+        Metrics.write(sw);
+        final String text = sw.toString();
+
+        final String name = "mondrian_queue_wait_seconds";
+        final String labels = "queue=\"te\\\"st\\\\q\"";
+        assertTrue(
+            text,
+            text.contains(
+                "# HELP " + name + " Time spent waiting in a queue.\n"));
+        assertTrue(text, text.contains("# TYPE " + name + " histogram\n"));
+        assertTrue(
+            text,
+            text.contains(
+                name + "_bucket{" + labels + ",le=\""
+                + seconds(LatencyHistogram.getUpperBound(0)) + "\"} 0\n"));
+        final int b1 = LatencyHistogram.bucketOf(2000);
+        assertTrue(
+            text,
+            text.contains(
+                name + "_bucket{" + labels + ",le=\""
+                + seconds(LatencyHistogram.getUpperBound(b1 - 1))
+                + "\"} 0\n"));
+        assertTrue(
+            text,
+            text.contains(
+                name + "_bucket{" + labels + ",le=\""
+                + seconds(LatencyHistogram.getUpperBound(b1)) + "\"} 1\n"));
+        final int b2 = LatencyHistogram.bucketOf(1000000);
+        assertTrue(
+            text,
+            text.contains(
+                name + "_bucket{" + labels + ",le=\""
+                + seconds(LatencyHistogram.getUpperBound(b2)) + "\"} 2\n"));
+        assertTrue(
+            text,
+            text.contains(name + "_bucket{" + labels + ",le=\"+Inf\"} 2\n"));
+        assertTrue(
+            text, text.contains(name + "_sum{" + labels + "} 0.001002\n"));
+        assertTrue(text, text.contains(name + "_count{" + labels + "} 2\n"));
+
+        // Families with no samples are not written.
+        assertFalse(text, text.contains("mondrian_sql_execute_seconds"));
+    }
+
+    /**
+     * Tests that nothing is recorded while latency metrics are disabled.
+     */
+    public void testDisabled() throws Exception {
+        MondrianProperties.instance().LatencyMetrics.set(false);
+        Metrics.QUEUE_WAIT.record(2000, "disabled");
+        final StringWriter sw = new StringWriter();
+        Metrics.write(sw);
+        assertEquals("", sw.toString());
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
+
+// End LatencyHistogramTest.java
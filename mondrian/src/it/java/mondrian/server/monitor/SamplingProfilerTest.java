@@ -0,0 +1,178 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.server.monitor;
+
+import mondrian.test.FoodMartTestCase;
+
+import java.io.StringWriter;
+import java.util.SortedMap;
+
+/**
+ * Unit test for {@link SamplingProfiler}.
+ *
+ * <p>Most tests take samples themselves, with the sampler's interval set so
+ * long that it does not sample meanwhile, and use a cube name of their own.
+ *
+ * @see mondrian.olap.MondrianProperties#ProfilerSampleInterval
+ */
+public class SamplingProfilerTest extends FoodMartTestCase {
+    private static final String CUBE = "SamplingProfilerTest";
+
+    private static final int HOUR_MILLIS = 3600 * 1000;
+
+    public SamplingProfilerTest() {
+    }
+
+    public SamplingProfilerTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        SamplingProfiler.reset();
+    }
+
+    protected void tearDown() throws Exception {
+        SamplingProfiler.reset();
+        super.tearDown();
+    }
+
+    /**
+     * Tests that each sample charges the costs counted since the previous
+     * sample to the stack that is current when it is taken, and that the
+     * self cost of an expression excludes the expressions it calls.
+     */
+    public void testAttribution() throws Exception {
+        propSaver.set(
+            propSaver.properties.ProfilerSampleInterval, HOUR_MILLIS);
+        final SamplingProfiler.ThreadProfile profile =
+            SamplingProfiler.begin(CUBE);
+        assertNotNull(profile);
+        try {
+            final SamplingProfiler.Frame frame0 =
+                SamplingProfiler.enter(profile, "Cells");
+            profile.countCell();
+            profile.countCell();
+            SamplingProfiler.sample(profile, true);
+
+            final SamplingProfiler.Frame frame1 =
+                SamplingProfiler.enter(profile, "[Measures].[Profit; Net]");
+            profile.countCell();
+            profile.countCell();
+            profile.countCell();
+            SamplingProfiler.countSql(1);
+            SamplingProfiler.sample(profile, true);
+            SamplingProfiler.sample(profile, true);
+            SamplingProfiler.exit(profile, frame1);
+
+            profile.countCell();
+            SamplingProfiler.exit(profile, frame0);
+        } finally {
+            // Charges the last cell to the stack of the query itself.
+            SamplingProfiler.end(profile);
+        }
+        assertEquals("[" + CUBE + "]", getCubeNames());
+
+        final StringWriter sw = new StringWriter();
+        SamplingProfiler.write(sw, CUBE, SamplingProfiler.Weight.SAMPLES);
+        assertEquals(
+            "Cells 1\n"
+            + "Cells;[Measures].[Profit, Net] 2\n",
+            sw.toString());
+
+        final SortedMap<String, Long> cells =
+            SamplingProfiler.getSelfCost(CUBE, SamplingProfiler.Weight.CELLS);
+        assertEquals(
+            "{(query)=1, Cells=2, [Measures].[Profit, Net]=3}",
+            cells.toString());
+
+        final SortedMap<String, Long> sql =
+            SamplingProfiler.getSelfCost(CUBE, SamplingProfiler.Weight.SQL);
+        assertEquals(1L, (long) sql.get("[Measures].[Profit, Net]"));
+        assertEquals(0L, (long) sql.get("Cells"));
+    }
+
+    /**
+     * Tests that nothing is profiled while the interval is 0.
+     */
+    public void testDisabled() {
+        propSaver.set(propSaver.properties.ProfilerSampleInterval, 0);
+        assertNull(SamplingProfiler.begin(CUBE));
+        SamplingProfiler.end(null);
+        assertEquals("[]", getCubeNames());
+
+        executeQuery(
+            "select {[Measures].[Unit Sales]} on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]");
+        assertEquals("[]", getCubeNames());
+    }
+
+    /**
+     * Tests that a query's calculated member and named set are attributed
+     * under the phase of the query that evaluates them.
+     */
+    public void testQuery() throws Exception {
+        propSaver.set(propSaver.properties.ProfilerSampleInterval, 1);
+        // Each execution must evaluate the query, not reuse its result.
+        propSaver.set(propSaver.properties.ResultCacheMaxEntries, 0);
+        final String query =
+            "with set [Families] as '[Product].[Product Family].Members'\n"
+            + " member [Measures].[Customer Sales] as\n"
+            + " 'Sum([Customers].[Name].Members, [Measures].[Unit Sales])'\n"
+            + "select {[Measures].[Customer Sales]} on 0,\n"
+            + " [Families] on 1\n"
+            + "from [Sales]";
+        String member = null;
+        for (int i = 0; i < 10 && member == null; i++) {
+            executeQuery(query);
+            final SortedMap<String, Long> samples =
+                SamplingProfiler.getSelfCost(
+                    "Sales", SamplingProfiler.Weight.SAMPLES);
+            if (samples.containsKey("[Measures].[Customer Sales]")) {
+                member = "[Measures].[Customer Sales]";
+            }
+        }
+        assertNotNull("calculated member was never sampled", member);
+
+        final StringWriter sw = new StringWriter();
+        SamplingProfiler.write(sw, "Sales", SamplingProfiler.Weight.SAMPLES);
+        boolean found = false;
+        for (String line : sw.toString().split("\n")) {
+            final String stack = line.substring(0, line.lastIndexOf(' '));
+            assertTrue(
+                line,
+                stack.equals("(query)")
+                || stack.startsWith("Slicer")
+                || stack.startsWith("Axis ")
+                || stack.startsWith("Cells"));
+            if (stack.endsWith(";" + member)) {
+                // Cells are evaluated in the cells phase, not while the
+                // axes are.
+                assertTrue(line, stack.startsWith("Cells;"));
+                found = true;
+            }
+            if (stack.endsWith(";Set Families")) {
+                assertTrue(line, stack.startsWith("Axis "));
+            }
+        }
+        assertTrue(sw.toString(), found);
+    }
+
+    private static String getCubeNames() {
+        return SamplingProfiler.getCubeNames().toString();
+    }
+}
+
+// End SamplingProfilerTest.java
@@ -116,5 +116,18 @@ public class MySqlDialectTest extends TestCase {
     }
   }
 
+  public void testStreamingFetchSize() throws Exception {
+    // Connector/J streams row by row only if the fetch size is MIN_VALUE.
+    assertEquals(Integer.MIN_VALUE, dialect.getStreamingFetchSize(500));
+    assertEquals(0, dialect.getStreamingFetchSize(0));
+    assertFalse(dialect.requiresTransactionForStreaming());
+
+    // With a server-side cursor, the fetch size is the rows per round trip.
+    when(metaData.getURL()).thenReturn(
+        "jdbc:mysql://localhost/foodmart?useCursorFetch=true");
+    final MySqlDialect cursorDialect = new MySqlDialect(connection);
+    assertEquals(500, cursorDialect.getStreamingFetchSize(500));
+  }
+
 }
 // End MySqlDialectTest.java
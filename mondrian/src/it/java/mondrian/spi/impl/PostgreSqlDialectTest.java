@@ -54,5 +54,11 @@ public class PostgreSqlDialectTest extends TestCase {
     assertEquals( "cast(table.column as text) is not null and cast(table.column as text) ~ '.*a.*'", sql );
   }
 
+  public void testStreaming() {
+    // pgjdbc honors the fetch size only outside auto-commit mode.
+    assertTrue( dialect.requiresTransactionForStreaming() );
+    assertEquals( 500, dialect.getStreamingFetchSize( 500 ) );
+  }
+
 }
 //End PostgreSqlDialectTest.java
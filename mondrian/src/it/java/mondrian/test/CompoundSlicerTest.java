@@ -12,6 +12,9 @@
 
 package mondrian.test;
 
+import mondrian.olap.CacheControl;
+import mondrian.olap.Cube;
+import mondrian.rolap.RolapCube;
 import mondrian.util.Bug;
 
 /**
@@ -1444,6 +1447,171 @@ public class CompoundSlicerTest extends FoodMartTestCase {
                 + ",[*SORTED_ROW_AXIS] ON ROWS\n"
                 + "FROM [Sales]", "", getTestContext() );
     }
+
+    /**
+     * Tests that sum, count, min and max cells in the context of a compound
+     * slicer are the same whether the slicer is pushed down to SQL or
+     * rolled up in memory.
+     *
+     * @see mondrian.olap.MondrianProperties#EnableNativeCompoundSlicer
+     */
+    public void testPushDownAdditiveMeasures() {
+        final TestContext testContext =
+            getTestContext().createSubstitutingCube(
+                "Sales",
+                null,
+                "<Measure name='Min Unit Sales' column='unit_sales'"
+                + " aggregator='min'/>\n"
+                + "<Measure name='Max Unit Sales' column='unit_sales'"
+                + " aggregator='max'/>",
+                null,
+                null);
+        assertSameWithAndWithoutPushDown(
+            testContext,
+            "select {[Measures].[Unit Sales], [Measures].[Store Sales],\n"
+            + " [Measures].[Sales Count], [Measures].[Min Unit Sales],\n"
+            + " [Measures].[Max Unit Sales]} on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]\n"
+            + "where {([Time].[1997].[Q1], [Store].[USA].[CA]),\n"
+            + " ([Time].[1997].[Q2], [Store].[USA].[OR]),\n"
+            + " ([Time].[1997].[Q2], [Store].[USA].[WA])}");
+    }
+
+    /**
+     * Tests slicers whose tuples overlap, which must be rolled up in memory:
+     * members of different levels of a hierarchy, and a repeated tuple,
+     * which is counted twice.
+     */
+    public void testPushDownOverlappingTuples() {
+        final String[] slicers = {
+            "{[Time].[1997], [Time].[1997].[Q1]}",
+            "{[Time].[1997].[Q1], [Time].[1997].[Q1], [Time].[1997].[Q2]}",
+            "{([Time].[1997].[Q1], [Gender].[F]),"
+            + " ([Time].[1997].[Q1], [Gender].[F]),"
+            + " ([Time].[1997].[Q2], [Gender].[M])}",
+            "{[Store].[USA].[CA], [Store].[USA].[CA].[Beverly Hills]}",
+        };
+        for (String slicer : slicers) {
+            assertSameWithAndWithoutPushDown(
+                getTestContext(),
+                "select {[Measures].[Unit Sales], [Measures].[Sales Count]}"
+                + " on 0,\n"
+                + " [Product].Children on 1\n"
+                + "from [Sales]\n"
+                + "where " + slicer);
+        }
+    }
+
+    /**
+     * Tests slicers with more tuples than
+     * {@link mondrian.olap.MondrianProperties#MaxConstraints}: one that
+     * rolls up to its parents, and one that does not and must be aggregated
+     * in memory.
+     */
+    public void testPushDownLongList() {
+        propSaver.set(propSaver.properties.MaxConstraints, 3);
+        assertSameWithAndWithoutPushDown(
+            getTestContext(),
+            "select {[Measures].[Unit Sales], [Measures].[Sales Count]} on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]\n"
+            + "where {[Time].[1997].[Q1].Children,"
+            + " [Time].[1997].[Q2].Children}");
+        assertSameWithAndWithoutPushDown(
+            getTestContext(),
+            "select {[Measures].[Unit Sales], [Measures].[Sales Count]} on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]\n"
+            + "where {[Time].[1997].[Q1].[1], [Time].[1997].[Q1].[3],"
+            + " [Time].[1997].[Q2].[5], [Time].[1997].[Q3].[7],"
+            + " [Time].[1997].[Q4].[11]}");
+    }
+
+    /**
+     * Tests a compound slicer with calculated members in context: a
+     * calculated measure, a calculated member of another hierarchy, and a
+     * calculated member in the slicer itself.
+     */
+    public void testPushDownCalculatedMembers() {
+        assertSameWithAndWithoutPushDown(
+            getTestContext(),
+            "with member [Measures].[Profit Ratio] as\n"
+            + " '[Measures].[Store Sales] / [Measures].[Store Cost]'\n"
+            + " member [Gender].[Both] as 'Aggregate([Gender].Children)'\n"
+            + "select {[Measures].[Unit Sales], [Measures].[Profit],\n"
+            + " [Measures].[Profit Ratio]} on 0,\n"
+            + " {[Gender].[F], [Gender].[Both]} on 1\n"
+            + "from [Sales]\n"
+            + "where {[Time].[1997].[Q1], [Time].[1997].[Q3]}");
+        assertSameWithAndWithoutPushDown(
+            getTestContext(),
+            "with member [Time].[H1] as\n"
+            + " 'Aggregate({[Time].[1997].[Q1], [Time].[1997].[Q2]})'\n"
+            + "select {[Measures].[Unit Sales], [Measures].[Sales Count]}"
+            + " on 0,\n"
+            + " [Gender].Members on 1\n"
+            + "from [Sales]\n"
+            + "where {[Time].[H1], [Time].[1997].[Q4]}");
+    }
+
+    /**
+     * Tests a compound slicer over a virtual cube, which is rolled up in
+     * memory, and over a hierarchy that is not in all of its base cubes.
+     */
+    public void testPushDownVirtualCube() {
+        assertSameWithAndWithoutPushDown(
+            getTestContext(),
+            "select {[Measures].[Unit Sales], [Measures].[Sales Count],\n"
+            + " [Measures].[Warehouse Sales], [Measures].[Units Shipped]}"
+            + " on 0,\n"
+            + " [Product].Children on 1\n"
+            + "from [Warehouse and Sales]\n"
+            + "where {[Time].[1997].[Q1], [Time].[1997].[Q2]}");
+        assertSameWithAndWithoutPushDown(
+            getTestContext(),
+            "select {[Measures].[Unit Sales],"
+            + " [Measures].[Warehouse Sales]} on 0,\n"
+            + " [Product].Children on 1\n"
+            + "from [Warehouse and Sales]\n"
+            + "where {[Gender].[F], [Gender].[M]}");
+    }
+
+    /**
+     * Runs a query with the compound slicer rolled up in memory, then
+     * pushed down to SQL, first over an empty cache and then over the cells
+     * cached by the previous run, and checks that the results are the same.
+     */
+    private void assertSameWithAndWithoutPushDown(
+        TestContext testContext,
+        String query)
+    {
+        propSaver.set(propSaver.properties.EnableNativeCompoundSlicer, false);
+        flushCells(testContext);
+        final String expected =
+            TestContext.toString(testContext.executeQuery(query));
+
+        propSaver.set(propSaver.properties.EnableNativeCompoundSlicer, true);
+        flushCells(testContext);
+        assertEquals(
+            query,
+            expected,
+            TestContext.toString(testContext.executeQuery(query)));
+        assertEquals(
+            query,
+            expected,
+            TestContext.toString(testContext.executeQuery(query)));
+    }
+
+    private static void flushCells(TestContext testContext) {
+        final CacheControl cacheControl =
+            testContext.getConnection().getCacheControl(null);
+        for (Cube cube : testContext.getConnection().getSchema().getCubes()) {
+            if (!((RolapCube) cube).isVirtual()) {
+                cacheControl.flush(cacheControl.createMeasuresRegion(cube));
+            }
+        }
+    }
 }
 
 // End CompoundSlicerTest.java
@@ -2073,6 +2073,58 @@ public class DrillThroughTest extends FoodMartTestCase {
             }
         }
     }
+
+    /**
+     * Tests that a drill-through returns the same rows whether they are
+     * streamed from the database or read into memory first.
+     */
+    public void testDrillThroughStreaming() throws SQLException {
+        final String[] queries = {
+            "DRILLTHROUGH\n"
+            + "SELECT FROM [Sales]\n"
+            + "WHERE ([Time].[1997].[Q1].[1], [Product].[Drink].[Beverages])",
+            "DRILLTHROUGH MAXROWS 10 FIRSTROWSET 3\n"
+            + "SELECT FROM [Sales]\n"
+            + "WHERE ([Time].[1997].[Q1].[1], [Product].[Drink].[Beverages])",
+            "DRILLTHROUGH\n"
+            + "SELECT FROM [Sales]\n"
+            + "WHERE ([Time].[1997].[Q1].[1], [Product].[Drink].[Beverages])\n"
+            + "RETURN [Gender].[Gender], [Measures].[Unit Sales]",
+        };
+        for (String query : queries) {
+            propSaver.set(propSaver.properties.DrillThroughStreaming, false);
+            final String expected =
+                toString(getTestContext().executeStatement(query));
+            propSaver.set(propSaver.properties.DrillThroughStreaming, true);
+            assertEquals(
+                query,
+                expected,
+                toString(getTestContext().executeStatement(query)));
+        }
+    }
+
+    /**
+     * Reads all rows of a result set, and closes it.
+     */
+    private static String toString(ResultSet resultSet) throws SQLException {
+        try {
+            final StringBuilder buf = new StringBuilder();
+            final ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                buf.append(metaData.getColumnLabel(i)).append('|');
+            }
+            buf.append('\n');
+            while (resultSet.next()) {
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    buf.append(resultSet.getObject(i)).append('|');
+                }
+                buf.append('\n');
+            }
+            return buf.toString();
+        } finally {
+            resultSet.close();
+        }
+    }
 }
 
 // End DrillThroughTest.java
@@ -13,10 +13,12 @@
 package mondrian.test;
 
 import mondrian.olap.*;
+import mondrian.rolap.RolapUtil;
 import mondrian.util.Bug;
 
 import junit.framework.Assert;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -1469,6 +1471,262 @@ public class ParentChildHierarchyTest extends FoodMartTestCase {
                 .getAxes()[1].getPositions().get(2).iterator().next()
                     .getParentMember());
     }
+
+    /**
+     * Returns a TestContext whose cube "HR4C" has an [Employees] parent-child
+     * hierarchy, with or without a closure table. The context does not use
+     * the schema pool, so each call returns a context with an empty member
+     * cache.
+     *
+     * @param closure Whether the level has a closure table
+     * @param roleDefs Role definitions, or null
+     * @param role Role to use, or null
+     */
+    private TestContext getFreshHr4cTestContext(
+        boolean closure,
+        String roleDefs,
+        String role)
+    {
+        final String cube =
+            "<Cube name=\"HR4C\">\n"
+            + "  <Table name=\"salary\"/>\n"
+            + "  <Dimension name=\"Employees\" foreignKey=\"employee_id\">\n"
+            + "    <Hierarchy hasAll=\"true\" allMemberName=\"All\"\n"
+            + "        primaryKey=\"employee_id\">\n"
+            + "      <Table name=\"employee\"/>\n"
+            + "      <Level name=\"Employee Id\" type=\"Numeric\""
+            + " uniqueMembers=\"true\"\n"
+            + "          column=\"employee_id\""
+            + " parentColumn=\"supervisor_id\"\n"
+            + "          nameColumn=\"full_name\" nullParentValue=\"0\">\n"
+            + (closure
+                ? "        <Closure parentColumn=\"supervisor_id\""
+                  + " childColumn=\"employee_id\">\n"
+                  + "          <Table name=\"employee_closure\"/>\n"
+                  + "        </Closure>\n"
+                : "")
+            + "      </Level>\n"
+            + "    </Hierarchy>\n"
+            + "  </Dimension>\n"
+            + "  <Measure name=\"Count\" column=\"employee_id\""
+            + " aggregator=\"count\" />\n"
+            + "</Cube>\n";
+        TestContext testContext =
+            TestContext.instance().create(
+                null, cube, null, null, null, roleDefs);
+        if (role != null) {
+            testContext = testContext.withRole(role);
+        }
+        return testContext.withSchemaPool(false);
+    }
+
+    /**
+     * Executes a query and returns the SQL statements that read members of
+     * the [Employees] hierarchy.
+     */
+    private List<String> executeAndCaptureMemberSql(
+        TestContext testContext,
+        String mdx)
+    {
+        // Load the schema first; only the query's statements are wanted.
+        testContext.getConnection();
+        final List<String> sqls = new ArrayList<String>();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    if (sql.contains("supervisor_id")
+                        && !sql.contains("count("))
+                    {
+                        sqls.add(sql);
+                    }
+                }
+            });
+        try {
+            testContext.executeQuery(mdx);
+        } finally {
+            RolapUtil.setHook(null);
+        }
+        return sqls;
+    }
+
+    /**
+     * Tests that Descendants() over a parent-child hierarchy reads the
+     * children of a whole generation in one statement, and the whole
+     * subtree in one statement if the level has a closure table; and that
+     * the results are the same with and without a closure table.
+     */
+    public void testDescendantsStatementCount() {
+        final String mdx =
+            "select {} on 0,\n"
+            + " Descendants([Employees].[Sheri Nowmer].[Derrick Whelply],,"
+            + " LEAVES) on 1\n"
+            + "from [HR4C]";
+        final TestContext closureContext =
+            getFreshHr4cTestContext(true, null, null);
+        final List<String> closureSqls =
+            executeAndCaptureMemberSql(closureContext, mdx);
+        final TestContext noClosureContext =
+            getFreshHr4cTestContext(false, null, null);
+        final List<String> noClosureSqls =
+            executeAndCaptureMemberSql(noClosureContext, mdx);
+
+        // One statement for the children of [Derrick Whelply], one for the
+        // rest of the subtree.
+        assertTrue(closureSqls.toString(), closureSqls.size() <= 3);
+        // One statement per generation. There are several hundred members in
+        // the subtree.
+        assertTrue(noClosureSqls.toString(), noClosureSqls.size() <= 10);
+        assertTrue(
+            closureSqls + "\n" + noClosureSqls,
+            closureSqls.size() < noClosureSqls.size());
+
+        assertEquals(
+            TestContext.toString(closureContext.executeQuery(mdx)),
+            TestContext.toString(noClosureContext.executeQuery(mdx)));
+    }
+
+    /**
+     * Tests that children read a generation at a time, or a subtree at a
+     * time, are in the same order as children read one parent at a time.
+     */
+    public void testBatchedChildrenOrder() {
+        final String descendants =
+            "select {} on 0,\n"
+            + " Descendants([Employees].[Sheri Nowmer], 4, SELF_AND_BEFORE)"
+            + " on 1\n"
+            + "from [HR4C]";
+        final String generate =
+            "select {} on 0,\n"
+            + " Generate(\n"
+            + "   Generate([Employees].[Sheri Nowmer].Children,\n"
+            + "     [Employees].CurrentMember.Children),\n"
+            + "   [Employees].CurrentMember.Children) on 1\n"
+            + "from [HR4C]";
+        for (boolean closure : new boolean[] {true, false}) {
+            // Generate reads the children of each member in turn.
+            final String expected =
+                TestContext.toString(
+                    getFreshHr4cTestContext(closure, null, null)
+                        .executeQuery(generate));
+
+            // Descendants reads them all at once, and Generate then finds
+            // them in the cache.
+            final TestContext testContext =
+                getFreshHr4cTestContext(closure, null, null);
+            testContext.executeQuery(descendants);
+            final List<String> sqls =
+                executeAndCaptureMemberSql(testContext, generate);
+            assertEquals(sqls.toString(), 0, sqls.size());
+            assertEquals(
+                expected,
+                TestContext.toString(testContext.executeQuery(generate)));
+        }
+    }
+
+    /**
+     * Tests that reading a subtree through the closure table caches the
+     * children of every member of the subtree, with an empty list for each
+     * leaf.
+     */
+    public void testClosureSubtreeCachesLeaves() {
+        final TestContext testContext =
+            getFreshHr4cTestContext(true, null, null);
+        final Result result =
+            testContext.executeQuery(
+                "select {} on 0,\n"
+                + " Descendants([Employees].[Sheri Nowmer].[Derrick Whelply],,"
+                + " LEAVES) on 1\n"
+                + "from [HR4C]");
+        final Member leaf =
+            result.getAxes()[1].getPositions().get(0).get(0);
+        final SchemaReader schemaReader =
+            testContext.getConnection().getSchema().lookupCube("HR4C", true)
+                .getSchemaReader(null).withLocus();
+
+        final List<String> sqls = new ArrayList<String>();
+        RolapUtil.setHook(
+            new RolapUtil.ExecuteQueryHook() {
+                public void onExecuteQuery(String sql) {
+                    sqls.add(sql);
+                }
+            });
+        try {
+            assertEquals(0, schemaReader.getMemberChildren(leaf).size());
+            assertTrue(
+                schemaReader.getMemberChildren(leaf.getParentMember())
+                    .contains(leaf));
+            assertFalse(schemaReader.isDrillable(leaf));
+        } finally {
+            RolapUtil.setHook(null);
+        }
+        assertEquals(sqls.toString(), 0, sqls.size());
+    }
+
+    /**
+     * Tests that batched reads of children respect a role that hides part of
+     * a parent-child hierarchy.
+     */
+    public void testBatchedChildrenWithRole() {
+        final String roleDefs =
+            "<Role name=\"Role1\">\n"
+            + "  <SchemaGrant access=\"none\">\n"
+            + "    <CubeGrant cube=\"HR4C\" access=\"all\">\n"
+            + "      <HierarchyGrant hierarchy=\"[Employees]\""
+            + " access=\"custom\" rollupPolicy=\"partial\">\n"
+            + "        <MemberGrant member=\"[Employees].[Sheri Nowmer]\""
+            + " access=\"all\"/>\n"
+            + "        <MemberGrant member=\"[Employees].[Sheri Nowmer]."
+            + "[Derrick Whelply].[Beverly Baker]\" access=\"none\"/>\n"
+            + "      </HierarchyGrant>\n"
+            + "    </CubeGrant>\n"
+            + "  </SchemaGrant>\n"
+            + "</Role>";
+        final String mdx =
+            "select {[Measures].[Count]} on 0,\n"
+            + " Descendants([Employees].[Sheri Nowmer].[Derrick Whelply], 3,"
+            + " SELF_AND_BEFORE) on 1\n"
+            + "from [HR4C]";
+        final String closureResult =
+            TestContext.toString(
+                getFreshHr4cTestContext(true, roleDefs, "Role1")
+                    .executeQuery(mdx));
+        final String noClosureResult =
+            TestContext.toString(
+                getFreshHr4cTestContext(false, roleDefs, "Role1")
+                    .executeQuery(mdx));
+        assertEquals(closureResult, noClosureResult);
+        assertFalse(closureResult, closureResult.contains("[Beverly Baker]"));
+        assertTrue(closureResult, closureResult.contains("[Laurie Borges]"));
+    }
+
+    /**
+     * Tests that the children of more members than
+     * {@link MondrianProperties#MaxConstraints} are read in several
+     * statements, with the same results.
+     */
+    public void testBatchedChildrenOverMaxConstraints() {
+        final String mdx =
+            "select {[Measures].[Count]} on 0,\n"
+            + " Descendants([Employees].[Sheri Nowmer], 4, SELF_AND_BEFORE)"
+            + " on 1\n"
+            + "from [HR4C]";
+        for (boolean closure : new boolean[] {true, false}) {
+            final String expected =
+                TestContext.toString(
+                    getFreshHr4cTestContext(closure, null, null)
+                        .executeQuery(mdx));
+            propSaver.set(propSaver.properties.MaxConstraints, 2);
+            try {
+                assertEquals(
+                    expected,
+                    TestContext.toString(
+                        getFreshHr4cTestContext(closure, null, null)
+                            .executeQuery(mdx)));
+            } finally {
+                propSaver.reset();
+            }
+        }
+    }
 }
 
 // End ParentChildHierarchyTest.java
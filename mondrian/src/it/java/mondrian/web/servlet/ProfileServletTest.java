@@ -0,0 +1,103 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.web.servlet;
+
+import junit.framework.TestCase;
+import mondrian.olap.MondrianProperties;
+import mondrian.server.monitor.SamplingProfiler;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ProfileServlet}.
+ */
+public class ProfileServletTest extends TestCase {
+    private static final String CUBE = "ProfileServletTest";
+
+    private int sampleInterval;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        sampleInterval =
+            MondrianProperties.instance().ProfilerSampleInterval.get();
+        // Long enough that the sampler does not sample the test's stack.
+        MondrianProperties.instance().ProfilerSampleInterval.set(3600 * 1000);
+        SamplingProfiler.reset();
+        final SamplingProfiler.ThreadProfile profile =
+            SamplingProfiler.begin(CUBE);
+        final SamplingProfiler.Frame previous =
+            SamplingProfiler.enter(profile, "Cells");
+        profile.countCell();
+        SamplingProfiler.exit(profile, previous);
+        SamplingProfiler.end(profile);
+    }
+
+    protected void tearDown() throws Exception {
+        SamplingProfiler.reset();
+        MondrianProperties.instance().ProfilerSampleInterval.set(
+            sampleInterval);
+        super.tearDown();
+    }
+
+    public void testCubeNames() throws Exception {
+        assertEquals(CUBE + "\n", get(null, null));
+    }
+
+    /**
+     * Tests that the servlet writes the collapsed stacks of a cube, weighted
+     * as requested.
+     */
+    public void testStacks() throws Exception {
+        final StringWriter expected = new StringWriter();
+        SamplingProfiler.write(
+            expected, CUBE, SamplingProfiler.Weight.CELLS);
+        assertEquals("(query) 1\n", expected.toString());
+        assertEquals(expected.toString(), get(CUBE, "cells"));
+        assertEquals("", get(CUBE, "sql"));
+        assertEquals("", get("Unknown", null));
+    }
+
+    public void testUnknownWeight() throws Exception {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("cube")).thenReturn(CUBE);
+        when(request.getParameter("weight")).thenReturn("bytes");
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        new ProfileServlet().doGet(request, response);
+        verify(response).sendError(
+            HttpServletResponse.SC_BAD_REQUEST, "Unknown weight 'bytes'");
+        verify(response, never()).getWriter();
+    }
+
+    private static String get(String cube, String weight) throws Exception {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("cube")).thenReturn(cube);
+        when(request.getParameter("weight")).thenReturn(weight);
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        final StringWriter sw = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(sw));
+        new ProfileServlet().doGet(request, response);
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        return sw.toString();
+    }
+}
+
+// End ProfileServletTest.java
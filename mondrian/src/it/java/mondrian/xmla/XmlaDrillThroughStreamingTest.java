@@ -0,0 +1,107 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.xmla;
+
+import mondrian.test.FoodMartTestCase;
+import mondrian.xmla.impl.DefaultSaxWriter;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapStatement;
+
+import java.io.StringWriter;
+import java.sql.ResultSet;
+
+/**
+ * Tests that the XMLA response of a drill-through is the same whether its
+ * rows are streamed ({@link XmlaHandler.StreamingTabularRowSet}) or read into
+ * memory first ({@link XmlaHandler.TabularRowSet}).
+ *
+ * @see mondrian.olap.MondrianProperties#DrillThroughStreaming
+ */
+public class XmlaDrillThroughStreamingTest extends FoodMartTestCase {
+    private static final String QUERY =
+        "DRILLTHROUGH MAXROWS 50\n"
+        + "SELECT FROM [Sales]\n"
+        + "WHERE ([Time].[1997].[Q1].[1], [Product].[Drink].[Beverages])";
+
+    public XmlaDrillThroughStreamingTest() {
+    }
+
+    public XmlaDrillThroughStreamingTest(String name) {
+        super(name);
+    }
+
+    public void testSameRows() throws Exception {
+        checkSameRows(-1);
+    }
+
+    public void testSameRowsWithTotalCount() throws Exception {
+        checkSameRows(1234);
+    }
+
+    private void checkSameRows(int totalCount) throws Exception {
+        propSaver.set(propSaver.properties.DrillThroughStreaming, false);
+        final String expected;
+        final OlapConnection connection =
+            getTestContext().getOlap4jConnection();
+        try {
+            final ResultSet resultSet =
+                connection.createStatement().executeQuery(QUERY);
+            try {
+                expected =
+                    unparse(new XmlaHandler.TabularRowSet(
+                        resultSet, totalCount));
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            connection.close();
+        }
+        assertTrue(expected, expected.contains("<row>"));
+
+        propSaver.set(propSaver.properties.DrillThroughStreaming, true);
+        final OlapConnection connection2 =
+            getTestContext().getOlap4jConnection();
+        final OlapStatement statement = connection2.createStatement();
+        final XmlaHandler.StreamingTabularRowSet rowSet =
+            new XmlaHandler.StreamingTabularRowSet(
+                connection2,
+                statement,
+                statement.executeQuery(QUERY),
+                totalCount);
+        try {
+            assertEquals(expected, unparse(rowSet));
+        } finally {
+            // Closes the result set, statement and connection.
+            rowSet.close();
+        }
+        assertTrue(connection2.isClosed());
+    }
+
+    private static String unparse(XmlaHandler.TabularRowSet rowSet)
+        throws Exception
+    {
+        final StringWriter sw = new StringWriter();
+        final SaxWriter writer = new DefaultSaxWriter(sw);
+        writer.startDocument();
+        writer.startElement("root");
+        rowSet.unparse(writer);
+        writer.endElement();
+        writer.endDocument();
+        writer.flush();
+        return sw.toString();
+    }
+}
+
+// End XmlaDrillThroughStreamingTest.java
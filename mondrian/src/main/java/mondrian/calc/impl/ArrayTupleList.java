@@ -21,6 +21,7 @@ import mondrian.olap.Member;
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 import mondrian.resource.MondrianResource;
+import mondrian.server.MemoryGovernor;
 
 import java.util.AbstractList;
 import java.util.Arrays;
@@ -283,6 +284,7 @@ public class ArrayTupleList extends AbstractEndToEndTupleList {
       newCapacity = Math.min( newCapacity + ( arity - rem ), maxMembers );
 
       objectData = Util.copyOf( objectData, newCapacity );
+      MemoryGovernor.allocate( (long) ( newCapacity - oldCapacity ) * MemoryGovernor.REFERENCE_BYTES );
     }
   }
 
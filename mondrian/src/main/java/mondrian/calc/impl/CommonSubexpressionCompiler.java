@@ -0,0 +1,206 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.calc.impl;
+
+import mondrian.calc.Calc;
+import mondrian.calc.ExpCompiler;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.*;
+import mondrian.olap.fun.BuiltinFunTable;
+import mondrian.olap.type.ScalarType;
+import mondrian.olap.type.SetType;
+
+import java.util.*;
+
+/**
+ * Compiler that caches the results of aggregate expressions which are
+ * repeated within a query, or which do not depend on the query's axes, as if
+ * they had been wrapped in the <code>Cache</code> function.
+ *
+ * <p>A candidate is a call to a built-in function that has a set argument
+ * and a scalar result, such as <code>Sum</code>, <code>Aggregate</code> or
+ * <code>Count</code>. Before the query is compiled, an {@link Analysis}
+ * counts the candidates, by their MDX text, in the query's formulas, axes
+ * and slicer. When the compiler then compiles a candidate, it wraps the
+ * calc in a {@link CacheCalc} if</p>
+ *
+ * <ul>
+ * <li>the candidate occurs more than once in the query; all occurrences
+ *     share one {@link ExpCacheDescriptor}, and therefore one entry in the
+ *     expression result cache for each combination of the members of the
+ *     hierarchies the expression depends upon; or</li>
+ * <li>the candidate does not depend on any hierarchy used on an axis, so
+ *     it has the same value for every cell of the result and is computed
+ *     once per slicer context.</li>
+ * </ul>
+ *
+ * <p>Calculated members defined in the schema are compiled by this
+ * compiler too, but their expressions are not counted; they are cached
+ * only if they do not depend on the axes.</p>
+ *
+ * @see MondrianProperties#EnableCommonSubexpressionCache
+ */
+public class CommonSubexpressionCompiler extends DelegatingExpCompiler {
+    private final Analysis analysis;
+
+    /**
+     * Creates a CommonSubexpressionCompiler.
+     *
+     * @param parent Compiler to which to delegate
+     * @param analysis Analysis of the query being compiled
+     */
+    public CommonSubexpressionCompiler(ExpCompiler parent, Analysis analysis) {
+        super(parent);
+        this.analysis = analysis;
+    }
+
+    protected Calc afterCompile(Exp exp, Calc calc, boolean mutable) {
+        calc = super.afterCompile(exp, calc, mutable);
+        if (calc instanceof CacheCalc || !isCandidate(exp)) {
+            return calc;
+        }
+        final String key = Util.unparse(exp);
+        final ExpCacheDescriptor descriptor;
+        if (analysis.getCount(key) > 1) {
+            descriptor = analysis.share(key, exp, calc, getEvaluator());
+        } else if (!dependsOnAny(calc, analysis.axisHierarchies)) {
+            descriptor = new ExpCacheDescriptor(exp, calc, getEvaluator());
+        } else {
+            return calc;
+        }
+        return new CacheCalc(exp, descriptor);
+    }
+
+    private static boolean dependsOnAny(
+        Calc calc,
+        List<Hierarchy> hierarchies)
+    {
+        for (Hierarchy hierarchy : hierarchies) {
+            if (calc.dependsOn(hierarchy)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether an expression is a call to a built-in function with a
+     * set argument and a scalar result.
+     */
+    static boolean isCandidate(Exp exp) {
+        if (!(exp instanceof ResolvedFunCall)
+            || !(exp.getType() instanceof ScalarType))
+        {
+            return false;
+        }
+        final ResolvedFunCall call = (ResolvedFunCall) exp;
+        if (call.getFunName().equalsIgnoreCase("Cache")) {
+            return false;
+        }
+        boolean hasSetArg = false;
+        for (Exp arg : call.getArgs()) {
+            if (arg.getType() instanceof SetType) {
+                hasSetArg = true;
+                break;
+            }
+        }
+        // User-defined functions may not return the same result every time
+        // they are called.
+        return hasSetArg
+            && !BuiltinFunTable.instance().getResolvers(
+                call.getFunName(), call.getSyntax()).isEmpty();
+    }
+
+    /**
+     * Occurrences of candidate expressions in a query, and the cache
+     * descriptors shared by repeated ones.
+     */
+    public static class Analysis {
+        private final Map<String, Integer> counts =
+            new HashMap<String, Integer>();
+        private final Map<String, ExpCacheDescriptor> descriptors =
+            new HashMap<String, ExpCacheDescriptor>();
+        private final List<Hierarchy> axisHierarchies;
+
+        /**
+         * Analyzes a resolved query.
+         *
+         * @param formulas Formulas (WITH MEMBER and WITH SET clauses)
+         * @param axes Axes
+         * @param slicerAxis Slicer axis, or null
+         * @param axisHierarchies Hierarchies used on the axes
+         */
+        public Analysis(
+            Formula[] formulas,
+            QueryAxis[] axes,
+            QueryAxis slicerAxis,
+            List<Hierarchy> axisHierarchies)
+        {
+            this.axisHierarchies = axisHierarchies;
+            if (formulas != null) {
+                for (Formula formula : formulas) {
+                    count(formula.getExpression());
+                }
+            }
+            if (axes != null) {
+                for (QueryAxis axis : axes) {
+                    count(axis.getSet());
+                }
+            }
+            if (slicerAxis != null) {
+                count(slicerAxis.getSet());
+            }
+        }
+
+        private void count(Exp exp) {
+            if (exp == null) {
+                return;
+            }
+            if (isCandidate(exp)) {
+                final String key = Util.unparse(exp);
+                final Integer count = counts.get(key);
+                counts.put(key, count == null ? 1 : count + 1);
+            }
+            if (exp instanceof ResolvedFunCall) {
+                for (Exp arg : ((ResolvedFunCall) exp).getArgs()) {
+                    count(arg);
+                }
+            }
+        }
+
+        int getCount(String key) {
+            final Integer count = counts.get(key);
+            return count == null ? 0 : count;
+        }
+
+        /**
+         * Returns the descriptor shared by all occurrences of a repeated
+         * expression, creating it from the first occurrence compiled.
+         */
+        synchronized ExpCacheDescriptor share(
+            String key,
+            Exp exp,
+            Calc calc,
+            Evaluator evaluator)
+        {
+            ExpCacheDescriptor descriptor = descriptors.get(key);
+            if (descriptor == null) {
+                descriptor = new ExpCacheDescriptor(exp, calc, evaluator);
+                descriptors.put(key, descriptor);
+            }
+            return descriptor;
+        }
+    }
+}
+
+// End CommonSubexpressionCompiler.java
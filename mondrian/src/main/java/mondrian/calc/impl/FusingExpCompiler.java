@@ -0,0 +1,517 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.calc.impl;
+
+import mondrian.calc.*;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.*;
+import mondrian.olap.fun.FunUtil;
+import mondrian.olap.type.BooleanType;
+import mondrian.olap.type.NumericType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expression compiler that fuses trees of numeric operators into a single
+ * calc.
+ *
+ * <p>An expression such as
+ * <code>([Measures].[Store Sales] - [Measures].[Store Cost]) /
+ * [Measures].[Store Sales]</code> is normally compiled into one
+ * {@link AbstractDoubleCalc} per operator, each calling its children
+ * through the {@link DoubleCalc} interface. This compiler compiles the
+ * operators of such a tree into one chain of {@link MethodHandle}s working
+ * on primitive doubles (with {@link FunUtil#DoubleNull} as the null flag)
+ * and booleans, which the JVM can compile as a single unit. Operands that
+ * are not operators, such as measures, tuples, and set, member or string
+ * functions, are compiled as usual and become the leaves of the chain.</p>
+ *
+ * <p>The operators fused are the arithmetic operators <code>+</code>,
+ * <code>-</code>, <code>*</code>, <code>/</code> and unary <code>-</code>;
+ * numeric comparisons; <code>AND</code>, <code>OR</code> and
+ * <code>NOT</code>; and, inside another operator, numeric
+ * <code>IIf</code>. They have the same semantics, including the handling of
+ * nulls, as the built-in functions.</p>
+ *
+ * <p>To use this compiler, set
+ * {@link MondrianProperties#ExpCompilerClass} to
+ * <code>mondrian.calc.impl.FusingExpCompiler</code>.</p>
+ */
+public class FusingExpCompiler extends BetterExpCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType BINARY_DOUBLE =
+        MethodType.methodType(double.class, double.class, double.class);
+    private static final MethodType COMPARE_DOUBLE =
+        MethodType.methodType(boolean.class, double.class, double.class);
+
+    private static final MethodHandle EVALUATE_DOUBLE =
+        findVirtual(DoubleCalc.class, "evaluateDouble", double.class);
+    private static final MethodHandle EVALUATE_BOOLEAN =
+        findVirtual(BooleanCalc.class, "evaluateBoolean", boolean.class);
+    private static final MethodHandle IS_EVAL_AXES;
+    private static final MethodHandle PLUS = findStatic("plus", BINARY_DOUBLE);
+    private static final MethodHandle MINUS =
+        findStatic("minus", BINARY_DOUBLE);
+    private static final MethodHandle TIMES =
+        findStatic("times", BINARY_DOUBLE);
+    private static final MethodHandle DIVIDE =
+        findStatic("divide", BINARY_DOUBLE);
+    private static final MethodHandle DIVIDE_NULL =
+        findStatic("divideNull", BINARY_DOUBLE);
+    private static final MethodHandle NEGATE =
+        findStatic(
+            "negate", MethodType.methodType(double.class, double.class));
+    private static final MethodHandle NOT =
+        findStatic(
+            "not", MethodType.methodType(boolean.class, boolean.class));
+    private static final MethodHandle EQ = findStatic("eq", COMPARE_DOUBLE);
+    private static final MethodHandle NE = findStatic("ne", COMPARE_DOUBLE);
+    private static final MethodHandle LT = findStatic("lt", COMPARE_DOUBLE);
+    private static final MethodHandle LE = findStatic("le", COMPARE_DOUBLE);
+    private static final MethodHandle GT = findStatic("gt", COMPARE_DOUBLE);
+    private static final MethodHandle GE = findStatic("ge", COMPARE_DOUBLE);
+
+    static {
+        try {
+            IS_EVAL_AXES =
+                LOOKUP.findVirtual(
+                    Evaluator.class,
+                    "isEvalAxes",
+                    MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public FusingExpCompiler(Evaluator evaluator, Validator validator) {
+        super(evaluator, validator);
+    }
+
+    public FusingExpCompiler(
+        Evaluator evaluator,
+        Validator validator,
+        List<ResultStyle> resultStyles)
+    {
+        super(evaluator, validator, resultStyles);
+    }
+
+    public Calc compile(Exp exp) {
+        // A single operator has nothing to fuse with.
+        if (countOperators(exp, false) < 2) {
+            return super.compile(exp);
+        }
+        final List<Calc> leaves = new ArrayList<Calc>();
+        if (isNumericOperator(exp, false)) {
+            final MethodHandle handle = fuseDouble(exp, leaves);
+            return new FusedDoubleCalc(
+                exp, leaves.toArray(new Calc[leaves.size()]), handle);
+        } else {
+            final MethodHandle handle = fuseBoolean(exp, leaves);
+            return new FusedBooleanCalc(
+                exp, leaves.toArray(new Calc[leaves.size()]), handle);
+        }
+    }
+
+    /**
+     * Returns the number of operators that would be fused, starting at an
+     * expression, or 0 if the expression is not a fusable operator.
+     */
+    private static int countOperators(Exp exp, boolean nested) {
+        if (!isNumericOperator(exp, nested) && !isBooleanOperator(exp)) {
+            return 0;
+        }
+        int count = 1;
+        for (Exp arg : ((ResolvedFunCall) exp).getArgs()) {
+            count += countOperators(arg, true);
+        }
+        return count;
+    }
+
+    /**
+     * Returns whether an expression is a numeric operator that can be
+     * fused. Numeric <code>IIf</code> returns its operand's value unchanged,
+     * not necessarily a double, so it is only fused inside another
+     * operator.
+     */
+    private static boolean isNumericOperator(Exp exp, boolean nested) {
+        if (!(exp instanceof ResolvedFunCall)
+            || !(exp.getType() instanceof NumericType))
+        {
+            return false;
+        }
+        final ResolvedFunCall call = (ResolvedFunCall) exp;
+        final String name = call.getFunName();
+        switch (call.getSyntax()) {
+        case Infix:
+            return (name.equals("+")
+                    || name.equals("-")
+                    || name.equals("*")
+                    || name.equals("/"))
+                && argTypesAre(call, NumericType.class, NumericType.class);
+        case Prefix:
+            return name.equals("-")
+                && argTypesAre(call, NumericType.class);
+        case Function:
+            return nested
+                && name.equalsIgnoreCase("IIf")
+                && argTypesAre(
+                    call,
+                    BooleanType.class,
+                    NumericType.class,
+                    NumericType.class);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether an expression is a numeric comparison or a logical
+     * operator.
+     */
+    private static boolean isBooleanOperator(Exp exp) {
+        if (!(exp instanceof ResolvedFunCall)
+            || !(exp.getType() instanceof BooleanType))
+        {
+            return false;
+        }
+        final ResolvedFunCall call = (ResolvedFunCall) exp;
+        final String name = call.getFunName();
+        switch (call.getSyntax()) {
+        case Infix:
+            if (name.equals("=")
+                || name.equals("<>")
+                || name.equals("<")
+                || name.equals("<=")
+                || name.equals(">")
+                || name.equals(">="))
+            {
+                return argTypesAre(
+                    call, NumericType.class, NumericType.class);
+            }
+            return (name.equalsIgnoreCase("AND")
+                    || name.equalsIgnoreCase("OR"))
+                && argTypesAre(call, BooleanType.class, BooleanType.class);
+        case Prefix:
+            return name.equalsIgnoreCase("NOT")
+                && argTypesAre(call, BooleanType.class);
+        default:
+            return false;
+        }
+    }
+
+    private static boolean argTypesAre(ResolvedFunCall call, Class... types) {
+        if (call.getArgCount() != types.length) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (!types[i].isInstance(call.getArg(i).getType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a handle of type <code>(Evaluator)double</code> that evaluates
+     * a numeric expression. Adds the calcs of the leaves to a list.
+     */
+    private MethodHandle fuseDouble(Exp exp, List<Calc> leaves) {
+        if (!isNumericOperator(exp, true)) {
+            final DoubleCalc calc = compileDouble(exp);
+            if (calc instanceof ConstantCalc) {
+                return constant(double.class, calc.evaluateDouble(null));
+            }
+            leaves.add(calc);
+            return EVALUATE_DOUBLE.bindTo(calc);
+        }
+        final ResolvedFunCall call = (ResolvedFunCall) exp;
+        final String name = call.getFunName();
+        if (call.getSyntax() == Syntax.Prefix) {
+            return MethodHandles.filterReturnValue(
+                fuseDouble(call.getArg(0), leaves), NEGATE);
+        }
+        if (call.getSyntax() == Syntax.Function) {
+            final MethodHandle test = fuseBoolean(call.getArg(0), leaves);
+            final MethodHandle target = fuseDouble(call.getArg(1), leaves);
+            final MethodHandle fallback = fuseDouble(call.getArg(2), leaves);
+            return MethodHandles.guardWithTest(test, target, fallback);
+        }
+        final MethodHandle operator;
+        if (name.equals("+")) {
+            operator = PLUS;
+        } else if (name.equals("-")) {
+            operator = MINUS;
+        } else if (name.equals("*")) {
+            operator = TIMES;
+        } else if (MondrianProperties.instance().NullDenominatorProducesNull
+            .get())
+        {
+            operator = DIVIDE_NULL;
+        } else {
+            operator = DIVIDE;
+        }
+        final MethodHandle h0 = fuseDouble(call.getArg(0), leaves);
+        final MethodHandle h1 = fuseDouble(call.getArg(1), leaves);
+        return combine(operator, h0, h1);
+    }
+
+    /**
+     * Creates a handle of type <code>(Evaluator)boolean</code> that
+     * evaluates a boolean expression. Adds the calcs of the leaves to a
+     * list.
+     */
+    private MethodHandle fuseBoolean(Exp exp, List<Calc> leaves) {
+        if (!isBooleanOperator(exp)) {
+            final BooleanCalc calc = compileBoolean(exp);
+            if (calc instanceof ConstantCalc) {
+                return constant(boolean.class, calc.evaluateBoolean(null));
+            }
+            leaves.add(calc);
+            return EVALUATE_BOOLEAN.bindTo(calc);
+        }
+        final ResolvedFunCall call = (ResolvedFunCall) exp;
+        final String name = call.getFunName();
+        if (call.getSyntax() == Syntax.Prefix) {
+            return MethodHandles.filterReturnValue(
+                fuseBoolean(call.getArg(0), leaves), NOT);
+        }
+        if (name.equalsIgnoreCase("AND") || name.equalsIgnoreCase("OR")) {
+            // Short-circuit, except while evaluating axes; that way, all
+            // measures referenced in the expression are loaded in a single
+            // query. Same as the built-in AND and OR.
+            final boolean and = name.equalsIgnoreCase("AND");
+            final MethodHandle h0 = fuseBoolean(call.getArg(0), leaves);
+            final MethodHandle h1 = fuseBoolean(call.getArg(1), leaves);
+            final MethodHandle shortCircuit =
+                MethodHandles.guardWithTest(
+                    IS_EVAL_AXES,
+                    MethodHandles.filterReturnValue(
+                        h1,
+                        MethodHandles.dropArguments(
+                            MethodHandles.constant(boolean.class, !and),
+                            0,
+                            boolean.class)),
+                    constant(boolean.class, !and));
+            return and
+                ? MethodHandles.guardWithTest(h0, h1, shortCircuit)
+                : MethodHandles.guardWithTest(h0, shortCircuit, h1);
+        }
+        final MethodHandle operator;
+        if (name.equals("=")) {
+            operator = EQ;
+        } else if (name.equals("<>")) {
+            operator = NE;
+        } else if (name.equals("<")) {
+            operator = LT;
+        } else if (name.equals("<=")) {
+            operator = LE;
+        } else if (name.equals(">")) {
+            operator = GT;
+        } else {
+            operator = GE;
+        }
+        final MethodHandle h0 = fuseDouble(call.getArg(0), leaves);
+        final MethodHandle h1 = fuseDouble(call.getArg(1), leaves);
+        return combine(operator, h0, h1);
+    }
+
+    /**
+     * Applies a binary operator to the results of two handles of type
+     * <code>(Evaluator)double</code>, giving a handle of type
+     * <code>(Evaluator)R</code>. The first operand is evaluated first.
+     */
+    private static MethodHandle combine(
+        MethodHandle operator,
+        MethodHandle h0,
+        MethodHandle h1)
+    {
+        final MethodHandle filtered =
+            MethodHandles.filterArguments(operator, 0, h0, h1);
+        return MethodHandles.permuteArguments(
+            filtered,
+            MethodType.methodType(
+                operator.type().returnType(), Evaluator.class),
+            0,
+            0);
+    }
+
+    private static MethodHandle constant(Class<?> type, Object value) {
+        return MethodHandles.dropArguments(
+            MethodHandles.constant(type, value), 0, Evaluator.class);
+    }
+
+    private static MethodHandle findVirtual(
+        Class<?> clazz,
+        String name,
+        Class<?> returnType)
+    {
+        try {
+            return LOOKUP.findVirtual(
+                clazz,
+                name,
+                MethodType.methodType(returnType, Evaluator.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle findStatic(String name, MethodType type) {
+        try {
+            return LOOKUP.findStatic(FusingExpCompiler.class, name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Operators. Each has the same semantics as the corresponding built-in
+    // function.
+
+    private static double plus(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull) {
+            return v1;
+        } else if (v1 == FunUtil.DoubleNull) {
+            return v0;
+        } else {
+            return v0 + v1;
+        }
+    }
+
+    private static double minus(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull) {
+            return v1 == FunUtil.DoubleNull ? FunUtil.DoubleNull : -v1;
+        } else if (v1 == FunUtil.DoubleNull) {
+            return v0;
+        } else {
+            return v0 - v1;
+        }
+    }
+
+    private static double times(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull || v1 == FunUtil.DoubleNull) {
+            return FunUtil.DoubleNull;
+        }
+        return v0 * v1;
+    }
+
+    private static double divide(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull) {
+            return FunUtil.DoubleNull;
+        } else if (v1 == FunUtil.DoubleNull) {
+            return Double.POSITIVE_INFINITY;
+        } else {
+            return v0 / v1;
+        }
+    }
+
+    private static double divideNull(double v0, double v1) {
+        if (v0 == FunUtil.DoubleNull || v1 == FunUtil.DoubleNull) {
+            return FunUtil.DoubleNull;
+        }
+        return v0 / v1;
+    }
+
+    private static double negate(double v) {
+        return v == FunUtil.DoubleNull ? FunUtil.DoubleNull : -v;
+    }
+
+    private static boolean not(boolean b) {
+        return !b;
+    }
+
+    private static boolean isNull(double v) {
+        return Double.isNaN(v) || v == FunUtil.DoubleNull;
+    }
+
+    private static boolean eq(double v0, double v1) {
+        return isNull(v0) || isNull(v1) ? FunUtil.BooleanNull : v0 == v1;
+    }
+
+    private static boolean ne(double v0, double v1) {
+        return isNull(v0) || isNull(v1) ? FunUtil.BooleanNull : v0 != v1;
+    }
+
+    private static boolean lt(double v0, double v1) {
+        return isNull(v0) || isNull(v1) ? FunUtil.BooleanNull : v0 < v1;
+    }
+
+    private static boolean le(double v0, double v1) {
+        return isNull(v0) || isNull(v1) ? FunUtil.BooleanNull : v0 <= v1;
+    }
+
+    private static boolean gt(double v0, double v1) {
+        return isNull(v0) || isNull(v1) ? FunUtil.BooleanNull : v0 > v1;
+    }
+
+    private static boolean ge(double v0, double v1) {
+        return isNull(v0) || isNull(v1) ? FunUtil.BooleanNull : v0 >= v1;
+    }
+
+    private static RuntimeException wrap(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return Util.newInternal(e, "while evaluating fused expression");
+    }
+
+    /**
+     * Calc that evaluates a fused numeric expression. Its children are the
+     * leaves of the expression.
+     */
+    private static class FusedDoubleCalc extends AbstractDoubleCalc {
+        private final MethodHandle handle;
+
+        FusedDoubleCalc(Exp exp, Calc[] calcs, MethodHandle handle) {
+            super(exp, calcs);
+            this.handle = handle;
+        }
+
+        public double evaluateDouble(Evaluator evaluator) {
+            try {
+                return (double) handle.invokeExact(evaluator);
+            } catch (Throwable e) {
+                throw wrap(e);
+            }
+        }
+    }
+
+    /**
+     * Calc that evaluates a fused boolean expression. Its children are the
+     * leaves of the expression.
+     */
+    private static class FusedBooleanCalc extends AbstractBooleanCalc {
+        private final MethodHandle handle;
+
+        FusedBooleanCalc(Exp exp, Calc[] calcs, MethodHandle handle) {
+            super(exp, calcs);
+            this.handle = handle;
+        }
+
+        public boolean evaluateBoolean(Evaluator evaluator) {
+            try {
+                return (boolean) handle.invokeExact(evaluator);
+            } catch (Throwable e) {
+                throw wrap(e);
+            }
+        }
+    }
+}
+
+// End FusingExpCompiler.java
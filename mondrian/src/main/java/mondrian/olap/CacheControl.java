@@ -34,6 +34,9 @@ import javax.sql.DataSource;
  * <li>{@link #createCrossjoinRegion(mondrian.olap.CacheControl.CellRegion[])}</li>
  * <li>{@link #createMeasuresRegion(Cube)}</li>
  * <li>{@link #flush(mondrian.olap.CacheControl.CellRegion)}</li>
+ * <li>{@link #refreshAppended(Cube, String, String)}</li>
+ * <li>{@link #buildAggregateTables(Cube)}</li>
+ * <li>{@link #refreshAggregateTables(Cube)}</li>
  * </ul></p>
  *
  * <p>Methods concerning member cache:<ul>
@@ -182,6 +185,71 @@ public interface CacheControl {
      */
     void flush(CellRegion region);
 
+    /**
+     * Brings the cells cached for a cube up to date after rows have been
+     * appended to its fact table, without discarding the cells already
+     * cached.
+     *
+     * <p>Rows must be appended in increasing order of the given column; for
+     * example, the date of an hourly load. Each call reads the greatest value
+     * of the column, and from then on cells and native SQL read only fact
+     * table rows up to that value, until the next call or until the cube's
+     * cells are flushed. Cached cells are brought up to it by reading only
+     * the rows between the value they were loaded with and the new one. Their
+     * totals are merged into the cached cells of measures whose aggregator
+     * allows it (sum, count, min and max); cells of other measures are
+     * flushed, as are cells that were loaded before the first call or since
+     * a flush, and cells read from aggregate tables, which are not bounded.
+     *
+     * <p>Rows appended with a value of the column not greater than that of
+     * the previous call are not seen until the cache is flushed.
+     *
+     * @param cube a cube; must not be virtual
+     * @param tableAlias alias of the table holding the column: the fact
+     *   table, or a dimension table joined to it
+     * @param columnName name of the column along which rows are appended
+     */
+    void refreshAppended(
+        Cube cube,
+        String tableAlias,
+        String columnName);
+
+    /**
+     * Builds aggregate tables for the queries that have read a cube's fact
+     * table, and starts using them at once.
+     *
+     * <p>The queries are recorded while
+     * {@link MondrianProperties#AggregateAdvisor} is set; the total estimated
+     * number of rows of the tables is limited by
+     * {@link MondrianProperties#AggregateAdvisorMaxRows}. The tables are
+     * created in the fact table's schema, so the connection's data source
+     * must be allowed to create tables there.
+     *
+     * <p>The tables are populated from the fact table as it is when they are
+     * built. After rows are loaded into the fact table, call
+     * {@link #refreshAggregateTables(Cube)}; until then, queries that read
+     * the tables do not see the new rows.
+     *
+     * @param cube a cube; must not be virtual
+     * @return names of the tables built; empty if no queries have been
+     *   recorded, or if no table would make them cheaper
+     */
+    List<String> buildAggregateTables(Cube cube);
+
+    /**
+     * Re-populates, from a cube's fact table, the aggregate tables that
+     * {@link #buildAggregateTables(Cube)} has built for it.
+     *
+     * <p>Call it after each load of the fact table, before flushing or
+     * refreshing the cells cached for the cube: otherwise cells may be read
+     * again from a table which does not yet have the new rows. Aggregate
+     * tables that Mondrian did not build are not refreshed.
+     *
+     * @param cube a cube; must not be virtual
+     * @return names of the tables refreshed
+     */
+    List<String> refreshAggregateTables(Cube cube);
+
     /**
      * Prints the state of the cell cache as it pertains to a given region.
      * @param pw the output target
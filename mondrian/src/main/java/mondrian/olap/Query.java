@@ -13,6 +13,7 @@
 package mondrian.olap;
 
 import mondrian.calc.*;
+import mondrian.calc.impl.CommonSubexpressionCompiler;
 import mondrian.mdx.*;
 import mondrian.olap.fun.ParameterFunDef;
 import mondrian.olap.type.*;
@@ -87,7 +88,7 @@ public class Query extends QueryPart {
    */
   private final Cube cube;
 
-  private final Statement statement;
+  private Statement statement;
   public Calc[] axisCalcs;
   public Calc slicerCalc;
 
@@ -133,6 +134,17 @@ public class Query extends QueryPart {
   private final List<ScopedNamedSet> scopedNamedSets = new ArrayList<>();
   private boolean ownStatement;
 
+  /**
+   * Key of this query in its schema's plan cache, or null if it is not cached (or has been modified since it was
+   * parsed).
+   */
+  private Object planCacheKey;
+
+  /**
+   * Repeated and axis-invariant aggregate expressions of this query, or null if common subexpressions are not cached.
+   */
+  private CommonSubexpressionCompiler.Analysis subexpressionAnalysis;
+
   /**
    * Creates a Query.
    */
@@ -161,6 +173,11 @@ public class Query extends QueryPart {
     this.nativeCrossJoinVirtualCube = true;
     this.strictValidation = strictValidation;
     this.alertedNonNativeFunDefs = new HashSet<FunDef>();
+    initStatement();
+    resolve();
+  }
+
+  private void initStatement() {
     statement.setQuery( this );
 
     if ( RolapUtil.PROFILE_LOGGER.isDebugEnabled() && statement.getProfileHandler() == null ) {
@@ -173,7 +190,44 @@ public class Query extends QueryPart {
         }
       } );
     }
-    resolve();
+  }
+
+  /**
+   * Attaches this query, taken from a plan cache, to a new statement. The resolved expressions and compiled calcs are
+   * reused; parameter values and evaluation state of the previous statement are discarded.
+   *
+   * @param statement
+   *          Statement that will execute this query
+   *
+   * @see mondrian.rolap.RolapQueryPlanCache
+   */
+  public void attach( Statement statement ) {
+    this.statement = statement;
+    this.ownStatement = false;
+    initStatement();
+    evalCache.clear();
+    for ( Parameter parameter : parameters ) {
+      if ( parameter.isModifiable() && parameter.isSet() ) {
+        parameter.unsetValue();
+      }
+    }
+  }
+
+  /**
+   * Returns the key of this query in its schema's plan cache, or null if it is not cached.
+   */
+  public Object getPlanCacheKey() {
+    return planCacheKey;
+  }
+
+  /**
+   * Sets the key of this query in its schema's plan cache.
+   *
+   * @param planCacheKey
+   *          Key, or null if this query must not be returned to the cache
+   */
+  public void setPlanCacheKey( Object planCacheKey ) {
+    this.planCacheKey = planCacheKey;
   }
 
   /**
@@ -384,18 +438,41 @@ public class Query extends QueryPart {
    * modified the query's expression tree in any way.
    */
   public void resolve() {
+    // The expression tree may have changed since the query was parsed, so
+    // it no longer matches its MDX text.
+    planCacheKey = null;
     // Before commencing validation, create all calculated members
     // and calculated sets
     createFormulaElements();
     Map<QueryPart, QueryPart> resolvedIdentifiers = new IdBatchResolver( this ).resolve();
     final Validator validator = createValidator( resolvedIdentifiers );
     resolve( validator ); // resolve self and children
+    subexpressionAnalysis =
+      MondrianProperties.instance().EnableCommonSubexpressionCache.get() ? analyzeSubexpressions() : null;
     // Create a dummy result so we can use its evaluator
     final Evaluator evaluator = RolapUtil.createEvaluator( statement );
     ExpCompiler compiler = createCompiler( evaluator, validator, Collections.singletonList( resultStyle ) );
     compile( compiler );
   }
 
+  /**
+   * Counts the aggregate expressions that occur in this query's formulas, axes and slicer, and collects the hierarchies
+   * used on the axes.
+   */
+  private CommonSubexpressionCompiler.Analysis analyzeSubexpressions() {
+    final List<Hierarchy> axisHierarchies = new ArrayList<Hierarchy>();
+    if ( axes != null ) {
+      for ( QueryAxis axis : axes ) {
+        for ( Hierarchy hierarchy : collectHierarchies( axis.getSet() ) ) {
+          if ( hierarchy != null ) {
+            axisHierarchies.add( hierarchy );
+          }
+        }
+      }
+    }
+    return new CommonSubexpressionCompiler.Analysis( formulas, axes, slicerAxis, axisHierarchies );
+  }
+
   private void createFormulaElements() {
     if ( formulas != null ) {
       // Resolving of formulas should be done in two parts
@@ -423,6 +500,10 @@ public class Query extends QueryPart {
    * ResultStyle.MUTABLE_LIST
    */
   public void setResultStyle( ResultStyle resultStyle ) {
+    if ( resultStyle != this.resultStyle ) {
+      // The query was compiled for the previous result style.
+      planCacheKey = null;
+    }
     switch ( resultStyle ) {
       case ITERABLE:
         // For java4, use LIST
@@ -620,6 +701,7 @@ public class Query extends QueryPart {
   }
 
   public void setSlicerAxis( QueryAxis axis ) {
+    this.planCacheKey = null;
     this.slicerAxis = axis;
   }
 
@@ -628,6 +710,7 @@ public class Query extends QueryPart {
    */
   public void addLevelToAxis( AxisOrdinal axis, Level level ) {
     assert axis != null;
+    planCacheKey = null;
     axes[axis.logicalOrdinal()].addLevel( level );
   }
 
@@ -816,6 +899,7 @@ public class Query extends QueryPart {
    * Swaps the x- and y- axes. Does nothing if the number of axes != 2.
    */
   public void swapAxes() {
+    planCacheKey = null;
     if ( axes.length == 2 ) {
       Exp e0 = axes[0].getSet();
       boolean nonEmpty0 = axes[0].isNonEmpty();
@@ -959,6 +1043,7 @@ public class Query extends QueryPart {
    * is used somewhere in the query.
    */
   public void removeFormula( String uniqueName, boolean failIfUsedInQuery ) {
+    planCacheKey = null;
     Formula formula = findFormula( uniqueName );
     if ( failIfUsedInQuery && formula != null ) {
       OlapElement mdxElement = formula.getElement();
@@ -1068,6 +1153,7 @@ public class Query extends QueryPart {
    * Finds formula by name and renames it to new name.
    */
   public void renameFormula( String uniqueName, String newName ) {
+    planCacheKey = null;
     Formula formula = findFormula( uniqueName );
     if ( formula == null ) {
       throw MondrianResource.instance().MdxFormulaNotFound.ex( "formula", uniqueName, Util.unparse( this ) );
@@ -1093,6 +1179,7 @@ public class Query extends QueryPart {
     if ( axis >= axes.length ) {
       throw MondrianResource.instance().MdxAxisShowSubtotalsNotSupported.ex( axis );
     }
+    planCacheKey = null;
     axes[axis].setNonEmpty( !showEmpty );
   }
 
@@ -1146,6 +1233,9 @@ public class Query extends QueryPart {
   private ExpCompiler createCompiler( final Evaluator evaluator, final Validator validator,
       List<ResultStyle> resultStyleList ) {
     ExpCompiler compiler = ExpCompiler.Factory.getExpCompiler( evaluator, validator, resultStyleList );
+    if ( subexpressionAnalysis != null ) {
+      compiler = new CommonSubexpressionCompiler( compiler, subexpressionAnalysis );
+    }
 
     final int expDeps = MondrianProperties.instance().TestExpDependencies.get();
     final ProfileHandler profileHandler = statement.getProfileHandler();
@@ -1279,6 +1369,9 @@ public class Query extends QueryPart {
     if ( ownStatement ) {
       statement.close();
     }
+    if ( planCacheKey != null ) {
+      ( (RolapCube) cube ).getSchema().getQueryPlanCache().release( this );
+    }
   }
 
   public Statement getStatement() {
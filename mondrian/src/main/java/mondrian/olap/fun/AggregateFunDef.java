@@ -20,6 +20,8 @@ import mondrian.olap.*;
 import mondrian.olap.Role.RollupPolicy;
 import mondrian.rolap.RolapAggregator;
 import mondrian.rolap.RolapEvaluator;
+import mondrian.rolap.RolapLevel;
+import mondrian.rolap.RolapStoredMeasure;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -129,6 +131,36 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
             Calc calc,
             Evaluator evaluator,
             TupleList tupleList)
+        {
+            return aggregate(calc, evaluator, tupleList, false);
+        }
+
+        /**
+         * Computes an expression for each element of a list, and aggregates
+         * the result according to the evaluation context's current aggregation
+         * strategy; optionally computes additive aggregations in SQL.
+         *
+         * <p>If {@code pushDown} is true, the expression is the current
+         * measure, and the measure is a stored measure whose aggregator is
+         * <code>sum</code>, <code>count</code>, <code>min</code> or
+         * <code>max</code>, evaluates the measure once with the whole list
+         * as an aggregation in the context, as for distinct-count measures.
+         * The cell request then has a compound predicate, and one SQL
+         * statement computes the value, rather than one cell request per
+         * tuple. This is only done if the tuples do not overlap; see
+         * {@link #canPushDown}.
+         *
+         * @param calc Compiled expression to evaluate a scalar
+         * @param evaluator Evaluation context
+         * @param tupleList List of members or tuples
+         * @param pushDown Whether to compute additive aggregations in SQL
+         * @return Aggregated result
+         */
+        public static Object aggregate(
+            Calc calc,
+            Evaluator evaluator,
+            TupleList tupleList,
+            boolean pushDown)
         {
             Aggregator aggregator =
                 (Aggregator) evaluator.getProperty(
@@ -147,6 +179,16 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
             if (aggregator != RolapAggregator.DistinctCount
                 && aggregator != RolapAggregator.Avg)
             {
+                if (pushDown) {
+                    final TupleList pushList =
+                        canPushDown(aggregator, calc, evaluator, tupleList);
+                    if (pushList != null) {
+                        Evaluator evaluator2 =
+                            evaluator.pushAggregation(pushList);
+                        evaluator2.setNonEmpty(false);
+                        return evaluator2.evaluateCurrent();
+                    }
+                }
                 final int savepoint = evaluator.savepoint();
                 try {
                     evaluator.setNonEmpty(false);
@@ -208,6 +250,95 @@ public class AggregateFunDef extends AbstractAggregateFunDef {
             return evaluator2.evaluateCurrent();
         }
 
+        /**
+         * Determines whether an additive aggregation over a list of tuples
+         * can be computed in SQL by constraining the fact table by every
+         * tuple at once. Returns the list to push down, optimized if it
+         * is too long for an IN list; or null if it cannot be pushed down.
+         *
+         * <p>The sum of the cells of the tuples equals the cell of the
+         * disjunction of the tuples only if no fact row belongs to two
+         * tuples. This is ensured by requiring that each position holds
+         * non-calculated members of one level, which is not parent-child,
+         * and that no tuple occurs twice.</p>
+         */
+        private static TupleList canPushDown(
+            Aggregator aggregator,
+            Calc calc,
+            Evaluator evaluator,
+            TupleList tupleList)
+        {
+            if (aggregator != RolapAggregator.Sum
+                && aggregator != RolapAggregator.Count
+                && aggregator != RolapAggregator.Min
+                && aggregator != RolapAggregator.Max)
+            {
+                return null;
+            }
+            if (!(calc instanceof ValueCalc)
+                || !(evaluator instanceof RolapEvaluator)
+                || tupleList.size() < 2
+                || !canOptimize(evaluator, tupleList))
+            {
+                return null;
+            }
+            final RolapEvaluator rolapEvaluator = (RolapEvaluator) evaluator;
+            if (rolapEvaluator.getCube().isVirtual()) {
+                return null;
+            }
+            final Member[] members = evaluator.getMembers();
+            if (!(members[0] instanceof RolapStoredMeasure)) {
+                return null;
+            }
+            for (Member member : members) {
+                if (member.isEvaluated()) {
+                    return null;
+                }
+            }
+            final Level[] levels = new Level[tupleList.getArity()];
+            final Set<List<Member>> tuples = new HashSet<List<Member>>();
+            for (List<Member> tuple : tupleList) {
+                for (int i = 0; i < levels.length; i++) {
+                    final Member member = tuple.get(i);
+                    if (member.isCalculated()
+                        || member.isEvaluated()
+                        || member.isNull()
+                        || member.isMeasure())
+                    {
+                        return null;
+                    }
+                    final Level level = member.getLevel();
+                    if (levels[i] == null) {
+                        if (!(level instanceof RolapLevel)
+                            || ((RolapLevel) level).isParentChild())
+                        {
+                            return null;
+                        }
+                        levels[i] = level;
+                    } else if (!levels[i].equals(level)) {
+                        return null;
+                    }
+                }
+                if (!tuples.add(tuple)) {
+                    return null;
+                }
+            }
+            if (tupleList.size()
+                > MondrianProperties.instance().MaxConstraints.get()
+                && !rolapEvaluator.getDialect().supportsUnlimitedValueList())
+            {
+                // Roll up complete sets of children to their parent, but
+                // aggregate in memory if the list is still too long.
+                tupleList = optimizeTupleList(evaluator, tupleList, false);
+                if (tupleList.size()
+                    > MondrianProperties.instance().MaxConstraints.get())
+                {
+                    return null;
+                }
+            }
+            return tupleList;
+        }
+
         /**
          * Analyzes a list of tuples and determines if the list can
          * be safely optimized. If a member of the tuple list is on
@@ -53,6 +53,7 @@ import mondrian.olap.type.TupleType;
 import mondrian.olap.type.Type;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.RolapEvaluator;
+import mondrian.rolap.RolapHashNonEmptyCrossJoin;
 import mondrian.rolap.SqlConstraintUtils;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
@@ -377,9 +378,17 @@ public class CrossJoinFunDef extends FunDefBase {
       TupleList l2 = listCalc2.evaluateList( evaluator );
       // check if size of second list already exceeds limit
       Util.checkCJResultLimit( l2.size() );
+
       // check crossjoin
       Util.checkCJResultLimit( (long) l1.size() * l2.size() );
 
+      // Filter the product against the non-empty key combinations, if
+      // possible, rather than evaluating each tuple.
+      final TupleList hashList = hashNonEmptyList( evaluator, l1, l2, call );
+      if ( hashList != null ) {
+        return hashList;
+      }
+
       l1 = nonEmptyOptimizeList( evaluator, l1, call );
       if ( l1.isEmpty() ) {
         return TupleCollections.emptyList( l1.getArity() + l2.getArity() );
@@ -509,6 +518,36 @@ public class CrossJoinFunDef extends FunDefBase {
     return list;
   }
 
+  /**
+   * Returns the non-empty tuples of the CrossJoin of two lists, computed by
+   * {@link RolapHashNonEmptyCrossJoin}, or null if that is not enabled or not possible for these lists and the
+   * current context.
+   *
+   * @param evaluator
+   *          Evaluator
+   * @param l1
+   *          First list
+   * @param l2
+   *          Second list
+   * @param call
+   *          Calling ResolvedFunCall used to determine what Measures to use
+   * @return Mutable list of non-empty tuples, or null
+   */
+  protected TupleList hashNonEmptyList( Evaluator evaluator, TupleList l1, TupleList l2, ResolvedFunCall call ) {
+    if ( !MondrianProperties.instance().EnableHashNonEmptyCrossJoin.get() || !evaluator.isNonEmpty()
+        || !( evaluator instanceof RolapEvaluator ) || l1.isEmpty() || l2.isEmpty() ) {
+      return null;
+    }
+    final int opSize = MondrianProperties.instance().CrossJoinOptimizerSize.get();
+    if ( (long) l1.size() * l2.size() <= opSize || !computeMeasureSets( evaluator, call ) ) {
+      return null;
+    }
+    final Query query = evaluator.getQuery();
+    final Set<Member> measureSet = Util.cast( (Set) query.getEvalCache( "MEASURE_SET-" + ctag ) );
+    final Set<Member> memberSet = Util.cast( (Set) query.getEvalCache( "MEMBER_SET-" + ctag ) );
+    return RolapHashNonEmptyCrossJoin.crossJoin( (RolapEvaluator) evaluator, l1, l2, measureSet, memberSet );
+  }
+
   public static TupleList mutableCrossJoin( TupleList list1, TupleList list2 ) {
     return mutableCrossJoin( Arrays.asList( list1, list2 ) );
   }
@@ -691,52 +730,13 @@ public class CrossJoinFunDef extends FunDefBase {
 
     TupleList result = TupleCollections.createList( list.getArity(), ( list.size() + 2 ) >> 1 );
 
-    // Get all of the Measures
     final Query query = evaluator.getQuery();
-
-    final String measureSetKey = "MEASURE_SET-" + ctag;
-    Set<Member> measureSet = Util.cast( (Set) query.getEvalCache( measureSetKey ) );
-
-    final String memberSetKey = "MEMBER_SET-" + ctag;
-    Set<Member> memberSet = Util.cast( (Set) query.getEvalCache( memberSetKey ) );
-    // If not in query cache, then create and place into cache.
-    // This information is used for each iteration so it makes
-    // sense to create and cache it.
-    if ( measureSet == null || memberSet == null ) {
-      measureSet = new HashSet<Member>();
-      memberSet = new HashSet<Member>();
-      Set<Member> queryMeasureSet = query.getMeasuresMembers();
-      MeasureVisitor measureVisitor = new MeasureVisitor( measureSet, call );
-
-      // MemberExtractingVisitor will collect the dimension members
-      // referenced within the measures in the query.
-      // One or more measures may conflict with the members in the tuple,
-      // overriding the context of the tuple member when determining
-      // non-emptiness.
-      MemberExtractingVisitor memVisitor = new MemberExtractingVisitor( memberSet, call, false );
-
-      for ( Member m : queryMeasureSet ) {
-        if ( m.isCalculated() ) {
-          Exp exp = m.getExpression();
-          exp.accept( measureVisitor );
-          exp.accept( memVisitor );
-        } else {
-          measureSet.add( m );
-        }
-      }
-      Formula[] formula = query.getFormulas();
-      if ( formula != null ) {
-        for ( Formula f : formula ) {
-          if ( SqlConstraintUtils.containsValidMeasure( f.getExpression() ) ) {
-            // short circuit if VM is present.
-            return list;
-          }
-          f.accept( measureVisitor );
-        }
-      }
-      query.putEvalCache( measureSetKey, measureSet );
-      query.putEvalCache( memberSetKey, memberSet );
+    if ( !computeMeasureSets( evaluator, call ) ) {
+      // short circuit if VM is present.
+      return list;
     }
+    final Set<Member> measureSet = Util.cast( (Set) query.getEvalCache( "MEASURE_SET-" + ctag ) );
+    final Set<Member> memberSet = Util.cast( (Set) query.getEvalCache( "MEMBER_SET-" + ctag ) );
 
     final String allMemberListKey = "ALL_MEMBER_LIST-" + ctag;
     List<Member> allMemberList = Util.cast( (List) query.getEvalCache( allMemberListKey ) );
@@ -897,6 +897,66 @@ public class CrossJoinFunDef extends FunDefBase {
     }
   }
 
+  /**
+   * Computes the set of Measures that decide whether a tuple is empty, and the set of Members referenced within
+   * calculated Measures, and stores them in the query's evaluation cache.
+   *
+   * @param evaluator
+   *          Evaluator
+   * @param call
+   *          Calling ResolvedFunCall used to determine what Measures to use
+   * @return false if a formula contains ValidMeasure, in which case emptiness cannot be decided from the Measures
+   */
+  private boolean computeMeasureSets( Evaluator evaluator, ResolvedFunCall call ) {
+    // Get all of the Measures
+    final Query query = evaluator.getQuery();
+
+    final String measureSetKey = "MEASURE_SET-" + ctag;
+    Set<Member> measureSet = Util.cast( (Set) query.getEvalCache( measureSetKey ) );
+
+    final String memberSetKey = "MEMBER_SET-" + ctag;
+    Set<Member> memberSet = Util.cast( (Set) query.getEvalCache( memberSetKey ) );
+    // If not in query cache, then create and place into cache.
+    // This information is used for each iteration so it makes
+    // sense to create and cache it.
+    if ( measureSet == null || memberSet == null ) {
+      measureSet = new HashSet<Member>();
+      memberSet = new HashSet<Member>();
+      Set<Member> queryMeasureSet = query.getMeasuresMembers();
+      MeasureVisitor measureVisitor = new MeasureVisitor( measureSet, call );
+
+      // MemberExtractingVisitor will collect the dimension members
+      // referenced within the measures in the query.
+      // One or more measures may conflict with the members in the tuple,
+      // overriding the context of the tuple member when determining
+      // non-emptiness.
+      MemberExtractingVisitor memVisitor = new MemberExtractingVisitor( memberSet, call, false );
+
+      for ( Member m : queryMeasureSet ) {
+        if ( m.isCalculated() ) {
+          Exp exp = m.getExpression();
+          exp.accept( measureVisitor );
+          exp.accept( memVisitor );
+        } else {
+          measureSet.add( m );
+        }
+      }
+      Formula[] formula = query.getFormulas();
+      if ( formula != null ) {
+        for ( Formula f : formula ) {
+          if ( SqlConstraintUtils.containsValidMeasure( f.getExpression() ) ) {
+            // short circuit if VM is present.
+            return false;
+          }
+          f.accept( measureVisitor );
+        }
+      }
+      query.putEvalCache( measureSetKey, measureSet );
+      query.putEvalCache( memberSetKey, memberSet );
+    }
+    return true;
+  }
+
   private boolean tupleContainsCalcs( List<Member> current ) {
     return current.stream().anyMatch( Member::isCalculated );
   }
@@ -279,12 +279,15 @@ class DescendantsFunDef extends FunDefBase {
       if ( children.size() == 0 ) {
         throw Util.newInternal( "drillable member must have children" );
       }
+      if ( depthLimit == -1 || depth < depthLimit ) {
+        // The implementation of isDrillable for a parent-child hierarchy
+        // retrieves the member's children and sees whether there are any.
+        // Read the children of the whole generation in one call first, so
+        // that isDrillable, and the next pass, find them in the cache.
+        schemaReader.getMemberChildren( children );
+      }
       List<Member> nextChildren = new ArrayList<Member>();
       for ( Member child : children ) {
-        // TODO: Implement this more efficiently. The current
-        // implementation of isDrillable for a parent-child hierarchy
-        // simply retrieves the children sees whether there are any,
-        // so we end up fetching each member's children twice.
         if ( schemaReader.isDrillable( child ) ) {
           nextChildren.add( child );
         } else {
@@ -346,6 +349,11 @@ class DescendantsFunDef extends FunDefBase {
     if ( leaves ) {
       assert !before && !self && !after;
       do {
+        // Read the children of all members in one call, so that the calls
+        // for each member below find them in the cache.
+        if ( members.size() > 1 ) {
+          schemaReader.getMemberChildren( members, context );
+        }
         List<Member> nextMembers = new ArrayList<Member>();
         for ( Member member : members ) {
           final int currentDepth = member.getLevel().getDepth();
@@ -18,7 +18,10 @@ import mondrian.calc.ResultStyle;
 import mondrian.calc.TupleCursor;
 import mondrian.calc.TupleIterable;
 import mondrian.calc.TupleList;
+import mondrian.calc.impl.ConstantCalc;
+import mondrian.calc.impl.MemberValueCalc;
 import mondrian.calc.impl.UnaryTupleList;
+import mondrian.calc.impl.ValueCalc;
 import mondrian.mdx.DimensionExpr;
 import mondrian.mdx.HierarchyExpr;
 import mondrian.mdx.LevelExpr;
@@ -54,7 +57,9 @@ import mondrian.olap.type.TupleType;
 import mondrian.olap.type.Type;
 import mondrian.olap.type.TypeUtil;
 import mondrian.resource.MondrianResource;
+import mondrian.rolap.RolapEvaluator;
 import mondrian.rolap.RolapHierarchy;
+import mondrian.rolap.RolapSegmentScan;
 import mondrian.rolap.RolapUtil;
 import mondrian.server.Execution;
 import mondrian.util.CancellationChecker;
@@ -797,23 +802,13 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     TupleList members,
     Calc calc ) {
-    SetWrapper sw = evaluateSet( evaluator, members, calc );
-    if ( sw.errorCount > 0 ) {
+    final DoubleAccumulator acc = accumulate( evaluator, members, calc );
+    if ( acc.errorCount > 0 ) {
       return Double.NaN;
+    } else if ( acc.count == 0 ) {
+      return Util.nullValue;
     } else {
-      final int size = sw.v.size();
-      if ( size == 0 ) {
-        return Util.nullValue;
-      } else {
-        Double min = ( (Number) sw.v.get( 0 ) ).doubleValue();
-        for ( int i = 1; i < size; i++ ) {
-          Double iValue = ( (Number) sw.v.get( i ) ).doubleValue();
-          if ( iValue < min ) {
-            min = iValue;
-          }
-        }
-        return min;
-      }
+      return acc.min;
     }
   }
 
@@ -821,23 +816,13 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     TupleList members,
     Calc exp ) {
-    SetWrapper sw = evaluateSet( evaluator, members, exp );
-    if ( sw.errorCount > 0 ) {
+    final DoubleAccumulator acc = accumulate( evaluator, members, exp );
+    if ( acc.errorCount > 0 ) {
       return Double.NaN;
+    } else if ( acc.count == 0 ) {
+      return Util.nullValue;
     } else {
-      final int size = sw.v.size();
-      if ( size == 0 ) {
-        return Util.nullValue;
-      } else {
-        Double max = ( (Number) sw.v.get( 0 ) ).doubleValue();
-        for ( int i = 1; i < size; i++ ) {
-          Double iValue = ( (Number) sw.v.get( i ) ).doubleValue();
-          if ( iValue > max ) {
-            max = iValue;
-          }
-        }
-        return max;
-      }
+      return acc.max;
     }
   }
 
@@ -951,12 +936,12 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     TupleList members,
     Calc calc ) {
-    SetWrapper sw = evaluateSet( evaluator, members, calc );
-    return ( sw.errorCount > 0 )
+    final DoubleAccumulator acc = accumulate( evaluator, members, calc );
+    return ( acc.errorCount > 0 )
       ? new Double( Double.NaN )
-      : ( sw.v.size() == 0 )
+      : ( acc.count == 0 )
       ? Util.nullValue
-      : new Double( _avg( sw ) );
+      : new Double( acc.sum / (double) acc.count );
   }
 
   // TODO: parameterize inclusion of nulls; also, maybe make _avg a method of
@@ -982,35 +967,20 @@ public class FunUtil extends Util {
     Evaluator evaluator,
     TupleList members,
     Calc exp ) {
-    SetWrapper sw = evaluateSet( evaluator, members, exp );
-    if ( sw.errorCount > 0 ) {
-      return Double.NaN;
-    } else if ( sw.v.size() == 0 ) {
-      return DoubleNull;
-    } else {
-      double sum = 0.0;
-      for ( int i = 0; i < sw.v.size(); i++ ) {
-        sum += ( (Number) sw.v.get( i ) ).doubleValue();
-      }
-      return sum;
-    }
+    return sumDouble( evaluator, (TupleIterable) members, exp );
   }
 
   public static double sumDouble(
     Evaluator evaluator,
     TupleIterable iterable,
     Calc exp ) {
-    SetWrapper sw = evaluateSet( evaluator, iterable, exp );
-    if ( sw.errorCount > 0 ) {
+    final DoubleAccumulator acc = accumulate( evaluator, iterable, exp );
+    if ( acc.errorCount > 0 ) {
       return Double.NaN;
-    } else if ( sw.v.size() == 0 ) {
+    } else if ( acc.count == 0 ) {
       return DoubleNull;
     } else {
-      double sum = 0.0;
-      for ( int i = 0; i < sw.v.size(); i++ ) {
-        sum += ( (Number) sw.v.get( i ) ).doubleValue();
-      }
-      return sum;
+      return acc.sum;
     }
   }
 
@@ -1087,6 +1057,94 @@ public class FunUtil extends Util {
     return retval;
   }
 
+  /**
+   * Evaluates {@code calc} over each tuple of {@code tuples}, and accumulates the count, sum, minimum and maximum of
+   * the numeric values. Unlike {@link #evaluateSet(Evaluator, TupleIterable, Calc)}, does not box or retain the values,
+   * so aggregating a large set does not allocate per tuple. Null values are counted; errors are counted, and the
+   * remaining tuples are still evaluated, so that a batching cell reader learns all the cells it needs.
+   *
+   * <p>
+   * The context is set on {@code evaluator} itself; callers should take a savepoint and restore it afterwards.
+   *
+   * @param evaluator Evaluator
+   * @param tuples    Tuples
+   * @param calc      Scalar expression
+   * @return Accumulated values
+   */
+  static DoubleAccumulator accumulate(
+    Evaluator evaluator,
+    TupleIterable tuples,
+    Calc calc ) {
+    assert tuples != null;
+    assert calc != null;
+    assert calc.getType() instanceof ScalarType;
+
+    final DoubleAccumulator acc = new DoubleAccumulator();
+    if ( tuples instanceof TupleList && evaluator instanceof RolapEvaluator ) {
+      final int nullCount =
+        scanSegment( (RolapEvaluator) evaluator, (TupleList) tuples, calc, acc );
+      if ( nullCount >= 0 ) {
+        acc.nullCount = nullCount;
+        return acc;
+      }
+    }
+    Object nonNumeric = null;
+    final TupleCursor cursor = tuples.tupleCursor();
+    int currentIteration = 0;
+    Execution execution =
+      evaluator.getQuery().getStatement().getCurrentExecution();
+    while ( cursor.forward() ) {
+      CancellationChecker.checkCancelOrTimeout(
+        currentIteration++, execution );
+      cursor.setContext( evaluator );
+      final Object o = calc.evaluate( evaluator );
+      if ( o == null || o == Util.nullValue ) {
+        acc.nullCount++;
+      } else if ( o == RolapUtil.valueNotReadyException ) {
+        acc.errorCount++;
+      } else if ( o instanceof Number ) {
+        acc.add( ( (Number) o ).doubleValue() );
+      } else {
+        nonNumeric = o;
+      }
+    }
+    if ( nonNumeric != null && acc.errorCount == 0 ) {
+      // Same failure as when the value is added to a sum.
+      throw new ClassCastException(
+        nonNumeric.getClass().getName() + " cannot be cast to "
+          + Number.class.getName() );
+    }
+    return acc;
+  }
+
+  /**
+   * Accumulates the values of a stored measure for each tuple directly from a loaded segment, if {@code calc} just
+   * evaluates the current measure or a constant measure.
+   *
+   * @return Number of null values, or -1 if the tuples must be evaluated one by one
+   * @see RolapSegmentScan
+   */
+  private static int scanSegment(
+    RolapEvaluator evaluator,
+    TupleList tuples,
+    Calc calc,
+    DoubleAccumulator acc ) {
+    final Member measure;
+    if ( calc instanceof ValueCalc ) {
+      measure = null;
+    } else if ( calc instanceof MemberValueCalc
+      && ( (MemberValueCalc) calc ).getCalcs()[ 0 ] instanceof ConstantCalc ) {
+      final Object o = ( (MemberValueCalc) calc ).getCalcs()[ 0 ].evaluate( evaluator );
+      if ( !( o instanceof Member ) || !( (Member) o ).isMeasure() ) {
+        return -1;
+      }
+      measure = (Member) o;
+    } else {
+      return -1;
+    }
+    return RolapSegmentScan.scan( evaluator, tuples, measure, acc::add );
+  }
+
   /**
    * Evaluates one or more expressions against the member list returning a SetWrapper array. Where this differs very
    * significantly from the above evaluateSet methods is how it count null values and Throwables; this method adds nulls
@@ -1923,6 +1981,36 @@ public class FunUtil extends Util {
   // ~ Inner classes ---------------------------------------------------------
 
 
+  /**
+   * Count, sum, minimum and maximum of a stream of doubles, plus the number of null and error values that were
+   * skipped.
+   *
+   * @see #accumulate(Evaluator, TupleIterable, Calc)
+   */
+  static class DoubleAccumulator {
+    int count;
+    int nullCount;
+    int errorCount;
+    double sum;
+    double min;
+    double max;
+
+    void add( double d ) {
+      sum += d;
+      if ( count++ == 0 ) {
+        min = d;
+        max = d;
+      } else {
+        if ( d < min ) {
+          min = d;
+        }
+        if ( d > max ) {
+          max = d;
+        }
+      }
+    }
+  }
+
   static class SetWrapper {
     List v = new ArrayList();
     public int errorCount = 0, nullCount = 0;
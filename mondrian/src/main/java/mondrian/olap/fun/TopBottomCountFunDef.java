@@ -16,27 +16,22 @@ package mondrian.olap.fun;
 import mondrian.calc.Calc;
 import mondrian.calc.ExpCompiler;
 import mondrian.calc.IntegerCalc;
-import mondrian.calc.ListCalc;
+import mondrian.calc.IterCalc;
 import mondrian.calc.ResultStyle;
 import mondrian.calc.TupleCollections;
+import mondrian.calc.TupleIterable;
 import mondrian.calc.TupleList;
 import mondrian.calc.impl.AbstractListCalc;
-import mondrian.calc.impl.DelegatingTupleList;
-import mondrian.calc.impl.UnaryTupleList;
 import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.Evaluator;
 import mondrian.olap.Exp;
 import mondrian.olap.FunDef;
 import mondrian.olap.Hierarchy;
-import mondrian.olap.Member;
 import mondrian.olap.NativeEvaluator;
 import mondrian.olap.SchemaReader;
-import mondrian.olap.fun.sort.Sorter;
+import mondrian.olap.fun.sort.TupleSelector;
 
 import java.util.AbstractList;
-import java.util.List;
-
-import static mondrian.olap.fun.sort.Sorter.partiallySortTuples;
 
 /**
  * Definition of the <code>TopCount</code> and <code>BottomCount</code> MDX builtin functions.
@@ -76,10 +71,10 @@ class TopBottomCountFunDef extends FunDefBase {
   }
 
   public Calc compileCall( final ResolvedFunCall call, ExpCompiler compiler ) {
-    // Compile the member list expression. Ask for a mutable list, because
-    // we're going to sort it later.
-    final ListCalc listCalc =
-      compiler.compileList( call.getArg( 0 ), true );
+    // Compile the set as an iterable: the tuples are read once, and only
+    // the ones that make the cut are kept.
+    final IterCalc iterCalc =
+      compiler.compileIter( call.getArg( 0 ) );
     final IntegerCalc integerCalc =
       compiler.compileInteger( call.getArg( 1 ) );
     final Calc orderCalc =
@@ -89,7 +84,7 @@ class TopBottomCountFunDef extends FunDefBase {
     final int arity = call.getType().getArity();
     return new AbstractListCalc(
       call,
-      new Calc[] { listCalc, integerCalc, orderCalc } ) {
+      new Calc[] { iterCalc, integerCalc, orderCalc } ) {
       public TupleList evaluateList( Evaluator evaluator ) {
         // Use a native evaluator, if more efficient.
         // TODO: Figure this out at compile time.
@@ -103,78 +98,35 @@ class TopBottomCountFunDef extends FunDefBase {
         }
 
         int n = integerCalc.evaluateInteger( evaluator );
-        if ( n == 0 || n == mondrian.olap.fun.FunUtil.IntegerNull ) {
+        if ( n <= 0 ) {
+          // zero, negative or null (IntegerNull)
           return TupleCollections.emptyList( arity );
         }
 
-        TupleList list = listCalc.evaluateList( evaluator );
-        assert list.getArity() == arity;
-        if ( list.isEmpty() ) {
-          return list;
-        }
+        final TupleIterable iterable =
+          iterCalc.evaluateIterable( evaluator );
+        assert iterable.getArity() == arity;
 
         if ( orderCalc == null ) {
+          final TupleList list =
+            iterable instanceof TupleList
+              ? (TupleList) iterable
+              : TupleCollections.materialize( iterable, false );
           // REVIEW: Why require "instanceof AbstractList"?
           if ( list instanceof AbstractList && list.size() <= n ) {
             return list;
           } else if ( top ) {
-            return list.subList( 0, n );
+            return list.subList( 0, Math.min( n, list.size() ) );
           } else {
-            return list.subList( list.size() - n, list.size() );
-          }
-        }
-
-        return partiallySortList(
-          evaluator, list, hasHighCardDimension( list ),
-          Math.min( n, list.size() ) );
-      }
-
-      private TupleList partiallySortList(
-        Evaluator evaluator,
-        TupleList list,
-        boolean highCard,
-        int n ) {
-        assert list.size() > 0;
-        assert n <= list.size();
-        if ( highCard ) {
-          // sort list in chunks, collect the results
-          final int chunkSize = 6400; // what is this really?
-          TupleList allChunkResults = TupleCollections.createList(
-            arity );
-          for ( int i = 0, next; i < list.size(); i = next ) {
-            next = Math.min( i + chunkSize, list.size() );
-            final TupleList chunk = list.subList( i, next );
-            TupleList chunkResult =
-              partiallySortList(
-                evaluator, chunk, false, n );
-            allChunkResults.addAll( chunkResult );
+            return list.subList(
+              Math.max( list.size() - n, 0 ), list.size() );
           }
-          // one last sort, to merge and cull
-          return partiallySortList(
-            evaluator, allChunkResults, false, n );
         }
 
-        // normal case: no need for chunks
         final int savepoint = evaluator.savepoint();
         try {
-          switch ( list.getArity() ) {
-            case 1:
-              final List<Member> members =
-                Sorter.partiallySortMembers(
-                  evaluator.push(),
-                  list.slice( 0 ),
-                  orderCalc, n, top );
-              return new UnaryTupleList( members );
-            default:
-              final List<List<Member>> tuples =
-                partiallySortTuples(
-                  evaluator.push(),
-                  list,
-                  orderCalc, n, top );
-              return new DelegatingTupleList(
-                list.getArity(),
-                tuples );
-          }
+          return TupleSelector.topCount(
+            evaluator.push(), iterable, orderCalc, n, top );
         } finally {
           evaluator.restore( savepoint );
         }
@@ -183,16 +135,6 @@ class TopBottomCountFunDef extends FunDefBase {
       public boolean dependsOn( Hierarchy hierarchy ) {
         return anyDependsButFirst( getCalcs(), hierarchy );
       }
-
-      private boolean hasHighCardDimension( TupleList l ) {
-        final List<Member> trial = l.get( 0 );
-        for ( Member m : trial ) {
-          if ( m.getHierarchy().getDimension().isHighCardinality() ) {
-            return true;
-          }
-        }
-        return false;
-      }
     };
   }
 }
@@ -26,6 +26,7 @@ import mondrian.olap.Hierarchy;
 import mondrian.olap.Member;
 import mondrian.olap.Util;
 import mondrian.olap.fun.sort.Sorter;
+import mondrian.olap.fun.sort.TupleSelector;
 
 import java.util.List;
 import java.util.Map;
@@ -130,6 +131,11 @@ class TopBottomPercentSumFunDef extends FunDefBase {
       if ( list.isEmpty() ) {
         return list;
       }
+      final TupleList selected =
+        TupleSelector.topSum( evaluator, list, calc, target, top, percent );
+      if ( selected != null ) {
+        return selected;
+      }
       Map<List<Member>, Object> mapMemberToValue =
         Sorter.evaluateTuples( evaluator, calc, list );
       final int savepoint = evaluator.savepoint();
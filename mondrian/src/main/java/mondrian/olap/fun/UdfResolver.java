@@ -116,6 +116,18 @@ public class UdfResolver implements Resolver {
         return reservedWords == null ? emptyStringArray : reservedWords;
     }
 
+    /**
+     * Returns whether a function is a {@link UserDefinedFunction}, such as
+     * a function registered in a schema or a built-in implemented as one,
+     * like <code>CurrentDateMember</code>.
+     *
+     * @param funDef Function definition
+     * @return Whether the function is user-defined
+     */
+    public static boolean isUserDefined(FunDef funDef) {
+        return funDef instanceof UdfFunDef;
+    }
+
     /**
      * Adapter which converts a {@link UserDefinedFunction} into a
      * {@link FunDef}.
@@ -0,0 +1,327 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.olap.fun.sort;
+
+import mondrian.calc.Calc;
+import mondrian.calc.TupleCollections;
+import mondrian.calc.TupleCursor;
+import mondrian.calc.TupleIterable;
+import mondrian.calc.TupleList;
+import mondrian.olap.Evaluator;
+import mondrian.olap.Member;
+import mondrian.olap.Util;
+import mondrian.rolap.RolapUtil;
+import mondrian.server.Execution;
+import mondrian.util.CancellationChecker;
+
+/**
+ * Selects the top or bottom tuples of a set by the value of an expression, keeping the values in primitive arrays
+ * ordered as a binary heap.
+ *
+ * <p>Values are ordered as by {@link Sorter#compareValues(Object, Object)}: values not yet in cache, then null, then
+ * other values. Tuples with equal values keep their order in the set, as with the stable sorts used by {@link
+ * Sorter#partiallySortTuples} and {@link Sorter#sortTuples}.</p>
+ *
+ * <p>{@link #topCount} reads the set once and keeps only <i>n</i> tuples. {@link #topSum} evaluates every tuple once,
+ * then removes tuples from the heap in order only until the running total reaches the target, so the set is never
+ * fully sorted.</p>
+ */
+public class TupleSelector {
+  private static final int RANK_NOT_READY = 0;
+  private static final int RANK_NULL_VALUE = 1;
+  private static final int RANK_VALUE = 2;
+
+  private final boolean desc;
+  private final int[] ranks;
+  private final double[] values;
+  private final int[] ordinals;
+
+  /**
+   * Values that are not numbers, or null if there are none.
+   */
+  private Object[] objects;
+
+  /**
+   * Slots ordered as a heap. For {@link #topCount}, the root is the worst tuple kept; for {@link #topSum}, the best
+   * tuple remaining.
+   */
+  private final int[] heap;
+  private int heapSize;
+
+  private TupleSelector( int capacity, boolean desc ) {
+    this.desc = desc;
+    this.ranks = new int[ capacity ];
+    this.values = new double[ capacity ];
+    this.ordinals = new int[ capacity ];
+    this.heap = new int[ capacity ];
+  }
+
+  /**
+   * Returns the top (or bottom) <i>n</i> tuples of a set, in order. Helper function for the MDX functions TopCount and
+   * BottomCount.
+   *
+   * <p>Reads the set once; memory is proportional to <i>n</i>, not to the size of the set.</p>
+   *
+   * @param evaluator Evaluator
+   * @param tuples    Set
+   * @param exp       Expression applied to each tuple to find its sort key
+   * @param limit     Maximum number of tuples to return; positive
+   * @param desc      true to find the top tuples, false to find the bottom tuples
+   * @return List of at most {@code limit} tuples
+   */
+  public static TupleList topCount(
+    Evaluator evaluator,
+    TupleIterable tuples,
+    Calc exp,
+    int limit,
+    boolean desc ) {
+    assert limit > 0;
+    final int arity = tuples.getArity();
+    // One more slot than the limit, to hold the candidate.
+    final TupleSelector selector = new TupleSelector( limit + 1, desc );
+    final Member[] members = new Member[ ( limit + 1 ) * arity ];
+    final Execution execution = evaluator.getQuery().getStatement().getCurrentExecution();
+    final TupleCursor cursor = tuples.tupleCursor();
+    int spare = limit;
+    int ordinal = 0;
+    final int savepoint = evaluator.savepoint();
+    try {
+      while ( cursor.forward() ) {
+        CancellationChecker.checkCancelOrTimeout( ordinal, execution );
+        cursor.setContext( evaluator );
+        if ( selector.heapSize < limit ) {
+          final int slot = selector.heapSize;
+          selector.set( slot, exp.evaluate( evaluator ), ordinal );
+          cursor.currentToArray( members, slot * arity );
+          selector.heap[ selector.heapSize++ ] = slot;
+          selector.siftUp( selector.heapSize - 1, true );
+        } else {
+          selector.set( spare, exp.evaluate( evaluator ), ordinal );
+          final int root = selector.heap[ 0 ];
+          if ( selector.better( spare, root ) ) {
+            cursor.currentToArray( members, spare * arity );
+            selector.heap[ 0 ] = spare;
+            spare = root;
+            selector.siftDown( 0, true );
+          }
+        }
+        ++ordinal;
+      }
+    } finally {
+      evaluator.restore( savepoint );
+    }
+
+    // Remove the worst tuple until the heap is empty.
+    final int count = selector.heapSize;
+    final int[] slots = new int[ count ];
+    for ( int i = count - 1; i >= 0; i-- ) {
+      slots[ i ] = selector.pop( true );
+    }
+    final TupleList result = TupleCollections.createList( arity, count );
+    final Member[] tuple = new Member[ arity ];
+    for ( int slot : slots ) {
+      System.arraycopy( members, slot * arity, tuple, 0, arity );
+      result.addTuple( tuple );
+    }
+    return result;
+  }
+
+  /**
+   * Returns the shortest list of the top (or bottom) tuples of a set whose values add up to at least a target. Helper
+   * function for the MDX functions TopSum, BottomSum, TopPercent and BottomPercent.
+   *
+   * <p>Returns null if a value is neither a number, nor null, nor a value not yet in cache; the caller must then sort
+   * the set in full, which reports the error.</p>
+   *
+   * @param evaluator Evaluator
+   * @param list      Set
+   * @param exp       Expression applied to each tuple to find its value
+   * @param target    Target total, or percentage of the total of all values if {@code percent}
+   * @param desc      true to find the top tuples, false to find the bottom tuples
+   * @param percent   Whether {@code target} is a percentage
+   * @return List of tuples, or null
+   */
+  public static TupleList topSum(
+    Evaluator evaluator,
+    TupleList list,
+    Calc exp,
+    double target,
+    boolean desc,
+    boolean percent ) {
+    final int size = list.size();
+    final TupleSelector selector = new TupleSelector( size, desc );
+    final Execution execution = evaluator.getQuery().getStatement().getCurrentExecution();
+    double total = 0;
+    final TupleCursor cursor = list.tupleCursor();
+    final int savepoint = evaluator.savepoint();
+    try {
+      // Evaluate in the same context as the sort that this replaces.
+      evaluator.setNonEmpty( false );
+      int ordinal = 0;
+      while ( cursor.forward() ) {
+        CancellationChecker.checkCancelOrTimeout( ordinal, execution );
+        cursor.setContext( evaluator );
+        Object o = exp.evaluate( evaluator );
+        if ( o == null ) {
+          o = Util.nullValue;
+        } else if ( o != Util.nullValue
+          && o != RolapUtil.valueNotReadyException
+          && !( o instanceof Number ) ) {
+          return null;
+        }
+        selector.set( ordinal, o, ordinal );
+        if ( o instanceof Number ) {
+          total += selector.values[ ordinal ];
+        }
+        selector.heap[ ordinal ] = ordinal;
+        ++ordinal;
+      }
+    } finally {
+      evaluator.restore( savepoint );
+    }
+    selector.heapSize = size;
+    for ( int i = size / 2 - 1; i >= 0; i-- ) {
+      selector.siftDown( i, false );
+    }
+
+    final TupleList result = TupleCollections.createList( list.getArity() );
+    double runningTotal = 0;
+    int nullCount = 0;
+    int last = -1;
+    while ( selector.heapSize > 0 && runningTotal < target ) {
+      final int slot = selector.pop( false );
+      result.add( list.get( slot ) );
+      last = slot;
+      switch ( selector.ranks[ slot ] ) {
+        case RANK_NULL_VALUE:
+          nullCount++;
+          break;
+        case RANK_VALUE:
+          final double d = selector.values[ slot ];
+          runningTotal += percent ? d / total * (double) 100 : d;
+          break;
+        default:
+          // value not ready; ignore
+      }
+    }
+
+    // MSAS exhibits the following behavior. If the value of all members
+    // is null, then the first (or last) member of the set is returned
+    // for percent operations.
+    if ( size > 0 && percent && nullCount == size ) {
+      return desc
+        ? result.subList( 0, 1 )
+        : list.subList( last, last + 1 );
+    }
+    return result;
+  }
+
+  /**
+   * Stores the value and ordinal of a tuple in a slot.
+   */
+  private void set( int slot, Object o, int ordinal ) {
+    ordinals[ slot ] = ordinal;
+    if ( o == RolapUtil.valueNotReadyException ) {
+      ranks[ slot ] = RANK_NOT_READY;
+    } else if ( o == null || o == Util.nullValue ) {
+      ranks[ slot ] = RANK_NULL_VALUE;
+    } else {
+      ranks[ slot ] = RANK_VALUE;
+      if ( o instanceof Number ) {
+        values[ slot ] = ( (Number) o ).doubleValue();
+        if ( objects != null ) {
+          objects[ slot ] = null;
+        }
+      } else {
+        if ( objects == null ) {
+          objects = new Object[ ranks.length ];
+        }
+        objects[ slot ] = o;
+      }
+    }
+  }
+
+  /**
+   * Returns whether the tuple in one slot comes before the tuple in another in the requested order.
+   */
+  private boolean better( int slot0, int slot1 ) {
+    int c = ranks[ slot0 ] - ranks[ slot1 ];
+    if ( c == 0 && ranks[ slot0 ] == RANK_VALUE ) {
+      if ( objects == null
+        || objects[ slot0 ] == null && objects[ slot1 ] == null ) {
+        c = Sorter.compareValues( values[ slot0 ], values[ slot1 ] );
+      } else {
+        c = Sorter.compareValues( valueAt( slot0 ), valueAt( slot1 ) );
+      }
+    }
+    if ( c != 0 ) {
+      return desc ? c > 0 : c < 0;
+    }
+    return ordinals[ slot0 ] < ordinals[ slot1 ];
+  }
+
+  private Object valueAt( int slot ) {
+    final Object o = objects[ slot ];
+    return o != null ? o : (Object) values[ slot ];
+  }
+
+  /**
+   * Returns whether the tuple in one slot belongs above the tuple in another in the heap.
+   */
+  private boolean above( int slot0, int slot1, boolean worstAtRoot ) {
+    return worstAtRoot ? better( slot1, slot0 ) : better( slot0, slot1 );
+  }
+
+  private void siftUp( int i, boolean worstAtRoot ) {
+    final int slot = heap[ i ];
+    while ( i > 0 ) {
+      final int parent = ( i - 1 ) >>> 1;
+      if ( !above( slot, heap[ parent ], worstAtRoot ) ) {
+        break;
+      }
+      heap[ i ] = heap[ parent ];
+      i = parent;
+    }
+    heap[ i ] = slot;
+  }
+
+  private void siftDown( int i, boolean worstAtRoot ) {
+    final int slot = heap[ i ];
+    final int half = heapSize >>> 1;
+    while ( i < half ) {
+      int child = 2 * i + 1;
+      final int right = child + 1;
+      if ( right < heapSize
+        && above( heap[ right ], heap[ child ], worstAtRoot ) ) {
+        child = right;
+      }
+      if ( !above( heap[ child ], slot, worstAtRoot ) ) {
+        break;
+      }
+      heap[ i ] = heap[ child ];
+      i = child;
+    }
+    heap[ i ] = slot;
+  }
+
+  private int pop( boolean worstAtRoot ) {
+    final int root = heap[ 0 ];
+    heap[ 0 ] = heap[ --heapSize ];
+    if ( heapSize > 0 ) {
+      siftDown( 0, worstAtRoot );
+    }
+    return root;
+  }
+}
+
+// End TupleSelector.java
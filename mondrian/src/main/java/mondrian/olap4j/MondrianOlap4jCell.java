@@ -173,6 +173,41 @@ class MondrianOlap4jCell implements Cell {
         return sqlStmt.getWrappedResultSet();
     }
 
+    /**
+     * Executes drill-through on this cell, returning a result set that
+     * streams rows from a forward-only database cursor.
+     *
+     * <p>Not a part of the public API. Parameters are as for
+     * {@link #drillThroughInternal}, plus:
+     *
+     * @param fetchSize Number of rows to fetch per round trip, or <= 0 to use
+     *   the default
+     * @return Result set, or null if this cell cannot be drilled through
+     * @throws OlapException on error
+     */
+    ResultSet drillThroughStreaming(
+        int maxRowCount,
+        int firstRowOrdinal,
+        List<OlapElement> fields,
+        boolean extendedContext,
+        int fetchSize,
+        Logger logger,
+        int[] rowCountSlot)
+        throws OlapException
+    {
+        if (!cell.canDrillThrough()) {
+            return null;
+        }
+        if (rowCountSlot != null) {
+            rowCountSlot[0] = cell.getDrillThroughCount();
+        }
+        final SqlStatement sqlStmt =
+            cell.drillThroughStreaming(
+                maxRowCount, firstRowOrdinal, fields, extendedContext,
+                fetchSize, logger);
+        return sqlStmt.getWrappedResultSet();
+    }
+
     public void setValue(
         Object newValue,
         AllocationPolicy allocationPolicy,
@@ -55,6 +55,12 @@ abstract class MondrianOlap4jStatement
      */
     MondrianOlap4jCellSet openCellSet;
 
+    /**
+     * Fetch size hint set by {@link #setFetchSize(int)}; 0 if not set.
+     * A positive value makes DRILLTHROUGH statements stream their rows.
+     */
+    private int fetchSize;
+
     MondrianOlap4jStatement(
         MondrianOlap4jConnection olap4jConnection)
     {
@@ -99,14 +105,29 @@ abstract class MondrianOlap4jStatement
             final MondrianOlap4jCell cell =
                 (MondrianOlap4jCell) cellSet.getCell(coords);
 
-            ResultSet resultSet =
-                cell.drillThroughInternal(
-                    drillThrough.getMaxRowCount(),
-                    drillThrough.getFirstRowOrdinal(),
-                    drillThrough.getReturnList(),
-                    true,
-                    null,
-                    rowCountSlot);
+            final ResultSet resultSet;
+            if (fetchSize > 0
+                || MondrianProperties.instance().DrillThroughStreaming.get())
+            {
+                resultSet =
+                    cell.drillThroughStreaming(
+                        drillThrough.getMaxRowCount(),
+                        drillThrough.getFirstRowOrdinal(),
+                        drillThrough.getReturnList(),
+                        true,
+                        fetchSize,
+                        null,
+                        rowCountSlot);
+            } else {
+                resultSet =
+                    cell.drillThroughInternal(
+                        drillThrough.getMaxRowCount(),
+                        drillThrough.getFirstRowOrdinal(),
+                        drillThrough.getReturnList(),
+                        true,
+                        null,
+                        rowCountSlot);
+            }
             if (resultSet == null) {
                 throw new OlapException(
                     "Cannot do DrillThrough operation on the cell");
@@ -147,6 +168,10 @@ abstract class MondrianOlap4jStatement
                 openCellSet = null;
                 c.close();
             }
+            if (query != null) {
+                // Returns the query to its schema's plan cache, if any.
+                query.close();
+            }
         }
     }
 
@@ -239,11 +264,15 @@ abstract class MondrianOlap4jStatement
     }
 
     public void setFetchSize(int rows) throws SQLException {
-        throw new UnsupportedOperationException();
+        if (rows < 0) {
+            throw olap4jConnection.helper.createException(
+                "illegal fetch size " + rows);
+        }
+        this.fetchSize = rows;
     }
 
     public int getFetchSize() throws SQLException {
-        throw new UnsupportedOperationException();
+        return fetchSize;
     }
 
     public int getResultSetConcurrency() throws SQLException {
@@ -410,6 +439,11 @@ abstract class MondrianOlap4jStatement
             if (olap4jConnection.preferList) {
                 query.setResultStyle(ResultStyle.LIST);
             }
+            if (this.query != null && this.query != query) {
+                // Returns the previous query to its schema's plan cache, if
+                // any, so that the next statement that parses it can use it.
+                this.query.close();
+            }
             this.query = query;
             openCellSet = olap4jConnection.factory.newCellSet(this);
         }
@@ -15,6 +15,8 @@ package mondrian.rolap;
 import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
 import mondrian.rolap.agg.SegmentCacheManager;
+import mondrian.rolap.aggmatcher.AggAdvisor;
+import mondrian.rolap.aggmatcher.AggStar;
 import mondrian.rolap.sql.MemberChildrenConstraint;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
@@ -186,6 +188,115 @@ public class CacheControlImpl implements CacheControl {
             });
     }
 
+    public void refreshAppended(
+        final Cube cube,
+        final String tableAlias,
+        final String columnName)
+    {
+        Locus.execute(
+            connection,
+            "Refresh appended",
+            new Locus.Action<Void>() {
+                public Void execute() {
+                    refreshAppendedInternal(cube, tableAlias, columnName);
+                    return null;
+                }
+            });
+    }
+
+    public List<String> buildAggregateTables(final Cube cube) {
+        return Locus.execute(
+            connection,
+            "Build aggregate tables",
+            new Locus.Action<List<String>>() {
+                public List<String> execute() {
+                    final List<String> names = new ArrayList<String>();
+                    for (AggStar aggStar
+                        : AggAdvisor.build(getBaseStar(cube)))
+                    {
+                        names.add(aggStar.getFactTable().getName());
+                    }
+                    return names;
+                }
+            });
+    }
+
+    public List<String> refreshAggregateTables(final Cube cube) {
+        return Locus.execute(
+            connection,
+            "Refresh aggregate tables",
+            new Locus.Action<List<String>>() {
+                public List<String> execute() {
+                    return AggAdvisor.refresh(getBaseStar(cube));
+                }
+            });
+    }
+
+    /**
+     * Returns the star of a cube which is not virtual.
+     */
+    private static RolapStar getBaseStar(Cube cube) {
+        final RolapStar star = ((RolapCube) cube).getStar();
+        if (star == null) {
+            throw new MondrianException(
+                "Cube " + cube.getName() + " is virtual; use its base cubes");
+        }
+        return star;
+    }
+
+    private void refreshAppendedInternal(
+        Cube cube,
+        String tableAlias,
+        String columnName)
+    {
+        final RolapStar star = ((RolapCube) cube).getStar();
+        if (star == null) {
+            throw new MondrianException(
+                "Cannot refresh appended rows of virtual cube "
+                + cube.getName() + "; refresh its base cubes instead");
+        }
+        final RolapStar.Column column =
+            star.lookupColumn(tableAlias, columnName);
+        if (column == null) {
+            throw new MondrianException(
+                "Column '" + tableAlias + "." + columnName
+                + "' not found in star of cube " + cube.getName());
+        }
+        final List<RolapStar.Measure> measures =
+            new ArrayList<RolapStar.Measure>();
+        for (Member member : findMeasures(createMeasuresRegion(cube))) {
+            if (member instanceof RolapStoredMeasure) {
+                measures.add(
+                    (RolapStar.Measure)
+                        ((RolapStoredMeasure) member).getStarMeasure());
+            }
+        }
+        if (measures.isEmpty()) {
+            return;
+        }
+        refreshAppended(star, measures, column);
+        final RolapResultCache resultCache = getResultCache();
+        if (resultCache != null) {
+            resultCache.invalidate(Collections.singleton(star));
+        }
+    }
+
+    /**
+     * Merges rows appended to a star's fact table into the cached segments
+     * of some of its measures.
+     *
+     * @param star Star
+     * @param measures Measures whose segments to refresh
+     * @param column Column along which rows are appended
+     */
+    protected void refreshAppended(
+        RolapStar star,
+        List<RolapStar.Measure> measures,
+        RolapStar.Column column)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     private void flushInternal(CellRegion region) {
         if (region instanceof EmptyCellRegion) {
             return;
@@ -207,6 +318,32 @@ public class CacheControlImpl implements CacheControl {
             // Figure out the bits.
             flushNonUnion(cellRegion);
         }
+        final RolapResultCache resultCache = getResultCache();
+        if (resultCache != null) {
+            final Set<RolapStar> stars = new HashSet<RolapStar>();
+            for (Member measure : findMeasures(region)) {
+                if (measure instanceof RolapStoredMeasure) {
+                    stars.add(
+                        ((RolapStar.Measure)
+                            ((RolapStoredMeasure) measure).getStarMeasure())
+                            .getStar());
+                }
+            }
+            resultCache.invalidate(stars);
+        }
+    }
+
+    /**
+     * Returns the cache of query results of this connection's server, or
+     * null if there is no connection.
+     *
+     * @return Result cache, or null
+     */
+    private RolapResultCache getResultCache() {
+        if (connection == null) {
+            return null;
+        }
+        return connection.getServer().getResultShepherd().getResultCache();
     }
 
     /**
@@ -260,6 +397,10 @@ public class CacheControlImpl implements CacheControl {
 
     public void flushSchemaCache() {
         RolapSchemaPool.instance().clear();
+        final RolapResultCache resultCache = getResultCache();
+        if (resultCache != null) {
+            resultCache.clear();
+        }
         // In some cases, the request might originate from a reference
         // to the schema which isn't in the pool anymore. We must also call
         // the cleanup procedure on the current connection.
@@ -640,6 +781,11 @@ public class CacheControlImpl implements CacheControl {
 
             // finally, flush cells now invalid
             flushRegionList(cellRegionList);
+
+            // results may contain the flushed members even if no cells
+            // were flushed, and plans refer to them
+            getResultCache().invalidate(connection.getSchema());
+            connection.getSchema().getQueryPlanCache().clear();
         }
     }
 
@@ -893,6 +1039,11 @@ public class CacheControlImpl implements CacheControl {
                 }
                 // Apply it all.
                 ((MemberEditCommandPlus) cmd).commit();
+                final RolapResultCache resultCache = getResultCache();
+                if (resultCache != null) {
+                    resultCache.invalidate(connection.getSchema());
+                }
+                connection.getSchema().getQueryPlanCache().clear();
             } finally {
                 Locus.pop(locus);
             }
@@ -20,6 +20,7 @@ import mondrian.rolap.cache.SegmentCacheIndex;
 import mondrian.rolap.cache.SegmentCacheIndexImpl;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
+import mondrian.server.monitor.SamplingProfiler;
 import mondrian.spi.*;
 import mondrian.util.*;
 
@@ -82,10 +83,17 @@ public class FastBatchingCellReader implements CellReader {
      */
     private boolean dirty;
 
-    private final List<CellRequest> cellRequests = new ArrayList<CellRequest>();
+    private final CellRequestRecorder cellRequests = new CellRequestRecorder();
 
     private final Execution execution;
 
+    /**
+     * Cells read by this query, recorded to predict the next query, or null
+     * if speculative loading is disabled.
+     */
+    private final Map<RolapStar, Map<BitKey, SegmentPrefetcher.Footprint>>
+        footprints;
+
     /**
      * Creates a FastBatchingCellReader.
      *
@@ -107,6 +115,11 @@ public class FastBatchingCellReader implements CellReader {
         cacheMgr = aggMgr.cacheMgr;
         pinnedSegments = this.aggMgr.createPinSet();
         cacheEnabled = !MondrianProperties.instance().DisableCaching.get();
+        footprints =
+            SegmentPrefetcher.isEnabled()
+                ? new HashMap<RolapStar,
+                    Map<BitKey, SegmentPrefetcher.Footprint>>()
+                : null;
 
         cellRequestLimit =
             MondrianProperties.instance().CellBatchSize.get() <= 0
@@ -122,6 +135,10 @@ public class FastBatchingCellReader implements CellReader {
             return Util.nullValue; // request not satisfiable.
         }
 
+        if (footprints != null) {
+            SegmentPrefetcher.record(footprints, request);
+        }
+
         // Try to retrieve a cell and simultaneously pin the segment which
         // contains it.
         final Object o = aggMgr.getCellFromCache(request, pinnedSegments);
@@ -169,11 +186,20 @@ public class FastBatchingCellReader implements CellReader {
         return pendingCount;
     }
 
+    /**
+     * Returns the cells read by this query, by star and constrained columns,
+     * or null if speculative loading is disabled.
+     */
+    Map<RolapStar, Map<BitKey, SegmentPrefetcher.Footprint>> getFootprints() {
+        return footprints;
+    }
+
     public final void recordCellRequest(CellRequest request) {
         assert !request.isUnsatisfiable();
         ++missCount;
-        cellRequests.add(request);
-        if (cellRequests.size() % cellRequestLimit == 0) {
+        if (cellRequests.add(request)
+            && cellRequests.size() % cellRequestLimit == 0)
+        {
             // Signal that it's time to ask the cache manager if it has cells
             // we need in the cache. Not really an exception.
             throw CellRequestQuantumExceededException.INSTANCE;
@@ -236,10 +262,12 @@ public class FastBatchingCellReader implements CellReader {
         final List<Future<Map<Segment, SegmentWithData>>> sqlSegmentMapFutures =
             new ArrayList<Future<Map<Segment, SegmentWithData>>>();
 
-        final List<CellRequest> cellRequests1 =
-            new ArrayList<CellRequest>(cellRequests);
+        // Requests are re-created from the recorder as the batch loader
+        // reads them, so only the requests that have to be retried are held
+        // in memory.
+        List<CellRequest> cellRequests1 = cellRequests.asList();
 
-        preloadColumnCardinality(cellRequests1);
+        preloadColumnCardinality(cellRequests.getPrototypes());
 
         for (int iteration = 0;; ++iteration) {
             final BatchLoader.LoadBatchResponse response =
@@ -251,6 +279,13 @@ public class FastBatchingCellReader implements CellReader {
                         cube,
                         Collections.unmodifiableList(cellRequests1)));
 
+            SamplingProfiler.countSql(response.sqlSegmentMapFutures.size());
+            if (!response.sqlSegmentMapFutures.isEmpty()) {
+                // We are about to wait for SQL. Make sure that speculative
+                // loads are not in the way.
+                aggMgr.prefetcher.yieldToForeground();
+            }
+
             int failureCount = 0;
 
             // Segments that have been retrieved from cache this cycle. Allows
@@ -410,9 +445,8 @@ public class FastBatchingCellReader implements CellReader {
 
             // Figure out which cell requests are not satisfied by any of the
             // segments retrieved.
-            @SuppressWarnings("unchecked")
-            List<CellRequest> old = new ArrayList<CellRequest>(cellRequests1);
-            cellRequests1.clear();
+            final List<CellRequest> old = cellRequests1;
+            cellRequests1 = new ArrayList<CellRequest>();
             for (CellRequest cellRequest : old) {
                 if (cellRequest.getMeasure().getStar()
                     .getCellFromCache(cellRequest, null) == null)
@@ -448,7 +482,8 @@ public class FastBatchingCellReader implements CellReader {
     }
 
     /**
-     * Iterates through cell requests and makes sure .getCardinality has
+     * Iterates through cell requests (one per combination of constrained
+     * columns suffices) and makes sure .getCardinality has
      * been called on all constrained columns.  This is a  workaround
      * to an issue in which cardinality queries can be fired on the Actor
      * thread, potentially causing a deadlock when interleaved with
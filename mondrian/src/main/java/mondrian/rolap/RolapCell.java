@@ -490,8 +490,6 @@ public class RolapCell implements Cell {
         // essential.
         final Statement statement =
             result.getExecution().getMondrianStatement();
-        final Execution execution = new Execution(statement, 0);
-        final Connection connection = statement.getMondrianConnection();
         int resultSetType = ResultSet.TYPE_SCROLL_INSENSITIVE;
         int resultSetConcurrency = ResultSet.CONCUR_READ_ONLY;
         final Schema schema = statement.getSchema();
@@ -504,21 +502,98 @@ public class RolapCell implements Cell {
             // fake absolute() via forward fetch
             resultSetType = ResultSet.TYPE_FORWARD_ONLY;
         }
-        return
-            RolapUtil.executeQuery(
+        return executeDrillThrough(
+            sql, maxRowCount, firstRowOrdinal, resultSetType, 0, false);
+    }
+
+    /**
+     * Generates and executes a SQL statement to drill through this cell,
+     * reading the rows through a forward-only, read-only cursor.
+     *
+     * <p>Unlike {@link #drillThroughInternal}, never asks for a scrollable
+     * cursor, because most JDBC drivers implement scrollable cursors by
+     * buffering the whole result on the client. Rows before
+     * {@code firstRowOrdinal} are skipped by fetching forward, and the
+     * statement's fetch size is set to the dialect's streaming hint, so the
+     * caller can consume an arbitrarily large drill-through one row at a
+     * time, or one page at a time by calling again with a later
+     * {@code firstRowOrdinal}.
+     *
+     * @param maxRowCount Maximum number of rows to retrieve, <= 0 if unlimited
+     * @param firstRowOrdinal Ordinal of row to skip to (1-based), or 0 to
+     *   start from beginning
+     * @param fields            List of field expressions to return as the
+     *                          result set columns.
+     * @param extendedContext   If true, add non-constraining columns to the
+     *                          query for levels below each current member.
+     * @param fetchSize Number of rows to fetch per round trip, or <= 0 to use
+     *   {@link MondrianProperties#DrillThroughFetchSize}
+     * @param logger Logger. If not null and debug is enabled, log SQL here
+     * @return executed SQL statement
+     */
+    public SqlStatement drillThroughStreaming(
+        int maxRowCount,
+        int firstRowOrdinal,
+        List<OlapElement> fields,
+        boolean extendedContext,
+        int fetchSize,
+        Logger logger)
+    {
+        if (!canDrillThrough()) {
+            throw Util.newError("Cannot do DrillThrough operation on the cell");
+        }
+
+        String sql = getDrillThroughSQL(fields, extendedContext);
+        if (logger != null && logger.isDebugEnabled()) {
+            logger.debug("drill through sql (streaming): " + sql);
+        }
+
+        if (fetchSize <= 0) {
+            fetchSize =
+                MondrianProperties.instance().DrillThroughFetchSize.get();
+        }
+        final Schema schema =
+            result.getExecution().getMondrianStatement().getSchema();
+        final Dialect dialect = ((RolapSchema) schema).getDialect();
+        return executeDrillThrough(
+            sql, maxRowCount, firstRowOrdinal, ResultSet.TYPE_FORWARD_ONLY,
+            dialect.getStreamingFetchSize(fetchSize),
+            dialect.requiresTransactionForStreaming());
+    }
+
+    private SqlStatement executeDrillThrough(
+        String sql,
+        int maxRowCount,
+        int firstRowOrdinal,
+        int resultSetType,
+        int fetchSize,
+        boolean manualCommit)
+    {
+        final Statement statement =
+            result.getExecution().getMondrianStatement();
+        final Execution execution = new Execution(statement, 0);
+        final Connection connection = statement.getMondrianConnection();
+        final Locus locus =
+            new SqlStatement.StatementLocus(
+                execution,
+                "RolapCell.drillThrough",
+                "Error in drill through",
+                SqlStatementEvent.Purpose.DRILL_THROUGH, 0);
+        final SqlStatement stmt =
+            new SqlStatement(
                 connection.getDataSource(),
                 sql,
                 null,
                 maxRowCount,
                 firstRowOrdinal,
-                new SqlStatement.StatementLocus(
-                    execution,
-                    "RolapCell.drillThrough",
-                    "Error in drill through",
-                    SqlStatementEvent.Purpose.DRILL_THROUGH, 0),
+                locus,
                 resultSetType,
-                resultSetConcurrency,
-                null);
+                ResultSet.CONCUR_READ_ONLY,
+                RolapUtil.getDefaultCallback(locus));
+        stmt.setFetchSize(fetchSize);
+        stmt.setManualCommit(manualCommit);
+        stmt.execute();
+        return stmt;
     }
 
     public Object getPropertyValue(String propertyName) {
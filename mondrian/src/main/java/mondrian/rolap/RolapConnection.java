@@ -645,19 +645,36 @@ public class RolapConnection extends ConnectionBase {
         RolapUtil.MDX_LOGGER.debug( currId + ": " + Util.unparse( query ) );
       }
 
+      final RolapResultCache resultCache =
+        server.getResultShepherd().getResultCache();
+      final RolapResultCache.Key cacheKey = resultCache.makeKey( execution );
       final Locus locus = new Locus( execution, null, "Loading cells" );
       Locus.push( locus );
       Result result;
       try {
+        // Wait until the server has memory for the query.
+        MemoryGovernor.instance().admit( execution );
         statement.start( execution );
-        ( (RolapCube) query.getCube() ).clearCachedAggregations( true );
-        result = new RolapResult( execution, true );
-        int i = 0;
-        for ( QueryAxis axis : query.getAxes() ) {
-          if ( axis.isNonEmpty() ) {
-            result = new NonEmptyResult( result, execution, i );
+        final RolapResult.Snapshot snapshot =
+          cacheKey == null ? null : resultCache.get( cacheKey );
+        if ( snapshot != null ) {
+          execution.setResultCacheCounts( 1, 0 );
+          result = new RolapResult( execution, snapshot );
+        } else {
+          ( (RolapCube) query.getCube() ).clearCachedAggregations( true );
+          final RolapResult rolapResult = new RolapResult( execution, true );
+          result = rolapResult;
+          int i = 0;
+          for ( QueryAxis axis : query.getAxes() ) {
+            if ( axis.isNonEmpty() ) {
+              result = new NonEmptyResult( result, execution, i );
+            }
+            ++i;
+          }
+          if ( cacheKey != null ) {
+            execution.setResultCacheCounts( 0, 1 );
+            resultCache.put( cacheKey, rolapResult, result );
           }
-          ++i;
         }
       } finally {
         Locus.pop( locus );
@@ -691,6 +708,7 @@ public class RolapConnection extends ConnectionBase {
         "Error while executing query [" + queryString + "]" );
     } finally {
       mm.removeListener( listener );
+      MemoryGovernor.instance().release( execution );
       if ( RolapUtil.MDX_LOGGER.isDebugEnabled() ) {
         final long elapsed = execution.getElapsedMillis();
         RolapUtil.MDX_LOGGER.debug(
@@ -754,6 +772,38 @@ public class RolapConnection extends ConnectionBase {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>If the schema's {@link RolapQueryPlanCache plan cache} holds an idle plan for the same MDX text and role, it is
+   * attached to the statement instead of parsing, validating and compiling the query again. Statements that profile
+   * their queries neither use nor fill the cache: profiling calcs accumulate statistics of the statement that compiled
+   * them.
+   */
+  @Override
+  public QueryPart parseStatement(
+    Statement statement,
+    String query,
+    FunTable funTable,
+    boolean strictValidation ) {
+    final RolapQueryPlanCache planCache = schema.getQueryPlanCache();
+    if ( funTable != null || !planCache.isEnabled() || statement.getProfileHandler() != null
+      || RolapUtil.PROFILE_LOGGER.isDebugEnabled() ) {
+      return super.parseStatement( statement, query, funTable, strictValidation );
+    }
+    final Query plan = planCache.checkout( role, query, strictValidation );
+    if ( plan != null ) {
+      plan.attach( statement );
+      return plan;
+    }
+    final QueryPart queryPart =
+      super.parseStatement( statement, query, null, strictValidation );
+    if ( queryPart instanceof Query ) {
+      planCache.register( (Query) queryPart, role, query, strictValidation );
+    }
+    return queryPart;
+  }
+
   public Exp parseExpression( String expr ) {
     boolean debug = false;
     if ( getLogger().isDebugEnabled() ) {
@@ -896,6 +946,31 @@ public class RolapConnection extends ConnectionBase {
     return scenario;
   }
 
+  /**
+   * Deletes a scenario of this connection's catalog that was persisted to
+   * {@link MondrianProperties#ScenarioLogDirectory}, so that it is not restored when the schema is next loaded. A
+   * scenario that is not persisted can be deleted by calling {@link ScenarioImpl#delete()}.
+   *
+   * @param id Scenario id
+   * @return Whether a scenario was deleted
+   */
+  public boolean deleteScenario( String id ) {
+    final ScenarioImpl scenario;
+    try {
+      scenario = ScenarioImpl.lookupPersisted( schema, Integer.parseInt( id ) );
+    } catch ( NumberFormatException e ) {
+      return false;
+    }
+    if ( scenario == null ) {
+      return false;
+    }
+    scenario.delete();
+    if ( scenario.equals( this.scenario ) ) {
+      this.scenario = null;
+    }
+    return true;
+  }
+
   /**
    * A <code>NonEmptyResult</code> filters a result by removing empty rows
    * on a particular axis.
@@ -955,8 +955,9 @@ public class RolapCubeHierarchy extends RolapHierarchy {
     }
 
     @Override
-    public RolapMember makeMember( RolapMember parentMember, RolapLevel childLevel, Object value, Object captionValue,
-                                   boolean parentChild, SqlStatement stmt, Object key, int columnOffset )
+    protected RolapMember makeMember( RolapMember parentMember, RolapLevel childLevel, Object value,
+                                      Object captionValue, boolean parentChild,
+                                      List<SqlStatement.Accessor> accessors, Object key, int columnOffset )
       throws SQLException {
       final RolapCubeMember parentCubeMember = (RolapCubeMember) parentMember;
       final RolapCubeLevel childCubeLevel = (RolapCubeLevel) childLevel;
@@ -969,7 +970,7 @@ public class RolapCubeHierarchy extends RolapHierarchy {
       }
 
       RolapMember member =
-        super.makeMember( parent, childCubeLevel.getRolapLevel(), value, captionValue, parentChild, stmt, key,
+        super.makeMember( parent, childCubeLevel.getRolapLevel(), value, captionValue, parentChild, accessors, key,
           columnOffset );
 
       return memberReader.lookupCubeMember( parentCubeMember, member, childCubeLevel );
@@ -19,6 +19,7 @@ import mondrian.calc.impl.DelegatingTupleList;
 import mondrian.olap.*;
 import mondrian.olap.fun.*;
 import mondrian.server.Statement;
+import mondrian.server.monitor.SamplingProfiler;
 import mondrian.spi.Dialect;
 import mondrian.util.*;
 
@@ -109,6 +110,27 @@ public class RolapEvaluator implements Evaluator {
   private int commandCount;
   private Object[] commands;
 
+  /**
+   * For each hierarchy ordinal, the stamp of the savepoint since which the
+   * previous member of that hierarchy is on the command stack, or 0. Allows
+   * {@link #exists(int)} to answer without scanning the stack. Allocated
+   * when the first context change is recorded.
+   */
+  private int[] contextStamps;
+
+  /**
+   * Stamp of the innermost savepoint. Stamps are never reused within an
+   * evaluator, so a stale entry in {@link #contextStamps} cannot match.
+   */
+  private int stamp = 1;
+  private int lastStamp = 1;
+
+  /**
+   * Stamps of enclosing savepoints, restored when a savepoint is popped.
+   */
+  private int[] stampStack = new int[4];
+  private int stampDepth;
+
   /**
    * Set of expressions actively being expanded. Prevents infinite cycle of expansions.
    *
@@ -320,6 +342,11 @@ public class RolapEvaluator implements Evaluator {
     // enough room for CHECKSUM command, if asserts happen to be enabled
     ensureCommandCapacity( commandCount + 3 );
     commands[commandCount++] = Command.SAVEPOINT;
+    if ( stampDepth == stampStack.length ) {
+      stampStack = Arrays.copyOf( stampStack, stampDepth * 2 );
+    }
+    stampStack[stampDepth++] = stamp;
+    stamp = ++lastStamp;
     // noinspection AssertWithSideEffects
     assert !Util.DEBUG || addChecksumStateCommand();
     return commandCount1;
@@ -630,10 +657,7 @@ public class RolapEvaluator implements Evaluator {
     // 'exists' has a smaller stack to search before 'removeCalcMember'
     // adds an 'ADD_CALCULATION' command.
     if ( !exists( ordinal ) ) {
-      ensureCommandCapacity( commandCount + 3 );
-      commands[commandCount++] = previous;
-      commands[commandCount++] = ordinal;
-      commands[commandCount++] = Command.SET_CONTEXT;
+      logSetContext( previous, ordinal );
     }
     if ( previous.isEvaluated() ) {
       removeCalculation( previous, false );
@@ -667,10 +691,7 @@ public class RolapEvaluator implements Evaluator {
       // 'exists' has a smaller stack to search before 'removeCalcMember'
       // adds an 'ADD_CALCULATION' command.
       if ( !exists( ordinal ) ) {
-        ensureCommandCapacity( commandCount + 3 );
-        commands[commandCount++] = previous;
-        commands[commandCount++] = ordinal;
-        commands[commandCount++] = Command.SET_CONTEXT;
+        logSetContext( previous, ordinal );
       }
     }
     if ( previous.isEvaluated() ) {
@@ -687,29 +708,40 @@ public class RolapEvaluator implements Evaluator {
     nonAllMembers = null;
   }
 
+  /**
+   * Adds a command to the stack that restores the member of the hierarchy with a given ordinal.
+   *
+   * @param previous
+   *          Member to restore
+   * @param ordinal
+   *          Hierarchy ordinal
+   */
+  private void logSetContext( RolapMember previous, int ordinal ) {
+    ensureCommandCapacity( commandCount + 3 );
+    commands[commandCount++] = previous;
+    commands[commandCount++] = ordinal;
+    commands[commandCount++] = Command.SET_CONTEXT;
+    if ( contextStamps == null ) {
+      contextStamps = new int[currentMembers.length];
+    }
+    contextStamps[ordinal] = stamp;
+  }
+
   /**
    * Returns whether a member of the hierarchy with a given ordinal has been preserved on the stack since the last
    * savepoint.
    *
+   * <p>
+   * Runs in constant time: a context change records the stamp of the current savepoint, and is forgotten when it is
+   * undone. Aggregate functions that set the context of every tuple of a large set, within one savepoint, therefore do
+   * not scan the stack.
+   *
    * @param ordinal
    *          Hierarchy ordinal
    * @return Whether there is a member with the given hierarchy ordinal on the stack
    */
   private boolean exists( int ordinal ) {
-    for ( int i = commandCount - 1;; ) {
-      final Command command = (Command) commands[i];
-      switch ( command ) {
-        case SAVEPOINT:
-          return false;
-        case SET_CONTEXT:
-          final Integer memberOrdinal = (Integer) commands[i - 1];
-          if ( ordinal == memberOrdinal ) {
-            return true;
-          }
-          break;
-      }
-      i -= command.width;
-    }
+    return contextStamps != null && contextStamps[ordinal] == stamp;
   }
 
   private boolean isNewPosition( int ordinal ) {
@@ -775,6 +807,9 @@ public class RolapEvaluator implements Evaluator {
     RolapCalculation maxSolveMember;
     switch ( calculationCount ) {
       case 0:
+        if ( root.profile != null ) {
+          root.profile.countCell();
+        }
         final Object o = cellReader.get( this );
         if ( o == Util.nullValue ) {
           return null;
@@ -800,11 +835,15 @@ public class RolapEvaluator implements Evaluator {
     final int savepoint = savepoint();
     maxSolveMember.setContextIn( this );
     final Calc calc = maxSolveMember.getCompiledExpression( root );
+    final SamplingProfiler.ThreadProfile profile = root.profile;
+    final SamplingProfiler.Frame previousFrame =
+        profile == null ? null : profile.enter( getProfileName( maxSolveMember ) );
     final Object o;
     try {
       o = calc.evaluate( this );
     } finally {
       restore( savepoint );
+      SamplingProfiler.exit( profile, previousFrame );
     }
     if ( o == Util.nullValue ) {
       return null;
@@ -1141,6 +1180,19 @@ public class RolapEvaluator implements Evaluator {
     }
   }
 
+  /**
+   * Returns the name under which the sampling profiler reports the evaluation of a calculation.
+   */
+  private static String getProfileName( RolapCalculation calculation ) {
+    if ( calculation instanceof RolapMember ) {
+      return ( (RolapMember) calculation ).getUniqueName();
+    } else if ( calculation instanceof RolapMemberCalculation ) {
+      return ( (RolapMemberCalculation) calculation ).getMember().getUniqueName();
+    } else {
+      return "Tuple calculation";
+    }
+  }
+
   /**
    * Returns the member with the highest solve order according to AS2000 rules. This was the behavior prior to solve
    * order mode being configurable.
@@ -1340,6 +1392,7 @@ public class RolapEvaluator implements Evaluator {
       void execute( RolapEvaluator evaluator ) {
         final int memberOrdinal = (Integer) evaluator.commands[--evaluator.commandCount];
         final RolapMember member = (RolapMember) evaluator.commands[--evaluator.commandCount];
+        evaluator.contextStamps[memberOrdinal] = 0;
         evaluator.setContext( member, false );
       }
     },
@@ -1405,7 +1458,11 @@ public class RolapEvaluator implements Evaluator {
     SAVEPOINT( 0 ) {
       @Override
       void execute( RolapEvaluator evaluator ) {
-        // nothing to do; command is just a marker
+        // command is just a marker; return to the enclosing savepoint's
+        // stamp (the sentinel at the bottom of the stack has none)
+        if ( evaluator.stampDepth > 0 ) {
+          evaluator.stamp = evaluator.stampStack[--evaluator.stampDepth];
+        }
       }
     };
 
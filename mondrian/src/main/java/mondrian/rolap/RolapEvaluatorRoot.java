@@ -16,7 +16,9 @@ package mondrian.rolap;
 import mondrian.calc.*;
 import mondrian.olap.*;
 import mondrian.server.Execution;
+import mondrian.server.MemoryGovernor;
 import mondrian.server.Statement;
+import mondrian.server.monitor.SamplingProfiler;
 import mondrian.spi.Dialect;
 import mondrian.spi.DialectManager;
 
@@ -66,6 +68,11 @@ class RolapEvaluatorRoot {
   int recursionCheckCommandCount;
   public final Execution execution;
 
+  /**
+   * Profile of the query being evaluated, or null if it is not being profiled.
+   */
+  SamplingProfiler.ThreadProfile profile;
+
   /**
    * Creates a RolapEvaluatorRoot.
    *
@@ -243,6 +250,7 @@ class RolapEvaluatorRoot {
     } else {
       tmpExpResultCache.put( key, result );
     }
+    execution.allocateMemory( MemoryGovernor.EXP_CACHE_ENTRY_BYTES );
   }
 
   /**
@@ -0,0 +1,521 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.calc.TupleCollections;
+import mondrian.calc.TupleList;
+import mondrian.olap.*;
+import mondrian.rolap.aggmatcher.AggStar;
+import mondrian.rolap.sql.*;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+import mondrian.util.CancellationChecker;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Computes a NON EMPTY CrossJoin of two tuple lists by reading the
+ * combinations of level keys that occur in the fact table once, then keeping
+ * only the pairs of input tuples that match one of those combinations.
+ *
+ * <p>This is used when the CrossJoin cannot be evaluated natively (for
+ * instance because an input was computed by an expression the native
+ * evaluator does not understand), and replaces the evaluation of every tuple
+ * of the Cartesian product. The non-empty combinations are read using the
+ * same SQL as a native CrossJoin over the levels of the inputs; inputs that
+ * have few members are constrained to those members. The cost is
+ * proportional to the size of the inputs plus the number of non-empty
+ * tuples, not to the size of the product.</p>
+ *
+ * <p>The result is the same as evaluating each tuple. A tuple is non-empty
+ * if the fact table has a row for it in the current context whose measure
+ * column is not null; the SQL tests the column for sum, min, max and avg
+ * measures, whose cells are null if all of their rows are, but not for
+ * count and distinct-count measures, whose cells are never null if they
+ * have a row. Tuples that contain a calculated member are always kept, as
+ * they are when each tuple is evaluated.</p>
+ *
+ * <p>If the inputs or the context are not supported, {@link #crossJoin}
+ * returns null and the caller evaluates the tuples one by one. This is the
+ * case for virtual cubes, calculated measures, several measures, measures
+ * with other aggregators, parent-child or ragged hierarchies, and tuples
+ * mixing levels. It is also the case if a calculated member that is not in
+ * the slicer is in the context, or if a calculated measure refers to a
+ * member of a hierarchy of the inputs: then the value of a tuple does not
+ * depend only on the fact table rows of its members.</p>
+ *
+ * @see MondrianProperties#EnableHashNonEmptyCrossJoin
+ */
+public class RolapHashNonEmptyCrossJoin {
+    private static final Logger LOGGER =
+        LogManager.getLogger(RolapHashNonEmptyCrossJoin.class);
+
+    private RolapHashNonEmptyCrossJoin() {
+    }
+
+    /**
+     * Returns the non-empty tuples of the CrossJoin of two lists, in the
+     * order of the CrossJoin, or null if this method cannot compute them.
+     *
+     * @param evaluator Evaluator
+     * @param list1 First input
+     * @param list2 Second input
+     * @param measureSet Stored measures that decide whether a tuple is
+     *   empty; if empty, the current measure is used. This method only
+     *   handles a single measure
+     * @param memberSet Members referenced by calculated measures, whose
+     *   hierarchies must not be constrained
+     * @return Mutable list of non-empty tuples, or null
+     */
+    public static TupleList crossJoin(
+        RolapEvaluator evaluator,
+        TupleList list1,
+        TupleList list2,
+        Set<Member> measureSet,
+        Set<Member> memberSet)
+    {
+        final RolapCube cube = evaluator.getCube();
+        if (cube.isVirtual() || list1.isEmpty() || list2.isEmpty()) {
+            return null;
+        }
+        final int arity1 = list1.getArity();
+        final int arity = arity1 + list2.getArity();
+        final RolapLevel[] levels = new RolapLevel[arity];
+        final List<Set<RolapMember>> positionMembers =
+            new ArrayList<Set<RolapMember>>(arity);
+        for (int i = 0; i < arity; i++) {
+            positionMembers.add(new LinkedHashSet<RolapMember>());
+        }
+        if (!collectLevels(list1, 0, levels, positionMembers)
+            || !collectLevels(list2, arity1, levels, positionMembers))
+        {
+            return null;
+        }
+
+        final RolapStoredMeasure measure =
+            storedMeasure(evaluator, cube, measureSet);
+        if (measure == null) {
+            return null;
+        }
+        final boolean nullable;
+        final RolapAggregator aggregator = measure.getAggregator();
+        if (aggregator == RolapAggregator.Count
+            || aggregator == RolapAggregator.DistinctCount)
+        {
+            nullable = false;
+        } else if (aggregator == RolapAggregator.Sum
+            || aggregator == RolapAggregator.Min
+            || aggregator == RolapAggregator.Max
+            || aggregator == RolapAggregator.Avg)
+        {
+            nullable = true;
+        } else {
+            return null;
+        }
+
+        final TupleList nonEmptyTuples;
+        final int savepoint = evaluator.savepoint();
+        try {
+            if (!setContext(evaluator, levels, memberSet, measure)
+                || !SqlContextConstraint.isValidContext(
+                    evaluator, true, levels, false))
+            {
+                return null;
+            }
+            final CrossJoinArg[] args = new CrossJoinArg[arity];
+            for (int i = 0; i < arity; i++) {
+                args[i] =
+                    makeArg(evaluator, levels[i], positionMembers.get(i));
+            }
+            if (SqlConstraintUtils.measuresConflictWithMembers(
+                    evaluator.getQuery().getMeasuresMembers(), args))
+            {
+                return null;
+            }
+            final TupleConstraint constraint =
+                nullable
+                    ? new NotNullMeasureConstraint(
+                        args,
+                        evaluator,
+                        (RolapStar.Measure) measure.getStarMeasure())
+                    : new RolapNativeCrossJoin.NonEmptyCrossJoinConstraint(
+                        args, evaluator);
+            final SqlTupleReader tupleReader = new SqlTupleReader(constraint);
+            for (RolapLevel level : levels) {
+                tupleReader.addLevelMembers(
+                    level,
+                    level.getHierarchy().getMemberReader().getMemberBuilder(),
+                    null);
+            }
+            nonEmptyTuples =
+                tupleReader.readTuples(
+                    evaluator.getSchemaReader().getDataSource(), null, null);
+        } finally {
+            evaluator.restore(savepoint);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                "hash non-empty crossjoin: " + list1.size() + " x "
+                + list2.size() + ", " + nonEmptyTuples.size()
+                + " non-empty key combinations");
+        }
+        return filter(list1, list2, nonEmptyTuples);
+    }
+
+    /**
+     * Finds the level of each position of a list, and collects the members
+     * at each position. Returns false if a position mixes levels, has only
+     * calculated members, or is on a level that the tuple reader cannot
+     * read.
+     */
+    private static boolean collectLevels(
+        TupleList list,
+        int offset,
+        RolapLevel[] levels,
+        List<Set<RolapMember>> positionMembers)
+    {
+        for (List<Member> tuple : list) {
+            for (int i = 0; i < tuple.size(); i++) {
+                final Member member = tuple.get(i);
+                if (member.isCalculated() || member.isNull()) {
+                    continue;
+                }
+                if (!(member instanceof RolapMember)
+                    || !(member.getLevel() instanceof RolapLevel))
+                {
+                    return false;
+                }
+                final RolapLevel level = (RolapLevel) member.getLevel();
+                if (levels[offset + i] == null) {
+                    if (level.isAll()
+                        || level.isParentChild()
+                        || level.getHierarchy().isRagged()
+                        || level.getDimension().isHighCardinality())
+                    {
+                        return false;
+                    }
+                    levels[offset + i] = level;
+                } else if (!levels[offset + i].equals(level)) {
+                    return false;
+                }
+                positionMembers.get(offset + i).add((RolapMember) member);
+            }
+        }
+        for (int i = 0; i < list.getArity(); i++) {
+            if (levels[offset + i] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the stored measure whose fact table decides emptiness, or null
+     * if emptiness depends on a calculated measure or on several measures.
+     * With several measures, a tuple is non-empty if any of them is, which a
+     * single fact table row test cannot decide, so the caller evaluates the
+     * tuples one by one.
+     */
+    private static RolapStoredMeasure storedMeasure(
+        RolapEvaluator evaluator,
+        RolapCube cube,
+        Set<Member> measureSet)
+    {
+        final Member measure;
+        if (measureSet.isEmpty()) {
+            final Set<Member> slicerMeasures =
+                evaluator.getSlicerMembersByHierarchy().get(
+                    evaluator.getMembers()[0].getHierarchy());
+            if (slicerMeasures != null && slicerMeasures.size() > 1) {
+                return null;
+            }
+            measure = evaluator.getMembers()[0];
+        } else if (measureSet.size() == 1) {
+            measure = measureSet.iterator().next();
+        } else {
+            return null;
+        }
+        if (!(measure instanceof RolapStoredMeasure)
+            || ((RolapStoredMeasure) measure).getCube() != cube)
+        {
+            return null;
+        }
+        return (RolapStoredMeasure) measure;
+    }
+
+    /**
+     * Sets the context in which emptiness is decided: the hierarchies of the
+     * inputs and of members referenced by calculated measures are at their
+     * 'all' member, and so are the hierarchies that are not constrained by
+     * the slicer. This matches the context used to evaluate tuples one by
+     * one. Returns false if a hierarchy that needs to be unconstrained has
+     * no 'all' member, if a calculated measure refers to a member of a
+     * hierarchy of the inputs (whose tuples are then evaluated with that
+     * hierarchy at its 'all' member), or if a calculated member that is not
+     * in the slicer is in the context.
+     */
+    private static boolean setContext(
+        RolapEvaluator evaluator,
+        RolapLevel[] levels,
+        Set<Member> memberSet,
+        RolapStoredMeasure measure)
+    {
+        final Set<Hierarchy> hierarchies = new HashSet<Hierarchy>();
+        for (RolapLevel level : levels) {
+            hierarchies.add(level.getHierarchy());
+        }
+        for (Member member : memberSet) {
+            if (!member.isMeasure()
+                && hierarchies.contains(member.getHierarchy()))
+            {
+                return false;
+            }
+        }
+        for (Member member : memberSet) {
+            if (!member.isMeasure()) {
+                hierarchies.add(member.getHierarchy());
+            }
+        }
+        final Map<Hierarchy, Set<Member>> slicerMembers =
+            evaluator.getSlicerMembersByHierarchy();
+        for (Member member : evaluator.getMembers()) {
+            if (member.isMeasure()
+                || hierarchies.contains(member.getHierarchy()))
+            {
+                continue;
+            }
+            final Set<Member> members =
+                slicerMembers.get(member.getHierarchy());
+            final boolean slicer = members != null && members.contains(member);
+            if (member.isCalculated()) {
+                // A calculated slicer member is replaced by the 'all' member
+                // when tuples are evaluated one by one; any other is kept,
+                // and its formula decides emptiness.
+                if (!slicer) {
+                    return false;
+                }
+                hierarchies.add(member.getHierarchy());
+            } else if (!slicer && !member.isAll()) {
+                hierarchies.add(member.getHierarchy());
+            }
+        }
+        for (Hierarchy hierarchy : hierarchies) {
+            if (!hierarchy.hasAll()) {
+                return false;
+            }
+            evaluator.setContext(hierarchy.getAllMember());
+        }
+        evaluator.setContext(measure);
+        return true;
+    }
+
+    /**
+     * Creates the argument that reads the members of a position; constrains
+     * the SQL to the members of the input if there are few of them.
+     */
+    private static CrossJoinArg makeArg(
+        RolapEvaluator evaluator,
+        RolapLevel level,
+        Set<RolapMember> members)
+    {
+        if (members.size()
+            <= MondrianProperties.instance().MaxConstraints.get())
+        {
+            final CrossJoinArg arg =
+                MemberListCrossJoinArg.create(
+                    evaluator,
+                    new ArrayList<RolapMember>(members),
+                    false,
+                    false);
+            if (arg != null && level.equals(arg.getLevel())) {
+                return arg;
+            }
+        }
+        return new DescendantsCrossJoinArg(level, null);
+    }
+
+    /**
+     * Constraint that reads the key combinations of the fact table rows
+     * whose measure column is not null. The cell of a sum, min, max or avg
+     * measure is null if all of its rows have a null measure, so such rows
+     * do not make a tuple non-empty.
+     */
+    private static class NotNullMeasureConstraint
+        extends RolapNativeCrossJoin.NonEmptyCrossJoinConstraint
+    {
+        private final RolapStar.Measure measure;
+
+        NotNullMeasureConstraint(
+            CrossJoinArg[] args,
+            RolapEvaluator evaluator,
+            RolapStar.Measure measure)
+        {
+            super(args, evaluator);
+            this.measure = measure;
+        }
+
+        public void addConstraint(
+            SqlQuery sqlQuery,
+            RolapCube baseCube,
+            AggStar aggStar)
+        {
+            super.addConstraint(sqlQuery, baseCube, aggStar);
+            final String expr;
+            if (aggStar == null) {
+                measure.getTable().addToFrom(sqlQuery, false, true);
+                expr = measure.generateExprString(sqlQuery);
+            } else {
+                // The tuple reader only chooses an aggregate table that has
+                // the measure of the context, which is this measure.
+                final AggStar.Table.Column column =
+                    aggStar.lookupColumn(measure.getBitPosition());
+                column.getTable().addToFrom(sqlQuery, false, true);
+                expr = column.generateExprString(sqlQuery);
+            }
+            sqlQuery.addWhere(expr + " is not null");
+        }
+
+        public Object getCacheKey() {
+            return Arrays.asList(super.getCacheKey(), "not null", measure);
+        }
+    }
+
+    /**
+     * Returns the pairs of tuples from two lists that occur in a list of
+     * non-empty tuples or contain a calculated member, in CrossJoin order.
+     */
+    static TupleList filter(
+        TupleList list1,
+        TupleList list2,
+        TupleList nonEmptyTuples)
+    {
+        final int arity1 = list1.getArity();
+        final int arity = arity1 + list2.getArity();
+        final long size2 = list2.size();
+        final Execution execution = Locus.peek().execution;
+        final List<Integer> calcIndexes1 = new ArrayList<Integer>();
+        final List<Integer> calcIndexes2 = new ArrayList<Integer>();
+        final Map<List<Member>, int[]> index1 = index(list1, calcIndexes1);
+        final Map<List<Member>, int[]> index2 = index(list2, calcIndexes2);
+
+        long[] codes = new long[Math.max(nonEmptyTuples.size(), 16)];
+        int codeCount = 0;
+        int iteration = 0;
+        for (List<Member> tuple : nonEmptyTuples) {
+            CancellationChecker.checkCancelOrTimeout(iteration++, execution);
+            final int[] indexes1 = index1.get(tuple.subList(0, arity1));
+            if (indexes1 == null) {
+                continue;
+            }
+            final int[] indexes2 = index2.get(tuple.subList(arity1, arity));
+            if (indexes2 == null) {
+                continue;
+            }
+            for (int i1 : indexes1) {
+                for (int i2 : indexes2) {
+                    if (codeCount == codes.length) {
+                        codes = Arrays.copyOf(codes, codeCount * 2);
+                    }
+                    codes[codeCount++] = i1 * size2 + i2;
+                }
+            }
+        }
+        for (int i1 : calcIndexes1) {
+            for (int i2 = 0; i2 < size2; i2++) {
+                CancellationChecker.checkCancelOrTimeout(
+                    iteration++, execution);
+                if (codeCount == codes.length) {
+                    codes = Arrays.copyOf(codes, codeCount * 2);
+                }
+                codes[codeCount++] = i1 * size2 + i2;
+            }
+        }
+        for (int i2 : calcIndexes2) {
+            for (int i1 = 0; i1 < list1.size(); i1++) {
+                CancellationChecker.checkCancelOrTimeout(
+                    iteration++, execution);
+                if (codeCount == codes.length) {
+                    codes = Arrays.copyOf(codes, codeCount * 2);
+                }
+                codes[codeCount++] = i1 * size2 + i2;
+            }
+        }
+        Arrays.sort(codes, 0, codeCount);
+
+        final TupleList result =
+            TupleCollections.createList(arity, codeCount);
+        final Member[] members = new Member[arity];
+        long previous = -1;
+        for (int i = 0; i < codeCount; i++) {
+            final long code = codes[i];
+            if (code == previous) {
+                continue;
+            }
+            previous = code;
+            final List<Member> tuple1 = list1.get((int) (code / size2));
+            final List<Member> tuple2 = list2.get((int) (code % size2));
+            for (int j = 0; j < arity1; j++) {
+                members[j] = tuple1.get(j);
+            }
+            for (int j = arity1; j < arity; j++) {
+                members[j] = tuple2.get(j - arity1);
+            }
+            result.addTuple(members);
+        }
+        Util.checkCJResultLimit(result.size());
+        return result;
+    }
+
+    /**
+     * Maps each tuple of a list that has no calculated or null members to
+     * the positions where it occurs; adds the positions of tuples with
+     * calculated members to a list. Tuples with null members are empty, and
+     * are in neither.
+     */
+    private static Map<List<Member>, int[]> index(
+        TupleList list,
+        List<Integer> calcIndexes)
+    {
+        final Map<List<Member>, int[]> map =
+            new HashMap<List<Member>, int[]>(list.size() * 2);
+        int i = 0;
+        tuples:
+        for (List<Member> tuple : list) {
+            final int n = i++;
+            for (Member member : tuple) {
+                if (member.isCalculated()) {
+                    calcIndexes.add(n);
+                    continue tuples;
+                }
+                if (member.isNull()) {
+                    continue tuples;
+                }
+            }
+            final int[] indexes = map.get(tuple);
+            if (indexes == null) {
+                map.put(tuple, new int[] {n});
+            } else {
+                final int[] newIndexes =
+                    Arrays.copyOf(indexes, indexes.length + 1);
+                newIndexes[indexes.length] = n;
+                map.put(tuple, newIndexes);
+            }
+        }
+        return map;
+    }
+}
+
+// End RolapHashNonEmptyCrossJoin.java
@@ -65,6 +65,13 @@ class RolapMemberCalculation implements RolapCalculation {
         return solveOrder;
     }
 
+    /**
+     * Returns the calculated member.
+     */
+    RolapMember getMember() {
+        return member;
+    }
+
     public int getHierarchyOrdinal() {
         return member.getHierarchy().getOrdinalInCube();
     }
@@ -26,6 +26,7 @@ import mondrian.olap.Member;
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.NamedSet;
 import mondrian.olap.Util;
+import mondrian.server.monitor.SamplingProfiler;
 
 /**
  * Evaluation context for a particular named set.
@@ -91,6 +92,8 @@ class RolapNamedSetEvaluator implements Evaluator.NamedSetEvaluator, TupleList.P
       RolapResult.LOGGER.debug( "Named set " + namedSet.getName() + ": starting evaluation" );
     }
     list = DUMMY_LIST; // recursion detection
+    final SamplingProfiler.ThreadProfile profile = rrer.profile;
+    final SamplingProfiler.Frame previousFrame = SamplingProfiler.enter( profile, "Set " + namedSet.getName() );
     try {
       final Calc calc = rrer.getCompiled( namedSet.getExp(), false, ResultStyle.ITERABLE );
       TupleIterable iterable = (TupleIterable) rrer.result.evaluateExp( calc, rrer.result.slicerEvaluator, evaluator );
@@ -124,6 +127,7 @@ class RolapNamedSetEvaluator implements Evaluator.NamedSetEvaluator, TupleList.P
       // AbstractList.set(int, Object).
       this.list = rawList.withPositionCallback( this );
     } finally {
+      SamplingProfiler.exit( profile, previousFrame );
       if ( this.list == DUMMY_LIST ) {
         this.list = null;
       }
@@ -0,0 +1,205 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.olap.*;
+
+import java.util.*;
+
+/**
+ * Cache of parsed, validated and compiled queries ("plans") against a
+ * schema, shared by all connections to that schema.
+ *
+ * <p>A {@link Query} holds the state of the statement that executes it
+ * (parameter values, evaluation cache), so a plan is used by one statement
+ * at a time. {@link #checkout} removes an idle plan from the cache; when
+ * the query is closed, {@link #release} makes it available again. A plan
+ * is keyed by the text of the MDX statement, the role that validated it,
+ * and whether validation was strict.</p>
+ *
+ * <p>Queries of statements that have profiling enabled are not cached,
+ * because their compiled calcs accumulate profiling statistics.</p>
+ *
+ * <p>The cache is disabled unless
+ * {@link MondrianProperties#QueryPlanCacheMaxEntries} is positive.</p>
+ *
+ * @see RolapSchema#getQueryPlanCache()
+ */
+public class RolapQueryPlanCache {
+
+    /**
+     * Idle plans, least recently used key first. Guarded by {@code this}.
+     */
+    private final LinkedHashMap<Key, List<Query>> idle =
+        new LinkedHashMap<Key, List<Query>>(16, 0.75f, true);
+
+    /**
+     * Number of plans in {@link #idle}. Guarded by {@code this}.
+     */
+    private int idleCount;
+
+    /**
+     * Incremented by {@link #clear()}. Plans registered before then are not
+     * returned to the cache. Guarded by {@code this}.
+     */
+    private long generation;
+
+    /**
+     * Returns whether the cache is enabled.
+     */
+    public boolean isEnabled() {
+        return MondrianProperties.instance().QueryPlanCacheMaxEntries.get()
+            > 0;
+    }
+
+    /**
+     * Removes an idle plan from the cache, or returns null if there is none.
+     * The caller must {@link Query#attach attach} it to its statement.
+     *
+     * @param role Role of the connection that will execute the query
+     * @param mdx MDX text
+     * @param strictValidation Whether invalid members are errors
+     * @return Query, or null
+     */
+    public synchronized Query checkout(
+        Role role,
+        String mdx,
+        boolean strictValidation)
+    {
+        final Key key = new Key(role, mdx, strictValidation, generation);
+        final List<Query> queries = idle.get(key);
+        if (queries == null) {
+            return null;
+        }
+        final Query query = queries.remove(queries.size() - 1);
+        if (queries.isEmpty()) {
+            idle.remove(key);
+        }
+        --idleCount;
+        return query;
+    }
+
+    /**
+     * Marks a newly parsed query as a plan that can be returned to this
+     * cache when it is closed.
+     *
+     * @param query Query
+     * @param role Role of the connection that validated the query
+     * @param mdx MDX text from which the query was parsed
+     * @param strictValidation Whether invalid members are errors
+     */
+    public void register(
+        Query query,
+        Role role,
+        String mdx,
+        boolean strictValidation)
+    {
+        final long generation;
+        synchronized (this) {
+            generation = this.generation;
+        }
+        query.setPlanCacheKey(
+            new Key(role, mdx, strictValidation, generation));
+    }
+
+    /**
+     * Returns a plan to the cache. Does nothing if the query was not
+     * registered, has been modified, or is already idle.
+     *
+     * @param query Query
+     */
+    public synchronized void release(Query query) {
+        final Key key = (Key) query.getPlanCacheKey();
+        final int maxEntries =
+            MondrianProperties.instance().QueryPlanCacheMaxEntries.get();
+        if (key == null || maxEntries <= 0 || key.generation != generation) {
+            return;
+        }
+        List<Query> queries = idle.get(key);
+        if (queries == null) {
+            queries = new ArrayList<Query>(1);
+            idle.put(key, queries);
+        } else {
+            for (Query q : queries) {
+                if (q == query) {
+                    return;
+                }
+            }
+        }
+        queries.add(query);
+        ++idleCount;
+        final Iterator<List<Query>> iterator = idle.values().iterator();
+        while (idleCount > maxEntries && iterator.hasNext()) {
+            idleCount -= iterator.next().size();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all plans, and prevents plans that are currently in use from
+     * being returned to the cache. Called when members that plans may refer
+     * to have been flushed or edited.
+     */
+    public synchronized void clear() {
+        ++generation;
+        idle.clear();
+        idleCount = 0;
+    }
+
+    /**
+     * Returns the number of idle plans. For testing.
+     */
+    synchronized int size() {
+        return idleCount;
+    }
+
+    /**
+     * Key of a plan.
+     */
+    private static class Key {
+        private final Role role;
+        private final String mdx;
+        private final boolean strictValidation;
+        private final long generation;
+
+        Key(
+            Role role,
+            String mdx,
+            boolean strictValidation,
+            long generation)
+        {
+            this.role = role;
+            this.mdx = mdx;
+            this.strictValidation = strictValidation;
+            this.generation = generation;
+        }
+
+        public int hashCode() {
+            return Util.hash(
+                Util.hash(mdx.hashCode(), role),
+                strictValidation ? 1 : 0);
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return this.mdx.equals(that.mdx)
+                && Util.equals(this.role, that.role)
+                && this.strictValidation == that.strictValidation;
+        }
+    }
+}
+
+// End RolapQueryPlanCache.java
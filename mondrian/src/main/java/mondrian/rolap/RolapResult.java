@@ -13,10 +13,12 @@
 package mondrian.rolap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
@@ -52,6 +54,7 @@ import mondrian.olap.DimensionType;
 import mondrian.olap.Evaluator;
 import mondrian.olap.Exp;
 import mondrian.olap.ExpCacheDescriptor;
+import mondrian.olap.Formula;
 import mondrian.olap.Hierarchy;
 import mondrian.olap.Member;
 import mondrian.olap.MemberBase;
@@ -62,6 +65,7 @@ import mondrian.olap.Position;
 import mondrian.olap.Property;
 import mondrian.olap.Query;
 import mondrian.olap.QueryAxis;
+import mondrian.olap.Result;
 import mondrian.olap.ResultBase;
 import mondrian.olap.ResultLimitExceededException;
 import mondrian.olap.SchemaReader;
@@ -78,6 +82,9 @@ import mondrian.rolap.agg.AggregationManager;
 import mondrian.rolap.agg.CellRequestQuantumExceededException;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
+import mondrian.server.MemoryGovernor;
+import mondrian.server.monitor.Metrics;
+import mondrian.server.monitor.SamplingProfiler;
 import mondrian.spi.CellFormatter;
 import mondrian.util.CancellationChecker;
 import mondrian.util.Format;
@@ -93,6 +100,12 @@ public class RolapResult extends ResultBase {
 
   static final Logger LOGGER = LogManager.getLogger( ResultBase.class );
 
+  /**
+   * Maximum number of pages of cells kept when cells are evaluated on demand; the least recently used page is
+   * discarded first.
+   */
+  private static final int MAX_CELL_PAGES = 16;
+
   private RolapEvaluator evaluator;
   RolapEvaluator slicerEvaluator;
   private final CellKey point;
@@ -108,6 +121,15 @@ public class RolapResult extends ResultBase {
   private final Map<Integer, Integer> positionsIndexes = new HashMap<Integer, Integer>();
   private final Map<Integer, List<List<Member>>> positionsCurrent = new HashMap<Integer, List<List<Member>>>();
 
+  /**
+   * Pages of cells, keyed by page number, in access order, if cells are evaluated on demand (see
+   * {@link MondrianProperties#LazyCellEvaluation}); null if all cells were evaluated when the query was executed.
+   */
+  private Map<Integer, CellInfoPage> cellPages;
+  private int cellPageSize;
+  private int lazyCellCount;
+  private List<Member> cellSlicerTuple;
+
   /**
    * Creates a RolapResult.
    *
@@ -143,6 +165,8 @@ public class RolapResult extends ResultBase {
       return;
     }
 
+    final SamplingProfiler.ThreadProfile profile = SamplingProfiler.begin( cube.getName() );
+    evaluator.root.profile = profile;
     boolean normalExecution = true;
     try {
       // This call to clear the cube's cache only has an
@@ -272,6 +296,10 @@ public class RolapResult extends ResultBase {
       // Used by named sets in slicer
       slicerEvaluator = evaluator.push();
 
+      final String cubeName = execution.getCubeName();
+      long phaseStartNanos = System.nanoTime();
+      SamplingProfiler.Frame previousFrame = SamplingProfiler.enter( profile, "Slicer" );
+
       /////////////////////////////////////////////////////////////////
       // Determine Slicer
       //
@@ -348,7 +376,8 @@ public class RolapResult extends ResultBase {
                     evaluator.setContext( member );
                   }
                 }
-                return AggregateFunDef.AggregateCalc.aggregate( valueCalc, evaluator, list );
+                return AggregateFunDef.AggregateCalc.aggregate( valueCalc, evaluator, list,
+                    MondrianProperties.instance().EnableNativeCompoundSlicer.get() );
               } finally {
                 evaluator.getTiming().markEnd( "EvalForSlicer" );
               }
@@ -444,6 +473,10 @@ public class RolapResult extends ResultBase {
       // throws exception if number of members exceeds limit
       axisMembers.checkLimit();
 
+      Metrics.MDX_PHASE.recordSince( phaseStartNanos, cubeName, "slicer" );
+      SamplingProfiler.exit( profile, previousFrame );
+      phaseStartNanos = System.nanoTime();
+
       /////////////////////////////////////////////////////////////////
       // Execute Axes
       //
@@ -457,6 +490,7 @@ public class RolapResult extends ResultBase {
             for ( int i = 0; i < axes.length; i++ ) {
               QueryAxis axis = query.axes[i];
               final Calc calc = query.axisCalcs[i];
+              previousFrame = SamplingProfiler.enter( profile, "Axis " + axis.getAxisName() );
               TupleIterable tupleIterable =
                   evalExecute( nonAllMembers, nonAllMembers.size() - 1, evaluator, axis, calc );
 
@@ -485,23 +519,43 @@ public class RolapResult extends ResultBase {
               }
               
               this.axes[i] = new RolapAxis( TupleCollections.materialize( tupleIterable, false ) );
+              SamplingProfiler.exit( profile, previousFrame );
             }
           } while ( redo );
         } catch ( CellRequestQuantumExceededException e ) {
           // Safe to ignore. Need to call 'phase' and loop again.
+          SamplingProfiler.exit( profile, previousFrame );
         }
       } while ( phase() );
 
       evaluator.restore( savepoint );
 
-      // Get value for each Cell
-      final Locus locus = new Locus( execution, null, "Loading cells" );
-      Locus.push( locus );
-      try {
-        executeBody( internalSlicerEvaluator, query, new int[axes.length] );
-      } finally {
-        Util.explain( evaluator.root.statement.getProfileHandler(), "QueryBody:", null, evaluator.getTiming() );
-        Locus.pop( locus );
+      Metrics.MDX_PHASE.recordSince( phaseStartNanos, cubeName, "axes" );
+      phaseStartNanos = System.nanoTime();
+
+      if ( canEvaluateCellsLazily() ) {
+        // Leave the cells until the client asks for them. Remember the
+        // slicer tuple that executeStripe would have used, because the
+        // slicer axis is reverted below.
+        final TupleList slicerTupleList = ( (RolapAxis) slicerAxis ).getTupleList();
+        cellSlicerTuple = slicerTupleList.isEmpty() ? null : slicerTupleList.get( 0 );
+        startLazyCells();
+      } else {
+        useCompactCellsIfLarge();
+
+        // Get value for each Cell
+        final Locus locus = new Locus( execution, null, "Loading cells" );
+        Locus.push( locus );
+        previousFrame = SamplingProfiler.enter( profile, "Cells" );
+        try {
+          executeBody( internalSlicerEvaluator, query, new int[axes.length] );
+        } finally {
+          SamplingProfiler.exit( profile, previousFrame );
+          Util.explain( evaluator.root.statement.getProfileHandler(), "QueryBody:", null, evaluator.getTiming() );
+          Locus.pop( locus );
+        }
+
+        Metrics.MDX_PHASE.recordSince( phaseStartNanos, cubeName, "cells" );
       }
 
       // If you are very close to running out of memory due to
@@ -517,6 +571,11 @@ public class RolapResult extends ResultBase {
       // revert the slicer axis so that the original slicer
       // can be included in the result.
       this.slicerAxis = savedSlicerAxis;
+
+      if ( batchingReader.getFootprints() != null ) {
+        aggMgr.prefetcher.executed(
+          statement.getMondrianConnection().getId(), batchingReader.getFootprints() );
+      }
     } catch ( ResultLimitExceededException ex ) {
       // If one gets a ResultLimitExceededException, then
       // don't count on anything being worth caching.
@@ -527,6 +586,7 @@ public class RolapResult extends ResultBase {
       evaluator = null;
       slicerEvaluator = null;
       cellInfos = null;
+      cellPages = null;
       batchingReader = null;
       for ( int i = 0; i < axes.length; i++ ) {
         axes[i] = null;
@@ -537,6 +597,7 @@ public class RolapResult extends ResultBase {
 
       throw ex;
     } finally {
+      SamplingProfiler.end( profile );
       if ( normalExecution ) {
         // Expression cache duration is for each query. It is time to
         // clear out the whole expression cache at the end of a query.
@@ -549,6 +610,49 @@ public class RolapResult extends ResultBase {
     }
   }
 
+  /**
+   * Creates a RolapResult from a snapshot of an earlier result of the same query, without evaluating the query. The
+   * result belongs to the given execution: drill-through, cell properties and format strings use its statement, and
+   * its cells are copies that it may modify.
+   *
+   * @param execution
+   *          Execution of a statement
+   * @param snapshot
+   *          Snapshot of an earlier result
+   */
+  RolapResult( final Execution execution, Snapshot snapshot ) {
+    this( execution, false );
+
+    // Calculated members defined by the query belong to the query that
+    // created them; use this query's.
+    final Map<String, Member> formulaMembers = new HashMap<String, Member>();
+    for ( Formula formula : query.getFormulas() ) {
+      if ( formula.isMember() ) {
+        formulaMembers.put( formula.getMdxMember().getUniqueName(), formula.getMdxMember() );
+      }
+    }
+    for ( int i = 0; i < axes.length; i++ ) {
+      axes[i] = new RolapAxis( snapshot.restoreAxis( i, formulaMembers ) );
+      positionsHighCardinality.put( i, false );
+    }
+    final TupleList slicerTupleList = snapshot.restoreAxis( axes.length, formulaMembers );
+    slicerAxis = new RolapAxis( slicerTupleList );
+    if ( !slicerTupleList.isEmpty() ) {
+      for ( Member member : slicerTupleList.get( 0 ) ) {
+        evaluator.setContext( member );
+      }
+    }
+    makeModulos();
+    for ( int ordinal = 0; ordinal < snapshot.cells.length; ordinal++ ) {
+      final CellInfo cell = snapshot.cells[ordinal];
+      final CellInfo ci = cellInfos.create( modulos.getCellPos( ordinal ) );
+      ci.value = cell.value;
+      ci.formatString = cell.formatString;
+      ci.valueFormatter = cell.valueFormatter;
+      cellInfos.update( ci );
+    }
+  }
+
   /**
    * Sets slicerAxis to a dummy placeholder RolapAxis containing a single item TupleList with the null member of
    * hierarchy. This is used with compound slicer evaluation to avoid the slicer tuple list from interacting with the
@@ -872,6 +976,10 @@ public class RolapResult extends ResultBase {
       throw Util.newError( "coordinates should have dimension " + point.size() );
     }
 
+    if ( cellPages != null ) {
+      return getLazyCell( pos );
+    }
+
     for ( int i = 0; i < pos.length; i++ ) {
       if ( positionsHighCardinality.get( i ) ) {
         final Locus locus = new Locus( execution, null, "Loading cells" );
@@ -981,6 +1089,22 @@ public class RolapResult extends ResultBase {
     }
   }
 
+  /**
+   * Returns whether this result can be copied into a {@link Snapshot}: all of its cells have been evaluated, reading a
+   * cell does not evaluate it again, and its slicer is at most one tuple.
+   */
+  boolean canSnapshot() {
+    if ( cellPages != null || slicerAxis.getPositions().size() > 1 ) {
+      return false;
+    }
+    for ( int i = 0; i < axes.length; i++ ) {
+      if ( Boolean.TRUE.equals( positionsHighCardinality.get( i ) ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   boolean isDirty() {
     return batchingReader.isDirty();
   }
@@ -1064,77 +1188,7 @@ public class RolapResult extends ResultBase {
       TupleList tupleList = axis.getTupleList();
       final Iterator<List<Member>> tupleIterator = tupleList.iterator();
       if ( tupleIterator.hasNext() ) {
-        final List<Member> members = tupleIterator.next();
-        execution.checkCancelOrTimeout();
-        final int savepoint = revaluator.savepoint();
-        revaluator.setContext( members );
-        Object o;
-        try {
-          o = revaluator.evaluateCurrent();
-        } catch ( MondrianEvaluationException e ) {
-          LOGGER.warn( "Mondrian: exception in executeStripe.", e );
-          o = e;
-        } finally {
-          revaluator.restore( savepoint );
-        }
-
-        CellInfo ci = null;
-
-        // Get the Cell's format string and value formatting
-        // Object.
-        try {
-          // This code is a combination of the code found in
-          // the old RolapResult
-          // <code>getCellNoDefaultFormatString</code> method and
-          // the old RolapCell <code>getFormattedValue</code> method.
-
-          // Create a CellInfo object for the given position
-          // integer array.
-          ci = cellInfos.create( point.getOrdinals() );
-
-          String cachedFormatString = null;
-
-          // Determine if there is a CellFormatter registered for
-          // the current Cube's Measure's Dimension. If so,
-          // then find or create a CellFormatterValueFormatter
-          // for it. If not, then find or create a Locale based
-          // FormatValueFormatter.
-          final RolapCube cube = getCube();
-          Hierarchy measuresHierarchy = cube.getMeasuresHierarchy();
-          RolapMeasure m = (RolapMeasure) revaluator.getContext( measuresHierarchy );
-          ValueFormatter valueFormatter = m.getFormatter();
-          if ( valueFormatter == null ) {
-            cachedFormatString = revaluator.getFormatString();
-            Locale locale = statement.getMondrianConnection().getLocale();
-            valueFormatter = formatValueFormatters.get( locale );
-            if ( valueFormatter == null ) {
-              valueFormatter = new FormatValueFormatter( locale );
-              formatValueFormatters.put( locale, valueFormatter );
-            }
-          }
-
-          ci.formatString = cachedFormatString;
-          ci.valueFormatter = valueFormatter;
-        } catch ( ResultLimitExceededException e ) {
-          // Do NOT ignore a ResultLimitExceededException!!!
-          throw e;
-        } catch ( CellRequestQuantumExceededException e ) {
-          // We need to throw this so another phase happens.
-          throw e;
-        } catch ( MondrianEvaluationException e ) {
-          // ignore but warn
-          LOGGER.warn( "Mondrian: exception in executeStripe.", e );
-        } catch ( Error e ) {
-          // Errors indicate fatal JVM problems; do not discard
-          throw e;
-        } catch ( Throwable e ) {
-          LOGGER.warn( "Mondrian: exception in executeStripe.", e );
-          Util.discard( e );
-        }
-
-        if ( o != RolapUtil.valueNotReadyException ) {
-          ci.value = o;
-        }
+        executeCell( revaluator, tupleIterator.next(), cellInfos );
       }
     } else {
       RolapAxis axis = (RolapAxis) axes[axisOrdinal];
@@ -1185,17 +1239,7 @@ public class RolapResult extends ResultBase {
           pi++;
         }
       } else {
-        for ( List<Member> tuple : tupleList ) {
-          List<Member> measures = new ArrayList<Member>( statement.getQuery().getMeasuresMembers() );
-          for ( Member measure : measures ) {
-            if ( measure instanceof RolapBaseCubeMeasure ) {
-              RolapBaseCubeMeasure baseCubeMeasure = (RolapBaseCubeMeasure) measure;
-              if ( baseCubeMeasure.getAggregator() == RolapAggregator.DistinctCount ) {
-                processDistinctMeasureExpr( tuple, baseCubeMeasure );
-              }
-            }
-          }
-        }
+        processDistinctMeasures( tupleList );
 
         int tupleIndex = 0;
         for ( final List<Member> tuple : tupleList ) {
@@ -1215,6 +1259,315 @@ public class RolapResult extends ResultBase {
     }
   }
 
+  /**
+   * Evaluates the cell at the current {@link #point} and stores it in a container.
+   *
+   * @param revaluator
+   *          Evaluator whose context is the cell's axis members
+   * @param members
+   *          First tuple of the slicer axis
+   * @param container
+   *          Container in which to create the cell
+   */
+  private void executeCell( RolapEvaluator revaluator, List<Member> members, CellInfoContainer container ) {
+    execution.checkCancelOrTimeout();
+    final int savepoint = revaluator.savepoint();
+    revaluator.setContext( members );
+    Object o;
+    try {
+      o = revaluator.evaluateCurrent();
+    } catch ( MondrianEvaluationException e ) {
+      LOGGER.warn( "Mondrian: exception in executeStripe.", e );
+      o = e;
+    } finally {
+      revaluator.restore( savepoint );
+    }
+
+    CellInfo ci = null;
+
+    // Get the Cell's format string and value formatting
+    // Object.
+    try {
+      // This code is a combination of the code found in
+      // the old RolapResult
+      // <code>getCellNoDefaultFormatString</code> method and
+      // the old RolapCell <code>getFormattedValue</code> method.
+
+      // Create a CellInfo object for the given position
+      // integer array.
+      final int cellCount = container.size();
+      ci = container.create( point.getOrdinals() );
+      if ( container.size() > cellCount ) {
+        execution.allocateMemory( container.getCellBytes() );
+      }
+
+      String cachedFormatString = null;
+
+      // Determine if there is a CellFormatter registered for
+      // the current Cube's Measure's Dimension. If so,
+      // then find or create a CellFormatterValueFormatter
+      // for it. If not, then find or create a Locale based
+      // FormatValueFormatter.
+      final RolapCube cube = getCube();
+      Hierarchy measuresHierarchy = cube.getMeasuresHierarchy();
+      RolapMeasure m = (RolapMeasure) revaluator.getContext( measuresHierarchy );
+      ValueFormatter valueFormatter = m.getFormatter();
+      if ( valueFormatter == null ) {
+        cachedFormatString = revaluator.getFormatString();
+        Locale locale = statement.getMondrianConnection().getLocale();
+        valueFormatter = formatValueFormatters.get( locale );
+        if ( valueFormatter == null ) {
+          valueFormatter = new FormatValueFormatter( locale );
+          formatValueFormatters.put( locale, valueFormatter );
+        }
+      }
+
+      ci.formatString = cachedFormatString;
+      ci.valueFormatter = valueFormatter;
+    } catch ( ResultLimitExceededException e ) {
+      // Do NOT ignore a ResultLimitExceededException!!!
+      throw e;
+    } catch ( CellRequestQuantumExceededException e ) {
+      // We need to throw this so another phase happens.
+      throw e;
+    } catch ( MondrianEvaluationException e ) {
+      // ignore but warn
+      LOGGER.warn( "Mondrian: exception in executeStripe.", e );
+    } catch ( Error e ) {
+      // Errors indicate fatal JVM problems; do not discard
+      throw e;
+    } catch ( Throwable e ) {
+      LOGGER.warn( "Mondrian: exception in executeStripe.", e );
+      Util.discard( e );
+    }
+
+    if ( o != RolapUtil.valueNotReadyException ) {
+      ci.value = o;
+    }
+    container.update( ci );
+  }
+
+  /**
+   * Calls {@link #processDistinctMeasureExpr} for each tuple of an axis and each distinct-count measure of the query.
+   */
+  private void processDistinctMeasures( TupleList tupleList ) {
+    for ( List<Member> tuple : tupleList ) {
+      List<Member> measures = new ArrayList<Member>( statement.getQuery().getMeasuresMembers() );
+      for ( Member measure : measures ) {
+        if ( measure instanceof RolapBaseCubeMeasure ) {
+          RolapBaseCubeMeasure baseCubeMeasure = (RolapBaseCubeMeasure) measure;
+          if ( baseCubeMeasure.getAggregator() == RolapAggregator.DistinctCount ) {
+            processDistinctMeasureExpr( tuple, baseCubeMeasure );
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns whether the cells of this result can be left unevaluated until they are requested.
+   *
+   * <p>
+   * Requires {@link MondrianProperties#LazyCellEvaluation}. A NON EMPTY axis needs every cell to decide which positions
+   * to keep, a high-cardinality axis is already evaluated in chunks, and the dependency-testing and profiling evaluators
+   * need to see the whole query body, so those queries are evaluated in full. Cell ordinals are ints, so a result with
+   * more than {@link Integer#MAX_VALUE} cells is not evaluated lazily either.
+   */
+  private boolean canEvaluateCellsLazily() {
+    if ( !MondrianProperties.instance().LazyCellEvaluation.get() || axes.length == 0
+        || evaluator instanceof RolapDependencyTestingEvaluator || statement.getProfileHandler() != null ) {
+      return false;
+    }
+    long cellCount = 1;
+    for ( int i = 0; i < axes.length; i++ ) {
+      if ( query.axes[i].isNonEmpty() ) {
+        return false;
+      }
+      cellCount *= axes[i].getPositions().size();
+      if ( cellCount > Integer.MAX_VALUE ) {
+        return false;
+      }
+    }
+    return !hasHighCardinalityAxis();
+  }
+
+  private boolean hasHighCardinalityAxis() {
+    for ( int i = 0; i < axes.length; i++ ) {
+      if ( isAxisHighCardinality( i, ( (RolapAxis) axes[i] ).getTupleList() ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Switches to a {@link CompactCellInfoContainer} if the result has at least
+   * {@link MondrianProperties#CompactCellThreshold} cells. Results with a high-cardinality axis evaluate only a chunk
+   * of their cells at a time, so they keep the container they have.
+   */
+  private void useCompactCellsIfLarge() {
+    final int threshold = MondrianProperties.instance().CompactCellThreshold.get();
+    if ( threshold <= 0 || axes.length == 0 ) {
+      return;
+    }
+    long cellCount = 1;
+    for ( Axis axis : axes ) {
+      cellCount *= axis.getPositions().size();
+    }
+    if ( cellCount < threshold || cellCount > Integer.MAX_VALUE || hasHighCardinalityAxis() ) {
+      return;
+    }
+    if ( modulos == null ) {
+      makeModulos();
+    }
+    cellInfos = new CompactCellInfoContainer( modulos, (int) cellCount );
+  }
+
+  /**
+   * Returns the container that holds the cells of this result. For testing.
+   */
+  CellInfoContainer getCellInfoContainer() {
+    return cellInfos;
+  }
+
+  /**
+   * Returns whether the cells of this result are evaluated a page at a time, when they are requested. For testing.
+   */
+  boolean isLazy() {
+    return cellPages != null;
+  }
+
+  /**
+   * Prepares to evaluate cells a page at a time, when {@link #getCell} asks for them.
+   */
+  private void startLazyCells() {
+    cellPageSize = Math.max( 1, MondrianProperties.instance().LazyCellPageSize.get() );
+    long cellCount = 1;
+    for ( Axis axis : axes ) {
+      cellCount *= axis.getPositions().size();
+    }
+    lazyCellCount = (int) cellCount;
+    cellPages = new LinkedHashMap<Integer, CellInfoPage>( MAX_CELL_PAGES * 2, 0.75f, true ) {
+      protected boolean removeEldestEntry( Map.Entry<Integer, CellInfoPage> eldest ) {
+        return size() > MAX_CELL_PAGES;
+      }
+    };
+    final int savepoint = evaluator.savepoint();
+    try {
+      for ( Axis axis : axes ) {
+        processDistinctMeasures( ( (RolapAxis) axis ).getTupleList() );
+      }
+    } finally {
+      evaluator.restore( savepoint );
+    }
+    if ( modulos == null ) {
+      makeModulos();
+    }
+  }
+
+  /**
+   * Returns a cell when cells are evaluated on demand, evaluating the page that contains it if that page is not held.
+   *
+   * <p>
+   * Synchronized because clients may read cells from several threads, and both the access-ordered page map and the
+   * evaluator are shared.
+   */
+  private synchronized Cell getLazyCell( int[] pos ) {
+    for ( int i = 0; i < pos.length; i++ ) {
+      int po = pos[i];
+      if ( po < 0 || po >= axes[i].getPositions().size() ) {
+        throw Util.newError( "coordinates out of range" );
+      }
+    }
+    final int ordinal = modulos.getCellOrdinal( pos );
+    final int pageNumber = ordinal / cellPageSize;
+    CellInfoPage page = cellPages.get( pageNumber );
+    if ( page == null ) {
+      final int start = pageNumber * cellPageSize;
+      page = new CellInfoPage( modulos, start, Math.min( cellPageSize, lazyCellCount - start ) );
+      executePage( page );
+      cellPages.put( pageNumber, page );
+    }
+    CellInfo ci = page.lookup( pos );
+    if ( ci.value == null ) {
+      ci.value = Util.nullValue;
+    }
+    return new RolapCell( this, pos.clone(), ci );
+  }
+
+  /**
+   * Evaluates the cells of a page. Like {@link #executeBody}, evaluates them repeatedly until all of the cell requests
+   * they make have been loaded.
+   *
+   * <p>
+   * The execution has ended by now, so it is resumed while the page is evaluated: it can be canceled and time out,
+   * and the memory of the page is charged to it by the {@link MemoryGovernor}, as during execution.
+   */
+  private void executePage( CellInfoPage page ) {
+    final Locus locus = new Locus( execution, null, "Loading cells" );
+    Locus.push( locus );
+    final long startNanos = System.nanoTime();
+    int count = 0;
+    final int savepoint = evaluator.savepoint();
+    try {
+      statement.resume( execution );
+      MemoryGovernor.instance().admit( execution );
+      execution.checkCancelOrTimeout();
+      while ( true ) {
+        evaluator.setCellReader( batchingReader );
+        try {
+          for ( int ordinal = page.start; ordinal < page.start + page.length; ordinal++ ) {
+            execution.checkCancelOrTimeout();
+            executePageCell( modulos.getCellPos( ordinal ), page );
+          }
+        } catch ( CellRequestQuantumExceededException e ) {
+          // Safe to ignore. Need to call 'phase' and loop again.
+          --count;
+        }
+        evaluator.restore( savepoint );
+
+        if ( !phase() ) {
+          return;
+        }
+        evaluator.clearExpResultCache( false );
+
+        if ( count++ > maxEvalDepth ) {
+          throw Util.newInternal( "Query required more than " + count + " iterations" );
+        }
+
+        page.clear();
+      }
+    } finally {
+      evaluator.restore( savepoint );
+      evaluator.clearExpResultCache( true );
+      MemoryGovernor.instance().release( execution );
+      // Releases the segments registered while loading this page, as
+      // Execution.end would have.
+      statement.suspend( execution );
+      Metrics.MDX_PHASE.recordSince( startNanos, execution.getCubeName(), "cells" );
+      Locus.pop( locus );
+    }
+  }
+
+  /**
+   * Evaluates one cell of a page, setting the context from the axes as {@link #executeStripe} would.
+   */
+  private void executePageCell( int[] pos, CellInfoPage page ) {
+    final int savepoint = evaluator.savepoint();
+    try {
+      evaluator.setEvalAxes( true );
+      for ( int i = axes.length - 1; i >= 0; i-- ) {
+        point.setAxis( i, pos[i] );
+        evaluator.setContext( ( (RolapAxis) axes[i] ).getTupleList().get( pos[i] ) );
+      }
+      if ( cellSlicerTuple != null ) {
+        executeCell( evaluator, cellSlicerTuple, page );
+      }
+    } finally {
+      evaluator.restore( savepoint );
+    }
+  }
+
   private boolean isAxisHighCardinality( int axisOrdinal, TupleList tupleList ) {
     Boolean highCardinality = positionsHighCardinality.get( axisOrdinal );
     if ( highCardinality != null ) {
@@ -1867,6 +2220,73 @@ public class RolapResult extends ResultBase {
     }
   }
 
+  /**
+   * Copy of the axes and cells of a fully evaluated result, as seen through any non-empty filtering. It refers to no
+   * execution, statement or query, and is never modified, so it can be shared between statements; each statement
+   * reads it through its own {@link RolapResult#RolapResult(Execution, Snapshot)}.
+   */
+  public static class Snapshot {
+    /**
+     * Members of each axis, tuple after tuple; the slicer is last.
+     */
+    private final List<Member>[] axisMembers;
+    /**
+     * Arity of each axis; the slicer is last.
+     */
+    private final int[] arities;
+    private final CellInfo[] cells;
+
+    /**
+     * Creates a snapshot of a result. The result's statement must still be running, and the result must not be lazy.
+     *
+     * @param result
+     *          Result, possibly a filter over a {@link RolapResult}
+     * @param cellCount
+     *          Number of cells, at most {@link Integer#MAX_VALUE}
+     */
+    @SuppressWarnings( "unchecked" )
+    Snapshot( Result result, int cellCount ) {
+      final Axis[] axes = result.getAxes();
+      this.axisMembers = new List[axes.length + 1];
+      this.arities = new int[axes.length + 1];
+      for ( int i = 0; i <= axes.length; i++ ) {
+        final Axis axis = i < axes.length ? axes[i] : result.getSlicerAxis();
+        final TupleList tupleList = ( (RolapAxis) axis ).getTupleList();
+        arities[i] = tupleList.getArity();
+        final List<Member> members = new ArrayList<Member>( tupleList.size() * tupleList.getArity() );
+        for ( List<Member> tuple : tupleList ) {
+          members.addAll( tuple );
+        }
+        axisMembers[i] = members;
+      }
+      this.cells = new CellInfo[cellCount];
+      final Modulos modulos = Modulos.Generator.create( axes );
+      for ( int ordinal = 0; ordinal < cellCount; ordinal++ ) {
+        final CellInfo ci = ( (RolapCell) result.getCell( modulos.getCellPos( ordinal ) ) ).ci;
+        cells[ordinal] = new CellInfo( ordinal, ci.value, ci.formatString, ci.valueFormatter );
+      }
+    }
+
+    /**
+     * Returns a new tuple list with the positions of an axis, replacing calculated members defined by the original
+     * query with those of the same name defined by the current query.
+     *
+     * @param axisOrdinal
+     *          Ordinal of axis, or the number of axes for the slicer
+     * @param formulaMembers
+     *          Calculated members defined by the current query, by unique name
+     */
+    TupleList restoreAxis( int axisOrdinal, Map<String, Member> formulaMembers ) {
+      final List<Member> members = axisMembers[axisOrdinal];
+      final List<Member> restored = new ArrayList<Member>( members.size() );
+      for ( Member member : members ) {
+        final Member formulaMember = member.isCalculated() ? formulaMembers.get( member.getUniqueName() ) : null;
+        restored.add( formulaMember != null ? formulaMember : member );
+      }
+      return new ListTupleList( arities[axisOrdinal], restored );
+    }
+  }
+
   /**
    * API for the creation and lookup of {@link CellInfo} objects. There are two implementations, one that uses a Map for
    * storage and the other uses an ObjectPool.
@@ -1907,6 +2327,259 @@ public class RolapResult extends ResultBase {
      * @return the CellInfo found or null.
      */
     CellInfo lookup( int[] pos );
+
+    /**
+     * Stores the value and format of a CellInfo returned by {@link #create} after they have been set. Containers that
+     * hold the CellInfo object itself need do nothing.
+     *
+     * @param ci
+     *          the CellInfo object.
+     */
+    void update( CellInfo ci );
+
+    /**
+     * Returns the estimated number of bytes that a cell occupies in this container.
+     *
+     * @return the number of bytes per cell.
+     */
+    int getCellBytes();
+  }
+
+  /**
+   * Implementation of {@link CellInfoContainer} which holds the cells of a contiguous range of cell ordinals in an
+   * array. Used when cells are evaluated on demand.
+   */
+  static class CellInfoPage implements CellInfoContainer {
+    private final Modulos modulos;
+    final int start;
+    final int length;
+    private final CellInfo[] cellInfos;
+    private int size;
+
+    /**
+     * Creates a CellInfoPage.
+     *
+     * @param modulos
+     *          Converts cell positions to ordinals
+     * @param start
+     *          Ordinal of the first cell in the page
+     * @param length
+     *          Number of cells in the page
+     */
+    CellInfoPage( Modulos modulos, int start, int length ) {
+      this.modulos = modulos;
+      this.start = start;
+      this.length = length;
+      this.cellInfos = new CellInfo[length];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public void trimToSize() {
+      // empty
+    }
+
+    public void clear() {
+      Arrays.fill( cellInfos, null );
+      size = 0;
+    }
+
+    public CellInfo create( int[] pos ) {
+      final int ordinal = modulos.getCellOrdinal( pos );
+      CellInfo ci = cellInfos[ordinal - start];
+      if ( ci == null ) {
+        ci = new CellInfo( ordinal );
+        cellInfos[ordinal - start] = ci;
+        ++size;
+      }
+      return ci;
+    }
+
+    public void update( CellInfo ci ) {
+      // empty
+    }
+
+    public int getCellBytes() {
+      return MemoryGovernor.CELL_BYTES;
+    }
+
+    public CellInfo lookup( int[] pos ) {
+      return create( pos );
+    }
+  }
+
+  /**
+   * Implementation of {@link CellInfoContainer} which stores cells in primitive arrays indexed by cell ordinal, for
+   * results with many cells (see {@link MondrianProperties#CompactCellThreshold}).
+   *
+   * <p>
+   * Each cell takes a type byte, a long holding its value (the bits of a double, or an integer) and the index of its
+   * format string and formatter in a table of distinct formats; a result usually has only a handful of those. Values
+   * that are not numbers, such as strings and errors, are held in a map on the side. {@link #create} and
+   * {@link #lookup} return a new CellInfo for the cell each time, and {@link #update} copies its contents back into
+   * the arrays.
+   */
+  static class CompactCellInfoContainer implements CellInfoContainer {
+    /**
+     * Estimated size of a cell: a byte for its type, a long for its value, an int for its format.
+     */
+    static final int CELL_BYTES = 1 + 8 + 4;
+
+    private static final byte ABSENT = 0;
+    private static final byte NOT_READY = 1;
+    private static final byte NULL = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte INTEGER = 4;
+    private static final byte LONG = 5;
+    private static final byte OBJECT = 6;
+
+    private final Modulos modulos;
+    private final byte[] types;
+    private final long[] values;
+    private final int[] formats;
+    private final Map<Integer, Object> objects = new HashMap<Integer, Object>();
+    private final List<CellFormat> formatList = new ArrayList<CellFormat>();
+    private final Map<CellFormat, Integer> formatIndexes = new HashMap<CellFormat, Integer>();
+    private int size;
+
+    /**
+     * Creates a CompactCellInfoContainer.
+     *
+     * @param modulos
+     *          Converts cell positions to ordinals
+     * @param cellCount
+     *          Number of cells in the result
+     */
+    CompactCellInfoContainer( Modulos modulos, int cellCount ) {
+      this.modulos = modulos;
+      this.types = new byte[cellCount];
+      this.values = new long[cellCount];
+      this.formats = new int[cellCount];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public void trimToSize() {
+      // empty
+    }
+
+    public void clear() {
+      Arrays.fill( types, ABSENT );
+      objects.clear();
+      size = 0;
+    }
+
+    public CellInfo create( int[] pos ) {
+      final int ordinal = modulos.getCellOrdinal( pos );
+      if ( types[ordinal] == ABSENT ) {
+        types[ordinal] = NOT_READY;
+        formats[ordinal] = getFormatIndex( null, ValueFormatter.EMPTY );
+        ++size;
+      }
+      return toCellInfo( ordinal );
+    }
+
+    public CellInfo lookup( int[] pos ) {
+      return toCellInfo( modulos.getCellOrdinal( pos ) );
+    }
+
+    public void update( CellInfo ci ) {
+      final int ordinal = (int) ci.key;
+      final Object value = ci.value;
+      if ( types[ordinal] == OBJECT ) {
+        objects.remove( ordinal );
+      }
+      if ( value == null ) {
+        types[ordinal] = NOT_READY;
+      } else if ( value == Util.nullValue ) {
+        types[ordinal] = NULL;
+      } else if ( value instanceof Double ) {
+        types[ordinal] = DOUBLE;
+        values[ordinal] = Double.doubleToRawLongBits( (Double) value );
+      } else if ( value instanceof Integer ) {
+        types[ordinal] = INTEGER;
+        values[ordinal] = (Integer) value;
+      } else if ( value instanceof Long ) {
+        types[ordinal] = LONG;
+        values[ordinal] = (Long) value;
+      } else {
+        types[ordinal] = OBJECT;
+        objects.put( ordinal, value );
+      }
+      formats[ordinal] = getFormatIndex( ci.formatString, ci.valueFormatter );
+    }
+
+    public int getCellBytes() {
+      return CELL_BYTES;
+    }
+
+    private CellInfo toCellInfo( int ordinal ) {
+      final Object value;
+      switch ( types[ordinal] ) {
+        case ABSENT:
+          return new CellInfo( ordinal );
+        case NULL:
+          value = Util.nullValue;
+          break;
+        case DOUBLE:
+          value = Double.longBitsToDouble( values[ordinal] );
+          break;
+        case INTEGER:
+          value = (int) values[ordinal];
+          break;
+        case LONG:
+          value = values[ordinal];
+          break;
+        case OBJECT:
+          value = objects.get( ordinal );
+          break;
+        default:
+          value = null;
+      }
+      final CellFormat format = formatList.get( formats[ordinal] );
+      return new CellInfo( ordinal, value, format.formatString, format.valueFormatter );
+    }
+
+    private int getFormatIndex( String formatString, ValueFormatter valueFormatter ) {
+      final CellFormat format = new CellFormat( formatString, valueFormatter );
+      Integer index = formatIndexes.get( format );
+      if ( index == null ) {
+        index = formatList.size();
+        formatList.add( format );
+        formatIndexes.put( format, index );
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Format string and value formatter of a cell, shared by all cells of a {@link CompactCellInfoContainer} that have
+   * the same format.
+   */
+  private static class CellFormat {
+    final String formatString;
+    final ValueFormatter valueFormatter;
+
+    CellFormat( String formatString, ValueFormatter valueFormatter ) {
+      this.formatString = formatString;
+      this.valueFormatter = valueFormatter;
+    }
+
+    public boolean equals( Object obj ) {
+      if ( !( obj instanceof CellFormat ) ) {
+        return false;
+      }
+      final CellFormat that = (CellFormat) obj;
+      return Util.equals( formatString, that.formatString ) && valueFormatter == that.valueFormatter;
+    }
+
+    public int hashCode() {
+      return Util.hash( System.identityHashCode( valueFormatter ), formatString );
+    }
   }
 
   /**
@@ -1953,6 +2626,14 @@ public class RolapResult extends ResultBase {
       return ci;
     }
 
+    public void update( CellInfo ci ) {
+      // empty
+    }
+
+    public int getCellBytes() {
+      return MemoryGovernor.CELL_BYTES;
+    }
+
     public CellInfo lookup( int[] pos ) {
       CellKey key = CellKey.Generator.newCellKey( pos );
       return this.cellInfoMap.get( key );
@@ -2124,6 +2805,14 @@ public class RolapResult extends ResultBase {
       return this.cellInfoPool.add( new CellInfo( key ) );
     }
 
+    public void update( CellInfo ci ) {
+      // empty
+    }
+
+    public int getCellBytes() {
+      return MemoryGovernor.CELL_BYTES;
+    }
+
     public CellInfo lookup( int[] pos ) {
       long key = this.cellKeyMaker.generate( pos );
       return this.cellInfoPool.add( new CellInfo( key ) );
@@ -0,0 +1,342 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.mdx.MdxVisitorImpl;
+import mondrian.mdx.ResolvedFunCall;
+import mondrian.olap.*;
+import mondrian.olap.fun.UdfResolver;
+import mondrian.server.Execution;
+import mondrian.server.Statement;
+import mondrian.util.ByteString;
+
+import java.util.*;
+
+/**
+ * Cache of query results, shared by all connections to a Mondrian server.
+ *
+ * <p>A result is keyed by the text of the parsed query (so that differences
+ * in white space and case of keywords do not matter), the schema, the role,
+ * the locale and the values of the query's parameters. Each entry remembers
+ * the stars its query reads from, so that flushing cells of one cube only
+ * removes results that depend on it.</p>
+ *
+ * <p>The cache holds a {@link RolapResult.Snapshot} of each result: a copy
+ * of its axes and cell values that refers to no execution or statement.
+ * Each statement that finds a result in the cache reads it through a
+ * {@link RolapResult} of its own, so that statements never share mutable
+ * state, and drill-through runs on the statement that asked for it. Results
+ * whose cells are evaluated on demand, or re-evaluated when read, as on
+ * high-cardinality axes, are not cached.</p>
+ *
+ * <p>A result is only stored if no invalidation happened while it was
+ * being computed; otherwise it might contain cells that were flushed
+ * mid-flight. Results of schemas that have a
+ * {@link mondrian.spi.DataSourceChangeListener} are not cached, because the
+ * listener is only asked whether data has changed when cells are read from
+ * the cell cache, which a cached result bypasses.</p>
+ *
+ * <p>The cache is disabled unless
+ * {@link MondrianProperties#ResultCacheMaxEntries} is positive.</p>
+ *
+ * @see RolapResultShepherd#getResultCache()
+ */
+public class RolapResultCache {
+
+    /**
+     * Names of built-in functions whose value changes over time. A query
+     * that calls one of these, or any user-defined function, is never
+     * cached.
+     */
+    private static final Set<String> VOLATILE_FUNCTIONS =
+        new HashSet<String>(
+            Arrays.asList("now", "date", "time", "timer", "rnd"));
+
+    /**
+     * Entries, least recently used first. Guarded by {@code this}.
+     */
+    private final LinkedHashMap<Key, RolapResult.Snapshot> map =
+        new LinkedHashMap<Key, RolapResult.Snapshot>(16, 0.75f, true);
+
+    /**
+     * Incremented on every invalidation. Guarded by {@code this}.
+     */
+    private long generation;
+
+    /**
+     * Creates a key for the query of an execution, or returns null if its
+     * result cannot be cached.
+     *
+     * @param execution Execution
+     * @return Key, or null if the result cannot be cached
+     */
+    public Key makeKey(Execution execution) {
+        if (MondrianProperties.instance().ResultCacheMaxEntries.get() <= 0
+            || MondrianProperties.instance().DisableCaching.get())
+        {
+            return null;
+        }
+        final Statement statement = execution.getMondrianStatement();
+        final RolapConnection connection = statement.getMondrianConnection();
+        final Query query = statement.getQuery();
+        if (connection.getScenario() != null
+            || statement.getProfileHandler() != null
+            || isVolatile(query))
+        {
+            return null;
+        }
+        final RolapCube cube = (RolapCube) query.getCube();
+        if (cube.getSchema().getDataSourceChangeListener() != null) {
+            return null;
+        }
+        final Set<RolapStar> stars = new HashSet<RolapStar>();
+        if (cube.isVirtual()) {
+            stars.addAll(cube.getSchema().getStars());
+        } else {
+            stars.add(cube.getStar());
+        }
+        for (RolapStar star : stars) {
+            if (!star.isCacheAggregations()) {
+                return null;
+            }
+        }
+        final List<Object> parameterValues = new ArrayList<Object>();
+        for (Parameter parameter : query.getParameters()) {
+            parameterValues.add(parameter.getName());
+            parameterValues.add(parameter.getValue());
+        }
+        synchronized (this) {
+            return new Key(
+                cube.getSchema(),
+                Util.unparse(query),
+                connection.getRole(),
+                connection.getLocale(),
+                parameterValues,
+                stars,
+                generation);
+        }
+    }
+
+    /**
+     * Returns whether a query calls a function whose value may change over
+     * time. Every user-defined function is assumed to, including the
+     * built-ins that are implemented as one, such as
+     * <code>CurrentDateMember</code> and <code>CurrentDateString</code>.
+     */
+    private static boolean isVolatile(Query query) {
+        final boolean[] found = {false};
+        query.accept(
+            new MdxVisitorImpl() {
+                public Object visit(ResolvedFunCall call) {
+                    if (VOLATILE_FUNCTIONS.contains(
+                            call.getFunName().toLowerCase())
+                        || UdfResolver.isUserDefined(call.getFunDef()))
+                    {
+                        found[0] = true;
+                    }
+                    return null;
+                }
+            });
+        return found[0];
+    }
+
+    /**
+     * Looks up a result.
+     *
+     * @param key Key
+     * @return Snapshot of cached result, or null
+     */
+    public synchronized RolapResult.Snapshot get(Key key) {
+        return map.get(key);
+    }
+
+    /**
+     * Stores a snapshot of a result, unless the result cannot be copied, is
+     * too large, or the cache has been invalidated since the key was
+     * created. Must be called while the result's statement is running.
+     *
+     * @param key Key, as returned by {@link #makeKey(Execution)}
+     * @param rolapResult Result that evaluated the query
+     * @param result Result to copy: {@code rolapResult}, or a filter over it
+     */
+    public void put(Key key, RolapResult rolapResult, Result result) {
+        if (!rolapResult.canSnapshot()) {
+            return;
+        }
+        final long cellCount = cellCount(result);
+        if (cellCount
+            > MondrianProperties.instance().ResultCacheMaxCells.get())
+        {
+            return;
+        }
+        synchronized (this) {
+            if (key.generation != generation) {
+                return;
+            }
+        }
+        final RolapResult.Snapshot snapshot =
+            new RolapResult.Snapshot(result, (int) cellCount);
+        synchronized (this) {
+            if (key.generation != generation) {
+                return;
+            }
+            map.put(key, snapshot);
+            final int maxEntries =
+                MondrianProperties.instance().ResultCacheMaxEntries.get();
+            final Iterator<Key> iterator = map.keySet().iterator();
+            while (map.size() > maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static long cellCount(Result result) {
+        long count = 1;
+        for (Axis axis : result.getAxes()) {
+            count *= axis.getPositions().size();
+        }
+        return count;
+    }
+
+    /**
+     * Removes results that read from any of the given stars.
+     *
+     * @param stars Stars whose cells have changed
+     */
+    public synchronized void invalidate(Collection<RolapStar> stars) {
+        ++generation;
+        for (Iterator<Key> iterator = map.keySet().iterator();
+             iterator.hasNext();)
+        {
+            if (!Collections.disjoint(iterator.next().stars, stars)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes results that read from the star with a given fact table in
+     * the schema with a given checksum. Used when the only description of
+     * the changed cells is a segment header.
+     *
+     * @param schemaChecksum Checksum of schema
+     * @param factTableAlias Alias of fact table
+     */
+    public synchronized void invalidate(
+        ByteString schemaChecksum,
+        String factTableAlias)
+    {
+        ++generation;
+        for (Iterator<Key> iterator = map.keySet().iterator();
+             iterator.hasNext();)
+        {
+            for (RolapStar star : iterator.next().stars) {
+                if (star.getFactTable().getAlias().equals(factTableAlias)
+                    && star.getSchema().getChecksum().equals(schemaChecksum))
+                {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all results of a schema.
+     *
+     * @param schema Schema whose members or cells have changed
+     */
+    public synchronized void invalidate(RolapSchema schema) {
+        ++generation;
+        for (Iterator<Key> iterator = map.keySet().iterator();
+             iterator.hasNext();)
+        {
+            if (iterator.next().schema == schema) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all results.
+     */
+    public synchronized void clear() {
+        ++generation;
+        map.clear();
+    }
+
+    /**
+     * Returns the number of results in the cache.
+     */
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Key of a cached result.
+     */
+    public static class Key {
+        private final RolapSchema schema;
+        private final String mdx;
+        private final Role role;
+        private final Locale locale;
+        private final List<Object> parameterValues;
+        private final Set<RolapStar> stars;
+        private final long generation;
+        private final int hashCode;
+
+        Key(
+            RolapSchema schema,
+            String mdx,
+            Role role,
+            Locale locale,
+            List<Object> parameterValues,
+            Set<RolapStar> stars,
+            long generation)
+        {
+            this.schema = schema;
+            this.mdx = mdx;
+            this.role = role;
+            this.locale = locale;
+            this.parameterValues = parameterValues;
+            this.stars = stars;
+            this.generation = generation;
+            this.hashCode =
+                Arrays.asList(
+                    System.identityHashCode(schema),
+                    mdx,
+                    role,
+                    locale,
+                    parameterValues).hashCode();
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return this.schema == that.schema
+                && this.mdx.equals(that.mdx)
+                && Util.equals(this.role, that.role)
+                && Util.equals(this.locale, that.locale)
+                && this.parameterValues.equals(that.parameterValues);
+        }
+    }
+}
+
+// End RolapResultCache.java
@@ -16,6 +16,7 @@ package mondrian.rolap;
 import mondrian.olap.*;
 import mondrian.resource.MondrianResource;
 import mondrian.server.Execution;
+import mondrian.server.monitor.Metrics;
 import mondrian.util.Pair;
 
 import org.eigenbase.util.property.IntegerProperty;
@@ -55,6 +56,11 @@ public class RolapResultShepherd {
     private final Timer timer =
         Util.newTimer("mondrian.rolap.RolapResultShepherd#timer", true);
 
+    /**
+     * Results of previous executions, shared by all connections.
+     */
+    private final RolapResultCache resultCache = new RolapResultCache();
+
     public RolapResultShepherd() {
         final IntegerProperty property =
             MondrianProperties.instance().RolapConnectionShepherdNbThreads;
@@ -115,6 +121,15 @@ public class RolapResultShepherd {
             period);
     }
 
+    /**
+     * Returns the cache of query results.
+     *
+     * @return Result cache
+     */
+    public RolapResultCache getResultCache() {
+        return resultCache;
+    }
+
     /**
      * Executes and shepherds the execution of an Execution instance.
      * The shepherd will wrap the Execution instance into a Future object
@@ -135,11 +150,19 @@ public class RolapResultShepherd {
      */
     public Result shepherdExecution(
         Execution execution,
-        Callable<Result> callable)
+        final Callable<Result> callable)
     {
         // We must wrap this execution into a task that so that we are able
-        // to monitor, cancel and detach from it.
-        FutureTask<Result> task = new FutureTask<Result>(callable);
+        // to monitor, cancel and detach from it. Record how long it waits
+        // for a thread.
+        final long submitNanos = System.nanoTime();
+        FutureTask<Result> task = new FutureTask<Result>(
+            new Callable<Result>() {
+                public Result call() throws Exception {
+                    Metrics.QUEUE_WAIT.recordSince(submitNanos, "execution");
+                    return callable.call();
+                }
+            });
 
         // Register this task with the shepherd thread
         final Pair<FutureTask<Result>, Execution> pair =
@@ -226,6 +226,8 @@ public class RolapSchema implements Schema {
     this( key, connectInfo, dataSource, md5Bytes, md5Bytes != null );
     load( catalogUrl, catalogStr, connectInfo );
     assert this.md5Bytes != null;
+    ScenarioImpl.registerPersisted( this );
+    RolapConnectionPool.instance().warmUp( dataSource );
   }
 
   /**
@@ -272,6 +274,18 @@ public class RolapSchema implements Schema {
 
     // Cleanup the agg JDBC cache
     flushJdbcSchema();
+
+    // Let the next schema to load read the statistics again
+    RolapStatisticsCache.release( this );
+
+    // Plans refer to this schema's members
+    queryPlanCache.clear();
+
+    // Segment prefetch patterns refer to this schema's stars
+    final RolapConnection localInternalConnection = getInternalConnection();
+    if ( localInternalConnection != null ) {
+      MondrianServer.forConnection( localInternalConnection ).getAggregationManager().prefetcher.flush( this );
+    }
   }
 
   protected void finalize() {
@@ -376,6 +390,13 @@ public class RolapSchema implements Schema {
     }
 
     aggTableManager.initialize( connectInfo );
+
+    if ( MondrianProperties.instance().StatisticsPrewarm.get() ) {
+      for ( RolapStar star : getStars() ) {
+        star.getStatisticsCache().prewarm();
+      }
+    }
+
     setSchemaLoadDate();
   }
 
@@ -1286,6 +1307,17 @@ public class RolapSchema implements Schema {
     return nativeRegistry;
   }
 
+  private final RolapQueryPlanCache queryPlanCache = new RolapQueryPlanCache();
+
+  /**
+   * Returns the cache of parsed and compiled queries against this schema.
+   *
+   * @return Query plan cache
+   */
+  public RolapQueryPlanCache getQueryPlanCache() {
+    return queryPlanCache;
+  }
+
   /**
    * @return Returns the dataSourceChangeListener.
    */
@@ -0,0 +1,303 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap;
+
+import mondrian.calc.TupleList;
+import mondrian.olap.Member;
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.agg.CellRequest;
+import mondrian.rolap.agg.SegmentCellScan;
+import mondrian.rolap.agg.SegmentWithData;
+import mondrian.server.Locus;
+
+import java.util.*;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Reads the values of a stored measure for every tuple of a set directly
+ * from a loaded segment.
+ *
+ * <p>Aggregate functions such as Sum normally set the context to each tuple
+ * and evaluate the measure, which creates a {@link CellRequest} per tuple and
+ * looks it up in the cache. If all of the tuples' cells are in one segment,
+ * this class instead computes, for each distinct member of each position of
+ * the tuples, the member's offset within the segment; the cell of a tuple is
+ * then found by adding the offsets of its members to the offset of the
+ * rest of the context.</p>
+ *
+ * <p>A set can be scanned if its members are non-calculated members of one
+ * level per position, the context contains no calculated members and no
+ * aggregation (compound slicer), the cube is not virtual, and the segment
+ * that contains the first tuple's cell also contains every other tuple's
+ * cell. Otherwise {@link #scan} returns -1 and the caller evaluates each
+ * tuple as usual, which will cause any missing cells to be loaded.</p>
+ *
+ * @see MondrianProperties#EnableSegmentScan
+ */
+public class RolapSegmentScan {
+    private RolapSegmentScan() {
+    }
+
+    /**
+     * Passes the non-null values of a stored measure for each tuple of a set
+     * to a consumer, in the order of the set.
+     *
+     * <p>Does not change the evaluator's context. Calls the consumer only if
+     * every tuple can be read.</p>
+     *
+     * @param evaluator Evaluator
+     * @param tuples Tuples
+     * @param measure Measure to read, or null to read the current measure
+     * @param consumer Receives each non-null value
+     * @return Number of null cells, or -1 if the set cannot be scanned
+     */
+    public static int scan(
+        RolapEvaluator evaluator,
+        TupleList tuples,
+        Member measure,
+        DoubleConsumer consumer)
+    {
+        if (!MondrianProperties.instance().EnableSegmentScan.get()
+            || tuples.isEmpty()
+            || evaluator.getCube().isVirtual()
+            || !evaluator.getAggregationLists().isEmpty())
+        {
+            return -1;
+        }
+        final int arity = tuples.getArity();
+        final List<Map<Member, Integer>> memberOrdinals =
+            new ArrayList<Map<Member, Integer>>(arity);
+        if (!collectMembers(tuples, memberOrdinals)) {
+            return -1;
+        }
+        final int[][] offsets = new int[arity][];
+        final int baseOffset;
+        final SegmentCellScan scan;
+        final int savepoint = evaluator.savepoint();
+        try {
+            if (measure != null) {
+                evaluator.setContext(measure);
+            }
+            evaluator.setContext(tuples.get(0));
+            final Member[] members = evaluator.getMembers();
+            if (!(members[0] instanceof RolapStoredMeasure)) {
+                return -1;
+            }
+            final RolapStoredMeasure storedMeasure =
+                (RolapStoredMeasure) members[0];
+            for (Member member : members) {
+                if (member.isEvaluated()) {
+                    return -1;
+                }
+            }
+            final CellRequest request =
+                RolapAggregationManager.makeRequest(evaluator);
+            if (request == null || request.isUnsatisfiable()) {
+                return -1;
+            }
+            final SegmentWithData segment = findSegment(request);
+            if (segment == null) {
+                return -1;
+            }
+            final RolapStar.Measure starMeasure = request.getMeasure();
+            scan =
+                SegmentCellScan.create(
+                    segment, starMeasure.getDatatype().isNumeric());
+            if (scan == null) {
+                return -1;
+            }
+
+            // Segment axes are in the order of the request's columns.
+            final Map<RolapStar.Column, Integer> axisByColumn =
+                new HashMap<RolapStar.Column, Integer>();
+            final RolapStar.Column[] columns = request.getConstrainedColumns();
+            for (int i = 0; i < columns.length; i++) {
+                axisByColumn.put(columns[i], i);
+            }
+            final boolean[] claimed = new boolean[columns.length];
+            for (int p = 0; p < arity; p++) {
+                offsets[p] =
+                    computeOffsets(
+                        memberOrdinals.get(p), storedMeasure, starMeasure,
+                        axisByColumn, claimed, scan);
+                if (offsets[p] == null) {
+                    return -1;
+                }
+            }
+            final Object[] values = request.getSingleValues();
+            int offset = 0;
+            for (int i = 0; i < columns.length; i++) {
+                if (claimed[i]) {
+                    continue;
+                }
+                final int axisOffset = scan.getOffset(i, values[i]);
+                if (axisOffset == SegmentCellScan.MISSING_OFFSET) {
+                    return -1;
+                }
+                if (axisOffset == SegmentCellScan.NULL_OFFSET) {
+                    offset = SegmentCellScan.NULL_OFFSET;
+                    break;
+                }
+                offset += axisOffset;
+            }
+            baseOffset = offset;
+        } finally {
+            evaluator.restore(savepoint);
+        }
+
+        int nullCount = 0;
+        for (List<Member> tuple : tuples) {
+            int ordinal = baseOffset;
+            for (int p = 0; p < arity && ordinal >= 0; p++) {
+                final int offset =
+                    offsets[p][memberOrdinals.get(p).get(tuple.get(p))];
+                ordinal = offset < 0 ? offset : ordinal + offset;
+            }
+            if (ordinal < 0 || scan.isNull(ordinal)) {
+                ++nullCount;
+            } else {
+                consumer.accept(scan.getDouble(ordinal));
+            }
+        }
+        return nullCount;
+    }
+
+    /**
+     * Numbers the distinct members of each position of a set. Returns false
+     * if a position has a calculated or null member, or members of more than
+     * one level.
+     */
+    private static boolean collectMembers(
+        TupleList tuples,
+        List<Map<Member, Integer>> memberOrdinals)
+    {
+        final int arity = tuples.getArity();
+        final RolapCubeLevel[] levels = new RolapCubeLevel[arity];
+        for (int p = 0; p < arity; p++) {
+            memberOrdinals.add(new LinkedHashMap<Member, Integer>());
+        }
+        for (List<Member> tuple : tuples) {
+            for (int p = 0; p < arity; p++) {
+                final Member member = tuple.get(p);
+                final Map<Member, Integer> ordinals = memberOrdinals.get(p);
+                if (ordinals.containsKey(member)) {
+                    continue;
+                }
+                if (!(member instanceof RolapCubeMember)
+                    || member.isCalculated()
+                    || member.isNull()
+                    || member.isAll()
+                    || member.isEvaluated())
+                {
+                    return false;
+                }
+                final RolapCubeLevel level =
+                    ((RolapCubeMember) member).getLevel();
+                if (levels[p] == null) {
+                    if (level.isParentChild()) {
+                        return false;
+                    }
+                    levels[p] = level;
+                } else if (levels[p] != level) {
+                    return false;
+                }
+                ordinals.put(member, ordinals.size());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the offset within the segment of each member of a position:
+     * the sum of the offsets of the member's key and its ancestors' keys on
+     * their axes. Marks those axes as claimed. Returns null if the members
+     * constrain different columns, a column is claimed by another position,
+     * or a key is outside the segment.
+     */
+    private static int[] computeOffsets(
+        Map<Member, Integer> memberOrdinals,
+        RolapStoredMeasure storedMeasure,
+        RolapStar.Measure starMeasure,
+        Map<RolapStar.Column, Integer> axisByColumn,
+        boolean[] claimed,
+        SegmentCellScan scan)
+    {
+        final int[] offsets = new int[memberOrdinals.size()];
+        BitKey bitKey = null;
+        for (Map.Entry<Member, Integer> entry : memberOrdinals.entrySet()) {
+            final RolapCubeMember member = (RolapCubeMember) entry.getKey();
+            final CellRequest request =
+                new CellRequest(starMeasure, false, false);
+            if (member.getLevel().getLevelReader().constrainRequest(
+                    member, storedMeasure.getCube(), request))
+            {
+                return null;
+            }
+            if (bitKey == null) {
+                bitKey = request.getConstrainedColumnsBitKey();
+                for (RolapStar.Column column
+                    : request.getConstrainedColumns())
+                {
+                    final Integer axis = axisByColumn.get(column);
+                    if (axis == null || claimed[axis]) {
+                        return null;
+                    }
+                    claimed[axis] = true;
+                }
+            } else if (!bitKey.equals(request.getConstrainedColumnsBitKey())) {
+                return null;
+            }
+            final RolapStar.Column[] columns = request.getConstrainedColumns();
+            final Object[] values = request.getSingleValues();
+            int offset = 0;
+            for (int i = 0; i < columns.length; i++) {
+                final int axisOffset =
+                    scan.getOffset(axisByColumn.get(columns[i]), values[i]);
+                if (axisOffset == SegmentCellScan.MISSING_OFFSET) {
+                    return null;
+                }
+                if (axisOffset == SegmentCellScan.NULL_OFFSET) {
+                    offset = SegmentCellScan.NULL_OFFSET;
+                    break;
+                }
+                offset += axisOffset;
+            }
+            offsets[entry.getValue()] = offset;
+        }
+        return offsets;
+    }
+
+    /**
+     * Finds a loaded segment that contains the cell of a request, first in
+     * this thread's cache, then in the cache manager.
+     */
+    private static SegmentWithData findSegment(CellRequest request) {
+        final RolapStar star = request.getMeasure().getStar();
+        final SegmentWithData segment = star.getSegmentFromCache(request);
+        if (segment != null) {
+            return segment;
+        }
+        final SegmentWithData segment2 =
+            Locus.peek().getServer().getAggregationManager().cacheMgr.peek(
+                request);
+        if (segment2 == null || segment2.getCellValue(
+                request.getSingleValues()) == null)
+        {
+            return null;
+        }
+        segment2.getStar().register(segment2);
+        return segment2;
+    }
+}
+
+// End RolapSegmentScan.java
@@ -32,6 +32,7 @@ import java.lang.ref.SoftReference;
 import java.sql.Connection;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
@@ -77,9 +78,10 @@ public class RolapStar {
 
     /**
      * Partially ordered list of AggStars associated with this RolapStar's fact
-     * table.
+     * table. Copy-on-write, because aggregate tables may be registered while
+     * queries are reading the list.
      */
-    private final List<AggStar> aggStars = new LinkedList<AggStar>();
+    private final List<AggStar> aggStars = new CopyOnWriteArrayList<AggStar>();
 
     private DataSourceChangeListener changeListener;
 
@@ -91,6 +93,15 @@ public class RolapStar {
 
     private final RolapStatisticsCache statisticsCache;
 
+    /**
+     * Greatest value of the column along which rows are appended to the fact
+     * table, as of the last refresh of appended rows; null if the cache has
+     * never been refreshed, or has been flushed since. Segments loaded from
+     * the fact table, and native SQL that reads the fact table, see only rows
+     * up to it. Written by the cache manager's actor thread.
+     */
+    private volatile AppendWatermark appendWatermark;
+
     /**
      * Creates a RolapStar. Please use
      * {@link RolapSchema.RolapStarRegistry#getOrCreateStar} to create a
@@ -169,6 +180,29 @@ public class RolapStar {
         return null;
     }
 
+    /**
+     * Returns a segment in this thread's local cache that contains the cell
+     * identified by a request, or null if there is none.
+     *
+     * @param request Cell request
+     * @return Segment, or null
+     */
+    public SegmentWithData getSegmentFromCache(CellRequest request) {
+        final AggregationKey aggregationKey = new AggregationKey(request);
+        final Object[] keys = request.getSingleValues();
+        final Bar bar = localBars.get();
+        for (SegmentWithData segment : Util.GcIterator.over(bar.segmentRefs)) {
+            if (segment.getConstrainedColumnsBitKey().equals(
+                    request.getConstrainedColumnsBitKey())
+                && segment.matches(aggregationKey, request.getMeasure())
+                && segment.getCellValue(keys) != null)
+            {
+                return segment;
+            }
+        }
+        return null;
+    }
+
     public Object getCellFromAllCaches(final CellRequest request) {
         // First, try the local/thread cache.
         Object result = getCellFromCache(request, null);
@@ -198,6 +232,108 @@ public class RolapStar {
         return statisticsCache;
     }
 
+    /**
+     * Returns the bound that segment loads apply to the column along which
+     * rows are appended to the fact table, or null if there is none.
+     *
+     * @see mondrian.olap.CacheControl#refreshAppended
+     */
+    public AppendWatermark getAppendWatermark() {
+        return appendWatermark;
+    }
+
+    /**
+     * Sets the bound that segment loads apply to the column along which rows
+     * are appended to the fact table.
+     *
+     * @param appendWatermark Watermark, or null
+     */
+    public void setAppendWatermark(AppendWatermark appendWatermark) {
+        this.appendWatermark = appendWatermark;
+    }
+
+    /**
+     * Value of a column up to which a segment has read the rows of the fact
+     * table. Rows whose value of the column is greater have been appended
+     * since.
+     */
+    public static class AppendWatermark {
+        public final Column column;
+        public final Object value;
+
+        public AppendWatermark(Column column, Object value) {
+            assert column != null;
+            assert value != null;
+            this.column = column;
+            this.value = value;
+        }
+
+        /**
+         * Returns a predicate that selects the rows whose value of the column
+         * is at most this watermark's.
+         */
+        public Bound upTo() {
+            return new Bound(this);
+        }
+
+        /**
+         * Returns a predicate that selects the rows appended after this
+         * watermark, up to and including a later one.
+         *
+         * @param later Later watermark of the same column
+         */
+        public StarColumnPredicate until(AppendWatermark later) {
+            assert later.column == column;
+            return new RangeColumnPredicate(
+                column,
+                false,
+                new ValueColumnPredicate(column, value),
+                true,
+                new ValueColumnPredicate(column, later.value));
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof AppendWatermark
+                && ((AppendWatermark) obj).column == column
+                && ((AppendWatermark) obj).value.equals(value);
+        }
+
+        public int hashCode() {
+            return Util.hash(column.hashCode(), value);
+        }
+
+        public String toString() {
+            return column.getExpression().getGenericExpression() + " <= "
+                + value;
+        }
+
+        /**
+         * Predicate that bounds a load from the fact table by an append
+         * watermark.
+         *
+         * <p>It is not one of the segment's own compound predicates: it does
+         * not appear in the segment's header, and does not stop the load from
+         * being recorded by the {@link mondrian.rolap.aggmatcher.AggAdvisor}.
+         * Loads that read an aggregate table are not bounded, so
+         * {@link mondrian.rolap.agg.AggregationManager#generateSql} never
+         * reads an aggregate table for a load that carries one.</p>
+         */
+        public static class Bound extends RangeColumnPredicate {
+            public final AppendWatermark watermark;
+
+            private Bound(AppendWatermark watermark) {
+                super(
+                    watermark.column,
+                    false,
+                    null,
+                    true,
+                    new ValueColumnPredicate(
+                        watermark.column, watermark.value));
+                this.watermark = watermark;
+            }
+        }
+    }
+
     /**
      * Temporary. Contains the local cache for a particular thread. Because
      * it is accessed via a thread-local, the data structures can be accessed
@@ -433,15 +569,12 @@ public class RolapStar {
      * to biggest, so that the most efficient AggStar is encountered first;
      * ties do not matter.
      */
-    public void addAggStar(AggStar aggStar) {
+    public synchronized void addAggStar(AggStar aggStar) {
         // Add it before the first AggStar which is larger, if there is one.
         long size = aggStar.getSize();
-        ListIterator<AggStar> lit = aggStars.listIterator();
-        while (lit.hasNext()) {
-            AggStar as = lit.next();
-            if (as.getSize() >= size) {
-                lit.previous();
-                lit.add(aggStar);
+        for (int i = 0; i < aggStars.size(); i++) {
+            if (aggStars.get(i).getSize() >= size) {
+                aggStars.add(i, aggStar);
                 return;
             }
         }
@@ -1014,19 +1147,20 @@ public class RolapStar {
         }
 
         /**
-         * Get column cardinality from the schema cache if possible;
-         * otherwise issue a select count(distinct) query to retrieve
-         * the cardinality and stores it in the cache.
+         * Get column cardinality from the schema if it is declared there;
+         * otherwise from the star's statistics cache, which issues a select
+         * count(distinct) query in the background to retrieve the cardinality
+         * the first time, and refreshes it when it expires.
          *
-         * @return the column cardinality.
+         * @return the column cardinality, or -1 if it is not known yet
          */
         public long getCardinality() {
-            if (approxCardinality.get() < 0) {
-                approxCardinality.set(
-                    table.star.getStatisticsCache().getColumnCardinality(
-                        table.relation, expression, approxCardinality.get()));
+            final long approx = approxCardinality.get();
+            if (approx >= 0) {
+                return approx;
             }
-            return approxCardinality.get();
+            return table.star.getStatisticsCache().getColumnCardinality(
+                table.relation, expression, approx);
         }
 
         /**
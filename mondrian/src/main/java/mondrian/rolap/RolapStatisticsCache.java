@@ -14,12 +14,25 @@
 package mondrian.rolap;
 
 import mondrian.olap.MondrianDef;
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
 import mondrian.rolap.sql.SqlQuery;
 import mondrian.server.Execution;
 import mondrian.spi.Dialect;
 import mondrian.spi.StatisticsProvider;
+import mondrian.util.ByteString;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 import javax.sql.DataSource;
 
 /**
@@ -27,16 +40,68 @@ import javax.sql.DataSource;
  *
  * <p>Wrapper around a chain of {@link mondrian.spi.StatisticsProvider}s,
  * followed by a cache to store the results.</p>
+ *
+ * <p>Results are held in a {@link Store} that is shared by all stars which
+ * read from the same database, so that a table's row count is computed once
+ * however many cubes use it. Lookups never take a lock and never wait for a
+ * statistics query: a statistic that is not known yet is computed in the
+ * background, and until then the lookup returns -1. An entry older than
+ * {@link MondrianProperties#StatisticsCacheTimeToLive} is still returned,
+ * but is recomputed in the background. If
+ * {@link MondrianProperties#StatisticsCacheDirectory} is set, the store is
+ * saved to disk and reloaded when the schema is next loaded, so a node that
+ * restarts does not repeat the statistics queries. If
+ * {@link MondrianProperties#StatisticsPrewarm} is set, {@link #prewarm()}
+ * computes the statistics of all columns in the star in the background when
+ * the schema loads.</p>
+ *
+ * <p>A store lives as long as a loaded schema uses it. When the last such
+ * schema is flushed or removed from the pool, {@link #release(RolapSchema)}
+ * discards the store, so that the next schema to load reads the statistics
+ * again. A store whose schemas were garbage-collected is discarded the next
+ * time a star looks up a store.</p>
  */
 public class RolapStatisticsCache {
+    private static final Logger LOGGER =
+        LogManager.getLogger(RolapStatisticsCache.class);
+
+    /**
+     * How long, in milliseconds, to wait before computing again a statistic
+     * whose providers all failed.
+     */
+    static final long FAILURE_RETRY_MILLIS = 5 * 60 * 1000L;
+
+    /**
+     * Stores, keyed by the identity of the database they describe. Guarded
+     * by itself; it is only accessed when a star is created or a schema is
+     * released.
+     */
+    private static final Map<String, Store> STORES =
+        new HashMap<String, Store>();
+
+    /**
+     * Executes background refreshes, pre-warming and saves. One thread is
+     * enough; its work is never on the path of a query.
+     */
+    private static final ExecutorService executor =
+        Util.getExecutorService(
+            1, 1, 1,
+            "mondrian.rolap.RolapStatisticsCache$executor",
+            null);
+
     private final RolapStar star;
-    private final Map<List, Long> columnMap = new HashMap<List, Long>();
-    private final Map<List, Long> tableMap = new HashMap<List, Long>();
-    private final Map<String, Long> queryMap =
-        new HashMap<String, Long>();
+    private final Store store;
+
+    /**
+     * Cache of the statistics key for a relation or a relation and
+     * expression, so that a lookup does not need to generate SQL.
+     */
+    private final Map<List<Object>, List<String>> keyMap =
+        new ConcurrentHashMap<List<Object>, List<String>>();
 
     public RolapStatisticsCache(RolapStar star) {
         this.star = star;
+        this.store = lookupStore(this);
     }
 
     public long getRelationCardinality(
@@ -47,82 +112,86 @@ public class RolapStatisticsCache {
         if (approxRowCount >= 0) {
             return approxRowCount;
         }
+        final List<String> key = relationKey(relation);
         if (relation instanceof MondrianDef.Table) {
             final MondrianDef.Table table = (MondrianDef.Table) relation;
-            return getTableCardinality(
-                null, table.schema, table.name);
+            return getTableCardinality(key, null, table.schema, table.name);
         } else {
-            final SqlQuery sqlQuery = star.getSqlQuery();
-            sqlQuery.addSelect("*", null);
-            sqlQuery.addFrom(relation, null, true);
-            return getQueryCardinality(sqlQuery.toString());
+            return getQueryCardinality(key);
         }
     }
 
-    private long getTableCardinality(
-        String catalog,
-        String schema,
-        String table)
-    {
-        final List<String> key = Arrays.asList(catalog, schema, table);
-        long rowCount = -1;
-        if (tableMap.containsKey(key)) {
-            rowCount = tableMap.get(key);
-        } else {
-            final Dialect dialect = star.getSqlQueryDialect();
-            final List<StatisticsProvider> statisticsProviders =
-                dialect.getStatisticsProviders();
-            final Execution execution =
-                new Execution(
-                    star.getSchema().getInternalConnection()
-                        .getInternalStatement(),
-                    0);
-            for (StatisticsProvider statisticsProvider : statisticsProviders) {
-                rowCount = statisticsProvider.getTableCardinality(
-                    dialect,
-                    star.getDataSource(),
-                    catalog,
-                    schema,
-                    table,
-                    execution);
-                if (rowCount >= 0) {
-                    break;
-                }
+    private List<String> relationKey(MondrianDef.Relation relation) {
+        final List<Object> mapKey = Collections.<Object>singletonList(relation);
+        List<String> key = keyMap.get(mapKey);
+        if (key == null) {
+            if (relation instanceof MondrianDef.Table) {
+                final MondrianDef.Table table = (MondrianDef.Table) relation;
+                key = Arrays.asList("table", null, table.schema, table.name);
+            } else {
+                final SqlQuery sqlQuery = star.getSqlQuery();
+                sqlQuery.addSelect("*", null);
+                sqlQuery.addFrom(relation, null, true);
+                key = Arrays.asList("query", sqlQuery.toString());
             }
-
-            // Note: If all providers fail, we put -1 into the cache, to ensure
-            // that we won't try again.
-            tableMap.put(key, rowCount);
+            keyMap.put(mapKey, key);
         }
-        return rowCount;
+        return key;
     }
 
-    private long getQueryCardinality(String sql) {
-        long rowCount = -1;
-        if (queryMap.containsKey(sql)) {
-            rowCount = queryMap.get(sql);
-        } else {
-            final Dialect dialect = star.getSqlQueryDialect();
-            final List<StatisticsProvider> statisticsProviders =
-                dialect.getStatisticsProviders();
-            final Execution execution =
-                new Execution(
-                    star.getSchema().getInternalConnection()
-                        .getInternalStatement(),
-                    0);
-            for (StatisticsProvider statisticsProvider : statisticsProviders) {
-                rowCount = statisticsProvider.getQueryCardinality(
-                    dialect, star.getDataSource(), sql, execution);
-                if (rowCount >= 0) {
-                    break;
+    private long getTableCardinality(
+        List<String> key,
+        final String catalog,
+        final String schema,
+        final String table)
+    {
+        return get(
+            key,
+            new LongSupplier() {
+                public long getAsLong() {
+                    final Dialect dialect = star.getSqlQueryDialect();
+                    final Execution execution = createExecution();
+                    for (StatisticsProvider statisticsProvider
+                        : dialect.getStatisticsProviders())
+                    {
+                        long rowCount =
+                            statisticsProvider.getTableCardinality(
+                                dialect,
+                                star.getDataSource(),
+                                catalog,
+                                schema,
+                                table,
+                                execution);
+                        if (rowCount >= 0) {
+                            return rowCount;
+                        }
+                    }
+                    return -1;
                 }
-            }
+            });
+    }
 
-            // Note: If all providers fail, we put -1 into the cache, to ensure
-            // that we won't try again.
-            queryMap.put(sql, rowCount);
-        }
-        return rowCount;
+    private long getQueryCardinality(List<String> key) {
+        final String sql = key.get(1);
+        return get(
+            key,
+            new LongSupplier() {
+                public long getAsLong() {
+                    final Dialect dialect = star.getSqlQueryDialect();
+                    final Execution execution = createExecution();
+                    for (StatisticsProvider statisticsProvider
+                        : dialect.getStatisticsProviders())
+                    {
+                        long rowCount =
+                            statisticsProvider.getQueryCardinality(
+                                dialect, star.getDataSource(), sql, execution);
+                        if (rowCount >= 0) {
+                            return rowCount;
+                        }
+                    }
+                    return -1;
+                }
+            });
     }
 
     public long getColumnCardinality(
@@ -133,63 +202,82 @@ public class RolapStatisticsCache {
         if (approxCardinality >= 0) {
             return approxCardinality;
         }
+        final List<String> key = columnKey(relation, expression);
         if (relation instanceof MondrianDef.Table
             && expression instanceof MondrianDef.Column)
         {
             final MondrianDef.Table table = (MondrianDef.Table) relation;
             final MondrianDef.Column column = (MondrianDef.Column) expression;
             return getColumnCardinality(
+                key,
                 null,
                 table.schema,
                 table.name,
                 column.name);
         } else {
-            final SqlQuery sqlQuery = star.getSqlQuery();
-            sqlQuery.setDistinct(true);
-            sqlQuery.addSelect(expression.getExpression(sqlQuery), null);
-            sqlQuery.addFrom(relation, null, true);
-            return getQueryCardinality(sqlQuery.toString());
+            return getQueryCardinality(key);
         }
     }
 
-    private long getColumnCardinality(
-        String catalog,
-        String schema,
-        String table,
-        String column)
+    private List<String> columnKey(
+        MondrianDef.Relation relation,
+        MondrianDef.Expression expression)
     {
-        final List<String> key = Arrays.asList(catalog, schema, table, column);
-        long rowCount = -1;
-        if (columnMap.containsKey(key)) {
-            rowCount = columnMap.get(key);
-        } else {
-            final Dialect dialect = star.getSqlQueryDialect();
-            final List<StatisticsProvider> statisticsProviders =
-                dialect.getStatisticsProviders();
-            final Execution execution =
-                new Execution(
-                    star.getSchema().getInternalConnection()
-                        .getInternalStatement(),
-                    0);
-            for (StatisticsProvider statisticsProvider : statisticsProviders) {
-                rowCount = statisticsProvider.getColumnCardinality(
-                    dialect,
-                    star.getDataSource(),
-                    catalog,
-                    schema,
-                    table,
-                    column,
-                    execution);
-                if (rowCount >= 0) {
-                    break;
-                }
+        final List<Object> mapKey = Arrays.<Object>asList(relation, expression);
+        List<String> key = keyMap.get(mapKey);
+        if (key == null) {
+            if (relation instanceof MondrianDef.Table
+                && expression instanceof MondrianDef.Column)
+            {
+                final MondrianDef.Table table = (MondrianDef.Table) relation;
+                final MondrianDef.Column column =
+                    (MondrianDef.Column) expression;
+                key = Arrays.asList(
+                    "column", null, table.schema, table.name, column.name);
+            } else {
+                final SqlQuery sqlQuery = star.getSqlQuery();
+                sqlQuery.setDistinct(true);
+                sqlQuery.addSelect(expression.getExpression(sqlQuery), null);
+                sqlQuery.addFrom(relation, null, true);
+                key = Arrays.asList("query", sqlQuery.toString());
             }
-
-            // Note: If all providers fail, we put -1 into the cache, to ensure
-            // that we won't try again.
-            columnMap.put(key, rowCount);
+            keyMap.put(mapKey, key);
         }
-        return rowCount;
+        return key;
+    }
+
+    private long getColumnCardinality(
+        List<String> key,
+        final String catalog,
+        final String schema,
+        final String table,
+        final String column)
+    {
+        return get(
+            key,
+            new LongSupplier() {
+                public long getAsLong() {
+                    final Dialect dialect = star.getSqlQueryDialect();
+                    final Execution execution = createExecution();
+                    for (StatisticsProvider statisticsProvider
+                        : dialect.getStatisticsProviders())
+                    {
+                        long rowCount =
+                            statisticsProvider.getColumnCardinality(
+                                dialect,
+                                star.getDataSource(),
+                                catalog,
+                                schema,
+                                table,
+                                column,
+                                execution);
+                        if (rowCount >= 0) {
+                            return rowCount;
+                        }
+                    }
+                    return -1;
+                }
+            });
     }
 
     public int getColumnCardinality2(
@@ -202,6 +290,380 @@ public class RolapStatisticsCache {
     {
         return -1;
     }
+
+    /**
+     * Computes, in the background, the row count of each table in the star
+     * and the cardinality of each column whose cardinality is not declared
+     * in the schema. Statistics that are already cached are not recomputed.
+     *
+     * <p>Called when the schema is loaded, if
+     * {@link MondrianProperties#StatisticsPrewarm} is set.
+     */
+    public void prewarm() {
+        final List<RolapStar.Table> tables = new ArrayList<RolapStar.Table>();
+        collectTables(star.getFactTable(), tables);
+        submit(
+            new Runnable() {
+                public void run() {
+                    for (RolapStar.Table table : tables) {
+                        try {
+                            getRelationCardinality(
+                                table.getRelation(), table.getAlias(), -1);
+                            for (RolapStar.Column column
+                                : table.getColumns())
+                            {
+                                if (column.getExpression() != null) {
+                                    column.getCardinality();
+                                }
+                            }
+                        } catch (Throwable e) {
+                            LOGGER.warn(
+                                "Error while pre-warming statistics for table "
+                                + table.getAlias(),
+                                e);
+                        }
+                    }
+                }
+            });
+    }
+
+    private static void collectTables(
+        RolapStar.Table table,
+        List<RolapStar.Table> tables)
+    {
+        tables.add(table);
+        for (RolapStar.Table child : table.getChildren()) {
+            collectTables(child, tables);
+        }
+    }
+
+    private Execution createExecution() {
+        return new Execution(
+            star.getSchema().getInternalConnection().getInternalStatement(),
+            0);
+    }
+
+    /**
+     * Returns a statistic from the store, or -1 if it is not known yet.
+     *
+     * <p>A statistic that is not present, or is present but has expired, is
+     * computed by a background task; meanwhile this method returns the old
+     * value, or -1, and callers use their default estimates. However many
+     * callers ask for a statistic, only one task computes it at a time.
+     *
+     * <p>If all providers fail, the statistic remains unknown. The failure
+     * is remembered for {@link #FAILURE_RETRY_MILLIS} milliseconds, so that
+     * a query that fails is not re-run every time a query is planned.
+     */
+    long get(final List<String> key, final LongSupplier provider) {
+        final Stat stat = store.map.get(key);
+        if (stat != null && !stat.isExpired()) {
+            return stat.value;
+        }
+        if (!store.hasFailedRecently(key)
+            && store.refreshing.add(key))
+        {
+            submit(
+                new Runnable() {
+                    public void run() {
+                        try {
+                            final long value = provider.getAsLong();
+                            if (value >= 0) {
+                                store.put(key, value);
+                            } else {
+                                store.fail(key);
+                            }
+                        } catch (Throwable e) {
+                            store.fail(key);
+                            LOGGER.warn(
+                                "Error while computing statistic " + key, e);
+                        } finally {
+                            store.refreshing.remove(key);
+                        }
+                    }
+                });
+        }
+        return stat == null ? -1 : stat.value;
+    }
+
+    /**
+     * Waits until the background tasks submitted so far have completed.
+     * For testing.
+     */
+    static void awaitTasks() throws Exception {
+        executor.submit(
+            new Runnable() {
+                public void run() {
+                }
+            })
+            .get();
+    }
+
+    private static void submit(Runnable runnable) {
+        try {
+            executor.submit(runnable);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Statistics task rejected", e);
+        }
+    }
+
+    /**
+     * Returns the store for the database a schema reads from, creating and,
+     * if persistence is enabled, loading it if necessary.
+     *
+     * <p>A store is persistent only if the connect string identifies the
+     * database in a way that survives a restart: by
+     * {@link RolapConnectionProperties#JdbcConnectionUuid}, or by JDBC URL,
+     * user and data source name.
+     */
+    private static Store lookupStore(RolapStatisticsCache cache) {
+        final RolapSchema schema = cache.star.getSchema();
+        final Util.PropertyList connectInfo =
+            schema.getInternalConnection().getConnectInfo();
+        final String uuid =
+            connectInfo.get(RolapConnectionProperties.JdbcConnectionUuid.name());
+        final String jdbc =
+            connectInfo.get(RolapConnectionProperties.Jdbc.name());
+        final String dataSource =
+            connectInfo.get(RolapConnectionProperties.DataSource.name());
+        final String id;
+        final boolean durable;
+        if (uuid != null && uuid.length() > 0) {
+            id = "uuid=" + uuid;
+            durable = true;
+        } else if (jdbc != null || dataSource != null) {
+            id = "jdbc=" + jdbc
+                + ";jdbcUser="
+                + connectInfo.get(RolapConnectionProperties.JdbcUser.name())
+                + ";dataSource=" + dataSource;
+            durable = true;
+        } else {
+            id = schema.getKey().right.toString();
+            durable = false;
+        }
+        synchronized (STORES) {
+            // Discard stores whose stars have all been garbage-collected.
+            STORES.values().removeIf(store -> store.owners.isEmpty());
+            Store store = STORES.get(id);
+            if (store == null) {
+                store = createStore(id, durable);
+                STORES.put(id, store);
+            }
+            store.owners.add(cache);
+            return store;
+        }
+    }
+
+    /**
+     * Releases the stores that a schema uses. A store that is no longer used
+     * by any schema is discarded.
+     *
+     * <p>Called when a schema is flushed or removed from the schema pool.
+     *
+     * @param schema Schema
+     */
+    static void release(RolapSchema schema) {
+        synchronized (STORES) {
+            for (Iterator<Store> iterator = STORES.values().iterator();
+                iterator.hasNext();)
+            {
+                final Store store = iterator.next();
+                store.owners.removeIf(
+                    cache -> cache.star.getSchema() == schema);
+                if (store.owners.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static Store createStore(String id, boolean durable) {
+        final String directory =
+            MondrianProperties.instance().StatisticsCacheDirectory.get();
+        final File file =
+            durable && directory != null && directory.length() > 0
+                ? new File(
+                    directory,
+                    "statistics-"
+                    + new ByteString(Util.digestMd5(id)) + ".bin")
+                : null;
+        final Store store = new Store(file);
+        store.load();
+        return store;
+    }
+
+    /**
+     * Cached value of a statistic, and when it was computed.
+     */
+    private static class Stat {
+        final long value;
+        final long timestamp;
+
+        Stat(long value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        boolean isExpired() {
+            final int timeToLive =
+                MondrianProperties.instance().StatisticsCacheTimeToLive.get();
+            return timeToLive > 0
+                && System.currentTimeMillis() - timestamp
+                   > timeToLive * 1000L;
+        }
+    }
+
+    /**
+     * Statistics for one database, optionally backed by a file.
+     *
+     * <p>The key of each statistic is a list of strings whose first element
+     * is the kind of statistic: ["table", catalog, schema, table],
+     * ["column", catalog, schema, table, column], or ["query", sql].
+     */
+    private static class Store {
+        private static final int VERSION = 1;
+
+        private final File file;
+        private final ConcurrentMap<List<String>, Stat> map =
+            new ConcurrentHashMap<List<String>, Stat>();
+        private final Set<List<String>> refreshing =
+            Collections.newSetFromMap(
+                new ConcurrentHashMap<List<String>, Boolean>());
+
+        /**
+         * When each statistic whose providers all failed was last attempted.
+         * Not persisted.
+         */
+        private final ConcurrentMap<List<String>, Long> failures =
+            new ConcurrentHashMap<List<String>, Long>();
+        private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+        /**
+         * Caches, one per star, that use this store. Held weakly, so that a
+         * schema that is garbage-collected without being flushed does not
+         * keep its store alive.
+         */
+        private final Set<RolapStatisticsCache> owners =
+            Collections.newSetFromMap(
+                new WeakHashMap<RolapStatisticsCache, Boolean>());
+
+        Store(File file) {
+            this.file = file;
+        }
+
+        void put(List<String> key, long value) {
+            map.put(key, new Stat(value, System.currentTimeMillis()));
+            failures.remove(key);
+            if (file != null && saveScheduled.compareAndSet(false, true)) {
+                submit(
+                    new Runnable() {
+                        public void run() {
+                            saveScheduled.set(false);
+                            save();
+                        }
+                    });
+            }
+        }
+
+        void fail(List<String> key) {
+            failures.put(key, System.currentTimeMillis());
+        }
+
+        boolean hasFailedRecently(List<String> key) {
+            final Long timestamp = failures.get(key);
+            return timestamp != null
+                && System.currentTimeMillis() - timestamp
+                   < FAILURE_RETRY_MILLIS;
+        }
+
+        void load() {
+            if (file == null || !file.exists()) {
+                return;
+            }
+            try (DataInputStream in =
+                     new DataInputStream(
+                         new BufferedInputStream(new FileInputStream(file))))
+            {
+                if (in.readInt() != VERSION) {
+                    return;
+                }
+                final int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    final int size = in.readInt();
+                    final List<String> key = new ArrayList<String>(size);
+                    for (int j = 0; j < size; j++) {
+                        key.add(in.readBoolean() ? in.readUTF() : null);
+                    }
+                    final long value = in.readLong();
+                    final long timestamp = in.readLong();
+                    if (value >= 0) {
+                        map.putIfAbsent(key, new Stat(value, timestamp));
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Error while reading statistics from " + file, e);
+            }
+        }
+
+        synchronized void save() {
+            final File tmpFile = new File(file.getPath() + ".tmp");
+            try {
+                final File dir = file.getParentFile();
+                if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                    throw new IOException("Could not create directory " + dir);
+                }
+                final List<Map.Entry<List<String>, Stat>> entries =
+                    new ArrayList<Map.Entry<List<String>, Stat>>();
+                for (Map.Entry<List<String>, Stat> entry : map.entrySet()) {
+                    if (isWritable(entry.getKey())) {
+                        entries.add(entry);
+                    }
+                }
+                try (DataOutputStream out =
+                         new DataOutputStream(
+                             new BufferedOutputStream(
+                                 new FileOutputStream(tmpFile))))
+                {
+                    out.writeInt(VERSION);
+                    out.writeInt(entries.size());
+                    for (Map.Entry<List<String>, Stat> entry : entries) {
+                        out.writeInt(entry.getKey().size());
+                        for (String s : entry.getKey()) {
+                            out.writeBoolean(s != null);
+                            if (s != null) {
+                                out.writeUTF(s);
+                            }
+                        }
+                        out.writeLong(entry.getValue().value);
+                        out.writeLong(entry.getValue().timestamp);
+                    }
+                }
+                if (!tmpFile.renameTo(file)) {
+                    // Some platforms cannot rename over an existing file.
+                    if (!file.delete() || !tmpFile.renameTo(file)) {
+                        throw new IOException(
+                            "Could not rename " + tmpFile + " to " + file);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Error while writing statistics to " + file, e);
+            }
+        }
+
+        /**
+         * Returns whether a key can be written by
+         * {@link DataOutputStream#writeUTF(String)}, which is limited to
+         * 64K bytes per string. Very long SQL statements are not persisted.
+         */
+        private static boolean isWritable(List<String> key) {
+            for (String s : key) {
+                if (s != null && s.length() > 16384) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
 
 // End RolapStatisticsCache.java
@@ -20,11 +20,18 @@ import mondrian.mdx.ResolvedFunCall;
 import mondrian.olap.*;
 import mondrian.olap.type.ScalarType;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.olap4j.AllocationPolicy;
 import org.olap4j.Scenario;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Implementation of {@link org.olap4j.Scenario}.
@@ -34,20 +41,158 @@ import java.util.List;
  */
 public final class ScenarioImpl implements Scenario {
 
+    private static final Logger LOGGER =
+        LogManager.getLogger(ScenarioImpl.class);
+
     private final int id;
 
-    private final List<WritebackCell> writebackCells =
-        new ArrayList<WritebackCell>();
+    /**
+     * Persisted scenarios, by log file, so that there is one scenario object
+     * per log however many times its schema is loaded.
+     */
+    private static final Map<File, ScenarioImpl> PERSISTED =
+        new HashMap<File, ScenarioImpl>();
+
+    /**
+     * Index of writeback cells. Guarded by this.
+     */
+    private WritebackIndex writebackIndex = new WritebackIndex();
+
+    /**
+     * Log to which writeback cells are appended, or null if scenarios are not
+     * persisted or if the scenario has been deleted. Guarded by this.
+     */
+    private ScenarioLog log;
+
+    /**
+     * Whether the scenario has been deleted. Guarded by this.
+     */
+    private boolean deleted;
+
+    /**
+     * Records read from the log that have not yet been turned into writeback
+     * cells. Guarded by this.
+     */
+    private List<ScenarioLog.Entry> pendingEntries =
+        Collections.emptyList();
+
+    private RolapSchema schema;
 
     private RolapMember member;
 
-    private static int nextId;
+    private static int nextId = initialId();
 
     /**
      * Creates a ScenarioImpl.
      */
     public ScenarioImpl() {
-        id = nextId++;
+        this(allocateId());
+    }
+
+    private ScenarioImpl(int id) {
+        this.id = id;
+    }
+
+    private static synchronized int allocateId() {
+        return nextId++;
+    }
+
+    /**
+     * Returns the first id not used by a persisted scenario of any catalog.
+     */
+    private static int initialId() {
+        return ScenarioLog.getMaxPersistedId() + 1;
+    }
+
+    /**
+     * Registers with a schema each scenario of its catalog that was persisted
+     * to {@link mondrian.olap.MondrianProperties#ScenarioLogDirectory}. The
+     * scenario's writeback cells are read now, and replayed when the scenario
+     * is first evaluated.
+     *
+     * <p>If the scenario is already in memory, because the schema has been
+     * loaded before, the same scenario object is registered with the new
+     * schema, and its cells are read again from the log. A log that cannot be
+     * read is logged and skipped, so that it does not prevent the schema from
+     * loading.
+     *
+     * @param schema Schema
+     */
+    static void registerPersisted(RolapSchema schema) {
+        for (int id : ScenarioLog.getPersistedIds(schema)) {
+            final ScenarioLog log = ScenarioLog.forId(schema, id);
+            try {
+                final ScenarioImpl scenario;
+                synchronized (PERSISTED) {
+                    ScenarioImpl existing = PERSISTED.get(log.getFile());
+                    if (existing == null) {
+                        existing = new ScenarioImpl(id);
+                        existing.log = log;
+                        PERSISTED.put(log.getFile(), existing);
+                    }
+                    scenario = existing;
+                }
+                scenario.restore(schema);
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to restore scenario from " + log, e);
+            }
+        }
+    }
+
+    /**
+     * Returns a persisted scenario of a schema's catalog, or null if there is
+     * none with the given id in memory.
+     *
+     * @param schema Schema
+     * @param id Scenario id
+     * @return Scenario, or null
+     */
+    static ScenarioImpl lookupPersisted(RolapSchema schema, int id) {
+        final ScenarioLog log = ScenarioLog.forId(schema, id);
+        if (log == null) {
+            return null;
+        }
+        synchronized (PERSISTED) {
+            return PERSISTED.get(log.getFile());
+        }
+    }
+
+    /**
+     * Re-reads this scenario's writeback cells from its log, and registers it
+     * with a schema.
+     */
+    private void restore(RolapSchema schema) {
+        synchronized (this) {
+            if (deleted) {
+                return;
+            }
+            writebackIndex = new WritebackIndex();
+            pendingEntries = log.read();
+        }
+        register(schema);
+    }
+
+    /**
+     * Deletes this scenario: discards its writeback cells and deletes its log,
+     * so that it is not restored when its schema is next loaded. Its member
+     * stays in the [Scenario] dimension until the schema is reloaded, but
+     * evaluates as if no cells had been written, and writing a cell fails.
+     */
+    public void delete() {
+        final ScenarioLog log;
+        synchronized (this) {
+            deleted = true;
+            writebackIndex = new WritebackIndex();
+            pendingEntries = Collections.emptyList();
+            log = this.log;
+            this.log = null;
+        }
+        if (log != null) {
+            synchronized (PERSISTED) {
+                PERSISTED.remove(log.getFile());
+            }
+            log.delete();
+        }
     }
 
     @Override
@@ -149,12 +294,9 @@ public final class ScenarioImpl implements Scenario {
             compactKeyValues[k++] = keyValues[bitPos];
         }
 
-        // Record the override.
-        //
-        // TODO: add a mechanism for persisting the overrides to a file.
-        //
-        // FIXME: make thread-safe
-        writebackCells.add(
+        final double atomicCellCount =
+            computeAtomicCellCount(baseCube, members);
+        final WritebackCell writebackCell =
             new WritebackCell(
                 baseCube,
                 new ArrayList<RolapMember>(members),
@@ -162,7 +304,94 @@ public final class ScenarioImpl implements Scenario {
                 compactKeyValues,
                 newValue,
                 currentValue,
-                allocationPolicy));
+                allocationPolicy,
+                atomicCellCount);
+        synchronized (this) {
+            if (deleted) {
+                throw Util.newError(this + " has been deleted");
+            }
+            // Record the override, first in the log (if scenarios are
+            // persisted) so that it is not lost if the server stops.
+            if (log != null) {
+                final List<String> memberNames = new ArrayList<String>();
+                for (RolapMember m : members) {
+                    memberNames.add(m.getUniqueName());
+                }
+                log.append(
+                    new ScenarioLog.Entry(
+                        baseCube.getName(),
+                        memberNames,
+                        newValue,
+                        currentValue,
+                        atomicCellCount,
+                        allocationPolicy));
+            }
+            replayPendingEntries();
+            writebackIndex.add(writebackCell);
+        }
+    }
+
+    /**
+     * Returns the writeback cells that may be related to a cell, in the order
+     * they were written.
+     *
+     * @param members Coordinates of a cell, by hierarchy ordinal
+     * @return Writeback cells that may be equal to, above or below the cell
+     */
+    private synchronized List<WritebackCell> getWritebackCells(
+        Member[] members)
+    {
+        replayPendingEntries();
+        return writebackIndex.getCandidates(members);
+    }
+
+    /**
+     * Converts the records read from the log into writeback cells. Called
+     * with this locked.
+     */
+    private void replayPendingEntries() {
+        if (pendingEntries.isEmpty()) {
+            return;
+        }
+        final List<ScenarioLog.Entry> entries = pendingEntries;
+        pendingEntries = Collections.emptyList();
+        for (ScenarioLog.Entry entry : entries) {
+            final RolapCube cube = schema.lookupCube(entry.cubeName);
+            if (cube == null) {
+                LOGGER.warn(
+                    "Ignoring writeback to unknown cube '" + entry.cubeName
+                    + "' in scenario log " + log);
+                continue;
+            }
+            final SchemaReader schemaReader =
+                cube.getSchemaReader(null).withLocus();
+            final List<RolapMember> members = new ArrayList<RolapMember>();
+            for (String memberName : entry.memberNames) {
+                final Member m =
+                    schemaReader.getMemberByUniqueName(
+                        Util.parseIdentifier(memberName), false);
+                if (m == null) {
+                    LOGGER.warn(
+                        "Ignoring writeback to unknown member " + memberName
+                        + " in scenario log " + log);
+                    break;
+                }
+                members.add((RolapMember) m);
+            }
+            if (members.size() < entry.memberNames.size()) {
+                continue;
+            }
+            writebackIndex.add(
+                new WritebackCell(
+                    cube,
+                    members,
+                    null,
+                    null,
+                    entry.newValue,
+                    entry.currentValue,
+                    entry.allocationPolicy,
+                    entry.atomicCellCount));
+        }
     }
 
     public String getId() {
@@ -199,6 +428,17 @@ public final class ScenarioImpl implements Scenario {
      * @param schema Schema
      */
     void register(RolapSchema schema) {
+        synchronized (this) {
+            this.schema = schema;
+            if (log == null && !deleted) {
+                log = ScenarioLog.forId(schema, id);
+                if (log != null) {
+                    synchronized (PERSISTED) {
+                        PERSISTED.put(log.getFile(), this);
+                    }
+                }
+            }
+        }
         // Add a value to the [Scenario] dimension of every cube that has
         // writeback enabled.
         for (RolapCube cube : schema.getCubeList()) {
@@ -325,8 +565,8 @@ public final class ScenarioImpl implements Scenario {
      * cache. Only the cells specifically modified by the client have a
      * {@code CellValueOverride}.
      *
-     * <p>In future, a {@link ScenarioImpl} could be persisted by
-     * serializing all {@code WritebackCell}s to a file.
+     * <p>If scenarios are persisted, each {@code WritebackCell} is also
+     * recorded in a {@link ScenarioLog}.
      */
     private static class WritebackCell {
         private final double newValue;
@@ -340,11 +580,13 @@ public final class ScenarioImpl implements Scenario {
          *
          * @param cube Cube
          * @param members Members that form context
-         * @param constrainedColumnsBitKey Bitmap of columns which have values
-         * @param keyValues List of values, by bit position
+         * @param constrainedColumnsBitKey Bitmap of columns which have values,
+         *     or null
+         * @param keyValues List of values, by bit position, or null
          * @param newValue New value
          * @param currentValue Current value
          * @param allocationPolicy Allocation policy
+         * @param atomicCellCount Number of atomic cells in the cell
          */
         WritebackCell(
             RolapCube cube,
@@ -353,16 +595,17 @@ public final class ScenarioImpl implements Scenario {
             Object[] keyValues,
             double newValue,
             double currentValue,
-            AllocationPolicy allocationPolicy)
+            AllocationPolicy allocationPolicy,
+            double atomicCellCount)
         {
-            assert keyValues.length == constrainedColumnsBitKey.cardinality();
-            Util.discard(cube); // not used currently
+            assert keyValues == null
+                || keyValues.length == constrainedColumnsBitKey.cardinality();
             Util.discard(constrainedColumnsBitKey); // not used currently
             Util.discard(keyValues); // not used currently
             this.newValue = newValue;
             this.currentValue = currentValue;
             this.allocationPolicy = allocationPolicy;
-            this.atomicCellCount = computeAtomicCellCount(cube, members);
+            this.atomicCellCount = atomicCellCount;
 
             // Build the array of members by ordinal. If a member is not
             // specified for a particular dimension, use the 'all' member (not
@@ -445,6 +688,142 @@ public final class ScenarioImpl implements Scenario {
         }
     }
 
+    /**
+     * Index of the writeback cells of a scenario, to find those that may be
+     * related to a given cell without comparing the cell with each of them.
+     *
+     * <p>A writeback cell is related to a cell only if, for every hierarchy,
+     * the writeback cell's member is equal to, an ancestor of, or a descendant
+     * of the cell's member. For each hierarchy ordinal, a
+     * {@link HierarchyIndex} finds the writeback cells for which that holds,
+     * as a bitmap of positions; the intersection of the bitmaps is a superset
+     * of the related cells, which are then checked by
+     * {@link WritebackCell#getRelationTo(Member[])}.
+     *
+     * <p>Not thread-safe; the scenario guards it.
+     */
+    private static class WritebackIndex {
+        private final List<WritebackCell> cells =
+            new ArrayList<WritebackCell>();
+        private final List<HierarchyIndex> hierarchyIndexes =
+            new ArrayList<HierarchyIndex>();
+
+        void add(WritebackCell cell) {
+            final int position = cells.size();
+            cells.add(cell);
+            for (int i = 0; i < cell.membersByOrdinal.length; i++) {
+                if (i == hierarchyIndexes.size()) {
+                    hierarchyIndexes.add(new HierarchyIndex());
+                }
+                hierarchyIndexes.get(i).add(
+                    position, cell.membersByOrdinal[i]);
+            }
+        }
+
+        /**
+         * Returns the writeback cells that may be related to a cell, in the
+         * order they were added.
+         *
+         * @param members Coordinates of a cell, by hierarchy ordinal
+         * @return Writeback cells
+         */
+        List<WritebackCell> getCandidates(Member[] members) {
+            BitSet candidates = null;
+            final int count =
+                Math.min(members.length, hierarchyIndexes.size());
+            for (int i = 0; i < count; i++) {
+                final HierarchyIndex hierarchyIndex = hierarchyIndexes.get(i);
+                if (hierarchyIndex.allCount == cells.size()) {
+                    // Every writeback cell has the 'all' member of this
+                    // hierarchy, which is an ancestor of every member.
+                    continue;
+                }
+                final BitSet related = hierarchyIndex.getRelated(members[i]);
+                if (candidates == null) {
+                    candidates = related;
+                } else {
+                    candidates.and(related);
+                }
+                if (candidates.isEmpty()) {
+                    return Collections.emptyList();
+                }
+            }
+            if (candidates == null) {
+                return new ArrayList<WritebackCell>(cells);
+            }
+            final List<WritebackCell> list =
+                new ArrayList<WritebackCell>(candidates.cardinality());
+            for (int i = candidates.nextSetBit(0);
+                i >= 0;
+                i = candidates.nextSetBit(i + 1))
+            {
+                list.add(cells.get(i));
+            }
+            return list;
+        }
+    }
+
+    /**
+     * Index of the members that writeback cells have on one hierarchy.
+     * Members are compared by unique name, as
+     * {@link Member#isChildOrEqualTo(Member)} does.
+     */
+    private static class HierarchyIndex {
+        /** Writeback cells whose member is the 'all' member. */
+        private final BitSet allCells = new BitSet();
+        private int allCount;
+        /** Writeback cells by the unique name of their member. */
+        private final Map<String, BitSet> cellsByMember =
+            new HashMap<String, BitSet>();
+        /** Writeback cells by the unique name of their member and of each of
+         * its ancestors. */
+        private final Map<String, BitSet> cellsByAncestor =
+            new HashMap<String, BitSet>();
+
+        void add(int position, Member member) {
+            if (member.isAll()) {
+                allCells.set(position);
+                ++allCount;
+                return;
+            }
+            bitSet(cellsByMember, member.getUniqueName()).set(position);
+            for (Member m = member; m != null; m = m.getParentMember()) {
+                bitSet(cellsByAncestor, m.getUniqueName()).set(position);
+            }
+        }
+
+        /**
+         * Returns the writeback cells whose member may be equal to, an
+         * ancestor of, or a descendant of a given member.
+         */
+        BitSet getRelated(Member member) {
+            final BitSet related = (BitSet) allCells.clone();
+            final BitSet below = cellsByAncestor.get(member.getUniqueName());
+            if (below != null) {
+                related.or(below);
+            }
+            for (Member m = member.getParentMember();
+                m != null;
+                m = m.getParentMember())
+            {
+                final BitSet above = cellsByMember.get(m.getUniqueName());
+                if (above != null) {
+                    related.or(above);
+                }
+            }
+            return related;
+        }
+
+        private static BitSet bitSet(Map<String, BitSet> map, String key) {
+            BitSet bitSet = map.get(key);
+            if (bitSet == null) {
+                bitSet = new BitSet();
+                map.put(key, bitSet);
+            }
+            return bitSet;
+        }
+    }
+
     /**
      * Decribes the relationship between two cells.
      */
@@ -511,7 +890,7 @@ public final class ScenarioImpl implements Scenario {
                 // writebacks. If so, order is important.
                 int changeCount = 0;
                 for (ScenarioImpl.WritebackCell writebackCell
-                    : scenario.writebackCells)
+                    : scenario.getWritebackCells(evaluator.getMembers()))
                 {
                     CellRelation relation =
                         writebackCell.getRelationTo(evaluator.getMembers());
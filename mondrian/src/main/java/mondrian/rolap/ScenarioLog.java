@@ -0,0 +1,413 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.rolap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.olap4j.AllocationPolicy;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file in which a {@link ScenarioImpl} records the cells written
+ * to it, so that the scenario survives a restart.
+ *
+ * <p>Files live in the directory given by
+ * {@link MondrianProperties#ScenarioLogDirectory}, in a sub-directory per
+ * catalog, one file per scenario, named
+ * <code>scenario-<i>id</i>.log</code>. The sub-directory is named after
+ * the schema's content key, which is the MD5 hash of the catalog's URL (or
+ * of its content, if the catalog was given as a string), so that the
+ * scenarios of one catalog are not replayed against another.
+ *
+ * <p>Each record holds the name of the cube, the unique names of the cell's
+ * members, the new and previous values, the number of atomic cells and the
+ * allocation policy; it is written and synced to disk before the write-back
+ * takes effect. A record is framed by its length and followed by its CRC-32
+ * checksum. A record that was only partly written, because the server
+ * stopped while writing it, or that fails its checksum, ends the log: it and
+ * anything after it are ignored when the file is read, and are truncated
+ * before the next record is appended.
+ *
+ * @see ScenarioImpl
+ */
+class ScenarioLog {
+    private static final Logger LOGGER =
+        LogManager.getLogger(ScenarioLog.class);
+
+    private static final String PREFIX = "scenario-";
+    private static final String SUFFIX = ".log";
+
+    /**
+     * Largest record that is believed; a larger length means that the
+     * length itself is corrupt.
+     */
+    private static final int MAX_RECORD_LENGTH = 1 << 24;
+
+    private final File file;
+
+    /**
+     * Length of the valid prefix of the file, or -1 if the file has not been
+     * read yet. Guarded by this.
+     */
+    private long validLength = -1;
+
+    private ScenarioLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the directory in which scenarios are persisted, or null if
+     * scenarios are not persisted.
+     *
+     * @return Log directory, or null
+     */
+    static File getDirectory() {
+        final String path =
+            MondrianProperties.instance().ScenarioLogDirectory.get();
+        if (path == null || path.length() == 0) {
+            return null;
+        }
+        return new File(path);
+    }
+
+    /**
+     * Returns the directory in which the scenarios of a schema are
+     * persisted, or null if scenarios are not persisted.
+     *
+     * @param schema Schema
+     * @return Log directory of the schema's catalog, or null
+     */
+    static File getDirectory(RolapSchema schema) {
+        final File directory = getDirectory();
+        if (directory == null || schema.key == null) {
+            return null;
+        }
+        return new File(directory, schema.key.left.toString());
+    }
+
+    /**
+     * Returns the log of a scenario of a schema, or null if scenarios are not
+     * persisted.
+     *
+     * @param schema Schema
+     * @param id Scenario id
+     * @return Log, or null
+     */
+    static ScenarioLog forId(RolapSchema schema, int id) {
+        final File directory = getDirectory(schema);
+        if (directory == null) {
+            return null;
+        }
+        return new ScenarioLog(new File(directory, PREFIX + id + SUFFIX));
+    }
+
+    /**
+     * Returns the ids of the scenarios of a schema that have a log, in
+     * ascending order.
+     *
+     * @param schema Schema
+     * @return Ids of persisted scenarios; empty if scenarios are not persisted
+     */
+    static List<Integer> getPersistedIds(RolapSchema schema) {
+        return getPersistedIds(getDirectory(schema));
+    }
+
+    /**
+     * Returns the largest id of a scenario of any catalog that has a log, or
+     * -1 if there is none.
+     *
+     * @return Largest persisted scenario id
+     */
+    static int getMaxPersistedId() {
+        final File directory = getDirectory();
+        int max = -1;
+        if (directory == null) {
+            return max;
+        }
+        final File[] subdirectories = directory.listFiles();
+        if (subdirectories == null) {
+            return max;
+        }
+        for (File subdirectory : subdirectories) {
+            final List<Integer> ids = getPersistedIds(subdirectory);
+            if (!ids.isEmpty()) {
+                max = Math.max(max, ids.get(ids.size() - 1));
+            }
+        }
+        return max;
+    }
+
+    private static List<Integer> getPersistedIds(File directory) {
+        final List<Integer> ids = new ArrayList<Integer>();
+        if (directory == null) {
+            return ids;
+        }
+        final String[] names = directory.list();
+        if (names == null) {
+            return ids;
+        }
+        for (String name : names) {
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                try {
+                    ids.add(
+                        Integer.valueOf(
+                            name.substring(
+                                PREFIX.length(),
+                                name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Returns the file of this log.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends a record to this log and syncs it to disk. If the log ends
+     * with a partial or corrupt record, truncates it first.
+     *
+     * @param entry Record
+     */
+    synchronized void append(Entry entry) {
+        RandomAccessFile out = null;
+        try {
+            if (validLength < 0) {
+                read();
+            }
+            file.getParentFile().mkdirs();
+            final byte[] record = toRecord(entry);
+            out = new RandomAccessFile(file, "rw");
+            if (out.length() > validLength) {
+                LOGGER.warn(
+                    "Truncating scenario log " + file + " from "
+                    + out.length() + " to " + validLength + " bytes");
+                out.setLength(validLength);
+            }
+            out.seek(validLength);
+            out.write(record);
+            out.getFD().sync();
+            validLength += record.length;
+        } catch (IOException e) {
+            throw Util.newError(e, "Error while writing " + file);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts an entry to a record: the length of the body, the body, and
+     * the CRC-32 checksum of the body.
+     */
+    private static byte[] toRecord(Entry entry) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(body);
+        data.writeUTF(entry.cubeName);
+        data.writeInt(entry.memberNames.size());
+        for (String memberName : entry.memberNames) {
+            data.writeUTF(memberName);
+        }
+        data.writeDouble(entry.newValue);
+        data.writeDouble(entry.currentValue);
+        data.writeDouble(entry.atomicCellCount);
+        data.writeUTF(entry.allocationPolicy.name());
+        data.flush();
+        final byte[] bodyBytes = body.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(bodyBytes);
+        final ByteArrayOutputStream record =
+            new ByteArrayOutputStream(bodyBytes.length + 12);
+        final DataOutputStream recordData = new DataOutputStream(record);
+        recordData.writeInt(bodyBytes.length);
+        recordData.write(bodyBytes);
+        recordData.writeLong(crc.getValue());
+        recordData.flush();
+        return record.toByteArray();
+    }
+
+    /**
+     * Reads the records of this log, in the order they were written, up to
+     * the first partial or corrupt record.
+     *
+     * @return Records; empty if the log does not exist
+     */
+    synchronized List<Entry> read() {
+        final List<Entry> entries = new ArrayList<Entry>();
+        validLength = 0;
+        if (!file.exists()) {
+            return entries;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            final long fileLength = file.length();
+            while (validLength < fileLength) {
+                final byte[] body = readBody(in);
+                final Entry entry = body == null ? null : toEntry(body);
+                if (entry == null) {
+                    LOGGER.warn(
+                        "Ignoring incomplete or corrupt record at offset "
+                        + validLength + " of scenario log " + file);
+                    break;
+                }
+                entries.add(entry);
+                validLength += 4 + body.length + 8;
+            }
+        } catch (IOException e) {
+            throw Util.newError(e, "Error while reading " + file);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the body of a record, or returns null if the rest of the file is
+     * not a complete record whose body matches its checksum.
+     */
+    private static byte[] readBody(DataInputStream in) throws IOException {
+        final byte[] body;
+        final long checksum;
+        try {
+            final int length = in.readInt();
+            if (length < 0 || length > MAX_RECORD_LENGTH) {
+                return null;
+            }
+            body = new byte[length];
+            in.readFully(body);
+            checksum = in.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        return crc.getValue() == checksum ? body : null;
+    }
+
+    /**
+     * Converts the body of a record to an entry, or returns null if it is not
+     * a valid record.
+     */
+    private static Entry toEntry(byte[] body) {
+        final DataInputStream data =
+            new DataInputStream(new ByteArrayInputStream(body));
+        try {
+            final String cubeName = data.readUTF();
+            final int memberCount = data.readInt();
+            if (memberCount < 0 || memberCount > body.length) {
+                return null;
+            }
+            final List<String> memberNames = new ArrayList<String>();
+            for (int i = 0; i < memberCount; i++) {
+                memberNames.add(data.readUTF());
+            }
+            return new Entry(
+                cubeName,
+                memberNames,
+                data.readDouble(),
+                data.readDouble(),
+                data.readDouble(),
+                AllocationPolicy.valueOf(data.readUTF()));
+        } catch (IOException e) {
+            // Includes EOFException and UTFDataFormatException.
+            return null;
+        } catch (IllegalArgumentException e) {
+            // Unknown allocation policy.
+            return null;
+        }
+    }
+
+    /**
+     * Deletes this log.
+     */
+    synchronized void delete() {
+        if (file.exists() && !file.delete()) {
+            throw Util.newError("Cannot delete scenario log " + file);
+        }
+        validLength = -1;
+    }
+
+    public String toString() {
+        return file.toString();
+    }
+
+    /**
+     * Record of a cell written to a scenario.
+     */
+    static class Entry {
+        final String cubeName;
+        final List<String> memberNames;
+        final double newValue;
+        final double currentValue;
+        final double atomicCellCount;
+        final AllocationPolicy allocationPolicy;
+
+        /**
+         * Creates an Entry.
+         *
+         * @param cubeName Name of cube
+         * @param memberNames Unique names of the members that form the cell's
+         *     coordinates, measure first
+         * @param newValue New value
+         * @param currentValue Value before the write
+         * @param atomicCellCount Number of atomic cells in the cell
+         * @param allocationPolicy Allocation policy
+         */
+        Entry(
+            String cubeName,
+            List<String> memberNames,
+            double newValue,
+            double currentValue,
+            double atomicCellCount,
+            AllocationPolicy allocationPolicy)
+        {
+            this.cubeName = cubeName;
+            this.memberNames = memberNames;
+            this.newValue = newValue;
+            this.currentValue = currentValue;
+            this.atomicCellCount = atomicCellCount;
+            this.allocationPolicy = allocationPolicy;
+        }
+    }
+}
+
+// End ScenarioLog.java
@@ -100,6 +100,8 @@ public class SqlConstraintUtils {
       baseCube = ( (RolapEvaluator) evaluator ).getCube();
     }
 
+    addAppendWatermarkConstraint( sqlQuery, aggStar, baseCube );
+
     RolapEvaluator rEvaluator = (RolapEvaluator) evaluator;
     // decide if we should use the tuple-based version instead
     TupleList slicerTuples = rEvaluator.getOptimizedSlicerTuples( baseCube );
@@ -195,6 +197,33 @@ public class SqlConstraintUtils {
     addRoleAccessConstraints( sqlQuery, aggStar, restrictMemberTypes, baseCube, evaluator );
   }
 
+  /**
+   * Bounds a query against the fact table by the star's append watermark, if it has one, so that native evaluation
+   * reads the same rows as the segments loaded since the last {@link mondrian.olap.CacheControl#refreshAppended
+   * refresh of appended rows}. Queries against an aggregate table are not bounded, nor are the segments loaded from
+   * one.
+   *
+   * @param sqlQuery
+   *          the query to modify
+   * @param aggStar
+   *          Aggregate table, or null if query is against fact table
+   * @param baseCube
+   *          Base cube, or null
+   */
+  private static void addAppendWatermarkConstraint( SqlQuery sqlQuery, AggStar aggStar, RolapCube baseCube ) {
+    if ( aggStar != null || baseCube == null || baseCube.getStar() == null ) {
+      return;
+    }
+    final RolapStar.AppendWatermark watermark = baseCube.getStar().getAppendWatermark();
+    if ( watermark == null ) {
+      return;
+    }
+    watermark.column.getTable().addToFrom( sqlQuery, false, true );
+    final StringBuilder buf = new StringBuilder();
+    watermark.upTo().toSql( sqlQuery, buf );
+    sqlQuery.addWhere( buf.toString() );
+  }
+
   private static TupleConstraintStruct makeContextConstraintSet( Evaluator evaluator, boolean restrictMemberTypes,
       boolean isTuple ) {
     // Add constraint using the current evaluator context
@@ -254,6 +254,16 @@ public class SqlContextConstraint
         if (evaluator.getCube().isVirtual()) {
             cacheKey.addAll(evaluator.getCube().getBaseCubes());
         }
+
+        // A refresh of appended rows moves the bound that the SQL applies to
+        // the fact table.
+        if (evaluator.getCube().isVirtual()) {
+            for (RolapCube baseCube : evaluator.getCube().getBaseCubes()) {
+                cacheKey.add(baseCube.getStar().getAppendWatermark());
+            }
+        } else {
+            cacheKey.add(evaluator.getCube().getStar().getAppendWatermark());
+        }
     }
 
     /**
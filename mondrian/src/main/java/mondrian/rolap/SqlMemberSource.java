@@ -52,6 +52,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -897,6 +898,27 @@ RME is this right
       return Util.toNullValuesMap( children );
     }
 
+    // members of a parent-child level: fetch their children in a few
+    // queries, rather than one query per member; if the level has a closure
+    // table, fetch their whole subtrees
+    RolapLevel parentChildLevel = getCommonParentChildLevel( parentMembers );
+
+    if ( parentChildLevel != null ) {
+      final int chunkSize = Math.max( 1, MondrianProperties.instance().MaxConstraints.get() );
+
+      for ( int i = 0; i < parentMembers.size(); i += chunkSize ) {
+        final List<RolapMember> chunk = parentMembers.subList( i, Math.min( i + chunkSize, parentMembers.size() ) );
+
+        if ( !getParentChildMemberChildren( parentChildLevel, chunk, children, mcc ) ) {
+          for ( RolapMember parentMember : chunk ) {
+            getMemberChildren( parentMember, children, mcc );
+          }
+        }
+      }
+
+      return Util.toNullValuesMap( children );
+    }
+
     // fetch them one by one
     for ( RolapMember parentMember : parentMembers ) {
       getMemberChildren( parentMember, children, mcc );
@@ -968,6 +990,342 @@ RME is this right
     return childLevel;
   }
 
+  /**
+   * If all parents are members of the same parent-child level, returns that
+   * level; this indicates that the children of all of them can be fetched in
+   * one query. Otherwise returns null.
+   */
+  private RolapLevel getCommonParentChildLevel( List<RolapMember> parents ) {
+    // at least two members required
+    if ( parents.size() < 2 ) {
+      return null;
+    }
+
+    RolapLevel level = null;
+
+    for ( RolapMember member : parents ) {
+      if ( member.isAll() || member.isCalculated() && !member.isParentChildPhysicalMember() ) {
+        return null;
+      }
+
+      if ( level == null ) {
+        level = member.getLevel();
+
+        if ( !level.isParentChild() ) {
+          return null;
+        }
+      } else if ( level != member.getLevel() ) {
+        return null;
+      }
+    }
+
+    return level;
+  }
+
+  /**
+   * Reads the children of several members of a parent-child level in one
+   * query, and adds them to <code>children</code> grouped by parent, in the
+   * order of <code>parentMembers</code>, as if each member's children had been
+   * read separately by {@link #getMemberChildren2}.
+   *
+   * <p>Parents are matched by the string form of their key, because the
+   * driver may return the parent column with a different type than the key
+   * column. If a row cannot be matched to a parent, adds nothing and returns
+   * false, and the caller should read the children one parent at a time.
+   *
+   * <p>If the level has a closure table, and there is no constraint, reads
+   * the whole subtrees of the members instead; see
+   * {@link #getParentChildMemberDescendants}.
+   *
+   * @return whether the children were read
+   */
+  private boolean getParentChildMemberChildren( RolapLevel level, List<RolapMember> parentMembers,
+                                                List<RolapMember> children, MemberChildrenConstraint constraint ) {
+    final RolapLevel closureLevel = getClosureLevel( level );
+
+    if ( closureLevel != null && constraint instanceof DefaultMemberChildrenConstraint ) {
+      return getParentChildMemberDescendants( level, closureLevel, parentMembers, children, constraint );
+    }
+
+    final Map<String, RolapMember> parentsByKey = new HashMap<>();
+    final Map<RolapMember, List<RolapMember>> childrenByParent = new LinkedHashMap<>();
+
+    for ( RolapMember parentMember : parentMembers ) {
+      parentsByKey.put( String.valueOf( parentMember.getKey() ), parentMember );
+      childrenByParent.put( parentMember, new ArrayList<RolapMember>() );
+    }
+
+    final Pair<String, List<SqlStatement.Type>> pair = makeChildrenMemberSqlPC( level, parentMembers );
+    final List<SqlStatement.Type> types = pair.right;
+    HashMap<RolapMember, Object> rolapToOrdinalMap = new HashMap<>();
+
+    SqlStatement stmt = RolapUtil.executeQuery( dataSource, pair.left, types, 0, 0,
+      new SqlStatement.StatementLocus( Locus.peek().execution, "SqlMemberSource.getMemberChildren",
+        "while building member cache", SqlStatementEvent.Purpose.TUPLES, 0 ), -1, -1, null );
+    try {
+      int limit = MondrianProperties.instance().ResultLimit.get();
+      boolean checkCacheStatus = true;
+
+      final List<SqlStatement.Accessor> accessors = stmt.getAccessors();
+      final SqlStatement.Accessor parentAccessor = accessors.get( accessors.size() - 1 );
+      ResultSet resultSet = stmt.getResultSet();
+      Execution execution = Locus.peek().execution;
+
+      while ( resultSet.next() ) {
+        // Check if the MDX query was canceled.
+        CancellationChecker.checkCancelOrTimeout( ++stmt.rowCount, execution );
+
+        if ( limit > 0 && limit < stmt.rowCount ) {
+          // result limit exceeded, throw an exception
+          throw MondrianResource.instance().MemberFetchLimitExceeded.ex( limit );
+        }
+
+        final RolapMember parentMember = parentsByKey.get( String.valueOf( parentAccessor.get() ) );
+
+        if ( parentMember == null ) {
+          LOGGER.debug( "Could not match children to parents of level " + level + "; reading them one by one" );
+          return false;
+        }
+
+        Object value = accessors.get( 0 ).get();
+
+        if ( value == null ) {
+          value = RolapUtil.sqlNullValue;
+        }
+
+        Object captionValue;
+        int columnOffset = 1;
+
+        if ( level.hasCaptionColumn() ) {
+          // The columnOffset needs to take into account
+          // the caption column if one exists
+          captionValue = accessors.get( columnOffset++ ).get();
+        } else {
+          captionValue = null;
+        }
+
+        RolapMember parentMember2 = RolapUtil.strip( parentMember );
+        Object key = cache.makeKey( parentMember2, value );
+        RolapMember member = cache.getMember( key, checkCacheStatus );
+        checkCacheStatus = false; /* Only check the first time */
+
+        if ( member == null ) {
+          member = makeMember( parentMember2, level, value, captionValue, true, stmt, key, columnOffset );
+        }
+
+        final List<RolapMember> siblings = childrenByParent.get( parentMember );
+
+        if ( value == RolapUtil.sqlNullValue ) {
+          addAsOldestSibling( siblings, member );
+        } else {
+          siblings.add( member );
+        }
+
+        if ( !level.getOrdinalExp().equals( level.getKeyExp() ) ) {
+          Object ordinal = accessors.get( columnOffset ).get();
+          Object prevValue = rolapToOrdinalMap.put( member, ordinal );
+
+          if ( prevValue != null && !Util.equals( prevValue, ordinal ) ) {
+            LOGGER.error(
+              "Column expression for " + member.getUniqueName() + " is inconsistent with ordinal or caption expression."
+                + " It should have 1:1 relationship" );
+          }
+        }
+      }
+    } catch ( SQLException e ) {
+      throw stmt.handle( e );
+    } finally {
+      stmt.close();
+    }
+
+    for ( List<RolapMember> siblings : childrenByParent.values() ) {
+      children.addAll( siblings );
+    }
+
+    return true;
+  }
+
+  /**
+   * Reads the subtrees below several members of a parent-child level that has
+   * a closure table, in one query. Adds the children of
+   * <code>parentMembers</code> to <code>children</code>, as
+   * {@link #getParentChildMemberChildren} does, and puts the children of every
+   * member further down the subtrees into the member cache, grouped by parent,
+   * with an empty list for each leaf. Reading the next generations, or
+   * checking whether a member is drillable, then runs no SQL.
+   *
+   * <p>The rows are sorted by ordinal, not by depth, but a member can only be
+   * made after its parent; so the rows are all read first, and members are
+   * made from the top of each subtree down.
+   *
+   * @return whether the children were read
+   */
+  private boolean getParentChildMemberDescendants( RolapLevel level, RolapLevel closureLevel,
+                                                   List<RolapMember> parentMembers, List<RolapMember> children,
+                                                   MemberChildrenConstraint constraint ) {
+    final Map<String, List<Object[]>> rowsByParentKey = new HashMap<>();
+    final Pair<String, List<SqlStatement.Type>> pair = makeDescendantsMemberSqlPC( level, closureLevel, parentMembers );
+    final List<SqlStatement.Type> types = pair.right;
+    final int columnCount;
+
+    SqlStatement stmt = RolapUtil.executeQuery( dataSource, pair.left, types, 0, 0,
+      new SqlStatement.StatementLocus( Locus.peek().execution, "SqlMemberSource.getMemberChildren",
+        "while building member cache", SqlStatementEvent.Purpose.TUPLES, 0 ), -1, -1, null );
+    try {
+      int limit = MondrianProperties.instance().ResultLimit.get();
+
+      final List<SqlStatement.Accessor> accessors = stmt.getAccessors();
+      columnCount = accessors.size();
+      ResultSet resultSet = stmt.getResultSet();
+      Execution execution = Locus.peek().execution;
+
+      while ( resultSet.next() ) {
+        // Check if the MDX query was canceled.
+        CancellationChecker.checkCancelOrTimeout( ++stmt.rowCount, execution );
+
+        if ( limit > 0 && limit < stmt.rowCount ) {
+          // result limit exceeded, throw an exception
+          throw MondrianResource.instance().MemberFetchLimitExceeded.ex( limit );
+        }
+
+        final Object[] row = new Object[ columnCount ];
+
+        for ( int i = 0; i < columnCount; i++ ) {
+          row[ i ] = accessors.get( i ).get();
+        }
+
+        // The parent is the last column. Parents are matched by the string
+        // form of their key, as in getParentChildMemberChildren.
+        final String parentKey = String.valueOf( row[ columnCount - 1 ] );
+        List<Object[]> rows = rowsByParentKey.get( parentKey );
+
+        if ( rows == null ) {
+          rows = new ArrayList<>();
+          rowsByParentKey.put( parentKey, rows );
+        }
+
+        rows.add( row );
+      }
+    } catch ( SQLException e ) {
+      throw stmt.handle( e );
+    } finally {
+      stmt.close();
+    }
+
+    final RowAccessors rowAccessors = new RowAccessors( columnCount );
+    final Map<RolapMember, List<RolapMember>> childrenByParent = new LinkedHashMap<>();
+    final List<RolapMember> pending = new ArrayList<>( parentMembers );
+    HashMap<RolapMember, Object> rolapToOrdinalMap = new HashMap<>();
+    boolean checkCacheStatus = true;
+
+    try {
+      for ( int i = 0; i < pending.size(); i++ ) {
+        final RolapMember parentMember = pending.get( i );
+
+        if ( childrenByParent.containsKey( parentMember ) ) {
+          // the data has a cycle, or the member is below two of the parents
+          continue;
+        }
+
+        final List<RolapMember> siblings = new ArrayList<>();
+        childrenByParent.put( parentMember, siblings );
+
+        final List<Object[]> rows = rowsByParentKey.get( String.valueOf( parentMember.getKey() ) );
+
+        if ( rows == null ) {
+          continue;
+        }
+
+        RolapMember parentMember2 = RolapUtil.strip( parentMember );
+
+        for ( Object[] row : rows ) {
+          rowAccessors.row = row;
+          Object value = row[ 0 ];
+
+          if ( value == null ) {
+            value = RolapUtil.sqlNullValue;
+          }
+
+          Object captionValue;
+          int columnOffset = 1;
+
+          if ( level.hasCaptionColumn() ) {
+            // The columnOffset needs to take into account
+            // the caption column if one exists
+            captionValue = row[ columnOffset++ ];
+          } else {
+            captionValue = null;
+          }
+
+          Object key = cache.makeKey( parentMember2, value );
+          RolapMember member = cache.getMember( key, checkCacheStatus );
+          checkCacheStatus = false; /* Only check the first time */
+
+          if ( member == null ) {
+            member =
+              makeMember( parentMember2, level, value, captionValue, true, rowAccessors.accessors, key, columnOffset );
+          }
+
+          if ( value == RolapUtil.sqlNullValue ) {
+            addAsOldestSibling( siblings, member );
+          } else {
+            siblings.add( member );
+          }
+
+          pending.add( member );
+
+          if ( !level.getOrdinalExp().equals( level.getKeyExp() ) ) {
+            Object ordinal = row[ columnOffset ];
+            Object prevValue = rolapToOrdinalMap.put( member, ordinal );
+
+            if ( prevValue != null && !Util.equals( prevValue, ordinal ) ) {
+              LOGGER.error(
+                "Column expression for " + member.getUniqueName() + " is inconsistent with ordinal or caption "
+                  + "expression. It should have 1:1 relationship" );
+            }
+          }
+        }
+      }
+    } catch ( SQLException e ) {
+      // The accessors of a buffered row do not throw.
+      throw Util.newInternal( e, "while reading descendants of level " + level );
+    }
+
+    for ( RolapMember parentMember : parentMembers ) {
+      children.addAll( childrenByParent.remove( parentMember ) );
+    }
+
+    // The caller caches the children of the parents; cache the rest of the
+    // subtrees here.
+    for ( Map.Entry<RolapMember, List<RolapMember>> entry : childrenByParent.entrySet() ) {
+      if ( cache.getChildrenFromCache( entry.getKey(), constraint ) == null ) {
+        cache.putChildren( entry.getKey(), constraint, entry.getValue() );
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the level of the closure hierarchy of a parent-child level whose
+   * key is the closure table's parent column, or null if the level has no
+   * closure table.
+   *
+   * @see RolapHierarchy#createClosedPeerDimension
+   */
+  private static RolapLevel getClosureLevel( RolapLevel level ) {
+    final RolapLevel rolapLevel =
+      level instanceof RolapCubeLevel ? ( (RolapCubeLevel) level ).getRolapLevel() : level;
+    final RolapLevel closedPeer = rolapLevel.getClosedPeer();
+
+    if ( closedPeer == null || closedPeer.getHierarchy().closureFor == null
+      || !( closedPeer.getHierarchy().getRelation() instanceof MondrianDef.Join ) ) {
+      return null;
+    }
+
+    return closedPeer;
+  }
+
   private void getMemberChildren2( RolapMember parentMember, List<RolapMember> children,
                                    MemberChildrenConstraint constraint ) {
     Pair<String, List<SqlStatement.Type>> pair;
@@ -1075,6 +1433,19 @@ RME is this right
   public RolapMember makeMember( RolapMember parentMember, RolapLevel childLevel, Object value, Object captionValue,
                                  boolean parentChild, SqlStatement stmt, Object key, int columnOffset )
     throws SQLException {
+    return makeMember( parentMember, childLevel, value, captionValue, parentChild, stmt.getAccessors(), key,
+      columnOffset );
+  }
+
+  /**
+   * Makes a member from the current row, like
+   * {@link #makeMember(RolapMember, RolapLevel, Object, Object, boolean, SqlStatement, Object, int)}, but reads the
+   * ordinal and property columns through the given accessors.
+   */
+  protected RolapMember makeMember( RolapMember parentMember, RolapLevel childLevel, Object value,
+                                    Object captionValue, boolean parentChild, List<SqlStatement.Accessor> accessors,
+                                    Object key, int columnOffset )
+    throws SQLException {
     final RolapLevel rolapChildLevel;
 
     if ( childLevel instanceof RolapCubeLevel ) {
@@ -1106,7 +1477,6 @@ RME is this right
     }
 
     Property[] properties = childLevel.getProperties();
-    final List<SqlStatement.Accessor> accessors = stmt.getAccessors();
 
     if ( !childLevel.getOrdinalExp().equals( childLevel.getKeyExp() ) ) {
       if ( assignOrderKeys ) {
@@ -1279,6 +1649,151 @@ RME is this right
     return makeChildMemberSqlPCQuery( member, true ).toSqlAndTypes();
   }
 
+  /**
+   * Generates the SQL statement to access the children of several members of
+   * a parent-child level. It is like {@link #makeChildMemberSqlPC}, but
+   * constrains the parent column to a list of values, and returns the parent
+   * as the last column so that the children can be assigned to their parents.
+   * For example, <blockquote>
+   *
+   * <pre>SELECT "employee_id", "supervisor_id"
+   * FROM "employee"
+   * WHERE "supervisor_id" IN (5, 6, 7)</pre>
+   * </blockquote> retrieves the children of the members
+   * <code>[Employee].[5]</code>, <code>[Employee].[6]</code> and
+   * <code>[Employee].[7]</code>.
+   */
+  private Pair<String, List<SqlStatement.Type>> makeChildrenMemberSqlPC( RolapLevel level,
+                                                                          List<RolapMember> members ) {
+    final SqlQuery sqlQuery = SqlQuery.newQuery( dataSource,
+      "while generating query to retrieve children of " + members.size() + " parent/child hierarchy members" );
+
+    Util.assertTrue( !level.isAll(), "all level cannot be parent-child" );
+    Util.assertTrue( level.isUnique(), "parent-child level '" + level + "' must be " + "unique" );
+
+    hierarchy.addToFrom( sqlQuery, level.getParentExp() );
+    String parentId = level.getParentExp().getExpression( sqlQuery );
+
+    StringBuilder buf = new StringBuilder();
+    buf.append( parentId ).append( " IN (" );
+    int k = 0;
+
+    for ( RolapMember member : members ) {
+      if ( k++ > 0 ) {
+        buf.append( ", " );
+      }
+
+      sqlQuery.getDialect().quote( buf, member.getKey(), level.getDatatype() );
+    }
+
+    buf.append( ")" );
+    sqlQuery.addWhere( buf.toString() );
+
+    addChildrenColumnsPC( sqlQuery, level, parentId );
+
+    return sqlQuery.toSqlAndTypes();
+  }
+
+  /**
+   * Generates the SQL statement to access the descendants of several members
+   * of a parent-child level that has a closure table. It is like
+   * {@link #makeChildrenMemberSqlPC}, but constrains the parent column of the
+   * closure table, so that it returns the members of the whole subtrees, each
+   * with its parent as the last column. For example, <blockquote>
+   *
+   * <pre>SELECT "employee"."employee_id", "employee"."supervisor_id"
+   * FROM "employee_closure", "employee"
+   * WHERE "employee_closure"."supervisor_id" IN (5, 6, 7)
+   * AND "employee_closure"."employee_id" = "employee"."employee_id"</pre>
+   * </blockquote> retrieves the descendants of the members
+   * <code>[Employee].[5]</code>, <code>[Employee].[6]</code> and
+   * <code>[Employee].[7]</code>, and the members themselves.
+   *
+   * @param level        Parent-child level
+   * @param closureLevel Level of the closure hierarchy whose key is the
+   *                     closure table's parent column
+   * @param members      Members whose descendants to read
+   */
+  private Pair<String, List<SqlStatement.Type>> makeDescendantsMemberSqlPC( RolapLevel level,
+                                                                            RolapLevel closureLevel,
+                                                                            List<RolapMember> members ) {
+    final SqlQuery sqlQuery = SqlQuery.newQuery( dataSource,
+      "while generating query to retrieve descendants of " + members.size() + " parent/child hierarchy members" );
+
+    Util.assertTrue( !level.isAll(), "all level cannot be parent-child" );
+    Util.assertTrue( level.isUnique(), "parent-child level '" + level + "' must be " + "unique" );
+
+    // The closure hierarchy's relation joins the closure table to the
+    // hierarchy's relation. Join only the closure table here, because this
+    // hierarchy may use another alias for its own tables.
+    final MondrianDef.Join closureJoin = (MondrianDef.Join) closureLevel.getHierarchy().getRelation();
+    sqlQuery.addFrom( closureJoin.left, null, false );
+    final String closureParentId = closureLevel.getKeyExp().getExpression( sqlQuery );
+    final String closureChildId = ( (RolapLevel) closureLevel.getChildLevel() ).getKeyExp().getExpression( sqlQuery );
+
+    StringBuilder buf = new StringBuilder();
+    buf.append( closureParentId ).append( " IN (" );
+    int k = 0;
+
+    for ( RolapMember member : members ) {
+      if ( k++ > 0 ) {
+        buf.append( ", " );
+      }
+
+      sqlQuery.getDialect().quote( buf, member.getKey(), level.getDatatype() );
+    }
+
+    buf.append( ")" );
+    sqlQuery.addWhere( buf.toString() );
+
+    hierarchy.addToFrom( sqlQuery, level.getKeyExp() );
+    sqlQuery.addWhere( closureChildId, " = ", level.getKeyExp().getExpression( sqlQuery ) );
+
+    hierarchy.addToFrom( sqlQuery, level.getParentExp() );
+    addChildrenColumnsPC( sqlQuery, level, level.getParentExp().getExpression( sqlQuery ) );
+
+    return sqlQuery.toSqlAndTypes();
+  }
+
+  /**
+   * Adds to a query the columns from which {@link #makeMember} makes members
+   * of a parent-child level: the key, the ordinal, the properties and, last,
+   * the parent.
+   */
+  private void addChildrenColumnsPC( SqlQuery sqlQuery, RolapLevel level, String parentId ) {
+    hierarchy.addToFrom( sqlQuery, level.getKeyExp() );
+    String childId = level.getKeyExp().getExpression( sqlQuery );
+    String idAlias = sqlQuery.addSelectGroupBy( childId, level.getInternalType() );
+    hierarchy.addToFrom( sqlQuery, level.getOrdinalExp() );
+
+    final String orderBy = level.getOrdinalExp().getExpression( sqlQuery );
+
+    if ( !orderBy.equals( childId ) ) {
+      String orderAlias = sqlQuery.addSelectGroupBy( orderBy, null );
+      sqlQuery.addOrderBy( orderBy, orderAlias, true, false, true, true );
+    } else {
+      sqlQuery.addOrderBy( childId, idAlias, true, false, true, true );
+    }
+
+    RolapProperty[] properties = level.getProperties();
+
+    for ( RolapProperty property : properties ) {
+      final MondrianDef.Expression exp = property.getExp();
+      hierarchy.addToFrom( sqlQuery, exp );
+      final String s = exp.getExpression( sqlQuery );
+      String alias = sqlQuery.addSelect( s, null );
+
+      // Some dialects allow us to eliminate properties from the group by
+      // that are functionally dependent on the level value
+      if ( !sqlQuery.getDialect().allowsSelectNotInGroupBy() || !property.dependsOnLevelValue() ) {
+        sqlQuery.addGroupBy( s, alias );
+      }
+    }
+
+    // The parent has the same type as the key.
+    sqlQuery.addSelectGroupBy( parentId, level.getInternalType() );
+  }
+
   private SqlQuery makeChildMemberSqlPCQuery( RolapMember member, boolean applyOrderBy ) {
     SqlQuery sqlQuery = SqlQuery.newQuery( dataSource,
       "while generating query to retrieve children of " + "parent/child hierarchy member " + member );
@@ -1358,6 +1873,23 @@ RME is this right
 
   // ~ -- Inner classes ------------------------------------------------------
 
+  /**
+   * Accessors that read the columns of a row that has already been read from
+   * a result set, so that members can be made from rows in another order than
+   * the query returned them.
+   */
+  private static class RowAccessors {
+    private final List<SqlStatement.Accessor> accessors = new ArrayList<>();
+    private Object[] row;
+
+    RowAccessors( int columnCount ) {
+      for ( int i = 0; i < columnCount; i++ ) {
+        final int column = i;
+        accessors.add( () -> row[ column ] );
+      }
+    }
+  }
+
   /**
    * Member of a parent-child dimension which has a closure table.
    *
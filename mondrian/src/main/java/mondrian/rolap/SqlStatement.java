@@ -18,6 +18,7 @@ import mondrian.olap.Util.Functor1;
 import mondrian.resource.MondrianResource;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
+import mondrian.server.monitor.Metrics;
 import mondrian.server.monitor.SqlStatementEndEvent;
 import mondrian.server.monitor.SqlStatementEvent;
 import mondrian.server.monitor.SqlStatementEvent.Purpose;
@@ -87,8 +88,12 @@ public class SqlStatement {
   private final int resultSetType;
   private final int resultSetConcurrency;
   private boolean haveSemaphore;
+  private int fetchSize;
+  private boolean manualCommit;
+  private boolean restoreAutoCommit;
   public int rowCount;
   private long startTimeMillis;
+  private long executeEndNanos;
   private final List<Accessor> accessors = new ArrayList<>();
   private State state = State.FRESH;
   private final long id;
@@ -122,6 +127,33 @@ public class SqlStatement {
     this.resultSetConcurrency = resultSetConcurrency;
   }
 
+  /**
+   * Sets the fetch size hint passed to the JDBC statement. Must be called before {@link #execute()}.
+   *
+   * <p>Zero, the default, leaves the driver's own fetch size. Some drivers interpret special values; see
+   * {@link Dialect#getStreamingFetchSize(int)}.
+   *
+   * @param fetchSize Fetch size hint
+   */
+  public void setFetchSize( int fetchSize ) {
+    assert state == State.FRESH : "cannot set fetch size after execute";
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Sets whether the statement runs with auto-commit switched off. Must be called before {@link #execute()}.
+   *
+   * <p>Some drivers honor the fetch size only inside a transaction; see
+   * {@link Dialect#requiresTransactionForStreaming()}. The transaction is rolled back, and auto-commit restored, when
+   * the statement is closed.
+   *
+   * @param manualCommit Whether to switch off auto-commit
+   */
+  public void setManualCommit( boolean manualCommit ) {
+    assert state == State.FRESH : "cannot set manual commit after execute";
+    this.manualCommit = manualCommit;
+  }
+
   /**
    * Executes the current statement, and handles any SQLException.
    */
@@ -139,7 +171,13 @@ public class SqlStatement {
       locus.execution.checkCancelOrTimeout();
 
       this.jdbcConnection = dataSource.getConnection();
+      if ( manualCommit && jdbcConnection.getAutoCommit() ) {
+        jdbcConnection.setAutoCommit( false );
+        restoreAutoCommit = true;
+      }
+      final long waitStartNanos = System.nanoTime();
       querySemaphore.acquire();
+      Metrics.QUEUE_WAIT.recordSince( waitStartNanos, "sql" );
 
       haveSemaphore = true;
       // Trace start of execution.
@@ -180,6 +218,10 @@ public class SqlStatement {
         statement.setMaxRows( maxRows );
       }
 
+      if ( fetchSize != 0 ) {
+        statement.setFetchSize( fetchSize );
+      }
+
       // First make sure to register with the execution instance.
       if ( getPurpose() != Purpose.CELL_SEGMENT ) {
         locus.execution.registerStatement( locus, statement );
@@ -216,6 +258,8 @@ public class SqlStatement {
       final long executeNanos = timeNanos - startTimeNanos;
       final long executeMillis = executeNanos / 1000000;
       Util.addDatabaseTime( executeMillis );
+      executeEndNanos = timeNanos;
+      Metrics.SQL_EXECUTE.record( executeNanos, getPurposeName() );
       status = ", exec " + executeMillis + " ms";
 
       locus.getServer().getMonitor()
@@ -269,7 +313,23 @@ public class SqlStatement {
 
     // According to the JDBC spec, closing a statement automatically closes its result sets, and closing a connection
     // automatically closes its statements. But let's be conservative and close everything explicitly.
-    SQLException ex = Util.close( resultSet, null, jdbcConnection );
+    SQLException ex = Util.close( resultSet, null, null );
+    if ( restoreAutoCommit ) {
+      restoreAutoCommit = false;
+      try {
+        // The statement only read; end its transaction before the connection goes back to the pool.
+        jdbcConnection.rollback();
+        jdbcConnection.setAutoCommit( true );
+      } catch ( SQLException e ) {
+        if ( ex == null ) {
+          ex = e;
+        }
+      }
+    }
+    final SQLException connectionEx = Util.close( null, null, jdbcConnection );
+    if ( ex == null ) {
+      ex = connectionEx;
+    }
     resultSet = null;
     jdbcConnection = null;
 
@@ -289,6 +349,9 @@ public class SqlStatement {
     String status = formatTimingStatus( totalMs, rowCount );
 
     locus.execution.getQueryTiming().markFull( TIMING_NAME + locus.component, totalMs );
+    if ( executeEndNanos != 0 ) {
+      Metrics.SQL_FETCH.recordSince( executeEndNanos, getPurposeName() );
+    }
 
     RolapUtil.SQL_LOGGER.debug( "{}: {}", id, status );
 
@@ -468,6 +531,10 @@ public class SqlStatement {
       new MyDelegatingInvocationHandler( this ) );
   }
 
+  private String getPurposeName() {
+    return getPurpose().name().toLowerCase();
+  }
+
   private SqlStatementEvent.Purpose getPurpose() {
     if ( locus instanceof StatementLocus ) {
       return ( (StatementLocus) locus ).purpose;
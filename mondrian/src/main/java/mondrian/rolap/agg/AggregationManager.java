@@ -15,6 +15,7 @@ package mondrian.rolap.agg;
 import mondrian.olap.*;
 import mondrian.rolap.*;
 import mondrian.rolap.SqlStatement.Type;
+import mondrian.rolap.aggmatcher.AggAdvisor;
 import mondrian.rolap.aggmatcher.AggStar;
 import mondrian.server.Locus;
 import mondrian.util.Pair;
@@ -43,6 +44,11 @@ public class AggregationManager extends RolapAggregationManager {
 
     public final SegmentCacheManager cacheMgr;
 
+    /**
+     * Loads segments speculatively; see {@link MondrianProperties#SegmentPrefetch}.
+     */
+    public final SegmentPrefetcher prefetcher;
+
     /**
      * Creates the AggregationManager.
      */
@@ -53,6 +59,7 @@ public class AggregationManager extends RolapAggregationManager {
                 + " is obsolete; ignored.");
         }
         this.cacheMgr = new SegmentCacheManager(server);
+        this.prefetcher = new SegmentPrefetcher(cacheMgr);
     }
 
     /**
@@ -144,6 +151,14 @@ public class AggregationManager extends RolapAggregationManager {
                 }
             }
 
+            protected void refreshAppended(
+                RolapStar star,
+                List<RolapStar.Measure> measures,
+                RolapStar.Column column)
+            {
+                cacheMgr.refreshAppended(star, measures, column, this);
+            }
+
             public void flush(final CellRegion region) {
                 if (pw != null) {
                     pw.println("Cache state before flush:");
@@ -231,12 +246,22 @@ public class AggregationManager extends RolapAggregationManager {
 
         // Check if using aggregates is enabled.
         boolean hasCompoundPredicates = false;
-        if (compoundPredicateList != null && compoundPredicateList.size() > 0) {
-            // Do not use Aggregate tables if compound predicates are present.
-            hasCompoundPredicates = true;
+        boolean bounded = false;
+        if (compoundPredicateList != null) {
+            for (StarPredicate predicate : compoundPredicateList) {
+                // Do not use Aggregate tables if compound predicates are
+                // present. An append watermark is not one of the segments'
+                // own predicates, but it applies only to the fact table.
+                if (predicate instanceof RolapStar.AppendWatermark.Bound) {
+                    bounded = true;
+                } else {
+                    hasCompoundPredicates = true;
+                }
+            }
         }
         if (MondrianProperties.instance().UseAggregates.get()
-             && !hasCompoundPredicates)
+             && !hasCompoundPredicates
+             && !bounded)
         {
             final boolean[] rollup = {false};
             AggStar aggStar = findAgg(star, levelBitKey, measureBitKey, rollup);
@@ -288,6 +313,10 @@ public class AggregationManager extends RolapAggregationManager {
             // No match, fall through and use fact table.
         }
 
+        if (!hasCompoundPredicates && AggAdvisor.isEnabled()) {
+            AggAdvisor.record(star, levelBitKey);
+        }
+
         if (LOGGER.isDebugEnabled()) {
             StringBuilder sb = new StringBuilder();
             sb.append("NO MATCH : ");
@@ -0,0 +1,349 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.Util;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.StarColumnPredicate;
+import mondrian.rolap.StarPredicate;
+
+import java.util.*;
+
+/**
+ * Compact store for the cell requests that a query could not satisfy from
+ * cache during an evaluation pass.
+ *
+ * <p>Each {@link CellRequest} holds a predicate array as wide as its star,
+ * so retaining one per missed cell makes memory grow with the number of
+ * cells. This recorder keeps one group per measure, constrained column set
+ * and compound predicate set, which is usually proportional to the number of
+ * segments to be loaded. Within a group, the value of each column is
+ * dictionary-encoded and each cell is stored as a row of ints. Cells that
+ * have been recorded already are discarded.</p>
+ *
+ * <p>The requests are re-created, one at a time, when the recorder is read
+ * via {@link #asList()}.</p>
+ *
+ * <p>Not thread-safe.</p>
+ */
+public class CellRequestRecorder {
+    /**
+     * Groups by measure. There are usually very few groups per measure, so
+     * they are searched linearly.
+     */
+    private final Map<RolapStar.Measure, List<Group>> groupsByMeasure =
+        new IdentityHashMap<RolapStar.Measure, List<Group>>();
+
+    /**
+     * All groups, in the order they were created.
+     */
+    private final List<Group> groups = new ArrayList<Group>();
+
+    /**
+     * Requests that cannot be encoded (for instance because a column is
+     * constrained by something other than a single value). Kept as is.
+     */
+    private final List<CellRequest> others = new ArrayList<CellRequest>();
+
+    private Group lastGroup;
+    private int[] row = new int[8];
+    private int size;
+
+    /**
+     * Records a request.
+     *
+     * @param request Cell request
+     * @return Whether the request was added; false if the same cell has
+     *   already been recorded
+     */
+    public boolean add(CellRequest request) {
+        final int valueCount = request.getNumValues();
+        for (int i = 0; i < valueCount; i++) {
+            if (!(request.getValueAt(i) instanceof ValueColumnPredicate)) {
+                others.add(request);
+                ++size;
+                return true;
+            }
+        }
+        Group group = lastGroup;
+        if (group == null || !group.matches(request)) {
+            group = lookupGroup(request);
+            lastGroup = group;
+        }
+        if (row.length < valueCount) {
+            row = new int[valueCount * 2];
+        }
+        for (int i = 0; i < valueCount; i++) {
+            row[i] = group.encode(i, request.getValueAt(i));
+        }
+        if (!group.addRow(row)) {
+            return false;
+        }
+        ++size;
+        return true;
+    }
+
+    private Group lookupGroup(CellRequest request) {
+        List<Group> list = groupsByMeasure.get(request.getMeasure());
+        if (list == null) {
+            list = new ArrayList<Group>(2);
+            groupsByMeasure.put(request.getMeasure(), list);
+        }
+        for (Group group : list) {
+            if (group.matches(request)) {
+                return group;
+            }
+        }
+        final Group group = new Group(request);
+        list.add(group);
+        groups.add(group);
+        return group;
+    }
+
+    /**
+     * Returns the number of distinct requests recorded.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all requests.
+     */
+    public void clear() {
+        groupsByMeasure.clear();
+        groups.clear();
+        others.clear();
+        lastGroup = null;
+        size = 0;
+    }
+
+    /**
+     * Returns one recorded request for each combination of measure,
+     * constrained columns and compound predicates.
+     *
+     * @return List of requests
+     */
+    public List<CellRequest> getPrototypes() {
+        final List<CellRequest> list =
+            new ArrayList<CellRequest>(groups.size() + others.size());
+        for (Group group : groups) {
+            list.add(group.prototype);
+        }
+        list.addAll(others);
+        return list;
+    }
+
+    /**
+     * Returns a snapshot of the recorded requests. Each call to
+     * {@link List#get} creates a new request; the list does not change if
+     * more requests are recorded or the recorder is cleared.
+     *
+     * @return Immutable list of requests
+     */
+    public List<CellRequest> asList() {
+        final Group[] groupArray = groups.toArray(new Group[groups.size()]);
+        final int[] starts = new int[groupArray.length + 1];
+        for (int i = 0; i < groupArray.length; i++) {
+            starts[i + 1] = starts[i] + groupArray[i].rowCount;
+        }
+        final CellRequest[] otherArray =
+            others.toArray(new CellRequest[others.size()]);
+        final int groupedCount = starts[groupArray.length];
+        return new AbstractList<CellRequest>() {
+            public CellRequest get(int index) {
+                if (index >= groupedCount) {
+                    return otherArray[index - groupedCount];
+                }
+                // Groups are never empty, so starts is strictly increasing.
+                int g = Arrays.binarySearch(starts, index);
+                if (g < 0) {
+                    g = -g - 2;
+                }
+                return groupArray[g].materialize(index - starts[g]);
+            }
+
+            public int size() {
+                return groupedCount + otherArray.length;
+            }
+        };
+    }
+
+    /**
+     * Requests with the same measure, constrained columns and compound
+     * predicates.
+     */
+    private static class Group {
+        final CellRequest prototype;
+        final BitKey bitKey;
+        final SortedMap<BitKey, StarPredicate> compoundPredicateMap;
+        final RolapStar.Column[] columns;
+
+        /**
+         * For each column, map from value to its code.
+         */
+        final Map<Object, Integer>[] codes;
+
+        /**
+         * For each column, the predicate of each code.
+         */
+        final List<StarColumnPredicate>[] dictionary;
+
+        /**
+         * Codes of each row, row after row.
+         */
+        int[] rows;
+        int rowCount;
+
+        /**
+         * Open-addressing hash table of row numbers, -1 if empty. Used to
+         * discard duplicate rows.
+         */
+        int[] table;
+
+        @SuppressWarnings("unchecked")
+        Group(CellRequest request) {
+            this.prototype = request;
+            this.bitKey = request.getConstrainedColumnsBitKey();
+            this.compoundPredicateMap = request.getCompoundPredicateMap();
+            this.columns = request.getConstrainedColumns();
+            this.codes = new Map[columns.length];
+            this.dictionary = new List[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                codes[i] = new HashMap<Object, Integer>();
+                dictionary[i] = new ArrayList<StarColumnPredicate>();
+            }
+            this.rows = new int[Math.max(columns.length, 1) * 16];
+            this.table = new int[32];
+            Arrays.fill(table, -1);
+        }
+
+        boolean matches(CellRequest request) {
+            return request.getMeasure() == prototype.getMeasure()
+                && request.extendedContext == prototype.extendedContext
+                && request.drillThrough == prototype.drillThrough
+                && request.getConstrainedColumnsBitKey().equals(bitKey)
+                && Util.equals(
+                    request.getCompoundPredicateMap(),
+                    compoundPredicateMap);
+        }
+
+        int encode(int column, StarColumnPredicate predicate) {
+            final Object value = ((ValueColumnPredicate) predicate).getValue();
+            final Integer code = codes[column].get(value);
+            if (code != null) {
+                return code;
+            }
+            final int newCode = dictionary[column].size();
+            dictionary[column].add(predicate);
+            codes[column].put(value, newCode);
+            return newCode;
+        }
+
+        /**
+         * Adds a row, unless an identical row is already present.
+         */
+        boolean addRow(int[] row) {
+            final int width = columns.length;
+            int slot = hash(row, 0, width) & (table.length - 1);
+            for (;;) {
+                final int r = table[slot];
+                if (r < 0) {
+                    break;
+                }
+                if (equalRows(row, rows, r * width, width)) {
+                    return false;
+                }
+                slot = (slot + 1) & (table.length - 1);
+            }
+            if ((rowCount + 1) * width > rows.length) {
+                rows = Arrays.copyOf(rows, rows.length * 2);
+            }
+            System.arraycopy(row, 0, rows, rowCount * width, width);
+            table[slot] = rowCount++;
+            if (rowCount * 2 > table.length) {
+                rehash(table.length * 2);
+            }
+            return true;
+        }
+
+        private void rehash(int capacity) {
+            final int width = columns.length;
+            table = new int[capacity];
+            Arrays.fill(table, -1);
+            for (int r = 0; r < rowCount; r++) {
+                int slot = hash(rows, r * width, width) & (capacity - 1);
+                while (table[slot] >= 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                table[slot] = r;
+            }
+        }
+
+        private static int hash(int[] a, int offset, int width) {
+            int h = 0;
+            for (int i = 0; i < width; i++) {
+                h = h * 31 + a[offset + i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equalRows(
+            int[] row, int[] rows, int offset, int width)
+        {
+            for (int i = 0; i < width; i++) {
+                if (row[i] != rows[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Re-creates the request for a given row.
+         */
+        CellRequest materialize(int r) {
+            final CellRequest request =
+                new CellRequest(
+                    prototype.getMeasure(),
+                    prototype.extendedContext,
+                    prototype.drillThrough);
+            final int width = columns.length;
+            for (int i = 0; i < width; i++) {
+                request.addConstrainedColumn(
+                    columns[i],
+                    dictionary[i].get(rows[r * width + i]));
+            }
+            if (compoundPredicateMap != null) {
+                for (Map.Entry<BitKey, StarPredicate> entry
+                    : compoundPredicateMap.entrySet())
+                {
+                    request.addAggregateList(entry.getKey(), entry.getValue());
+                }
+                for (String predicateString
+                    : prototype.getCompoundPredicateStrings())
+                {
+                    request.addPredicateString(predicateString);
+                }
+            }
+            return request;
+        }
+    }
+}
+
+// End CellRequestRecorder.java
@@ -13,7 +13,9 @@
 
 package mondrian.rolap.agg;
 
+import mondrian.olap.Util;
 import mondrian.rolap.*;
+import mondrian.rolap.sql.SqlQuery;
 
 import java.util.Collection;
 
@@ -63,9 +65,9 @@ public class RangeColumnPredicate extends AbstractColumnPredicate {
 
     public int hashCode() {
         int h = lowerInclusive ? 2 : 1;
-        h = 31 * h + lowerBound.hashCode();
+        h = Util.hash(h, lowerBound);
         h = 31 * h + (upperInclusive ? 2 : 1);
-        h = 31 * h + upperBound.hashCode();
+        h = Util.hash(h, upperBound);
         return h;
     }
 
@@ -74,9 +76,9 @@ public class RangeColumnPredicate extends AbstractColumnPredicate {
             RangeColumnPredicate that =
                 (RangeColumnPredicate) obj;
             return this.lowerInclusive == that.lowerInclusive
-                && this.lowerBound.equals(that.lowerBound)
+                && Util.equals(this.lowerBound, that.lowerBound)
                 && this.upperInclusive == that.upperInclusive
-                && this.upperBound.equals(that.upperBound);
+                && Util.equals(this.upperBound, that.upperBound);
         } else {
             return false;
         }
@@ -128,6 +130,28 @@ public class RangeColumnPredicate extends AbstractColumnPredicate {
         buf.append(")");
     }
 
+    public void toSql(SqlQuery sqlQuery, StringBuilder buf) {
+        final RolapStar.Column column = getConstrainedColumn();
+        final String expr = column.generateExprString(sqlQuery);
+        if (lowerBound == null && upperBound == null) {
+            buf.append("true");
+            return;
+        }
+        if (lowerBound != null) {
+            buf.append(expr).append(lowerInclusive ? " >= " : " > ");
+            sqlQuery.getDialect().quote(
+                buf, lowerBound.getValue(), column.getDatatype());
+        }
+        if (upperBound != null) {
+            if (lowerBound != null) {
+                buf.append(" and ");
+            }
+            buf.append(expr).append(upperInclusive ? " <= " : " < ");
+            sqlQuery.getDialect().quote(
+                buf, upperBound.getValue(), column.getDatatype());
+        }
+    }
+
     public Overlap intersect(StarColumnPredicate predicate) {
         throw new UnsupportedOperationException();
     }
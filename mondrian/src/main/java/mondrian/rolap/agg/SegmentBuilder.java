@@ -17,6 +17,7 @@ import mondrian.olap.Util;
 import mondrian.rolap.*;
 import mondrian.rolap.agg.Segment.ExcludedRegion;
 import mondrian.rolap.sql.SqlQuery;
+import mondrian.server.monitor.Metrics;
 import mondrian.spi.*;
 import mondrian.spi.Dialect.Datatype;
 import mondrian.util.ArraySortedSet;
@@ -190,6 +191,7 @@ public class SegmentBuilder {
         Datatype datatype)
     {
         long startTime = System.currentTimeMillis(); 
+        final long startNanos = System.nanoTime();
         class AxisInfo {
             SegmentColumn column;
             SortedSet<Comparable> requestedValues;
@@ -397,6 +399,222 @@ public class SegmentBuilder {
                 BigInteger.valueOf(axis.hasNull ? size + 1 : size));
         }
 
+        final SegmentBody body =
+            createBody(
+                cellValues, axisList, bigValueCount, rollupAggregator,
+                datatype);
+
+        // Create header.
+        final List<SegmentColumn> constrainedColumns =
+            new ArrayList<SegmentColumn>();
+        for (int i = 0; i < axes.size(); i++) {
+            AxisInfo axisInfo = axes.get(i);
+
+            constrainedColumns.add(
+                new SegmentColumn(
+                    axisInfo.column.getColumnExpression(),
+                    axisInfo.column.getValueCount(),
+                    axisInfo.lostPredicate
+                        ? axisList.get(i).left
+                        : axisInfo.column.values));
+        }
+        final SegmentHeader header =
+            new SegmentHeader(
+                firstHeader.schemaName,
+                firstHeader.schemaChecksum,
+                firstHeader.cubeName,
+                firstHeader.measureName,
+                constrainedColumns,
+                firstHeader.compoundPredicates,
+                firstHeader.rolapStarFactTableName,
+                targetBitkey,
+                Collections.<SegmentColumn>emptyList());
+        if (LOGGER.isDebugEnabled()) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("SegmentBuilder.rollup: done rolling up segments with parameters: \n");
+            builder.append("keepColumns=" + keepColumns + "\n");
+            builder.append("aggregator=" + rollupAggregator + "\n");
+            builder.append("datatype=" + datatype + "\n");
+            for (Map.Entry<SegmentHeader, SegmentBody > segment : segments) {
+                builder.append(segment.getKey() + "\n");
+            }
+            if (LOGGER.isTraceEnabled()) {
+              builder.append("AxisInfos constructed:");
+              for (AxisInfo axis : axes) {
+                  SortedSet<Comparable> colVals = axis.column.getValues();
+                  builder.append(
+                      String.format(
+                          "column.columnExpression=%s\n"
+                          + "column.valueCount=%s\n"
+                          + "column.values=%s\n"
+                          + "requestedValues=%s\n"
+                          + "valueSet=%s\n"
+                          + "values=%s\n"
+                          + "hasNull=%b\n"
+                          + "src=%d\n"
+                          + "lostPredicate=%b\n",
+                          axis.column.columnExpression,
+                          axis.column.getValueCount(),
+                          Arrays.toString(
+                              colVals == null ? null
+                              : colVals.toArray()),
+                          axis.requestedValues,
+                          axis.valueSet,
+                          Arrays.asList(axis.values),
+                          axis.hasNull,
+                          axis.src,
+                          axis.lostPredicate));
+              }
+            }
+            builder.append("Resulted in Segment:  \n");
+            builder.append(header);
+            if (LOGGER.isTraceEnabled()) {
+              builder.append(body.toString());
+            }
+            builder.append(", " + (System.currentTimeMillis() - startTime) + " ms \n");
+            LOGGER.debug(builder.toString());
+        }
+        Metrics.SEGMENT_ROLLUP.recordSince(startNanos, header.cubeName);
+        return Pair.of(header, body);
+    }
+
+    /**
+     * Merges the cells of a delta segment into a segment of the same
+     * dimensionality. Used to fold rows appended to the fact table into a
+     * cached segment without re-reading the rows it already covers.
+     *
+     * <p>Unlike {@link #rollup}, cells present in both bodies are combined
+     * using the aggregator rather than de-duplicated, and each axis of the
+     * result has the union of the values of both inputs. The aggregator must
+     * therefore be one where aggregating partial results gives the same
+     * answer as aggregating the raw rows, such as sum, min or max.
+     *
+     * <p>The resulting header has the same constrained columns, compound
+     * predicates and excluded regions as the original; only the value count
+     * of each constrained column is widened to cover any new axis values.
+     *
+     * @param header Header of the existing segment
+     * @param body Body of the existing segment
+     * @param delta Body containing the new cells; its axes must correspond
+     *   to the constrained columns of {@code header}
+     * @param rollupAggregator The aggregator used to combine cells
+     * @param datatype The data type to use
+     * @return Header and body of the merged segment
+     */
+    public static Pair<SegmentHeader, SegmentBody> merge(
+        SegmentHeader header,
+        SegmentBody body,
+        SegmentBody delta,
+        Aggregator rollupAggregator,
+        Datatype datatype)
+    {
+        final List<SegmentColumn> columns = header.getConstrainedColumns();
+        final int axisCount = columns.size();
+
+        // Each target axis holds the union of the values of both inputs.
+        final List<Pair<SortedSet<Comparable>, Boolean>> axisList =
+            new ArrayList<Pair<SortedSet<Comparable>, Boolean>>(axisCount);
+        final Comparable[][] values = new Comparable[axisCount][];
+        BigInteger bigValueCount = BigInteger.ONE;
+        for (int i = 0; i < axisCount; i++) {
+            final SortedSet<Comparable> valueSet =
+                new TreeSet<Comparable>(body.getAxisValueSets()[i]);
+            valueSet.addAll(delta.getAxisValueSets()[i]);
+            final boolean hasNull =
+                body.getNullAxisFlags()[i] || delta.getNullAxisFlags()[i];
+            axisList.add(Pair.of(valueSet, hasNull));
+            values[i] = valueSet.toArray(new Comparable[valueSet.size()]);
+            final int size = values[i].length;
+            bigValueCount = bigValueCount.multiply(
+                BigInteger.valueOf(hasNull ? size + 1 : size));
+        }
+
+        // Map the cells of both inputs onto the target axes.
+        final Map<CellKey, List<Object>> cellValues =
+            new HashMap<CellKey, List<Object>>();
+        for (SegmentBody source : Arrays.asList(body, delta)) {
+            final Comparable[][] sourceValues = new Comparable[axisCount][];
+            for (int i = 0; i < axisCount; i++) {
+                final SortedSet<Comparable> set = source.getAxisValueSets()[i];
+                sourceValues[i] = set.toArray(new Comparable[set.size()]);
+            }
+            for (Map.Entry<CellKey, Object> entry
+                : source.getValueMap().entrySet())
+            {
+                final int[] ordinals = entry.getKey().getOrdinals();
+                final int[] pos = new int[axisCount];
+                for (int i = 0; i < axisCount; i++) {
+                    final int ordinal = ordinals[i];
+                    final Comparable value =
+                        ordinal == sourceValues[i].length
+                            ? null
+                            : sourceValues[i][ordinal];
+                    pos[i] =
+                        value == null
+                            ? values[i].length
+                            : Util.binarySearch(
+                                values[i], 0, values[i].length, value);
+                }
+                final CellKey ck = CellKey.Generator.newCellKey(pos);
+                List<Object> list = cellValues.get(ck);
+                if (list == null) {
+                    list = new ArrayList<Object>(2);
+                    cellValues.put(ck, list);
+                }
+                list.add(entry.getValue());
+            }
+        }
+
+        final List<SegmentColumn> newColumns =
+            new ArrayList<SegmentColumn>(axisCount);
+        for (int i = 0; i < axisCount; i++) {
+            final SegmentColumn column = columns.get(i);
+            final Pair<SortedSet<Comparable>, Boolean> axis = axisList.get(i);
+            newColumns.add(
+                new SegmentColumn(
+                    column.columnExpression,
+                    Math.max(
+                        column.valueCount,
+                        axis.left.size() + (axis.right ? 1 : 0)),
+                    column.values));
+        }
+        final SegmentHeader newHeader =
+            new SegmentHeader(
+                header.schemaName,
+                header.schemaChecksum,
+                header.cubeName,
+                header.measureName,
+                newColumns,
+                header.compoundPredicates,
+                header.rolapStarFactTableName,
+                header.constrainedColsBitKey,
+                header.getExcludedRegions());
+        return Pair.of(
+            newHeader,
+            createBody(
+                cellValues, axisList, bigValueCount, rollupAggregator,
+                datatype));
+    }
+
+    /**
+     * Creates a segment body from a map of cell values, aggregating the
+     * values of each cell with the given aggregator. Chooses between a
+     * sparse and a dense representation.
+     *
+     * @param cellValues Values of each cell, keyed by target coordinates
+     * @param axisList Value set and null indicator of each axis
+     * @param bigValueCount Number of cells in the segment's hypercube
+     * @param rollupAggregator Aggregator to combine values of each cell
+     * @param datatype Data type of the measure
+     * @return Segment body
+     */
+    private static SegmentBody createBody(
+        Map<CellKey, List<Object>> cellValues,
+        List<Pair<SortedSet<Comparable>, Boolean>> axisList,
+        BigInteger bigValueCount,
+        Aggregator rollupAggregator,
+        Datatype datatype)
+    {
         // The logic used here for the sparse check follows
         // SegmentLoader.setAxisDataAndDecideSparseUse.
         // The two methods use different data structures (AxisInfo/SegmentAxis)
@@ -508,78 +726,7 @@ public class SegmentBuilder {
                         axisList);
             }
         }
-
-        // Create header.
-        final List<SegmentColumn> constrainedColumns =
-            new ArrayList<SegmentColumn>();
-        for (int i = 0; i < axes.size(); i++) {
-            AxisInfo axisInfo = axes.get(i);
-
-            constrainedColumns.add(
-                new SegmentColumn(
-                    axisInfo.column.getColumnExpression(),
-                    axisInfo.column.getValueCount(),
-                    axisInfo.lostPredicate
-                        ? axisList.get(i).left
-                        : axisInfo.column.values));
-        }
-        final SegmentHeader header =
-            new SegmentHeader(
-                firstHeader.schemaName,
-                firstHeader.schemaChecksum,
-                firstHeader.cubeName,
-                firstHeader.measureName,
-                constrainedColumns,
-                firstHeader.compoundPredicates,
-                firstHeader.rolapStarFactTableName,
-                targetBitkey,
-                Collections.<SegmentColumn>emptyList());
-        if (LOGGER.isDebugEnabled()) {
-            StringBuilder builder = new StringBuilder();
-            builder.append("SegmentBuilder.rollup: done rolling up segments with parameters: \n");
-            builder.append("keepColumns=" + keepColumns + "\n");
-            builder.append("aggregator=" + rollupAggregator + "\n");
-            builder.append("datatype=" + datatype + "\n");
-            for (Map.Entry<SegmentHeader, SegmentBody > segment : segments) {
-                builder.append(segment.getKey() + "\n");
-            }
-            if (LOGGER.isTraceEnabled()) {
-              builder.append("AxisInfos constructed:");
-              for (AxisInfo axis : axes) {
-                  SortedSet<Comparable> colVals = axis.column.getValues();
-                  builder.append(
-                      String.format(
-                          "column.columnExpression=%s\n"
-                          + "column.valueCount=%s\n"
-                          + "column.values=%s\n"
-                          + "requestedValues=%s\n"
-                          + "valueSet=%s\n"
-                          + "values=%s\n"
-                          + "hasNull=%b\n"
-                          + "src=%d\n"
-                          + "lostPredicate=%b\n",
-                          axis.column.columnExpression,
-                          axis.column.getValueCount(),
-                          Arrays.toString(
-                              colVals == null ? null
-                              : colVals.toArray()),
-                          axis.requestedValues,
-                          axis.valueSet,
-                          Arrays.asList(axis.values),
-                          axis.hasNull,
-                          axis.src,
-                          axis.lostPredicate));
-              }
-            }
-            builder.append("Resulted in Segment:  \n");
-            builder.append(header);
-            if (LOGGER.isTraceEnabled()) {
-              builder.append(body.toString());
-            }
-            builder.append(", " + (System.currentTimeMillis() - startTime) + " ms \n");
-            LOGGER.debug(builder.toString());
-        }
-        return Pair.of(header, body);
+        return body;
     }
 
     private static boolean allHeadersHaveSameDimensionality(
@@ -18,13 +18,18 @@ import mondrian.olap.MondrianProperties;
 import mondrian.olap.MondrianServer;
 import mondrian.olap.Util;
 import mondrian.resource.MondrianResource;
+import mondrian.rolap.BitKey;
 import mondrian.rolap.CacheControlImpl;
+import mondrian.rolap.RolapAggregator;
 import mondrian.rolap.RolapSchema;
 import mondrian.rolap.RolapStar;
 import mondrian.rolap.RolapStoredMeasure;
 import mondrian.rolap.RolapUtil;
 import mondrian.rolap.SchemaKey;
+import mondrian.rolap.SqlStatement;
+import mondrian.rolap.StarPredicate;
 import mondrian.rolap.cache.MemorySegmentCache;
+import mondrian.rolap.sql.SqlQuery;
 import mondrian.rolap.cache.SegmentCacheIndex;
 import mondrian.rolap.cache.SegmentCacheIndexImpl;
 import mondrian.server.Execution;
@@ -33,6 +38,7 @@ import mondrian.server.monitor.CellCacheEvent;
 import mondrian.server.monitor.CellCacheSegmentCreateEvent;
 import mondrian.server.monitor.CellCacheSegmentDeleteEvent;
 import mondrian.server.monitor.Monitor;
+import mondrian.server.monitor.Metrics;
 import mondrian.spi.SegmentBody;
 import mondrian.spi.SegmentCache;
 import mondrian.spi.SegmentColumn;
@@ -46,11 +52,15 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import java.io.PrintWriter;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -527,6 +537,288 @@ public class SegmentCacheManager {
       new PrintCacheStateCommand( region, pw, locus ) );
   }
 
+  /**
+   * Merges rows appended to a fact table into the cached segments of the given measures.
+   *
+   * <p>Rows are appended in increasing order of a column, such as the date of a load. This method reads the greatest
+   * value of the column, and makes it the star's {@link RolapStar#getAppendWatermark() append watermark}: segments
+   * loaded from the fact table from now on read only the rows up to it, and record it as their load watermark, until
+   * the next refresh or flush. Segments loaded from aggregate tables are not bounded. The rows of a cached segment
+   * between its own load watermark and the new one are read from the database, one statement per group of segments that
+   * share the same constraints and load watermark. Segments of measures whose aggregator can combine partial results
+   * (sum, count, min and max) have the new cells merged into their body by {@link SegmentBuilder#merge}, and are
+   * replaced in the index and external caches. Other segments, such as those of distinct-count measures, those whose
+   * body is no longer available, and those whose load was not bounded by a watermark of this column (because they were
+   * loaded before the first refresh or since a flush, read from an aggregate table or an external cache, or rolled up),
+   * are discarded, as if they had been flushed. A segment is therefore never merged with rows that it has already
+   * read.</p>
+   *
+   * @param star             Star whose fact table has grown
+   * @param measures         Measures whose segments to refresh; must belong to {@code star}
+   * @param column           Column along which rows are appended
+   * @param cacheControlImpl Cache control, for tracing
+   */
+  public void refreshAppended(
+    final RolapStar star,
+    final List<RolapStar.Measure> measures,
+    final RolapStar.Column column,
+    final CacheControlImpl cacheControlImpl ) {
+    if ( MondrianProperties.instance().DisableCaching.get() ) {
+      return;
+    }
+    final Locus locus = Locus.peek();
+
+    final Object maxValue = queryMaxValue( star, column, locus );
+    if ( maxValue == null ) {
+      // The table is empty; nothing has been appended.
+      return;
+    }
+    final RolapStar.AppendWatermark watermark = new RolapStar.AppendWatermark( column, maxValue );
+
+    // Move the star's watermark, and find the segments of the measures, the
+    // converters that will recreate their predicates, and the rows they have
+    // read. Loads that start after this command read up to the new watermark,
+    // so they are not merged again.
+    final List<AppendedSegment> segments = execute(
+      new Command<List<AppendedSegment>>() {
+        public List<AppendedSegment> call() {
+          star.setAppendWatermark( watermark );
+          final SegmentCacheIndex index = indexRegistry.getIndex( star );
+          final List<AppendedSegment> list = new ArrayList<>();
+          for ( RolapStar.Measure measure : measures ) {
+            for ( SegmentHeader header : index.intersectRegion(
+              star.getSchema().getName(),
+              star.getSchema().getChecksum(),
+              measure.getCubeName(),
+              measure.getName(),
+              star.getFactTable().getAlias(),
+              new SegmentColumn[ 0 ] ) ) {
+              SegmentBuilder.SegmentConverter converter =
+                getConverter( star, header );
+              if ( converter == null && header.compoundPredicates.isEmpty() ) {
+                converter =
+                  new SegmentBuilder.StarSegmentConverter(
+                    measure, Collections.<StarPredicate>emptyList() );
+              }
+              list.add(
+                new AppendedSegment(
+                  measure, header, converter, index.getLoadWatermark( header ) ) );
+            }
+          }
+          return list;
+        }
+
+        public Locus getLocus() {
+          return locus;
+        }
+      } );
+
+    // Group mergeable segments which differ only by measure, so that the
+    // appended rows for all of them are read by one statement.
+    final List<SegmentHeader> discarded = new ArrayList<>();
+    final Map<List<Object>, List<AppendedSegment>> groups =
+      new LinkedHashMap<>();
+    for ( AppendedSegment segment : segments ) {
+      if ( segment.converter == null
+        || !canMerge( segment.measure )
+        || segment.loadWatermark == null
+        || segment.loadWatermark.column != column ) {
+        discarded.add( segment.header );
+        continue;
+      }
+      if ( segment.loadWatermark.equals( watermark ) ) {
+        // Nothing has been appended since the segment was loaded.
+        continue;
+      }
+      segment.body = compositeCache.get( segment.header );
+      if ( segment.body == null ) {
+        discarded.add( segment.header );
+        continue;
+      }
+      segment.segment = segment.converter.convert( segment.header, segment.body );
+      final List<Object> key =
+        Arrays.<Object>asList(
+          segment.header.getConstrainedColumnsBitKey(),
+          segment.header.getConstrainedColumns(),
+          segment.header.compoundPredicates,
+          segment.header.getExcludedRegions(),
+          segment.loadWatermark );
+      List<AppendedSegment> group = groups.get( key );
+      if ( group == null ) {
+        group = new ArrayList<>();
+        groups.put( key, group );
+      }
+      group.add( segment );
+    }
+
+    // Read the rows appended since each group's watermark and merge them into
+    // the cached bodies.
+    final List<AppendedSegment> merged = new ArrayList<>();
+    for ( List<AppendedSegment> group : groups.values() ) {
+      group.sort(
+        Comparator.comparingInt( s -> s.measure.getBitPosition() ) );
+      final Segment first = group.get( 0 ).segment;
+      final List<StarPredicate> compoundPredicateList = new ArrayList<>();
+      if ( first.getCompoundPredicateList() != null ) {
+        compoundPredicateList.addAll( first.getCompoundPredicateList() );
+      }
+      compoundPredicateList.add( group.get( 0 ).loadWatermark.until( watermark ) );
+      final BitKey measureBitKey =
+        first.getConstrainedColumnsBitKey().emptyCopy();
+      final List<Segment> deltas = new ArrayList<>();
+      for ( AppendedSegment segment : group ) {
+        measureBitKey.set( segment.measure.getBitPosition() );
+        segment.delta =
+          new Segment(
+            star,
+            first.getConstrainedColumnsBitKey(),
+            first.getColumns(),
+            segment.measure,
+            first.predicates,
+            Collections.<Segment.ExcludedRegion>emptyList(),
+            compoundPredicateList );
+        deltas.add( segment.delta );
+      }
+      final GroupingSet groupingSet =
+        new GroupingSet(
+          deltas,
+          first.getConstrainedColumnsBitKey(),
+          measureBitKey,
+          first.predicates,
+          first.getColumns() );
+      final Map<Segment, SegmentWithData> loaded =
+        new SegmentLoader( this ).loadDetached(
+          new ArrayList<>( Collections.singletonList( groupingSet ) ),
+          compoundPredicateList );
+      for ( AppendedSegment segment : group ) {
+        final SegmentWithData delta = loaded.get( segment.delta );
+        if ( delta == null ) {
+          discarded.add( segment.header );
+          continue;
+        }
+        final SegmentBody deltaBody = SegmentLoader.createSegmentBody( delta );
+        if ( deltaBody.getValueMap().isEmpty() ) {
+          // Nothing was appended to this segment; it is now up to date.
+          segment.newHeader = segment.header;
+          segment.newBody = segment.body;
+        } else {
+          final Pair<SegmentHeader, SegmentBody> pair =
+            SegmentBuilder.merge(
+              segment.header,
+              segment.body,
+              deltaBody,
+              segment.measure.getAggregator().getRollup(),
+              segment.measure.getDatatype() );
+          segment.newHeader = pair.left;
+          segment.newBody = pair.right;
+        }
+        merged.add( segment );
+      }
+    }
+
+    // Write the merged bodies to the external caches before the index
+    // points to them.
+    for ( AppendedSegment segment : merged ) {
+      if ( segment.newBody != segment.body ) {
+        compositeCache.put( segment.newHeader, segment.newBody );
+      }
+    }
+
+    final List<SegmentHeader> replaced = new ArrayList<>();
+    execute(
+      new Command<Void>() {
+        public Void call() {
+          final SegmentCacheIndex index = indexRegistry.getIndex( star );
+          for ( SegmentHeader header : discarded ) {
+            cacheControlImpl.trace(
+              "discard segment - appended rows cannot be merged into it:\n"
+                + header.getDescription() );
+            index.remove( header );
+          }
+          for ( AppendedSegment segment : merged ) {
+            if ( !index.contains( segment.header )
+              || !segment.loadWatermark.equals( index.getLoadWatermark( segment.header ) ) ) {
+              // Flushed or refreshed while we were reading the appended rows.
+              continue;
+            }
+            if ( segment.newBody == segment.body ) {
+              index.setLoadWatermark( segment.header, watermark );
+              continue;
+            }
+            cacheControlImpl.trace(
+              "merge appended rows into segment:\n"
+                + segment.header.getDescription() );
+            index.remove( segment.header );
+            index.add( segment.newHeader, segment.converter, true );
+            index.setLoadWatermark( segment.newHeader, watermark );
+            index.loadSucceeded( segment.newHeader, segment.newBody );
+            if ( !segment.newHeader.equals( segment.header ) ) {
+              replaced.add( segment.header );
+            }
+          }
+          return null;
+        }
+
+        public Locus getLocus() {
+          return locus;
+        }
+      } );
+
+    for ( SegmentHeader header : discarded ) {
+      compositeCache.remove( header );
+    }
+    for ( SegmentHeader header : replaced ) {
+      compositeCache.remove( header );
+    }
+  }
+
+  /**
+   * Reads the greatest value of a column in the rows of a star's fact table.
+   *
+   * @param star   Star
+   * @param column Column of the fact table or of a table joined to it
+   * @param locus  Locus
+   * @return Greatest value, or null if there are no rows
+   */
+  private static Object queryMaxValue( RolapStar star, RolapStar.Column column, Locus locus ) {
+    final SqlQuery query = star.getSqlQuery();
+    column.getTable().addToFrom( query, false, true );
+    query.addSelect( "max(" + column.generateExprString( query ) + ")", null );
+    final SqlStatement stmt =
+      RolapUtil.executeQuery(
+        star.getDataSource(),
+        query.toString(),
+        new Locus(
+          locus.execution,
+          "SegmentCacheManager.refreshAppended",
+          "Reading greatest value of appended column" ) );
+    try {
+      final ResultSet resultSet = stmt.getResultSet();
+      if ( resultSet.next() ) {
+        ++stmt.rowCount;
+        return resultSet.getObject( 1 );
+      }
+      return null;
+    } catch ( SQLException e ) {
+      throw stmt.handle( e );
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Returns whether the cells of a measure can be brought up to date by combining the cached value with the value over
+   * the appended rows.
+   */
+  private static boolean canMerge( RolapStar.Measure measure ) {
+    final RolapAggregator aggregator = measure.getAggregator();
+    return ( aggregator == RolapAggregator.Sum
+      || aggregator == RolapAggregator.Count
+      || aggregator == RolapAggregator.Min
+      || aggregator == RolapAggregator.Max )
+      && aggregator.getRollup().supportsFastAggregates( measure.getDatatype() );
+  }
+
   /**
    * Shuts down this cache manager and all active threads and indexes.
    */
@@ -728,6 +1020,9 @@ public class SegmentCacheManager {
         return;
       }
       index.remove( event.header );
+      // Another node changed the cells; results computed from them are stale.
+      event.cacheMgr.server.getResultShepherd().getResultCache().invalidate(
+        event.header.schemaChecksum, event.header.rolapStarFactTableName );
       event.monitor.sendEvent(
         new CellCacheSegmentDeleteEvent(
           event.timestamp,
@@ -752,6 +1047,11 @@ public class SegmentCacheManager {
 
     private final MDCUtil mdc = new MDCUtil();
 
+    /**
+     * When the command was put on the actor's queue; read by the actor when it takes the command off.
+     */
+    private volatile long enqueueNanos;
+
     public abstract Locus getLocus();
     public abstract T call() throws Exception;
 
@@ -790,6 +1090,13 @@ public class SegmentCacheManager {
       final SegmentColumn[] flushRegion = CacheControlImpl.findAxisValues( region );
       final List<RolapStar> starList = CacheControlImpl.getStarList( region );
 
+      // A flush asks for the current contents of the fact table, so the
+      // segments loaded from now on are no longer bounded by the watermark
+      // of the last refresh of appended rows.
+      for ( RolapStar star : starList ) {
+        star.setAppendWatermark( null );
+      }
+
       final List<SegmentHeader> headers = getIntersectingHeaders( measures, flushRegion );
 
       // If flushRegion is empty, this means we must clear all
@@ -972,6 +1279,33 @@ public class SegmentCacheManager {
     }
   }
 
+  /**
+   * State of a cached segment while rows appended to its fact table are merged into it. See
+   * {@link SegmentCacheManager#refreshAppended}.
+   */
+  private static class AppendedSegment {
+    final RolapStar.Measure measure;
+    final SegmentHeader header;
+    final SegmentBuilder.SegmentConverter converter;
+    SegmentBody body;
+    Segment segment;
+    Segment delta;
+    final RolapStar.AppendWatermark loadWatermark;
+    SegmentHeader newHeader;
+    SegmentBody newBody;
+
+    AppendedSegment(
+      RolapStar.Measure measure,
+      SegmentHeader header,
+      SegmentBuilder.SegmentConverter converter,
+      RolapStar.AppendWatermark loadWatermark ) {
+      this.measure = measure;
+      this.header = header;
+      this.converter = converter;
+      this.loadWatermark = loadWatermark;
+    }
+  }
+
   /**
    * Special exception, thrown only by {@link ShutdownCommand}, telling the actor to shut down.
    */
@@ -1035,6 +1369,7 @@ public class SegmentCacheManager {
             // the caller.
             if ( message instanceof Command<?> ) {
               Command<?> command = (Command<?>) message;
+              Metrics.QUEUE_WAIT.recordSince( command.enqueueNanos, "cache_manager" );
               try {
                 Locus.push( command.getLocus() );
                 Object result = command.call();
@@ -1094,6 +1429,7 @@ public class SegmentCacheManager {
       if ( shuttingDown.get() ) {
         throw Util.newError( "Command submitted after shutdown " + command );
       }
+      command.enqueueNanos = System.nanoTime();
       try {
         eventQueue.put( Pair.of( handler, command ) );
       } catch ( InterruptedException e ) {
@@ -1404,12 +1740,15 @@ public class SegmentCacheManager {
     }
 
     public SegmentBody get( SegmentHeader header ) {
+      final long startNanos = System.nanoTime();
       for ( SegmentCacheWorker worker : workers ) {
         final SegmentBody body = worker.get( header );
         if ( body != null ) {
+          Metrics.CACHE_LOOKUP.recordSince( startNanos, header.cubeName, "hit" );
           return body;
         }
       }
+      Metrics.CACHE_LOOKUP.recordSince( startNanos, header.cubeName, "miss" );
       return null;
     }
 
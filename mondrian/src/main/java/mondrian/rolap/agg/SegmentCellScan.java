@@ -0,0 +1,158 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.rolap.CellKey;
+
+/**
+ * Reads cells of a loaded segment by ordinal, without building a
+ * {@link CellKey} or boxing values.
+ *
+ * <p>The ordinal of a cell is the sum, over the segment's axes, of the
+ * {@link #getOffset(int, Object) offset} of the cell's key on that axis.
+ * Callers that read many cells which share the keys of some axes can
+ * compute those offsets once and add them up for each cell.</p>
+ *
+ * <p>Only segments whose cells are numeric, and which have no excluded
+ * regions, can be scanned.</p>
+ */
+public class SegmentCellScan {
+    /**
+     * Offset returned by {@link #getOffset} if the segment would contain the
+     * key but has no cells for it; every cell with this key is null.
+     */
+    public static final int NULL_OFFSET = -1;
+
+    /**
+     * Offset returned by {@link #getOffset} if the key is outside the region
+     * of the segment.
+     */
+    public static final int MISSING_OFFSET = -2;
+
+    private final SegmentAxis[] axes;
+    private final int[] axisMultipliers;
+    private final SegmentDataset data;
+    private final double[] doubleValues;
+    private final int[] intValues;
+    private final int[] pos;
+
+    private SegmentCellScan(SegmentWithData segment) {
+        this.axes = segment.axes;
+        this.data = segment.getData();
+        this.axisMultipliers = new int[axes.length];
+        int multiplier = 1;
+        for (int i = axes.length - 1; i >= 0; --i) {
+            axisMultipliers[i] = multiplier;
+            multiplier *= axes[i].getKeys().length;
+        }
+        this.doubleValues =
+            data instanceof DenseDoubleSegmentDataset
+                ? ((DenseDoubleSegmentDataset) data).values
+                : null;
+        this.intValues =
+            data instanceof DenseIntSegmentDataset
+                ? ((DenseIntSegmentDataset) data).values
+                : null;
+        this.pos = new int[axes.length];
+    }
+
+    /**
+     * Creates a scan over a segment, or returns null if the segment cannot
+     * be scanned.
+     *
+     * @param segment Loaded segment
+     * @param numeric Whether the segment's measure is known to be numeric;
+     *   required for segments stored sparsely
+     * @return Scan, or null
+     */
+    public static SegmentCellScan create(
+        SegmentWithData segment,
+        boolean numeric)
+    {
+        if (!segment.excludedRegions.isEmpty()) {
+            return null;
+        }
+        final SegmentDataset data = segment.getData();
+        if (data instanceof DenseDoubleSegmentDataset
+            || data instanceof DenseIntSegmentDataset
+            || (numeric && data instanceof SparseSegmentDataset))
+        {
+            return new SegmentCellScan(segment);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of axes of the segment.
+     */
+    public int getAxisCount() {
+        return axes.length;
+    }
+
+    /**
+     * Returns the contribution of a key on an axis to the ordinal of a cell,
+     * or {@link #NULL_OFFSET} or {@link #MISSING_OFFSET}.
+     *
+     * @param axis Axis ordinal
+     * @param key Key value
+     * @return Offset
+     */
+    public int getOffset(int axis, Object key) {
+        final int offset = axes[axis].getOffset((Comparable) key);
+        if (offset >= 0) {
+            return offset * axisMultipliers[axis];
+        }
+        return axes[axis].wouldContain(key) ? NULL_OFFSET : MISSING_OFFSET;
+    }
+
+    /**
+     * Returns whether the cell at an ordinal is null.
+     */
+    public boolean isNull(int ordinal) {
+        if (doubleValues != null) {
+            return doubleValues.length == 0
+                || doubleValues[ordinal] == 0d
+                && ((DenseNativeSegmentDataset) data).isNull(ordinal);
+        } else if (intValues != null) {
+            return intValues.length == 0
+                || intValues[ordinal] == 0
+                && ((DenseNativeSegmentDataset) data).isNull(ordinal);
+        } else {
+            return data.getObject(cellKey(ordinal)) == null;
+        }
+    }
+
+    /**
+     * Returns the value of the cell at an ordinal. The cell must not be
+     * null.
+     */
+    public double getDouble(int ordinal) {
+        if (doubleValues != null) {
+            return doubleValues[ordinal];
+        } else if (intValues != null) {
+            return intValues[ordinal];
+        } else {
+            return ((Number) data.getObject(cellKey(ordinal))).doubleValue();
+        }
+    }
+
+    private CellKey cellKey(int ordinal) {
+        for (int i = 0; i < pos.length; i++) {
+            pos[i] = ordinal / axisMultipliers[i];
+            ordinal %= axisMultipliers[i];
+        }
+        return CellKey.Generator.newCellKey(pos);
+    }
+}
+
+// End SegmentCellScan.java
@@ -21,6 +21,7 @@ import mondrian.rolap.agg.SegmentCacheManager.AbortException;
 import mondrian.rolap.cache.SegmentCacheIndex;
 import mondrian.server.Execution;
 import mondrian.server.Locus;
+import mondrian.server.monitor.Metrics;
 import mondrian.server.monitor.SqlStatementEvent;
 import mondrian.spi.*;
 import mondrian.util.*;
@@ -101,12 +102,15 @@ public class SegmentLoader {
    */
   public void load( int cellRequestCount, List<GroupingSet> groupingSets, List<StarPredicate> compoundPredicateList,
       List<Future<Map<Segment, SegmentWithData>>> segmentFutures ) {
+    // Decide the bound once, so that the bound recorded for each segment is the one its SQL applies.
+    final RolapStar.AppendWatermark watermark = getLoadWatermark( groupingSets, compoundPredicateList );
     if ( !MondrianProperties.instance().DisableCaching.get() ) {
       for ( GroupingSet groupingSet : groupingSets ) {
         for ( Segment segment : groupingSet.getSegments() ) {
           final SegmentCacheIndex index = cacheMgr.getIndexRegistry().getIndex( segment.star );
           index.add( segment.getHeader(), new SegmentBuilder.StarSegmentConverter( segment.measure,
               compoundPredicateList ), true );
+          index.setLoadWatermark( segment.getHeader(), watermark );
           // Make sure that we are registered as a client of
           // the segment by invoking getFuture.
           Util.discard( index.getFuture( Locus.peek().execution, segment.getHeader() ) );
@@ -115,7 +119,7 @@ public class SegmentLoader {
     }
     try {
       segmentFutures.add( cacheMgr.sqlExecutor.submit( new SegmentLoadCommand( Locus.peek(), this, cellRequestCount,
-          groupingSets, compoundPredicateList ) ) );
+          groupingSets, boundedPredicates( compoundPredicateList, watermark ) ) ) );
     } catch ( Exception e ) {
       throw new MondrianException( e );
     }
@@ -128,6 +132,7 @@ public class SegmentLoader {
     private final List<GroupingSet> groupingSets;
     private final List<StarPredicate> compoundPredicateList;
     private final MDCUtil mdc = new MDCUtil();
+    private final long submitNanos = System.nanoTime();
 
     public SegmentLoadCommand( Locus locus, SegmentLoader segmentLoader, int cellRequestCount,
         List<GroupingSet> groupingSets, List<StarPredicate> compoundPredicateList ) {
@@ -140,17 +145,113 @@ public class SegmentLoader {
 
     public Map<Segment, SegmentWithData> call() throws Exception {
       mdc.setContextMap();
+      Metrics.QUEUE_WAIT.recordSince( submitNanos, "segment_load" );
       Locus.push( locus );
+      final long startNanos = System.nanoTime();
       try {
-        return segmentLoader.loadImpl( cellRequestCount, groupingSets, compoundPredicateList );
+        return segmentLoader.loadImpl( cellRequestCount, groupingSets, compoundPredicateList, false );
       } finally {
+        Metrics.SEGMENT_LOAD.recordSince( startNanos, getCubeName( groupingSets ) );
         Locus.pop( locus );
       }
     }
   }
 
-  private Map<Segment, SegmentWithData> loadImpl( int cellRequestCount, List<GroupingSet> groupingSets,
+  /**
+   * Returns the append watermark that bounds a load, or null if the load is not bounded.
+   *
+   * <p>
+   * A load is bounded by its star's {@link RolapStar#getAppendWatermark() append watermark}, if it has one, unless it
+   * will read an aggregate table. Aggregate tables are populated apart from the fact table, so their rows cannot be
+   * bounded by a value of the fact table's column; such a load reads all the rows of the aggregate table, records no
+   * load watermark, and so is discarded rather than merged by the next
+   * {@link SegmentCacheManager#refreshAppended refresh}.
+   * </p>
+   *
+   * @param groupingSets
+   *          Grouping sets; the first is the detailed one
+   * @param compoundPredicateList
+   *          Compound predicates of the segments
+   * @return Watermark, or null
+   */
+  private static RolapStar.AppendWatermark getLoadWatermark( List<GroupingSet> groupingSets,
+      List<StarPredicate> compoundPredicateList ) {
+    final RolapStar star = getStar( groupingSets );
+    final RolapStar.AppendWatermark watermark = star.getAppendWatermark();
+    if ( watermark == null ) {
+      return null;
+    }
+    if ( MondrianProperties.instance().UseAggregates.get()
+        && ( compoundPredicateList == null || compoundPredicateList.isEmpty() ) ) {
+      final GroupingSet groupingSet = groupingSets.get( 0 );
+      if ( AggregationManager.findAgg( star, groupingSet.getLevelBitKey(), groupingSet.getMeasureBitKey(),
+          new boolean[1] ) != null ) {
+        return null;
+      }
+    }
+    return watermark;
+  }
+
+  /**
+   * Returns the compound predicates with which to generate the SQL of a load: the segments' own, plus, if the load is
+   * bounded, a {@link RolapStar.AppendWatermark.Bound} that skips the rows appended since the watermark. The segments'
+   * headers keep only their own predicates.
+   *
+   * @param compoundPredicateList
+   *          Compound predicates of the segments
+   * @param watermark
+   *          Watermark that bounds the load, or null
+   * @return Compound predicates for the SQL
+   */
+  private static List<StarPredicate> boundedPredicates( List<StarPredicate> compoundPredicateList,
+      RolapStar.AppendWatermark watermark ) {
+    if ( watermark == null ) {
+      return compoundPredicateList;
+    }
+    final List<StarPredicate> list = new ArrayList<StarPredicate>();
+    if ( compoundPredicateList != null ) {
+      list.addAll( compoundPredicateList );
+    }
+    list.add( watermark.upTo() );
+    return list;
+  }
+
+  private static RolapStar getStar( List<GroupingSet> groupingSets ) {
+    return groupingSets.get( 0 ).getSegments().get( 0 ).star;
+  }
+
+  private static String getCubeName( List<GroupingSet> groupingSets ) {
+    for ( GroupingSet groupingSet : groupingSets ) {
+      for ( Segment segment : groupingSet.getSegments() ) {
+        return segment.getHeader().cubeName;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Loads the segments of the given grouping sets on the current thread without registering them in the segment index
+   * or putting them in the external cache.
+   *
+   * <p>
+   * Used when the segments are not meant to be cached as they are, for example to read the rows appended to a fact
+   * table since a watermark, which are then merged into existing cached segments. The segments must not have been
+   * added to the index.
+   * </p>
+   *
+   * @param groupingSets
+   *          List of grouping sets whose segments are loaded
+   * @param compoundPredicateList
+   *          Compound predicates
+   * @return Loaded segments
+   */
+  Map<Segment, SegmentWithData> loadDetached( List<GroupingSet> groupingSets,
       List<StarPredicate> compoundPredicateList ) {
+    return loadImpl( 0, groupingSets, compoundPredicateList, true );
+  }
+
+  private Map<Segment, SegmentWithData> loadImpl( int cellRequestCount, List<GroupingSet> groupingSets,
+      List<StarPredicate> compoundPredicateList, boolean detached ) {
     SqlStatement stmt = null;
     GroupingSetsList groupingSetsList = new GroupingSetsList( groupingSets );
     RolapStar.Column[] defaultColumns = groupingSetsList.getDefaultColumns();
@@ -161,7 +262,9 @@ public class SegmentLoader {
       int arity = defaultColumns.length;
       SortedSet<Comparable>[] axisValueSets = getDistinctValueWorkspace( arity );
 
-      stmt = createExecuteSql( cellRequestCount, groupingSetsList, compoundPredicateList );
+      stmt =
+          detached ? createExecuteSql( cellRequestCount, groupingSetsList, compoundPredicateList, false )
+              : createExecuteSql( cellRequestCount, groupingSetsList, compoundPredicateList );
 
       if ( stmt == null ) {
         // Nothing to do. We're done here.
@@ -180,7 +283,7 @@ public class SegmentLoader {
 
       loadDataToDataSets( groupingSetsList, rows, groupingDataSetsMap );
 
-      setDataToSegments( groupingSetsList, groupingDataSetsMap, segmentMap );
+      setDataToSegments( groupingSetsList, groupingDataSetsMap, segmentMap, !detached );
 
       return segmentMap;
     } catch ( Throwable e ) {
@@ -193,7 +296,9 @@ public class SegmentLoader {
       if ( stmt != null ) {
         stmt.close();
       }
-      setFailOnStillLoadingSegments( segmentMap, groupingSetsList, throwable );
+      if ( !detached ) {
+        setFailOnStillLoadingSegments( segmentMap, groupingSetsList, throwable );
+      }
     }
   }
 
@@ -328,7 +433,7 @@ public class SegmentLoader {
   }
 
   private void setDataToSegments( GroupingSetsList groupingSetsList, Map<BitKey, GroupingSetsList.Cohort> datasetsMap,
-      Map<Segment, SegmentWithData> segmentSlotMap ) {
+      Map<Segment, SegmentWithData> segmentSlotMap, boolean cache ) {
     List<GroupingSet> groupingSets = groupingSetsList.getGroupingSets();
     for ( int i = 0; i < groupingSets.size(); i++ ) {
       List<Segment> segments = groupingSets.get( i ).getSegments();
@@ -339,18 +444,15 @@ public class SegmentLoader {
         final SegmentWithData segmentWithData = new SegmentWithData( segment, segmentDataset, cohort.axes );
 
         segmentSlotMap.put( segment, segmentWithData );
+        if ( !cache ) {
+          // The segment is read only by the execution that requested it. A cached segment outlives the execution and
+          // is shared with others, so it is not charged to any of them.
+          Locus.peek().execution.allocateMemory( (long) segmentDataset.getBytes() );
+          continue;
+        }
 
         final SegmentHeader header = segmentWithData.getHeader();
-        final SegmentBody body =
-            segmentWithData.getData().createSegmentBody( new AbstractList<Pair<SortedSet<Comparable>, Boolean>>() {
-              public Pair<SortedSet<Comparable>, Boolean> get( int index ) {
-                return segmentWithData.axes[index].getValuesAndIndicator();
-              }
-
-              public int size() {
-                return segmentWithData.axes.length;
-              }
-            } );
+        final SegmentBody body = createSegmentBody( segmentWithData );
 
         // Send a message to the agg manager. It will place the segment
         // in the index.
@@ -359,6 +461,25 @@ public class SegmentLoader {
     }
   }
 
+  /**
+   * Creates the serializable body of a segment that has been loaded.
+   *
+   * @param segmentWithData
+   *          Segment with data
+   * @return Segment body
+   */
+  static SegmentBody createSegmentBody( final SegmentWithData segmentWithData ) {
+    return segmentWithData.getData().createSegmentBody( new AbstractList<Pair<SortedSet<Comparable>, Boolean>>() {
+      public Pair<SortedSet<Comparable>, Boolean> get( int index ) {
+        return segmentWithData.axes[index].getValuesAndIndicator();
+      }
+
+      public int size() {
+        return segmentWithData.axes.length;
+      }
+    } );
+  }
+
   private Map<BitKey, GroupingSetsList.Cohort> createDataSetsForGroupingSets( GroupingSetsList groupingSetsList,
       boolean sparse, List<SqlStatement.Type> types ) {
     if ( !groupingSetsList.useGroupingSets() ) {
@@ -430,6 +551,26 @@ public class SegmentLoader {
    */
   SqlStatement createExecuteSql( int cellRequestCount, final GroupingSetsList groupingSetsList,
       List<StarPredicate> compoundPredicateList ) {
+    return createExecuteSql( cellRequestCount, groupingSetsList, compoundPredicateList,
+        !MondrianProperties.instance().DisableCaching.get() );
+  }
+
+  /**
+   * Creates and executes a SQL statement to retrieve the set of cells specified by a GroupingSetsList.
+   *
+   * @param cellRequestCount
+   *          Number of missed cells that led to this request
+   * @param groupingSetsList
+   *          Grouping
+   * @param compoundPredicateList
+   *          Compound predicate list
+   * @param indexed
+   *          Whether the segments are in the segment index, in which case the statement is linked to them there;
+   *          otherwise it is registered with the current execution
+   * @return An executed SQL statement, or null
+   */
+  private SqlStatement createExecuteSql( int cellRequestCount, final GroupingSetsList groupingSetsList,
+      List<StarPredicate> compoundPredicateList, boolean indexed ) {
     RolapStar star = groupingSetsList.getStar();
     Pair<String, List<SqlStatement.Type>> pair =
         AggregationManager.generateSql( groupingSetsList, compoundPredicateList );
@@ -486,7 +627,7 @@ public class SegmentLoader {
       return RolapUtil.executeQuery( star.getDataSource(), pair.left, pair.right, 0, 0, locus, -1, -1,
           // Only one of the two callbacks are required, depending if we
           // cache the segments or not.
-          MondrianProperties.instance().DisableCaching.get() ? callbackNoCaching : callbackWithCaching );
+          indexed ? callbackWithCaching : callbackNoCaching );
     } catch ( Throwable t ) {
       if ( Util.getMatchingCause( t, AbortException.class ) != null ) {
         return null;
@@ -0,0 +1,589 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.agg;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapSchema;
+import mondrian.rolap.RolapStar;
+import mondrian.rolap.StarColumnPredicate;
+import mondrian.rolap.StarPredicate;
+import mondrian.rolap.cache.SegmentCacheIndex;
+import mondrian.server.Execution;
+import mondrian.server.Locus;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Loads segments speculatively, based on how users have moved from one query to the next.
+ *
+ * <p>Each query leaves a set of {@link Footprint}s: for each star and set of constrained columns, the values it read.
+ * When the next query on the same connection reads a footprint that is the previous one drilled down by one column
+ * (say from year to year and quarter) or the previous one with the values of one column changed (say the next year),
+ * the prefetcher counts a transition from the previous footprint's columns along that column.</p>
+ *
+ * <p>After each query, for each footprint whose columns have a transition seen at least
+ * {@link MondrianProperties#SegmentPrefetchMinOccurrences} times, the prefetcher loads the segment with the same
+ * constraints as the footprint and the transition's column unconstrained. The load goes through the segment index, so
+ * a query that later needs the segment shares it instead of issuing its own SQL.</p>
+ *
+ * <p>Loads run on the cache manager's SQL executor, at most
+ * {@link MondrianProperties#SegmentPrefetchMaxConcurrent} at a time, and only while the executor has idle threads.
+ * When a query needs SQL while the executor is busy, {@link #yieldToForeground()} cancels the loads in flight.</p>
+ *
+ * <p>The transitions and footprints of a schema's stars are discarded when the schema is flushed; see
+ * {@link #flush(RolapSchema)}.</p>
+ *
+ * @see MondrianProperties#SegmentPrefetch
+ */
+public class SegmentPrefetcher {
+  private static final Logger LOGGER = LogManager.getLogger( SegmentPrefetcher.class );
+
+  /**
+   * Maximum number of values recorded for a column of a footprint. Beyond this, the column is treated as
+   * unconstrained.
+   */
+  private static final int MAX_VALUES = 1000;
+
+  /**
+   * Maximum number of connections whose last query is remembered.
+   */
+  private static final int MAX_CONNECTIONS = 1000;
+
+  private final SegmentCacheManager cacheMgr;
+
+  /**
+   * For each star, the number of times each transition has been seen, keyed by the constrained columns of the
+   * footprint the transition starts from, then by the bit position of the column that changed. Guarded by itself, as
+   * is {@link #lastFootprints}.
+   */
+  private final Map<RolapStar, Map<BitKey, Map<Integer, Integer>>> transitions = new HashMap<>();
+
+  /**
+   * Footprints of the last query run by each connection. They refer to stars, so they are removed along with the
+   * transitions of a flushed schema.
+   */
+  private final Map<Integer, Collection<Footprint>> lastFootprints =
+    new LinkedHashMap<Integer, Collection<Footprint>>( 16, 0.75f, true ) {
+      protected boolean removeEldestEntry( Map.Entry<Integer, Collection<Footprint>> eldest ) {
+        return size() > MAX_CONNECTIONS;
+      }
+    };
+
+  private final List<Prefetch> inFlight = new ArrayList<>();
+
+  /**
+   * Creates a SegmentPrefetcher.
+   *
+   * @param cacheMgr Cache manager
+   */
+  public SegmentPrefetcher( SegmentCacheManager cacheMgr ) {
+    this.cacheMgr = cacheMgr;
+  }
+
+  /**
+   * Returns whether speculative loading is enabled.
+   */
+  public static boolean isEnabled() {
+    return MondrianProperties.instance().SegmentPrefetch.get()
+      && !MondrianProperties.instance().DisableCaching.get();
+  }
+
+  /**
+   * Records a cell request into the footprints of a query.
+   *
+   * @param footprints Footprints of the query, by star and constrained columns
+   * @param request    Cell request
+   */
+  public static void record(
+    Map<RolapStar, Map<BitKey, Footprint>> footprints,
+    CellRequest request ) {
+    if ( request.getCompoundPredicateMap() != null ) {
+      // Cells constrained by compound predicates, such as a compound
+      // slicer, are not predicted.
+      return;
+    }
+    final RolapStar.Measure measure = request.getMeasure();
+    Map<BitKey, Footprint> map = footprints.get( measure.getStar() );
+    if ( map == null ) {
+      map = new HashMap<>();
+      footprints.put( measure.getStar(), map );
+    }
+    Footprint footprint = map.get( request.getConstrainedColumnsBitKey() );
+    if ( footprint == null ) {
+      footprint =
+        new Footprint(
+          measure.getStar(),
+          request.getConstrainedColumnsBitKey(),
+          request.getConstrainedColumns() );
+      map.put( footprint.bitKey, footprint );
+    }
+    footprint.add( request );
+  }
+
+  /**
+   * Called after a query has completed. Learns from the transition between the previous query of the same connection
+   * and this one, and schedules the loads predicted to follow this query.
+   *
+   * @param connectionId Connection that ran the query
+   * @param footprints   Footprints of the query
+   */
+  public void executed(
+    int connectionId,
+    Map<RolapStar, Map<BitKey, Footprint>> footprints ) {
+    if ( !isEnabled() ) {
+      // Disabled since the query started.
+      return;
+    }
+    final List<Footprint> current = new ArrayList<>();
+    for ( Map<BitKey, Footprint> map : footprints.values() ) {
+      current.addAll( map.values() );
+    }
+    if ( current.isEmpty() ) {
+      return;
+    }
+    final int minOccurrences = MondrianProperties.instance().SegmentPrefetchMinOccurrences.get();
+    final List<Prefetch> predictions = new ArrayList<>();
+    synchronized ( transitions ) {
+      final Collection<Footprint> previous = lastFootprints.put( connectionId, current );
+      if ( previous != null ) {
+        learn( previous, current );
+      }
+      for ( Footprint footprint : current ) {
+        final Map<BitKey, Map<Integer, Integer>> starTransitions = transitions.get( footprint.star );
+        if ( starTransitions == null ) {
+          continue;
+        }
+        final Map<Integer, Integer> counts = starTransitions.get( footprint.bitKey );
+        if ( counts == null ) {
+          continue;
+        }
+        int bestBit = -1;
+        int bestCount = minOccurrences - 1;
+        for ( Map.Entry<Integer, Integer> entry : counts.entrySet() ) {
+          if ( entry.getValue() > bestCount ) {
+            bestBit = entry.getKey();
+            bestCount = entry.getValue();
+          }
+        }
+        if ( bestBit >= 0 ) {
+          predictions.add( new Prefetch( footprint, bestBit ) );
+        }
+      }
+    }
+    purge();
+    for ( Prefetch prefetch : predictions ) {
+      schedule( prefetch );
+    }
+  }
+
+  /**
+   * Forgets the transitions and footprints of the stars of a schema. Called when the schema is flushed; the stars, and
+   * through them the schema, would otherwise stay reachable.
+   *
+   * @param schema Schema
+   */
+  public void flush( RolapSchema schema ) {
+    synchronized ( transitions ) {
+      transitions.keySet().removeIf( star -> star.getSchema() == schema );
+      lastFootprints.values().removeIf(
+        footprints -> footprints.stream().anyMatch( footprint -> footprint.star.getSchema() == schema ) );
+    }
+  }
+
+  /**
+   * Returns the number of stars for which transitions have been seen. For testing.
+   */
+  int getStarCount() {
+    synchronized ( transitions ) {
+      return transitions.size();
+    }
+  }
+
+  /**
+   * Returns the number of connections whose last query is remembered. For testing.
+   */
+  int getConnectionCount() {
+    synchronized ( transitions ) {
+      return lastFootprints.size();
+    }
+  }
+
+  /**
+   * Cancels loads in flight if the SQL executor has no idle thread. Called before a query waits for segments to be
+   * loaded by SQL, so that speculative loads never hold up real ones.
+   */
+  public void yieldToForeground() {
+    final List<Prefetch> canceled;
+    synchronized ( inFlight ) {
+      if ( inFlight.isEmpty() || !isSqlExecutorBusy() ) {
+        return;
+      }
+      canceled = new ArrayList<>( inFlight );
+      inFlight.clear();
+    }
+    for ( Prefetch prefetch : canceled ) {
+      prefetch.cancel();
+    }
+  }
+
+  /**
+   * Counts the transitions from the footprints of a query to the footprints of the next query.
+   */
+  private void learn( Collection<Footprint> previous, Collection<Footprint> current ) {
+    for ( Footprint from : previous ) {
+      for ( Footprint to : current ) {
+        if ( from.star != to.star ) {
+          continue;
+        }
+        final int bit = from.transitionTo( to );
+        if ( bit < 0 ) {
+          continue;
+        }
+        Map<BitKey, Map<Integer, Integer>> starTransitions = transitions.get( from.star );
+        if ( starTransitions == null ) {
+          starTransitions = new HashMap<>();
+          transitions.put( from.star, starTransitions );
+        }
+        Map<Integer, Integer> counts = starTransitions.get( from.bitKey );
+        if ( counts == null ) {
+          counts = new HashMap<>();
+          starTransitions.put( from.bitKey, counts );
+        }
+        final Integer count = counts.get( bit );
+        counts.put( bit, count == null ? 1 : count + 1 );
+      }
+    }
+  }
+
+  private void schedule( Prefetch prefetch ) {
+    synchronized ( inFlight ) {
+      if ( inFlight.size() >= MondrianProperties.instance().SegmentPrefetchMaxConcurrent.get()
+        || isSqlExecutorBusy() ) {
+        return;
+      }
+      try {
+        prefetch.future = cacheMgr.sqlExecutor.submit( prefetch );
+      } catch ( RuntimeException e ) {
+        // The executor is full. Not worth reporting.
+        return;
+      }
+      inFlight.add( prefetch );
+    }
+  }
+
+  /**
+   * Removes the loads that have completed, and releases their claims on segments in the index.
+   */
+  private void purge() {
+    final List<Prefetch> done = new ArrayList<>();
+    synchronized ( inFlight ) {
+      for ( Iterator<Prefetch> iterator = inFlight.iterator(); iterator.hasNext(); ) {
+        final Prefetch prefetch = iterator.next();
+        if ( prefetch.isDone() ) {
+          iterator.remove();
+          done.add( prefetch );
+        }
+      }
+    }
+    for ( Prefetch prefetch : done ) {
+      final Execution execution = prefetch.execution;
+      if ( execution != null ) {
+        execution.unregisterSegmentRequests();
+      }
+    }
+  }
+
+  private boolean isSqlExecutorBusy() {
+    final ExecutorService executor = cacheMgr.sqlExecutor;
+    if ( !( executor instanceof ThreadPoolExecutor ) ) {
+      return false;
+    }
+    final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+    return !pool.getQueue().isEmpty()
+      || pool.getActiveCount() >= pool.getMaximumPoolSize() - 1;
+  }
+
+  /**
+   * The cells that a query read from a star at a particular set of constrained columns: the measures, and the values
+   * of each column.
+   */
+  public static class Footprint {
+    final RolapStar star;
+    final BitKey bitKey;
+    final RolapStar.Column[] columns;
+    final Set<RolapStar.Measure> measures = new LinkedHashSet<>();
+
+    /**
+     * Values of each column, or null if there were too many to record.
+     */
+    final List<Set<Object>> values;
+
+    Footprint( RolapStar star, BitKey bitKey, RolapStar.Column[] columns ) {
+      this.star = star;
+      this.bitKey = bitKey;
+      this.columns = columns;
+      this.values = new ArrayList<>( columns.length );
+      for ( int i = 0; i < columns.length; i++ ) {
+        values.add( new LinkedHashSet<>() );
+      }
+    }
+
+    void add( CellRequest request ) {
+      measures.add( request.getMeasure() );
+      final Object[] singleValues = request.getSingleValues();
+      for ( int i = 0; i < singleValues.length; i++ ) {
+        final Set<Object> set = values.get( i );
+        if ( set != null && set.add( singleValues[ i ] ) && set.size() > MAX_VALUES ) {
+          values.set( i, null );
+        }
+      }
+    }
+
+    /**
+     * Returns the bit position of the column along which a user moved from this footprint to another, or -1 if the
+     * other footprint is not a drill-down or a sibling of this one.
+     */
+    int transitionTo( Footprint that ) {
+      if ( that.bitKey.equals( bitKey ) ) {
+        // Sibling: the values of exactly one column changed.
+        int bit = -1;
+        for ( int i = 0; i < columns.length; i++ ) {
+          final Set<Object> fromValues = values.get( i );
+          final Set<Object> toValues = that.values.get( i );
+          if ( fromValues == null ? toValues == null : fromValues.equals( toValues ) ) {
+            continue;
+          }
+          if ( bit >= 0 ) {
+            return -1;
+          }
+          bit = columns[ i ].getBitPosition();
+        }
+        return bit;
+      }
+      if ( that.bitKey.cardinality() != bitKey.cardinality() + 1
+        || !that.bitKey.isSuperSetOf( bitKey ) ) {
+        return -1;
+      }
+      // Drill-down: one more column, and the values of the other columns are
+      // among the values this footprint read.
+      int bit = -1;
+      for ( int i = 0, j = 0; i < that.columns.length; i++ ) {
+        final RolapStar.Column column = that.columns[ i ];
+        if ( j < columns.length && columns[ j ] == column ) {
+          final Set<Object> fromValues = values.get( j );
+          final Set<Object> toValues = that.values.get( i );
+          if ( fromValues != null
+            && ( toValues == null || !fromValues.containsAll( toValues ) ) ) {
+            return -1;
+          }
+          ++j;
+        } else {
+          bit = column.getBitPosition();
+        }
+      }
+      return bit;
+    }
+  }
+
+  /**
+   * A speculative load of the segments predicted to follow a footprint.
+   */
+  private class Prefetch implements Callable<Void> {
+    private final Footprint footprint;
+    private final int bit;
+    private volatile boolean canceled;
+    volatile Future<?> future;
+    volatile Execution execution;
+    private final List<Future<Map<Segment, SegmentWithData>>> segmentFutures =
+      Collections.synchronizedList( new ArrayList<Future<Map<Segment, SegmentWithData>>>() );
+
+    Prefetch( Footprint footprint, int bit ) {
+      this.footprint = footprint;
+      this.bit = bit;
+    }
+
+    public Void call() {
+      if ( canceled ) {
+        return null;
+      }
+      final RolapStar star = footprint.star;
+      // Create the execution on this thread, with no enclosing locus, so
+      // that canceling it does not cancel the query that caused it.
+      execution =
+        new Execution(
+          star.getSchema().getInternalConnection().getInternalStatement(),
+          0 );
+      try {
+        Locus.execute(
+          execution,
+          "SegmentPrefetcher.prefetch",
+          new Locus.Action<Void>() {
+            public Void execute() {
+              load();
+              return null;
+            }
+          } );
+      } catch ( Exception e ) {
+        // A failed guess costs nothing but the SQL.
+        LOGGER.debug( "Segment prefetch failed", e );
+      }
+      return null;
+    }
+
+    private void load() {
+      final RolapStar star = footprint.star;
+      final BitKey bitKey = footprint.bitKey.copy();
+      bitKey.set( bit );
+
+      final int columnCount = bitKey.cardinality();
+      final RolapStar.Column[] columns = new RolapStar.Column[ columnCount ];
+      final StarColumnPredicate[] predicates = new StarColumnPredicate[ columnCount ];
+      double cellCount = 1d;
+      int i = 0;
+      for ( int bitPos = bitKey.nextSetBit( 0 ); bitPos >= 0; bitPos = bitKey.nextSetBit( bitPos + 1 ), ++i ) {
+        final RolapStar.Column column = star.getColumn( bitPos );
+        columns[ i ] = column;
+        final int k = indexOf( footprint.columns, column );
+        final Set<Object> values =
+          bitPos == bit || k < 0 ? null : footprint.values.get( k );
+        if ( values == null ) {
+          predicates[ i ] = new LiteralStarPredicate( column, true );
+          final long cardinality = column.getCardinality();
+          if ( cardinality <= 0 ) {
+            return;
+          }
+          cellCount *= cardinality;
+        } else if ( values.size() == 1 ) {
+          predicates[ i ] = new ValueColumnPredicate( column, values.iterator().next() );
+        } else {
+          final List<StarColumnPredicate> list = new ArrayList<>( values.size() );
+          for ( Object value : values ) {
+            list.add( new ValueColumnPredicate( column, value ) );
+          }
+          predicates[ i ] = new ListColumnPredicate( column, list );
+          cellCount *= values.size();
+        }
+      }
+      if ( cellCount > MondrianProperties.instance().SegmentPrefetchMaxCells.get() ) {
+        return;
+      }
+
+      final List<RolapStar.Measure> measures = new ArrayList<>();
+      for ( RolapStar.Measure measure : footprint.measures ) {
+        if ( !measure.getAggregator().isDistinct() ) {
+          measures.add( measure );
+        }
+      }
+      measures.sort( ( m0, m1 ) -> Integer.compare( m0.getBitPosition(), m1.getBitPosition() ) );
+      final List<StarPredicate> compoundPredicateList = Collections.emptyList();
+      final Locus locus = Locus.peek();
+      cacheMgr.execute(
+        new SegmentCacheManager.Command<Void>() {
+          public Void call() {
+            if ( canceled ) {
+              return null;
+            }
+            final SegmentCacheIndex index = cacheMgr.getIndexRegistry().getIndex( star );
+            final BitKey measureBitKey = bitKey.emptyCopy();
+            final List<Segment> segments = new ArrayList<>();
+            for ( RolapStar.Measure measure : measures ) {
+              final Segment segment =
+                new Segment(
+                  star,
+                  bitKey,
+                  columns,
+                  measure,
+                  predicates,
+                  Collections.<Segment.ExcludedRegion>emptyList(),
+                  compoundPredicateList );
+              if ( index.contains( segment.getHeader() ) ) {
+                continue;
+              }
+              measureBitKey.set( measure.getBitPosition() );
+              segments.add( segment );
+            }
+            if ( segments.isEmpty() ) {
+              return null;
+            }
+            new SegmentLoader( cacheMgr ).load(
+              0,
+              new ArrayList<>(
+                Collections.singletonList(
+                  new GroupingSet( segments, bitKey, measureBitKey, predicates, columns ) ) ),
+              compoundPredicateList,
+              segmentFutures );
+            return null;
+          }
+
+          public Locus getLocus() {
+            return locus;
+          }
+        } );
+    }
+
+    boolean isDone() {
+      if ( future == null || !future.isDone() ) {
+        return false;
+      }
+      synchronized ( segmentFutures ) {
+        for ( Future<?> segmentFuture : segmentFutures ) {
+          if ( !segmentFuture.isDone() ) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    void cancel() {
+      canceled = true;
+      if ( future != null ) {
+        future.cancel( false );
+      }
+      final Execution execution = this.execution;
+      if ( execution != null ) {
+        // Releases this execution's claims on the segments; the index
+        // cancels the SQL of segments that no query is waiting for.
+        execution.cancel();
+      }
+    }
+  }
+
+  private static int indexOf( RolapStar.Column[] columns, RolapStar.Column column ) {
+    for ( int i = 0; i < columns.length; i++ ) {
+      if ( columns[ i ] == column ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
+
+// End SegmentPrefetcher.java
@@ -0,0 +1,630 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.rolap.aggmatcher;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapCube;
+import mondrian.rolap.RolapSchema;
+import mondrian.rolap.RolapStar;
+import mondrian.spi.Dialect;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import javax.sql.DataSource;
+
+/**
+ * Advises which aggregate tables to build for a star, based on the segments
+ * that queries have loaded from its fact table, and builds them.
+ *
+ * <p>While {@link MondrianProperties#AggregateAdvisor} is set, each SQL
+ * statement that loads segments from a fact table, rather than from an
+ * aggregate table, {@link #record records} the bit key of the columns
+ * it groups by. The set of bit keys seen, with the number of times each
+ * was seen, is the star's workload.</p>
+ *
+ * <p>{@link #recommend} chooses a set of aggregate tables for the workload
+ * using the greedy algorithm of Harinarayan, Rajaraman and Ullman,
+ * "Implementing Data Cubes Efficiently" (SIGMOD 1996). The candidates are
+ * the bit keys of the workload. The number of rows of a candidate is
+ * estimated as the product of the cardinalities of its columns, but no
+ * more than the number of rows of the fact table. The cost of a statement
+ * is the number of rows of the smallest table, chosen so far or the fact
+ * table, whose columns include the statement's columns. At each step, the
+ * advisor chooses the candidate that most reduces the total cost of the
+ * workload per row, until no candidate that fits in the remaining
+ * {@link MondrianProperties#AggregateAdvisorMaxRows budget} reduces the
+ * cost.</p>
+ *
+ * <p>{@link #build} creates and populates the chosen tables, as collapsed
+ * aggregate tables, with the SQL that {@link AggGen} generates in the
+ * star's dialect. It names the tables so that the {@link DefaultRules}
+ * recognize them, and registers them with the star through
+ * {@link AggTableManager#registerAggregateTable}, which applies the cubes'
+ * {@link ExplicitRules} first. Subsequent queries use the new tables at
+ * once, without reloading the schema. Applications build the tables of a
+ * cube through {@link mondrian.olap.CacheControl#buildAggregateTables}.</p>
+ *
+ * <p>A built table is a snapshot of the fact table as of when it was
+ * populated. It is not maintained as rows are loaded into the fact table;
+ * after each load, the application must re-populate the tables through
+ * {@link mondrian.olap.CacheControl#refreshAggregateTables}, which calls
+ * {@link #refresh}, before it flushes or refreshes the cells it has cached.
+ * (After {@link mondrian.olap.CacheControl#refreshAppended}, loads from
+ * the fact table are bounded by the star's append watermark, but loads
+ * from aggregate tables are not, and the next refresh discards rather than
+ * merges their segments.)</p>
+ */
+public class AggAdvisor {
+    private static final Logger LOGGER = LogManager.getLogger(AggAdvisor.class);
+
+    /**
+     * For each star, the number of times each bit key of grouping columns
+     * has been loaded from the fact table.
+     */
+    private static final Map<RolapStar, Map<BitKey, Long>> WORKLOAD =
+        new WeakHashMap<RolapStar, Map<BitKey, Long>>();
+
+    /**
+     * For each star, the tables which have been built for it, so that they
+     * can be refreshed. Also serializes builds and refreshes.
+     */
+    private static final Map<RolapStar, List<BuiltTable>> BUILT =
+        new WeakHashMap<RolapStar, List<BuiltTable>>();
+
+    private AggAdvisor() {
+    }
+
+    /**
+     * Returns whether the workload of stars is being recorded.
+     */
+    public static boolean isEnabled() {
+        return MondrianProperties.instance().AggregateAdvisor.get();
+    }
+
+    /**
+     * Records that a SQL statement has loaded segments of a star from its
+     * fact table.
+     *
+     * @param star Star
+     * @param levelBitKey Bit key of the columns the statement groups by
+     */
+    public static void record(RolapStar star, BitKey levelBitKey) {
+        if (levelBitKey.isEmpty()) {
+            return;
+        }
+        synchronized (WORKLOAD) {
+            Map<BitKey, Long> workload = WORKLOAD.get(star);
+            if (workload == null) {
+                workload = new HashMap<BitKey, Long>();
+                WORKLOAD.put(star, workload);
+            }
+            final Long count = workload.get(levelBitKey);
+            if (count == null) {
+                workload.put(levelBitKey.copy(), 1L);
+            } else {
+                workload.put(levelBitKey, count + 1);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the workload of a star: for each bit key of
+     * grouping columns, the number of times it has been loaded from the
+     * fact table.
+     */
+    public static Map<BitKey, Long> getWorkload(RolapStar star) {
+        synchronized (WORKLOAD) {
+            final Map<BitKey, Long> workload = WORKLOAD.get(star);
+            return workload == null
+                ? new HashMap<BitKey, Long>()
+                : new HashMap<BitKey, Long>(workload);
+        }
+    }
+
+    /**
+     * Forgets the workload of a star.
+     */
+    public static void clear(RolapStar star) {
+        synchronized (WORKLOAD) {
+            WORKLOAD.remove(star);
+        }
+    }
+
+    /**
+     * Chooses aggregate tables for the workload of a star.
+     *
+     * <p>Reads the cardinality of the star's columns, and the number of rows
+     * of its fact table, from the star's statistics cache, which may
+     * execute SQL.</p>
+     *
+     * @param star Star
+     * @param maxRows Maximum total estimated number of rows of the tables
+     * @return Recommended tables, in the order chosen
+     */
+    public static List<Recommendation> recommend(RolapStar star, long maxRows) {
+        final Map<BitKey, Long> workload = getWorkload(star);
+        final List<Recommendation> recommendations =
+            new ArrayList<Recommendation>();
+        if (workload.isEmpty()) {
+            return recommendations;
+        }
+        final RolapStar.Table factTable = star.getFactTable();
+        final long factRowCount =
+            star.getStatisticsCache().getRelationCardinality(
+                factTable.getRelation(), factTable.getAlias(), -1);
+        if (factRowCount <= 0) {
+            return recommendations;
+        }
+
+        final Map<BitKey, Long> candidates = new HashMap<BitKey, Long>();
+        final Map<BitKey, Long> costs = new HashMap<BitKey, Long>();
+        for (BitKey bitKey : workload.keySet()) {
+            costs.put(bitKey, factRowCount);
+            if (!isCovered(star, bitKey)) {
+                candidates.put(
+                    bitKey, estimateRowCount(star, bitKey, factRowCount));
+            }
+        }
+
+        long budget = maxRows;
+        while (true) {
+            BitKey best = null;
+            double bestBenefit = 0;
+            double bestBenefitPerRow = 0;
+            for (Map.Entry<BitKey, Long> candidate : candidates.entrySet()) {
+                final long rowCount = candidate.getValue();
+                if (rowCount > budget || rowCount >= factRowCount) {
+                    continue;
+                }
+                double benefit = 0;
+                for (Map.Entry<BitKey, Long> entry : workload.entrySet()) {
+                    if (candidate.getKey().isSuperSetOf(entry.getKey())) {
+                        final long saving =
+                            costs.get(entry.getKey()) - rowCount;
+                        if (saving > 0) {
+                            benefit += (double) saving * entry.getValue();
+                        }
+                    }
+                }
+                final double benefitPerRow = benefit / Math.max(rowCount, 1);
+                if (benefitPerRow > bestBenefitPerRow) {
+                    best = candidate.getKey();
+                    bestBenefit = benefit;
+                    bestBenefitPerRow = benefitPerRow;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            final long rowCount = candidates.remove(best);
+            budget -= rowCount;
+            for (Map.Entry<BitKey, Long> entry : costs.entrySet()) {
+                if (best.isSuperSetOf(entry.getKey())
+                    && entry.getValue() > rowCount)
+                {
+                    entry.setValue(rowCount);
+                }
+            }
+            recommendations.add(
+                new Recommendation(star, best, rowCount, bestBenefit));
+        }
+        return recommendations;
+    }
+
+    /**
+     * Chooses aggregate tables for the workload of each star of a schema,
+     * within the budget of {@link MondrianProperties#AggregateAdvisorMaxRows}
+     * rows per star, then builds and registers them.
+     *
+     * @param schema Schema
+     * @return Aggregate tables built and registered
+     */
+    public static List<AggStar> build(RolapSchema schema) {
+        final long maxRows =
+            MondrianProperties.instance().AggregateAdvisorMaxRows.get();
+        final List<AggStar> aggStars = new ArrayList<AggStar>();
+        for (RolapStar star : schema.getStars()) {
+            aggStars.addAll(build(schema, star, recommend(star, maxRows)));
+        }
+        return aggStars;
+    }
+
+    /**
+     * Chooses aggregate tables for the workload of a star, within the budget
+     * of {@link MondrianProperties#AggregateAdvisorMaxRows} rows, then builds
+     * and registers them.
+     *
+     * @param star Star
+     * @return Aggregate tables built and registered
+     */
+    public static List<AggStar> build(RolapStar star) {
+        final long maxRows =
+            MondrianProperties.instance().AggregateAdvisorMaxRows.get();
+        return build(star.getSchema(), star, recommend(star, maxRows));
+    }
+
+    /**
+     * Creates, populates and registers aggregate tables of a star.
+     *
+     * <p>Tables which cannot be generated, created or populated, or which
+     * are not recognized after they have been populated, are logged, dropped
+     * and skipped. Statements answered by a registered table are removed from
+     * the star's workload.</p>
+     *
+     * @param schema Schema
+     * @param star Star
+     * @param recommendations Tables to build
+     * @return Aggregate tables built and registered
+     */
+    public static List<AggStar> build(
+        RolapSchema schema,
+        RolapStar star,
+        List<Recommendation> recommendations)
+    {
+        final List<AggStar> aggStars = new ArrayList<AggStar>();
+        if (recommendations.isEmpty()) {
+            return aggStars;
+        }
+        final Dialect dialect = star.getSqlQueryDialect();
+        final String factTableName = star.getFactTable().getTableName();
+        if (!dialect.allowsDdl()) {
+            LOGGER.warn(
+                "Cannot build aggregate tables for fact table "
+                + factTableName + ": dialect does not allow DDL");
+            return aggStars;
+        }
+        if (factTableName == null
+            || !factTableName.equals(star.getFactTable().getAlias()))
+        {
+            LOGGER.warn(
+                "Cannot build aggregate tables for fact table "
+                + star.getFactTable().getAlias()
+                + ": fact table must be a table with no alias");
+            return aggStars;
+        }
+        if (!DefaultRules.getInstance().matchesTableName(
+                factTableName, "agg_c_1_" + factTableName))
+        {
+            LOGGER.warn(
+                "Cannot build aggregate tables for fact table "
+                + factTableName
+                + ": default rules do not recognize their names");
+            return aggStars;
+        }
+        RolapCube cube = null;
+        for (RolapCube c : schema.getCubesWithStar(star)) {
+            if (!c.isVirtual()) {
+                cube = c;
+                break;
+            }
+        }
+        if (cube == null) {
+            return aggStars;
+        }
+
+        synchronized (BUILT) {
+            List<BuiltTable> builtTables = BUILT.get(star);
+            if (builtTables == null) {
+                builtTables = new ArrayList<BuiltTable>();
+                BUILT.put(star, builtTables);
+            }
+            build(schema, star, cube, recommendations, builtTables, aggStars);
+        }
+        return aggStars;
+    }
+
+    private static void build(
+        RolapSchema schema,
+        RolapStar star,
+        RolapCube cube,
+        List<Recommendation> recommendations,
+        List<BuiltTable> builtTables,
+        List<AggStar> aggStars)
+    {
+        final String factTableName = star.getFactTable().getTableName();
+        final AggTableManager aggTableManager = new AggTableManager(schema);
+        for (Recommendation recommendation : recommendations) {
+            final AggGen aggGen =
+                new AggGen(
+                    cube.getName(), star, recommendation.getColumns());
+            if (!aggGen.isReady()) {
+                LOGGER.warn("Cannot generate SQL for " + recommendation);
+                continue;
+            }
+            final String tableName;
+            try {
+                tableName = makeTableName(star, factTableName);
+            } catch (SQLException e) {
+                LOGGER.warn("Cannot read tables of fact table's schema", e);
+                return;
+            }
+            final String placeholder =
+                aggGen.makeCollapsedAggregateTableName(
+                    aggGen.getFactTableName());
+            final String create =
+                toStatement(aggGen.createCollapsed(), placeholder, tableName);
+            final String insert =
+                toStatement(
+                    aggGen.insertIntoCollapsed(), placeholder, tableName);
+            try {
+                execute(star.getDataSource(), create, insert);
+            } catch (SQLException e) {
+                LOGGER.warn(
+                    "Failed to build aggregate table " + tableName
+                    + " for " + recommendation, e);
+                drop(star.getDataSource(), tableName);
+                continue;
+            }
+            final AggStar aggStar =
+                aggTableManager.registerAggregateTable(star, tableName);
+            if (aggStar == null) {
+                LOGGER.warn(
+                    "Aggregate table " + tableName + " for " + recommendation
+                    + " was not recognized; dropping it");
+                drop(star.getDataSource(), tableName);
+                continue;
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                    "Built aggregate table " + tableName + " for "
+                    + recommendation);
+            }
+            aggStars.add(aggStar);
+            builtTables.add(new BuiltTable(tableName, insert));
+            synchronized (WORKLOAD) {
+                final Map<BitKey, Long> workload = WORKLOAD.get(star);
+                if (workload != null) {
+                    final BitKey bitKey = recommendation.getLevelBitKey();
+                    for (Iterator<BitKey> it = workload.keySet().iterator();
+                        it.hasNext();)
+                    {
+                        if (bitKey.isSuperSetOf(it.next())) {
+                            it.remove();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-populates the aggregate tables that have been built for a star from
+     * its fact table.
+     *
+     * <p>Each table is emptied and populated in one transaction, so that
+     * queries, if the database isolates transactions, see either its old or
+     * its new contents. A table which cannot be refreshed is logged, and is
+     * left as it was.</p>
+     *
+     * @param star Star
+     * @return Names of the tables refreshed
+     */
+    public static List<String> refresh(RolapStar star) {
+        final List<String> names = new ArrayList<String>();
+        synchronized (BUILT) {
+            final List<BuiltTable> builtTables = BUILT.get(star);
+            if (builtTables == null) {
+                return names;
+            }
+            for (BuiltTable builtTable : builtTables) {
+                try {
+                    execute(
+                        star.getDataSource(),
+                        "DELETE FROM " + builtTable.name,
+                        builtTable.insert);
+                    names.add(builtTable.name);
+                } catch (SQLException e) {
+                    LOGGER.warn(
+                        "Failed to refresh aggregate table " + builtTable.name,
+                        e);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns whether an aggregate table of a star already has all of the
+     * columns of a bit key.
+     */
+    private static boolean isCovered(RolapStar star, BitKey levelBitKey) {
+        for (AggStar aggStar : star.getAggStars()) {
+            if (aggStar.getLevelBitKey().isSuperSetOf(levelBitKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Estimates the number of rows of an aggregate table grouped by the
+     * columns of a bit key: the product of the columns' cardinalities, which
+     * is an upper bound, or the number of rows of the fact table, if fewer.
+     */
+    private static long estimateRowCount(
+        RolapStar star,
+        BitKey levelBitKey,
+        long factRowCount)
+    {
+        double rowCount = 1;
+        for (int bit : levelBitKey) {
+            rowCount *= Math.max(star.getColumn(bit).getCardinality(), 1);
+            if (rowCount >= factRowCount) {
+                return factRowCount;
+            }
+        }
+        return (long) rowCount;
+    }
+
+    /**
+     * Returns the name of a new aggregate table of a fact table,
+     * "agg_c_<i>n</i>_<i>fact</i>", which the DefaultRules recognize and
+     * no existing table has. Called while holding the build lock, so that
+     * two builds do not choose the same name.
+     */
+    private static String makeTableName(RolapStar star, String factTableName)
+        throws SQLException
+    {
+        final JdbcSchema db = JdbcSchema.makeUnsharedDB(star.getDataSource());
+        db.load(new Util.PropertyList());
+        for (int i = 1;; i++) {
+            final String name = "agg_c_" + i + "_" + factTableName;
+            if (db.getTable(name) == null) {
+                return name;
+            }
+        }
+    }
+
+    /**
+     * Converts SQL generated by AggGen into a statement that can be
+     * executed through JDBC: replaces the placeholder table name, and
+     * removes the trailing semicolon.
+     */
+    private static String toStatement(
+        String sql,
+        String placeholder,
+        String tableName)
+    {
+        sql = sql.replace(placeholder, tableName).trim();
+        if (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1);
+        }
+        return sql;
+    }
+
+    private static void execute(DataSource dataSource, String... sqls)
+        throws SQLException
+    {
+        final Connection conn = dataSource.getConnection();
+        try {
+            final Statement statement = conn.createStatement();
+            try {
+                for (String sql : sqls) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug(sql);
+                    }
+                    statement.execute(sql);
+                }
+                if (!conn.getAutoCommit()) {
+                    conn.commit();
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static void drop(DataSource dataSource, String tableName) {
+        try {
+            execute(dataSource, "DROP TABLE " + tableName);
+        } catch (SQLException e) {
+            // The table was probably never created.
+            LOGGER.debug("Failed to drop table " + tableName, e);
+        }
+    }
+
+    /**
+     * Aggregate table which has been built, and the statement that
+     * populates it.
+     */
+    private static class BuiltTable {
+        private final String name;
+        private final String insert;
+
+        BuiltTable(String name, String insert) {
+            this.name = name;
+            this.insert = insert;
+        }
+    }
+
+    /**
+     * Aggregate table recommended for a star.
+     */
+    public static class Recommendation {
+        private final RolapStar star;
+        private final BitKey levelBitKey;
+        private final long rowCount;
+        private final double benefit;
+
+        Recommendation(
+            RolapStar star,
+            BitKey levelBitKey,
+            long rowCount,
+            double benefit)
+        {
+            this.star = star;
+            this.levelBitKey = levelBitKey;
+            this.rowCount = rowCount;
+            this.benefit = benefit;
+        }
+
+        /**
+         * Returns the bit key of the columns of the table.
+         */
+        public BitKey getLevelBitKey() {
+            return levelBitKey;
+        }
+
+        /**
+         * Returns the columns of the table.
+         */
+        public RolapStar.Column[] getColumns() {
+            final List<RolapStar.Column> columns =
+                new ArrayList<RolapStar.Column>();
+            for (int bit : levelBitKey) {
+                columns.add(star.getColumn(bit));
+            }
+            return columns.toArray(new RolapStar.Column[columns.size()]);
+        }
+
+        /**
+         * Returns the estimated number of rows of the table.
+         */
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * Returns the reduction, when the table was chosen, in the total
+         * number of rows read by the recorded workload.
+         */
+        public double getBenefit() {
+            return benefit;
+        }
+
+        public String toString() {
+            final StringBuilder buf = new StringBuilder();
+            buf.append(star.getFactTable().getAlias()).append('(');
+            int k = 0;
+            for (RolapStar.Column column : getColumns()) {
+                if (k++ > 0) {
+                    buf.append(", ");
+                }
+                buf.append(column.getName());
+            }
+            buf.append("), rows=").append(rowCount);
+            return buf.toString();
+        }
+    }
+}
+
+// End AggAdvisor.java
@@ -186,7 +186,6 @@ public class AggTableManager {
     {
         ListRecorder msgRecorder = new ListRecorder();
         try {
-            DefaultRules rules = DefaultRules.getInstance();
             JdbcSchema db = getJdbcSchema();
             // if we don't synchronize this on the db object,
             // we may end up getting a Concurrency exception due to
@@ -225,7 +224,6 @@ public class AggTableManager {
                     // are measure or foreign key columns
 
                     bindToStar(dbFactTable, star, msgRecorder);
-                    String schema = dbFactTable.table.schema;
 
                     // Now look at all tables in the database and per table,
                     // first see if it is a match for an aggregate table for
@@ -241,57 +239,17 @@ public class AggTableManager {
                             continue;
                         }
 
-                        // First see if there is an ExplicitRules match. If so,
-                        // then if all of the columns match up, then make an
-                        // AggStar. On the other hand, if there is no
-                        // ExplicitRules match, see if there is a Default
-                        // match. If so and if all the columns match up, then
-                        // also make an AggStar.
-                        ExplicitRules.TableDef tableDef =
-                            ExplicitRules.getIncludeByTableDef(name, aggGroups);
-
-                        boolean makeAggStar = false;
-                        int approxRowCount = Integer.MIN_VALUE;
-                        // Is it handled by the ExplicitRules
-                        if (tableDef != null) {
-                            // load columns
-                            dbTable.load();
-                            makeAggStar = tableDef.columnsOK(
+                        AggStar aggStar =
+                            makeAggStar(
                                 star,
+                                factTableName,
                                 dbFactTable,
                                 dbTable,
+                                aggGroups,
+                                MondrianProperties.instance()
+                                    .ReadAggregates.get(),
                                 msgRecorder);
-                            approxRowCount = tableDef.getApproxRowCount();
-                        }
-                        if (! makeAggStar
-                            && MondrianProperties
-                            .instance().ReadAggregates.get())
-                        {
-                            // Is it handled by the DefaultRules
-                            if (rules.matchesTableName(factTableName, name)) {
-                                // load columns
-                                dbTable.load();
-                                makeAggStar = rules.columnsOK(
-                                    star,
-                                    dbFactTable,
-                                    dbTable,
-                                    msgRecorder);
-                            }
-                        }
-
-                        if (makeAggStar) {
-                            dbTable.setTableUsageType(
-                                JdbcSchema.TableUsageType.AGG);
-                            dbTable.table = new MondrianDef.Table(
-                                schema,
-                                name,
-                                null, // null alias
-                                null); // don't know about table hints
-                            AggStar aggStar = AggStar.makeAggStar(
-                                star,
-                                dbTable,
-                                msgRecorder,
-                                approxRowCount);
+                        if (aggStar != null) {
                             if (aggStar.getSize() > 0) {
                                 star.addAggStar(aggStar);
                             } else {
@@ -322,6 +280,148 @@ public class AggTableManager {
         }
     }
 
+    /**
+     * Makes an AggStar for a database table if it is an aggregate table of
+     * a star: if an ExplicitRules include matches the table and all of its
+     * columns match up; or, failing that, if the DefaultRules match the
+     * table's name and all of its columns match up. Returns null if the
+     * table is not an aggregate table of the star.
+     *
+     * @param star Star
+     * @param factTableName Name of the star's fact table
+     * @param dbFactTable Fact table, bound to the star
+     * @param dbTable Candidate aggregate table
+     * @param aggGroups ExplicitRules of the cubes of the star
+     * @param useDefaultRules Whether to try the DefaultRules
+     * @param msgRecorder Message recorder
+     */
+    private AggStar makeAggStar(
+        RolapStar star,
+        String factTableName,
+        JdbcSchema.Table dbFactTable,
+        JdbcSchema.Table dbTable,
+        List<ExplicitRules.Group> aggGroups,
+        boolean useDefaultRules,
+        MessageRecorder msgRecorder)
+        throws SQLException
+    {
+        String name = dbTable.getName();
+
+        // First see if there is an ExplicitRules match. If so,
+        // then if all of the columns match up, then make an
+        // AggStar. On the other hand, if there is no
+        // ExplicitRules match, see if there is a Default
+        // match. If so and if all the columns match up, then
+        // also make an AggStar.
+        ExplicitRules.TableDef tableDef =
+            ExplicitRules.getIncludeByTableDef(name, aggGroups);
+
+        boolean makeAggStar = false;
+        int approxRowCount = Integer.MIN_VALUE;
+        // Is it handled by the ExplicitRules
+        if (tableDef != null) {
+            // load columns
+            dbTable.load();
+            makeAggStar = tableDef.columnsOK(
+                star,
+                dbFactTable,
+                dbTable,
+                msgRecorder);
+            approxRowCount = tableDef.getApproxRowCount();
+        }
+        if (! makeAggStar && useDefaultRules) {
+            // Is it handled by the DefaultRules
+            DefaultRules rules = DefaultRules.getInstance();
+            if (rules.matchesTableName(factTableName, name)) {
+                // load columns
+                dbTable.load();
+                makeAggStar = rules.columnsOK(
+                    star,
+                    dbFactTable,
+                    dbTable,
+                    msgRecorder);
+            }
+        }
+        if (!makeAggStar) {
+            return null;
+        }
+        dbTable.setTableUsageType(
+            JdbcSchema.TableUsageType.AGG);
+        dbTable.table = new MondrianDef.Table(
+            dbFactTable.table.schema,
+            name,
+            null, // null alias
+            null); // don't know about table hints
+        return AggStar.makeAggStar(
+            star,
+            dbTable,
+            msgRecorder,
+            approxRowCount);
+    }
+
+    /**
+     * Registers a table which has been created since the aggregate tables
+     * were loaded as an aggregate table of a star, if the star's
+     * ExplicitRules or the DefaultRules recognize it.
+     *
+     * <p>Unlike {@link #initialize(PropertyList)}, uses the DefaultRules
+     * even if {@link MondrianProperties#ReadAggregates} is false, and does
+     * not remove the star's other aggregate tables.</p>
+     *
+     * <p>Reads the tables into a JdbcSchema of its own, so that the usages it
+     * binds to the fact table's columns do not disturb the shared JdbcSchema
+     * of the data source, which a concurrent schema load may be using.</p>
+     *
+     * @param star Star
+     * @param tableName Name of the table, in the fact table's schema
+     * @return AggStar of the table, or null if it was not recognized
+     */
+    public AggStar registerAggregateTable(RolapStar star, String tableName) {
+        ListRecorder msgRecorder = new ListRecorder();
+        try {
+            JdbcSchema db =
+                JdbcSchema.makeUnsharedDB(
+                    schema.getInternalConnection().getDataSource());
+            db.load(new Util.PropertyList());
+            List<ExplicitRules.Group> aggGroups = getAggGroups(star);
+            if (ExplicitRules.excludeTable(tableName, aggGroups)) {
+                return null;
+            }
+            String factTableName = getFactTableName(star);
+            JdbcSchema.Table dbFactTable = db.getTable(factTableName);
+            if (dbFactTable == null) {
+                msgRecorder.reportWarning(
+                    "No Table found for fact name="
+                        + factTableName);
+                return null;
+            }
+            bindToStar(dbFactTable, star, msgRecorder);
+            JdbcSchema.Table dbTable = db.addTable(tableName);
+            AggStar aggStar =
+                makeAggStar(
+                    star,
+                    factTableName,
+                    dbFactTable,
+                    dbTable,
+                    aggGroups,
+                    true,
+                    msgRecorder);
+            if (aggStar == null || aggStar.getSize() <= 0) {
+                return null;
+            }
+            star.addAggStar(aggStar);
+            return aggStar;
+        } catch (SQLException ex) {
+            throw mres.AggLoadingError.ex(ex);
+        } catch (RecorderException ex) {
+            throw new MondrianException(ex);
+        } finally {
+            msgRecorder.logInfoMessage(getLogger());
+            msgRecorder.logWarningMessage(getLogger());
+            msgRecorder.logErrorMessage(getLogger());
+        }
+    }
+
     private Collection<RolapStar> getStars() {
         return schema.getStars();
     }
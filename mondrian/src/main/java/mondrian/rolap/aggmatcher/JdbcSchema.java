@@ -148,6 +148,21 @@ public class JdbcSchema {
         return db;
     }
 
+    /**
+     * Creates a JdbcSchema for a DataSource which, unlike the one returned by
+     * {@link #makeDB(DataSource)}, is not shared: tables added to it, and the
+     * usages of its columns, are not seen by other users of the DataSource.
+     *
+     * @param dataSource DataSource
+     * @return New JdbcSchema
+     */
+    public static synchronized JdbcSchema makeUnsharedDB(
+        DataSource dataSource)
+    {
+        makeFactory();
+        return factory.makeDB(dataSource);
+    }
+
     /**
      * Clears information in a JdbcSchema associated with a DataSource.
      *
@@ -1241,6 +1256,19 @@ public class JdbcSchema {
         return getTablesMap().get(tableName);
     }
 
+    /**
+     * Adds a table which has been created since the tables were loaded, or
+     * returns the existing table of that name.
+     */
+    synchronized Table addTable(final String tableName) {
+        Table table = getTablesMap().get(tableName);
+        if (table == null) {
+            table = new Table(tableName, "TABLE");
+            getTablesMap().put(tableName, table);
+        }
+        return table;
+    }
+
     public String toString() {
         StringWriter sw = new StringWriter(256);
         PrintWriter pw = new PrintWriter(sw);
@@ -13,6 +13,7 @@
 package mondrian.rolap.cache;
 
 import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapStar;
 import mondrian.rolap.agg.SegmentBuilder;
 import mondrian.server.Execution;
 import mondrian.spi.*;
@@ -257,6 +258,26 @@ public interface SegmentCacheIndex {
         String measureName,
         List<String> compoundPredicates,
         SegmentBuilder.SegmentConverter converter);
+
+    /**
+     * Records the value of the append column up to which a segment read the
+     * fact table when it was loaded.
+     *
+     * @param header Segment; must have been added
+     * @param watermark Watermark, or null if the load was not bounded
+     */
+    void setLoadWatermark(
+        SegmentHeader header,
+        RolapStar.AppendWatermark watermark);
+
+    /**
+     * Returns the value of the append column up to which a segment read the
+     * fact table, or null if it is not known.
+     *
+     * @param header Segment
+     * @return Watermark, or null
+     */
+    RolapStar.AppendWatermark getLoadWatermark(SegmentHeader header);
 }
 
 // End SegmentCacheIndex.java
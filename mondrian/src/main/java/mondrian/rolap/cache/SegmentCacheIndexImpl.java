@@ -15,6 +15,7 @@ package mondrian.rolap.cache;
 import mondrian.olap.QueryCanceledException;
 import mondrian.olap.Util;
 import mondrian.rolap.BitKey;
+import mondrian.rolap.RolapStar;
 import mondrian.rolap.RolapUtil;
 import mondrian.rolap.agg.*;
 import mondrian.server.Execution;
@@ -628,6 +629,27 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
         factInfo.converter = converter;
     }
 
+    public void setLoadWatermark(
+        SegmentHeader header,
+        RolapStar.AppendWatermark watermark)
+    {
+        checkThread();
+
+        final HeaderInfo headerInfo = headerMap.get(header);
+        assert headerInfo != null : "should have called 'add' first";
+        if (headerInfo == null) {
+            return;
+        }
+        headerInfo.loadWatermark = watermark;
+    }
+
+    public RolapStar.AppendWatermark getLoadWatermark(SegmentHeader header) {
+        checkThread();
+
+        final HeaderInfo headerInfo = headerMap.get(header);
+        return headerInfo == null ? null : headerInfo.loadWatermark;
+    }
+
     private List makeBitkeyKey(SegmentHeader header) {
         return makeBitkeyKey(
             header.schemaName,
@@ -1077,6 +1099,11 @@ public class SegmentCacheIndexImpl implements SegmentCacheIndex {
          * when flushing.
          */
         private boolean removeAfterLoad;
+        /**
+         * Value of the append column up to which the segment read the fact
+         * table, or null if its load was not bounded.
+         */
+        private RolapStar.AppendWatermark loadWatermark;
     }
 }
 
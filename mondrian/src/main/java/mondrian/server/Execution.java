@@ -21,8 +21,12 @@ import mondrian.util.MDCUtil;
 
 import java.util.*;
 import java.util.Map.Entry;
-
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Execution context.
@@ -40,6 +44,12 @@ public class Execution {
    */
   private static AtomicLong SEQ = new AtomicLong();
 
+  /**
+   * Moves executions to {@link State#TIMEOUT} when their timeout expires, so that checks for cancellation and timeout
+   * need not read the clock.
+   */
+  private static final ScheduledExecutorService TIMEOUT_TIMER = createTimeoutTimer();
+
   final StatementImpl statement;
 
   /**
@@ -48,7 +58,11 @@ public class Execution {
    */
   private final Map<Locus, java.sql.Statement> statements = new HashMap<Locus, java.sql.Statement>();
 
-  private State state = State.FRESH;
+  /**
+   * State of this execution. Volatile, so that {@link #checkCancelOrTimeout()} can read it without locking; writes
+   * are made while holding {@link #stateLock}.
+   */
+  private volatile State state = State.FRESH;
 
   /**
    * Lock monitor for SQL statements. All operations on {@link Execution#statements} need to be synchronized on this.
@@ -66,8 +80,9 @@ public class Execution {
   private String outOfMemoryMsg;
 
   private long startTimeMillis;
-  private long timeoutTimeMillis;
+  private long startTimeNanos;
   private long timeoutIntervalMillis;
+  private ScheduledFuture<?> timeoutFuture;
   private final QueryTiming queryTiming = new QueryTiming();
   private int phase;
   private int cellCacheHitCount;
@@ -75,6 +90,8 @@ public class Execution {
   private int cellCachePendingCount;
   private int expCacheHitCount;
   private int expCacheMissCount;
+  private int resultCacheHitCount;
+  private int resultCacheMissCount;
 
   /**
    * Execution id, global within this JVM instance.
@@ -87,6 +104,12 @@ public class Execution {
 
   private final Execution parent;
 
+  /**
+   * Account of the memory held by this execution, or null if the {@link MemoryGovernor} is not accounting for it.
+   */
+  private final AtomicReference<MemoryGovernor.Account> memoryAccount =
+    new AtomicReference<MemoryGovernor.Account>();
+
   public Execution( Statement statement, long timeoutIntervalMillis ) {
     Execution parentExec = null;
     if ( !Locus.isEmpty() ) {
@@ -113,12 +136,96 @@ public class Execution {
   public void start() {
     assert this.state == State.FRESH;
     this.startTimeMillis = System.currentTimeMillis();
-    this.timeoutTimeMillis = timeoutIntervalMillis > 0 ? this.startTimeMillis + timeoutIntervalMillis : 0L;
-    this.state = State.RUNNING;
+    this.startTimeNanos = System.nanoTime();
+    synchronized ( stateLock ) {
+      this.state = State.RUNNING;
+      scheduleTimeout();
+    }
     this.queryTiming.init( this.statement.getProfileHandler() != null );
     fireExecutionStartEvent();
   }
 
+  /**
+   * Resumes an execution which has ended, to do work that it deferred until after it ended, such as evaluating the
+   * cells of a lazy result. The timeout is re-armed for a full interval. An execution which was canceled, timed out or
+   * ran out of memory stays in that state, so the work fails at its first check. Must be followed by
+   * {@link #suspend()}. Usually called through {@link Statement#resume(Execution)}.
+   */
+  public void resume() {
+    synchronized ( stateLock ) {
+      if ( this.state == State.DONE ) {
+        this.state = State.RUNNING;
+        scheduleTimeout();
+      }
+    }
+  }
+
+  /**
+   * Ends work resumed by {@link #resume()}: cancels the timeout and releases the segments registered meanwhile, as
+   * {@link #end()} does, without firing another end event.
+   */
+  public void suspend() {
+    synchronized ( stateLock ) {
+      cancelTimeout();
+      if ( this.state == State.RUNNING ) {
+        this.state = State.DONE;
+      }
+      statements.clear();
+    }
+    unregisterSegmentRequests();
+  }
+
+  /**
+   * Schedules the timer of this execution, if it has a timeout. Must be called while holding {@link #stateLock}.
+   */
+  private void scheduleTimeout() {
+    if ( timeoutIntervalMillis > 0 ) {
+      this.timeoutFuture = TIMEOUT_TIMER.schedule( new Runnable() {
+        public void run() {
+          timeout();
+        }
+      }, timeoutIntervalMillis, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  private static ScheduledExecutorService createTimeoutTimer() {
+    final ScheduledExecutorService timer = Util.getScheduledExecutorService( 1, "mondrian.server.Execution$timeout" );
+    if ( timer instanceof ScheduledThreadPoolExecutor ) {
+      // Executions usually end before their timeout; don't keep them reachable until then.
+      ( (ScheduledThreadPoolExecutor) timer ).setRemoveOnCancelPolicy( true );
+    }
+    return timer;
+  }
+
+  /**
+   * Called by the timer when the timeout of this execution expires.
+   */
+  private void timeout() {
+    synchronized ( stateLock ) {
+      if ( this.state == State.RUNNING ) {
+        this.state = State.TIMEOUT;
+      }
+    }
+  }
+
+  /**
+   * Cancels the timer of this execution, if any. Must be called while holding {@link #stateLock}.
+   */
+  private void cancelTimeout() {
+    if ( timeoutFuture != null ) {
+      timeoutFuture.cancel( false );
+      timeoutFuture = null;
+    }
+  }
+
+  /**
+   * Returns the name of the cube of the query being executed, or null.
+   */
+  public String getCubeName() {
+    final Query query = statement.query;
+    return query != null && query.getCube() != null ? query.getCube().getName() : null;
+  }
+
   private String getMdx() {
     final Query query = statement.query;
     return query != null ? Util.unparse( query ) : null;
@@ -144,6 +251,7 @@ public class Execution {
   public void cancel() {
     synchronized ( stateLock ) {
       this.state = State.CANCELED;
+      cancelTimeout();
       this.cancelSqlStatements();
       if ( parent != null ) {
         parent.cancel();
@@ -164,22 +272,70 @@ public class Execution {
       assert msg != null;
       this.outOfMemoryMsg = msg;
       this.state = State.ERROR;
+      cancelTimeout();
     }
   }
 
+  /**
+   * Charges an estimate of memory allocated on behalf of this execution to its account with the
+   * {@link MemoryGovernor}. If the execution exceeds its budget, it will fail at its next check for cancellation.
+   *
+   * @param bytes
+   *          Estimated number of bytes allocated
+   */
+  public void allocateMemory( long bytes ) {
+    final MemoryGovernor.Account account = memoryAccount.get();
+    if ( account != null ) {
+      account.allocate( bytes );
+    } else if ( parent != null ) {
+      parent.allocateMemory( bytes );
+    }
+  }
+
+  /**
+   * Returns the estimated number of bytes held by this execution, or 0 if its memory is not being accounted for.
+   */
+  public long getMemoryBytes() {
+    final MemoryGovernor.Account account = memoryAccount.get();
+    return account == null ? 0L : account.getBytes();
+  }
+
+  MemoryGovernor.Account setMemoryAccount( MemoryGovernor.Account account ) {
+    return memoryAccount.getAndSet( account );
+  }
+
   /**
    * Checks the state of this Execution and throws an exception if something is wrong. This method should be called by
    * the user thread.
    * <p>
    * It won't throw anything if the query has successfully completed.
+   * <p>
+   * The check reads the volatile state of this execution and its parents, without locking and without reading the
+   * clock; a timer moves the execution to {@link State#TIMEOUT} when its timeout expires. It is therefore cheap enough
+   * to call from inner loops.
    * 
    * @throws MondrianException
    *           The exception encountered.
    */
-  public synchronized void checkCancelOrTimeout() throws MondrianException {
+  public void checkCancelOrTimeout() throws MondrianException {
     if ( parent != null ) {
       parent.checkCancelOrTimeout();
     }
+    switch ( this.state ) {
+      case CANCELED:
+      case TIMEOUT:
+      case ERROR:
+        throwCancelOrTimeout();
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Throws the exception for the state of this execution, after sending an end event.
+   */
+  private synchronized void throwCancelOrTimeout() throws MondrianException {
     boolean needInterrupt = false;
     switch ( this.state ) {
       case CANCELED:
@@ -198,17 +354,9 @@ public class Execution {
           }
         }
         throw MondrianResource.instance().QueryCanceled.ex();
-      case RUNNING:
       case TIMEOUT:
-        if ( timeoutTimeMillis > 0 ) {
-          long currTime = System.currentTimeMillis();
-          if ( currTime > timeoutTimeMillis ) {
-            this.state = State.TIMEOUT;
-            fireExecutionEndEvent();
-            throw MondrianResource.instance().QueryTimeout.ex( timeoutIntervalMillis / 1000 );
-          }
-        }
-        break;
+        fireExecutionEndEvent();
+        throw MondrianResource.instance().QueryTimeout.ex( timeoutIntervalMillis / 1000 );
       case ERROR:
         try {
           if ( Thread.interrupted() ) {
@@ -225,6 +373,8 @@ public class Execution {
           }
         }
         throw new MemoryLimitExceededException( outOfMemoryMsg );
+      default:
+        break;
     }
   }
 
@@ -238,13 +388,8 @@ public class Execution {
     if ( parent != null && parent.isCancelOrTimeout() ) {
       return true;
     }
-    synchronized ( stateLock ) {
-      if ( state == State.CANCELED || state == State.ERROR || state == State.TIMEOUT || ( state == State.RUNNING
-          && timeoutTimeMillis > 0 && System.currentTimeMillis() > timeoutTimeMillis ) ) {
-        return true;
-      }
-      return false;
-    }
+    final State state = this.state;
+    return state == State.CANCELED || state == State.ERROR || state == State.TIMEOUT;
   }
 
   /**
@@ -308,14 +453,20 @@ public class Execution {
 
   /**
    * Called when query execution has completed. Once query execution has ended, it is not possible to cancel or timeout
-   * the query until it starts executing again.
+   * the query until it starts executing again. Releases the memory charged to this execution by the
+   * {@link MemoryGovernor}.
    */
   public void end() {
     synchronized ( stateLock ) {
       queryTiming.done();
+      cancelTimeout();
+      final boolean started = this.state != State.FRESH;
       if ( this.state == State.FRESH || this.state == State.RUNNING ) {
         this.state = State.DONE;
       }
+      if ( started ) {
+        Metrics.MDX_EXECUTION.recordSince( startTimeNanos, getCubeName(), state.name().toLowerCase() );
+      }
       // Clear pointer to pending SQL statements
       statements.clear();
       // Unregister all segments
@@ -323,6 +474,8 @@ public class Execution {
       // Fire up a monitor event.
       fireExecutionEndEvent();
     }
+    // Stop charging memory to this execution.
+    MemoryGovernor.instance().release( this );
   }
 
   /**
@@ -390,7 +543,8 @@ public class Execution {
     final MondrianServer server = connection.getServer();
     server.getMonitor().sendEvent( new ExecutionEndEvent( this.startTimeMillis, server.getId(), connection.getId(),
         this.statement.getId(), this.id, this.phase, this.state, this.cellCacheHitCount, this.cellCacheMissCount,
-        this.cellCachePendingCount, expCacheHitCount, expCacheMissCount ) );
+        this.cellCachePendingCount, expCacheHitCount, expCacheMissCount, resultCacheHitCount,
+        resultCacheMissCount ) );
   }
 
   private void fireExecutionStartEvent() {
@@ -417,6 +571,16 @@ public class Execution {
     this.expCacheMissCount = missCount;
   }
 
+  /**
+   * Records whether this execution's result came from the result cache.
+   *
+   * @see mondrian.rolap.RolapResultCache
+   */
+  public void setResultCacheCounts( int hitCount, int missCount ) {
+    this.resultCacheHitCount = hitCount;
+    this.resultCacheMissCount = missCount;
+  }
+
   /**
    * Enumeration of the states of an Execution instance.
    */
@@ -0,0 +1,275 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.server;
+
+import mondrian.olap.MemoryLimitExceededException;
+import mondrian.olap.MondrianProperties;
+import mondrian.rolap.RolapConnection;
+import mondrian.rolap.RolapConnectionProperties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts for the memory used by each {@link Execution}, enforces per-query and per-role budgets, and admits new
+ * executions only when the server has memory for them.
+ *
+ * <p>Unlike the {@link mondrian.util.MemoryMonitor}, which watches the JVM heap and fails whichever execution happens
+ * to be listening when a threshold is crossed, the governor charges memory to the execution that holds it. Code that
+ * builds large structures for a query calls {@link Execution#allocateMemory(long)} (or {@link #allocate(long)}, which
+ * finds the execution from the current {@link Locus}) with an estimate of the bytes it has added: tuple lists grown,
+ * cells created, expression results cached, and segments loaded for the execution alone. Segments in the shared cache
+ * outlive the execution, so they are not charged. The estimates only grow until the execution ends, when
+ * {@link Execution#end()} releases them.</p>
+ *
+ * <p>If an execution's total exceeds {@link MondrianProperties#QueryMemoryLimit}, or the total of all running
+ * executions of the same role exceeds {@link MondrianProperties#RoleMemoryLimit}, the execution is marked as out of
+ * memory and fails with a {@link MemoryLimitExceededException} at its next cancellation check.</p>
+ *
+ * <p>Before an execution starts, {@link #admit} projects its memory as the moving average of the peak memory of recent
+ * executions. If the memory of the running executions plus the projection exceeds
+ * {@link MondrianProperties#ServerMemoryLimit}, the execution waits until others finish, for at most
+ * {@link MondrianProperties#MemoryAdmissionTimeout} seconds. An execution is always admitted if no other is running.</p>
+ *
+ * <p>The governor is inactive, and accounting costs nothing, while all three limits are 0.</p>
+ */
+public class MemoryGovernor {
+  private static final Logger LOGGER = LogManager.getLogger( MemoryGovernor.class );
+
+  /**
+   * Estimated size of an object reference, such as an element of a tuple list.
+   */
+  public static final int REFERENCE_BYTES = 8;
+
+  /**
+   * Estimated size of the information held for a cell of a result.
+   */
+  public static final int CELL_BYTES = 64;
+
+  /**
+   * Estimated size of an entry in an expression result cache, excluding the value.
+   */
+  public static final int EXP_CACHE_ENTRY_BYTES = 96;
+
+  private static final long MEGABYTE = 1024L * 1024L;
+
+  private static final MemoryGovernor INSTANCE = new MemoryGovernor();
+
+  /**
+   * Accounts of the running executions, in the order they were admitted.
+   */
+  private final Set<Account> running = new LinkedHashSet<Account>();
+
+  /**
+   * Total bytes held by the running executions of each role.
+   */
+  private final Map<String, AtomicLong> roleBytes = new HashMap<String, AtomicLong>();
+
+  /**
+   * Moving average of the peak bytes of finished executions.
+   */
+  private long projectedBytes;
+
+  MemoryGovernor() {
+  }
+
+  /**
+   * Returns the memory governor of this JVM.
+   */
+  public static MemoryGovernor instance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Charges memory to the execution of the current thread, if any.
+   *
+   * @param bytes Estimated number of bytes allocated
+   */
+  public static void allocate( long bytes ) {
+    if ( !Locus.isEmpty() ) {
+      final Execution execution = Locus.peek().execution;
+      if ( execution != null ) {
+        execution.allocateMemory( bytes );
+      }
+    }
+  }
+
+  /**
+   * Waits until the server has memory for an execution, then starts accounting for its memory.
+   *
+   * <p>Does nothing if no limit is set.</p>
+   *
+   * @param execution Execution about to start
+   * @throws MemoryLimitExceededException if the execution is not admitted within the admission timeout
+   */
+  public void admit( Execution execution ) {
+    final MondrianProperties properties = MondrianProperties.instance();
+    final long queryLimit = properties.QueryMemoryLimit.get() * MEGABYTE;
+    final long roleLimit = properties.RoleMemoryLimit.get() * MEGABYTE;
+    final long serverLimit = properties.ServerMemoryLimit.get() * MEGABYTE;
+    if ( queryLimit <= 0 && roleLimit <= 0 && serverLimit <= 0 ) {
+      return;
+    }
+    final long timeoutMillis = properties.MemoryAdmissionTimeout.get() * 1000L;
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized ( this ) {
+      while ( serverLimit > 0 && !running.isEmpty() && getRunningBytes() + projectedBytes > serverLimit ) {
+        execution.checkCancelOrTimeout();
+        final long remaining = deadline - System.currentTimeMillis();
+        if ( remaining <= 0 ) {
+          throw new MemoryLimitExceededException( "Query not admitted within " + timeoutMillis / 1000
+            + " seconds: running queries hold " + getRunningBytes() + " bytes, query is projected to use "
+            + projectedBytes + " bytes, limit is " + serverLimit + " bytes" );
+        }
+        try {
+          // Wake up at least once a second to notice cancellation.
+          wait( Math.min( remaining, 1000L ) );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new MemoryLimitExceededException( "Interrupted while waiting for memory" );
+        }
+      }
+      final String role = getRole( execution );
+      AtomicLong bytes = roleBytes.get( role );
+      if ( bytes == null ) {
+        bytes = new AtomicLong();
+        roleBytes.put( role, bytes );
+      }
+      final Account account =
+        new Account( execution, role, bytes, queryLimit, roleLimit, projectedBytes );
+      running.add( account );
+      execution.setMemoryAccount( account );
+    }
+  }
+
+  /**
+   * Stops accounting for an execution's memory, and lets waiting executions start. Safe to call more than once.
+   *
+   * @param execution Execution which has finished
+   */
+  public void release( Execution execution ) {
+    final Account account = execution.setMemoryAccount( null );
+    if ( account == null ) {
+      return;
+    }
+    synchronized ( this ) {
+      if ( !running.remove( account ) ) {
+        return;
+      }
+      final long peak = account.bytes.get();
+      if ( account.roleBytes.addAndGet( -peak ) <= 0 && !isRoleRunning( account.role ) ) {
+        roleBytes.remove( account.role );
+      }
+      projectedBytes = projectedBytes == 0 ? peak : ( projectedBytes * 7 + peak ) / 8;
+      notifyAll();
+    }
+    if ( LOGGER.isDebugEnabled() ) {
+      LOGGER.debug( "Execution " + execution.getId() + " used " + account.bytes.get() + " bytes" );
+    }
+  }
+
+  /**
+   * Returns the total bytes held by running executions, counting an execution that has used less than its projection
+   * at its projection.
+   */
+  private long getRunningBytes() {
+    long total = 0;
+    for ( Account account : running ) {
+      total += Math.max( account.bytes.get(), account.reservedBytes );
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of executions whose memory is being accounted for.
+   */
+  synchronized int getRunningCount() {
+    return running.size();
+  }
+
+  private boolean isRoleRunning( String role ) {
+    for ( Account account : running ) {
+      if ( account.role.equals( role ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String getRole( Execution execution ) {
+    final Statement statement = execution.getMondrianStatement();
+    if ( statement == null ) {
+      return "";
+    }
+    final RolapConnection connection = statement.getMondrianConnection();
+    final String role = connection == null ? null
+      : connection.getConnectInfo().get( RolapConnectionProperties.Role.name() );
+    return role == null ? "" : role;
+  }
+
+  /**
+   * Memory held by a running execution.
+   */
+  static class Account {
+    private final Execution execution;
+    private final String role;
+    private final AtomicLong roleBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final long queryLimit;
+    private final long roleLimit;
+    private final long reservedBytes;
+    private volatile boolean exceeded;
+
+    Account( Execution execution, String role, AtomicLong roleBytes, long queryLimit, long roleLimit,
+             long reservedBytes ) {
+      this.execution = execution;
+      this.role = role;
+      this.roleBytes = roleBytes;
+      this.queryLimit = queryLimit;
+      this.roleLimit = roleLimit;
+      this.reservedBytes = reservedBytes;
+    }
+
+    /**
+     * Adds to the bytes held by the execution, and marks the execution out of memory if a budget is exceeded.
+     */
+    void allocate( long n ) {
+      final long total = bytes.addAndGet( n );
+      final long roleTotal = roleBytes.addAndGet( n );
+      if ( exceeded ) {
+        return;
+      }
+      if ( queryLimit > 0 && total > queryLimit ) {
+        exceeded = true;
+        execution.setOutOfMemory( "Query memory limit exceeded: query holds an estimated " + total
+          + " bytes, limit is " + queryLimit + " bytes" );
+      } else if ( roleLimit > 0 && roleTotal > roleLimit ) {
+        exceeded = true;
+        execution.setOutOfMemory( "Role memory limit exceeded: queries of role '" + role + "' hold an estimated "
+          + roleTotal + " bytes, limit is " + roleLimit + " bytes" );
+      }
+    }
+
+    long getBytes() {
+      return bytes.get();
+    }
+  }
+}
+
+// End MemoryGovernor.java
@@ -14,6 +14,7 @@ package mondrian.server;
 
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
+import mondrian.rolap.RolapConnectionPool;
 import mondrian.rolap.RolapUtil;
 import mondrian.server.monitor.*;
 import mondrian.server.monitor.MonitorMXBean;
@@ -134,6 +135,11 @@ class MonitorImpl implements Monitor, MonitorMXBean {
     return (List<SqlStatementInfo>) execute( new SqlStatementsCommand() );
   }
 
+  public List<ConnectionPoolInfo> getConnectionPools() {
+    // Pools keep their own counters, so there is no need to go via the actor.
+    return RolapConnectionPool.instance().getPoolInfos();
+  }
+
   private Object execute( Command command ) {
     return ACTOR.execute( handler, command );
   }
@@ -226,7 +232,8 @@ class MonitorImpl implements Monitor, MonitorMXBean {
                   - aggExec.cellCacheSegmentDeleteCount ), aggExec.cellCacheSegmentCreateCount,
           aggExec.cellCacheSegmentCreateViaExternalCount, aggExec.cellCacheSegmentDeleteViaExternalCount,
           aggExec.cellCacheSegmentCreateViaRollupCount, aggExec.cellCacheSegmentCreateViaSqlCount,
-          aggExec.cellCacheSegmentCellCount, aggExec.cellCacheSegmentCoordinateSum );
+          aggExec.cellCacheSegmentCellCount, aggExec.cellCacheSegmentCoordinateSum, aggExec.resultCacheHitCount,
+          aggExec.resultCacheMissCount );
     }
   }
 
@@ -314,6 +321,8 @@ class MonitorImpl implements Monitor, MonitorMXBean {
     private final String stack;
     private int expCacheHitCount;
     private int expCacheMissCount;
+    private int resultCacheHitCount;
+    private int resultCacheMissCount;
 
     public MutableExecutionInfo( MutableStatementInfo stmt, long executionId, String stack ) {
       this.stmt = stmt;
@@ -619,6 +628,8 @@ class MonitorImpl implements Monitor, MonitorMXBean {
       exec.cellCachePendingCountDelta = 0;
       exec.expCacheHitCount += event.expCacheHitCount;
       exec.expCacheMissCount += event.expCacheMissCount;
+      exec.resultCacheHitCount += event.resultCacheHitCount;
+      exec.resultCacheMissCount += event.resultCacheMissCount;
     }
 
     public Object visit( CellCacheSegmentCreateEvent event ) {
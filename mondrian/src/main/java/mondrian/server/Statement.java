@@ -152,6 +152,24 @@ public interface Statement {
      */
     void start(Execution execution);
 
+    /**
+     * Resumes an execution which has ended, to do work that it deferred,
+     * such as evaluating the cells of a result whose cells are evaluated on
+     * demand. Until {@link #suspend(Execution)}, the execution can time out
+     * again, and, if this statement is not running another execution,
+     * {@link #cancel()} cancels it.
+     *
+     * @param execution Execution which has ended
+     */
+    void resume(Execution execution);
+
+    /**
+     * Suspends an execution resumed by {@link #resume(Execution)}.
+     *
+     * @param execution Execution
+     */
+    void suspend(Execution execution);
+
     /**
      * Returns the ID of this statement, unique within the JVM.
      *
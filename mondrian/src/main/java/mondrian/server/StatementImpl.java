@@ -80,6 +80,27 @@ public abstract class StatementImpl implements Statement {
         }
     }
 
+    public synchronized void resume(Execution execution) {
+        if (execution.statement != this) {
+            throw new AssertionError();
+        }
+        if (this.execution == null) {
+            this.execution = execution;
+            if (cancelBeforeStart) {
+                execution.cancel();
+                cancelBeforeStart = false;
+            }
+        }
+        execution.resume();
+    }
+
+    public synchronized void suspend(Execution execution) {
+        if (this.execution == execution) {
+            this.execution = null;
+        }
+        execution.suspend();
+    }
+
     public synchronized void cancel() throws SQLException {
         if (execution == null) {
             // There is no current execution. Flag that we need to cancel as
@@ -0,0 +1,146 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.server.monitor;
+
+/**
+ * Information about a JDBC connection pool created by Mondrian for a
+ * connect string or data source.
+ *
+ * <p>Unlike the other objects returned by the {@link Monitor}, it is a
+ * snapshot of the pool's own counters, not of events.</p>
+ */
+public class ConnectionPoolInfo extends Info {
+    /**
+     * Name of the pool: the JDBC URL, without parameters or credentials, or
+     * the name of the data source; prefixed with "<i>user</i>@" if a user
+     * name was given separately.
+     */
+    public final String name;
+
+    /**
+     * Number of connections currently borrowed from the pool.
+     */
+    public final int activeCount;
+
+    /**
+     * Number of connections currently idle in the pool.
+     */
+    public final int idleCount;
+
+    /**
+     * Number of threads currently waiting for a connection.
+     */
+    public final int waiterCount;
+
+    /**
+     * Maximum number of connections, active and idle.
+     */
+    public final int maxTotal;
+
+    /**
+     * Number of connections borrowed since the pool was created.
+     */
+    public final long borrowedCount;
+
+    /**
+     * Number of connections opened since the pool was created.
+     */
+    public final long createdCount;
+
+    /**
+     * Number of idle connections closed by the evictor since the pool was
+     * created, because they were broken or had been idle too long.
+     */
+    public final long destroyedByEvictorCount;
+
+    /**
+     * Mean time, in milliseconds, that recent borrowers waited for a
+     * connection.
+     */
+    public final long meanBorrowWaitMillis;
+
+    /**
+     * Longest time, in milliseconds, that a borrower has waited for a
+     * connection.
+     */
+    public final long maxBorrowWaitMillis;
+
+    public ConnectionPoolInfo(
+        String stack,
+        String name,
+        int activeCount,
+        int idleCount,
+        int waiterCount,
+        int maxTotal,
+        long borrowedCount,
+        long createdCount,
+        long destroyedByEvictorCount,
+        long meanBorrowWaitMillis,
+        long maxBorrowWaitMillis)
+    {
+        super(stack);
+        this.name = name;
+        this.activeCount = activeCount;
+        this.idleCount = idleCount;
+        this.waiterCount = waiterCount;
+        this.maxTotal = maxTotal;
+        this.borrowedCount = borrowedCount;
+        this.createdCount = createdCount;
+        this.destroyedByEvictorCount = destroyedByEvictorCount;
+        this.meanBorrowWaitMillis = meanBorrowWaitMillis;
+        this.maxBorrowWaitMillis = maxBorrowWaitMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    public int getIdleCount() {
+        return idleCount;
+    }
+
+    public int getWaiterCount() {
+        return waiterCount;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public long getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    public long getDestroyedByEvictorCount() {
+        return destroyedByEvictorCount;
+    }
+
+    public long getMeanBorrowWaitMillis() {
+        return meanBorrowWaitMillis;
+    }
+
+    public long getMaxBorrowWaitMillis() {
+        return maxBorrowWaitMillis;
+    }
+}
+
+// End ConnectionPoolInfo.java
@@ -26,6 +26,8 @@ public class ExecutionEndEvent extends ExecutionEvent {
   public final int cellCachePendingCount;
   public final int expCacheHitCount;
   public final int expCacheMissCount;
+  public final int resultCacheHitCount;
+  public final int resultCacheMissCount;
 
   /**
    * Creates an ExecutionEndEvent.
@@ -50,10 +52,14 @@ public class ExecutionEndEvent extends ExecutionEvent {
    *          Number of cell requests for which cell was not in cache
    * @param cellCachePendingCount
    *          Number of cell requests for which cell was
+   * @param resultCacheHitCount
+   *          1 if the result was found in the result cache, otherwise 0
+   * @param resultCacheMissCount
+   *          1 if the result was looked up in the result cache but not found, otherwise 0
    */
   public ExecutionEndEvent( long timestamp, int serverId, int connectionId, long statementId, long executionId,
       int phaseCount, Execution.State state, int cellCacheHitCount, int cellCacheMissCount, int cellCachePendingCount,
-      int expCacheHitCount, int expCacheMissCount ) {
+      int expCacheHitCount, int expCacheMissCount, int resultCacheHitCount, int resultCacheMissCount ) {
     super( timestamp, serverId, connectionId, statementId, executionId );
     this.phaseCount = phaseCount;
     this.state = state;
@@ -62,6 +68,8 @@ public class ExecutionEndEvent extends ExecutionEvent {
     this.cellCachePendingCount = cellCachePendingCount;
     this.expCacheHitCount = expCacheHitCount;
     this.expCacheMissCount = expCacheMissCount;
+    this.resultCacheHitCount = resultCacheHitCount;
+    this.resultCacheMissCount = resultCacheMissCount;
   }
 
   @Override
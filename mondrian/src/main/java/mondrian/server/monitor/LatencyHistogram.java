@@ -0,0 +1,171 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.server.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of latencies, recorded without locking.
+ *
+ * <p>Buckets are log-linear, as in an HDR histogram: each power of two between about a microsecond and about two
+ * minutes is split into {@link #SUB_BUCKET_COUNT} buckets of equal width, so the upper bound of a bucket is within 25%
+ * of any value in it. Shorter latencies are counted in the first bucket, longer ones in an overflow bucket.</p>
+ *
+ * <p>{@link #record(long)} increments one element of an {@link AtomicLongArray}, so any number of threads can record
+ * at once. A reader may see a sample in one counter and not yet in another; {@link Metrics} derives the total count
+ * from the buckets so that the buckets it writes are consistent.</p>
+ */
+public class LatencyHistogram {
+  /**
+   * Number of bits of a value, after its leading bit, that select its bucket within a power of two.
+   */
+  private static final int SUB_BUCKET_BITS = 2;
+
+  /**
+   * Number of buckets per power of two.
+   */
+  public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Values up to 2<sup>MIN_EXPONENT</sup> nanoseconds (about a microsecond) are counted in the first bucket.
+   */
+  private static final int MIN_EXPONENT = 10;
+
+  /**
+   * Values above 2<sup>MAX_EXPONENT</sup> nanoseconds (about 137 seconds) are counted in the overflow bucket.
+   */
+  private static final int MAX_EXPONENT = 37;
+
+  private static final int BUCKET_COUNT = 2 + ( MAX_EXPONENT - MIN_EXPONENT ) * SUB_BUCKET_COUNT;
+
+  private static final long[] UPPER_BOUNDS = new long[ BUCKET_COUNT ];
+
+  static {
+    UPPER_BOUNDS[ 0 ] = 1L << MIN_EXPONENT;
+    for ( int i = 1; i < BUCKET_COUNT - 1; i++ ) {
+      final int exponent = MIN_EXPONENT + ( i - 1 ) / SUB_BUCKET_COUNT;
+      final int subBucket = ( i - 1 ) % SUB_BUCKET_COUNT;
+      UPPER_BOUNDS[ i ] = (long) ( SUB_BUCKET_COUNT + subBucket + 1 ) << ( exponent - SUB_BUCKET_BITS );
+    }
+    UPPER_BOUNDS[ BUCKET_COUNT - 1 ] = Long.MAX_VALUE;
+  }
+
+  private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+  private final AtomicLong sumNanos = new AtomicLong();
+
+  /**
+   * Creates an empty histogram.
+   */
+  public LatencyHistogram() {
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos Latency in nanoseconds; negative values are counted as zero
+   */
+  public void record( long nanos ) {
+    if ( nanos < 0 ) {
+      nanos = 0;
+    }
+    counts.incrementAndGet( bucketOf( nanos ) );
+    sumNanos.addAndGet( nanos );
+  }
+
+  /**
+   * Returns the index of the bucket that holds a value. A bucket holds the values greater than the upper bound of the
+   * previous bucket and not greater than its own.
+   */
+  static int bucketOf( long nanos ) {
+    // Bucket ranges include their upper bound; shift by one so that a
+    // power of two falls at the top of a bucket, not the bottom.
+    final long v = nanos - 1;
+    if ( v < 1L << MIN_EXPONENT ) {
+      return 0;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros( v );
+    if ( exponent >= MAX_EXPONENT ) {
+      return BUCKET_COUNT - 1;
+    }
+    final int subBucket = (int) ( v >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKET_COUNT - 1 );
+    return 1 + ( exponent - MIN_EXPONENT ) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * Returns the number of buckets, including the overflow bucket.
+   */
+  public static int getBucketCount() {
+    return BUCKET_COUNT;
+  }
+
+  /**
+   * Returns the largest value, in nanoseconds, counted in a bucket; {@link Long#MAX_VALUE} for the overflow bucket.
+   */
+  public static long getUpperBound( int bucket ) {
+    return UPPER_BOUNDS[ bucket ];
+  }
+
+  /**
+   * Returns the number of values recorded in a bucket.
+   */
+  public long getCount( int bucket ) {
+    return counts.get( bucket );
+  }
+
+  /**
+   * Returns the number of values recorded.
+   */
+  public long getCount() {
+    long count = 0;
+    for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+      count += counts.get( i );
+    }
+    return count;
+  }
+
+  /**
+   * Returns the sum of the values recorded, in nanoseconds.
+   */
+  public long getSumNanos() {
+    return sumNanos.get();
+  }
+
+  /**
+   * Returns an upper bound for the value at a given quantile, in nanoseconds, or 0 if no values have been recorded.
+   *
+   * @param quantile Quantile, between 0 and 1; for example 0.99 for the 99th percentile
+   */
+  public long getValueAtQuantile( double quantile ) {
+    final long[] snapshot = new long[ BUCKET_COUNT ];
+    long count = 0;
+    for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+      snapshot[ i ] = counts.get( i );
+      count += snapshot[ i ];
+    }
+    if ( count == 0 ) {
+      return 0;
+    }
+    final long rank = Math.max( 1, (long) Math.ceil( quantile * count ) );
+    long cumulative = 0;
+    for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+      cumulative += snapshot[ i ];
+      if ( cumulative >= rank ) {
+        return UPPER_BOUNDS[ i ];
+      }
+    }
+    return UPPER_BOUNDS[ BUCKET_COUNT - 1 ];
+  }
+}
+
+// End LatencyHistogram.java
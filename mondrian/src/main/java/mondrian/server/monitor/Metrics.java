@@ -0,0 +1,267 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.server.monitor;
+
+import mondrian.olap.MondrianProperties;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency histograms of the server, for alerting on percentiles rather than averages.
+ *
+ * <p>The {@link Monitor} processes events on a single actor thread and keeps cumulative counters. The histograms here
+ * are updated directly by the thread that measured the latency, without locking, and are exposed in Prometheus text
+ * format by {@link #write(Writer)} (see {@code mondrian.web.servlet.MetricsServlet}).</p>
+ *
+ * <p>Each {@link Family} has a fixed list of label names, and holds one {@link LatencyHistogram} per combination of
+ * label values. To bound memory, a family holds at most {@link #MAX_SERIES} combinations; further combinations are
+ * counted under the value {@code "other"}.</p>
+ *
+ * <p>Recording is switched off by {@link MondrianProperties#LatencyMetrics}.</p>
+ */
+public class Metrics {
+  /**
+   * Maximum number of label value combinations in a family.
+   */
+  public static final int MAX_SERIES = 1000;
+
+  private static final List<Family> FAMILIES = new ArrayList<Family>();
+
+  /**
+   * Time to execute an MDX statement, by cube and final state.
+   */
+  public static final Family MDX_EXECUTION =
+    new Family( "mondrian_mdx_execution_seconds", "Time to execute an MDX statement.", "cube", "state" );
+
+  /**
+   * Time spent in each phase of executing an MDX query (slicer, axes, cells), by cube.
+   */
+  public static final Family MDX_PHASE =
+    new Family( "mondrian_mdx_phase_seconds", "Time spent in a phase of executing an MDX query.", "cube", "phase" );
+
+  /**
+   * Time for the database to execute a SQL statement, until the first row can be read, by purpose.
+   */
+  public static final Family SQL_EXECUTE =
+    new Family( "mondrian_sql_execute_seconds", "Time to execute a SQL statement.", "purpose" );
+
+  /**
+   * Time from the execution of a SQL statement until it is closed, which is mostly the time to fetch its rows, by
+   * purpose.
+   */
+  public static final Family SQL_FETCH =
+    new Family( "mondrian_sql_fetch_seconds", "Time to fetch the rows of a SQL statement.", "purpose" );
+
+  /**
+   * Time to load a batch of segments from the database, by cube.
+   */
+  public static final Family SEGMENT_LOAD =
+    new Family( "mondrian_segment_load_seconds", "Time to load segments from the database.", "cube" );
+
+  /**
+   * Time to roll up a segment from cached segments, by cube.
+   */
+  public static final Family SEGMENT_ROLLUP =
+    new Family( "mondrian_segment_rollup_seconds", "Time to roll up a segment from cached segments.", "cube" );
+
+  /**
+   * Time to look up the body of a segment in the segment caches, by cube and whether it was found.
+   */
+  public static final Family CACHE_LOOKUP =
+    new Family( "mondrian_segment_cache_lookup_seconds", "Time to look up a segment in the segment cache.", "cube",
+      "result" );
+
+  /**
+   * Time spent waiting for a shared resource: a thread to execute a query or load segments, a permit to run SQL, or
+   * the segment cache manager.
+   */
+  public static final Family QUEUE_WAIT =
+    new Family( "mondrian_queue_wait_seconds", "Time spent waiting in a queue.", "queue" );
+
+  /**
+   * Time spent waiting to borrow a connection from a JDBC connection pool created by Mondrian, by pool.
+   */
+  public static final Family POOL_WAIT =
+    new Family( "mondrian_jdbc_pool_wait_seconds", "Time spent waiting for a pooled JDBC connection.", "pool" );
+
+  private Metrics() {
+  }
+
+  /**
+   * Returns whether latencies are being recorded.
+   */
+  public static boolean isEnabled() {
+    return MondrianProperties.instance().LatencyMetrics.get();
+  }
+
+  /**
+   * Returns the metric families, in the order they are written.
+   */
+  public static List<Family> getFamilies() {
+    return Collections.unmodifiableList( FAMILIES );
+  }
+
+  /**
+   * Discards all recorded latencies.
+   */
+  public static void reset() {
+    for ( Family family : FAMILIES ) {
+      family.series.clear();
+    }
+  }
+
+  /**
+   * Writes all histograms in the Prometheus text exposition format, version 0.0.4.
+   *
+   * @param w Writer
+   * @throws IOException on error
+   */
+  public static void write( Writer w ) throws IOException {
+    for ( Family family : FAMILIES ) {
+      family.write( w );
+    }
+  }
+
+  /**
+   * Escapes a label value for the Prometheus text format.
+   */
+  private static String escape( String value ) {
+    final StringBuilder buf = new StringBuilder( value.length() );
+    for ( int i = 0; i < value.length(); i++ ) {
+      final char c = value.charAt( i );
+      switch ( c ) {
+        case '\\':
+          buf.append( "\\\\" );
+          break;
+        case '"':
+          buf.append( "\\\"" );
+          break;
+        case '\n':
+          buf.append( "\\n" );
+          break;
+        default:
+          buf.append( c );
+      }
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Histograms of one metric, one per combination of label values.
+   */
+  public static class Family {
+    private final String name;
+    private final String help;
+    private final String[] labelNames;
+    private final ConcurrentMap<List<String>, LatencyHistogram> series =
+      new ConcurrentHashMap<List<String>, LatencyHistogram>();
+
+    private Family( String name, String help, String... labelNames ) {
+      this.name = name;
+      this.help = help;
+      this.labelNames = labelNames;
+      FAMILIES.add( this );
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Records a latency, if metrics are enabled.
+     *
+     * @param nanos       Latency in nanoseconds
+     * @param labelValues Values of the labels of this family, in order; null values are written as empty strings
+     */
+    public void record( long nanos, String... labelValues ) {
+      if ( isEnabled() ) {
+        getHistogram( labelValues ).record( nanos );
+      }
+    }
+
+    /**
+     * Records the time elapsed since a start time, if metrics are enabled.
+     *
+     * @param startNanos  Start time, as returned by {@link System#nanoTime()}
+     * @param labelValues Values of the labels of this family, in order
+     */
+    public void recordSince( long startNanos, String... labelValues ) {
+      if ( isEnabled() ) {
+        getHistogram( labelValues ).record( System.nanoTime() - startNanos );
+      }
+    }
+
+    /**
+     * Returns the histogram for a combination of label values, creating it if necessary.
+     */
+    public LatencyHistogram getHistogram( String... labelValues ) {
+      assert labelValues.length == labelNames.length : name;
+      List<String> key = Arrays.asList( labelValues );
+      LatencyHistogram histogram = series.get( key );
+      if ( histogram == null ) {
+        if ( series.size() >= MAX_SERIES ) {
+          final String[] other = new String[ labelNames.length ];
+          Arrays.fill( other, "other" );
+          key = Arrays.asList( other );
+        }
+        histogram = new LatencyHistogram();
+        final LatencyHistogram previous = series.putIfAbsent( key, histogram );
+        if ( previous != null ) {
+          histogram = previous;
+        }
+      }
+      return histogram;
+    }
+
+    void write( Writer w ) throws IOException {
+      if ( series.isEmpty() ) {
+        return;
+      }
+      w.write( "# HELP " + name + " " + help + "\n" );
+      w.write( "# TYPE " + name + " histogram\n" );
+      final int bucketCount = LatencyHistogram.getBucketCount();
+      for ( Map.Entry<List<String>, LatencyHistogram> entry : series.entrySet() ) {
+        final StringBuilder labels = new StringBuilder();
+        for ( int i = 0; i < labelNames.length; i++ ) {
+          final String value = entry.getKey().get( i );
+          labels.append( labelNames[ i ] ).append( "=\"" ).append( value == null ? "" : escape( value ) )
+            .append( "\"," );
+        }
+        final LatencyHistogram histogram = entry.getValue();
+        long cumulative = 0;
+        for ( int i = 0; i < bucketCount; i++ ) {
+          cumulative += histogram.getCount( i );
+          final String le = i == bucketCount - 1 ? "+Inf" : toSeconds( LatencyHistogram.getUpperBound( i ) );
+          w.write( name + "_bucket{" + labels + "le=\"" + le + "\"} " + cumulative + "\n" );
+        }
+        final String labelString = labels.length() == 0 ? "" : "{" + labels.substring( 0, labels.length() - 1 ) + "}";
+        w.write( name + "_sum" + labelString + " " + toSeconds( histogram.getSumNanos() ) + "\n" );
+        w.write( name + "_count" + labelString + " " + cumulative + "\n" );
+      }
+    }
+
+    private static String toSeconds( long nanos ) {
+      return Double.toString( nanos / 1e9 );
+    }
+  }
+}
+
+// End Metrics.java
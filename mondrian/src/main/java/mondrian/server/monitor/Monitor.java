@@ -35,6 +35,11 @@ public interface Monitor {
 
     List<SqlStatementInfo> getSqlStatements();
 
+    /**
+     * Returns the JDBC connection pools that Mondrian has created.
+     */
+    List<ConnectionPoolInfo> getConnectionPools();
+
     /**
      * Sends an event to the monitor.
      *
@@ -28,6 +28,8 @@ public interface MonitorMXBean {
     List<StatementInfo> getStatements();
 
     List<SqlStatementInfo> getSqlStatements();
+
+    List<ConnectionPoolInfo> getConnectionPools();
 }
 
 // End MonitorMXBean.java
\ No newline at end of file
@@ -0,0 +1,425 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package mondrian.server.monitor;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Profiler that periodically samples what each running query is evaluating, and attributes CPU time, cells and SQL
+ * statements to MDX expressions across queries.
+ *
+ * <p>While a query runs, its thread keeps a stack of the expressions it is evaluating: the slicer, an axis, the cells
+ * of the query body, a named set, a calculated member. Entering an expression allocates one {@link Frame}; there is no
+ * lock and no clock read. Every {@link MondrianProperties#ProfilerSampleInterval} milliseconds a daemon thread reads
+ * the stack of each running query and charges it with the samples, the thread's CPU time, and the cells and SQL
+ * statements counted since the previous sample. The stack is thus statistically accurate without wrapping each
+ * {@link mondrian.calc.Calc}, as {@code RolapProfilingEvaluator} does for a single query.</p>
+ *
+ * <p>Stacks are aggregated per cube, and written by {@link #write} in the collapsed format read by flame graph tools:
+ * one line per stack, frames separated by semicolons, followed by a count. The count at a stack is the self cost of
+ * its last frame; {@link #getSelfCost} sums it per expression.</p>
+ */
+public class SamplingProfiler {
+  private static final Logger LOGGER = LogManager.getLogger( SamplingProfiler.class );
+
+  /**
+   * Maximum number of distinct stacks kept per cube. Further stacks are counted under {@link #OTHER_STACK}.
+   */
+  public static final int MAX_STACKS = 10000;
+
+  private static final String QUERY_STACK = "(query)";
+  private static final String OTHER_STACK = "(other)";
+
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+  private static final ScheduledExecutorService SAMPLER =
+    Util.getScheduledExecutorService( 1, "mondrian.server.monitor.SamplingProfiler$sampler" );
+
+  private static final Set<ThreadProfile> ACTIVE =
+    Collections.newSetFromMap( new ConcurrentHashMap<ThreadProfile, Boolean>() );
+
+  private static final ThreadLocal<ThreadProfile> CURRENT = new ThreadLocal<ThreadProfile>();
+
+  /**
+   * Aggregated costs, by cube name then by collapsed stack.
+   */
+  private static final ConcurrentMap<String, ConcurrentMap<String, Cost>> PROFILES =
+    new ConcurrentHashMap<String, ConcurrentMap<String, Cost>>();
+
+  private static ScheduledFuture<?> samplerFuture;
+  private static volatile int samplerIntervalMillis;
+
+  /**
+   * Measure by which stacks are weighted.
+   */
+  public enum Weight {
+    /** Number of times the stack was sampled. */
+    SAMPLES,
+    /** CPU time, in microseconds. */
+    CPU,
+    /** Number of stored cells read. */
+    CELLS,
+    /** Number of SQL statements issued to load cells. */
+    SQL
+  }
+
+  private SamplingProfiler() {
+  }
+
+  /**
+   * Starts profiling a query on the current thread.
+   *
+   * @param cubeName Name of the query's cube
+   * @return Profile of the thread, or null if profiling is disabled
+   */
+  public static ThreadProfile begin( String cubeName ) {
+    final int interval = MondrianProperties.instance().ProfilerSampleInterval.get();
+    if ( interval <= 0 ) {
+      return null;
+    }
+    if ( interval != samplerIntervalMillis ) {
+      schedule( interval );
+    }
+    final ThreadProfile profile = new ThreadProfile( Thread.currentThread(), cubeName == null ? "" : cubeName );
+    profile.sampledCpuNanos = getCpuNanos( profile.threadId );
+    ACTIVE.add( profile );
+    CURRENT.set( profile );
+    return profile;
+  }
+
+  /**
+   * Stops profiling a query, and charges the cells and SQL statements counted since the last sample to its current
+   * stack.
+   *
+   * @param profile Profile returned by {@link #begin}, or null
+   */
+  public static void end( ThreadProfile profile ) {
+    if ( profile == null ) {
+      return;
+    }
+    ACTIVE.remove( profile );
+    if ( CURRENT.get() == profile ) {
+      CURRENT.remove();
+    }
+    sample( profile, false );
+  }
+
+  /**
+   * Pushes an expression onto the stack of a query, if it is being profiled.
+   *
+   * @param profile Profile of the query, or null
+   * @param name    Description of the expression
+   * @return Value to pass to {@link #exit}
+   */
+  public static Frame enter( ThreadProfile profile, String name ) {
+    return profile == null ? null : profile.enter( name );
+  }
+
+  /**
+   * Pops expressions off the stack of a query, if it is being profiled.
+   *
+   * @param profile  Profile of the query, or null
+   * @param previous Value returned by the matching call to {@link #enter}
+   */
+  public static void exit( ThreadProfile profile, Frame previous ) {
+    if ( profile != null ) {
+      profile.exit( previous );
+    }
+  }
+
+  /**
+   * Counts SQL statements issued by the query running on the current thread, if it is being profiled.
+   *
+   * @param count Number of statements
+   */
+  public static void countSql( int count ) {
+    final ThreadProfile profile = CURRENT.get();
+    if ( profile != null ) {
+      profile.sqlCount += count;
+    }
+  }
+
+  private static synchronized void schedule( int interval ) {
+    if ( interval == samplerIntervalMillis ) {
+      return;
+    }
+    if ( samplerFuture != null ) {
+      samplerFuture.cancel( false );
+    }
+    samplerFuture = SAMPLER.scheduleAtFixedRate( new Runnable() {
+      public void run() {
+        try {
+          for ( ThreadProfile profile : ACTIVE ) {
+            sample( profile, true );
+          }
+        } catch ( Throwable e ) {
+          // Don't let an exception cancel future samples.
+          LOGGER.warn( "Error while sampling queries", e );
+        }
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS );
+    samplerIntervalMillis = interval;
+  }
+
+  private static long getCpuNanos( long threadId ) {
+    if ( !THREAD_MX_BEAN.isThreadCpuTimeSupported() || !THREAD_MX_BEAN.isThreadCpuTimeEnabled() ) {
+      return -1;
+    }
+    return THREAD_MX_BEAN.getThreadCpuTime( threadId );
+  }
+
+  /**
+   * Charges the current stack of a query with the costs incurred since the previous sample. Called by the sampler, and
+   * by tests.
+   */
+  static void sample( ThreadProfile profile, boolean countSample ) {
+    synchronized ( profile ) {
+      final Frame top = profile.top;
+      final long cpuNanos = getCpuNanos( profile.threadId );
+      final long cpuDelta =
+        cpuNanos >= 0 && profile.sampledCpuNanos >= 0 ? cpuNanos - profile.sampledCpuNanos : 0;
+      final long cellCount = profile.cellCount;
+      final long sqlCount = profile.sqlCount;
+      final long cellDelta = cellCount - profile.sampledCellCount;
+      final long sqlDelta = sqlCount - profile.sampledSqlCount;
+      profile.sampledCpuNanos = cpuNanos;
+      profile.sampledCellCount = cellCount;
+      profile.sampledSqlCount = sqlCount;
+      if ( !countSample && cpuDelta <= 0 && cellDelta <= 0 && sqlDelta <= 0 ) {
+        return;
+      }
+      final Cost cost = getCost( profile.cubeName, top == null ? QUERY_STACK : top.getPath() );
+      if ( countSample ) {
+        cost.samples.incrementAndGet();
+      }
+      cost.cpuNanos.addAndGet( Math.max( cpuDelta, 0 ) );
+      cost.cells.addAndGet( cellDelta );
+      cost.sql.addAndGet( sqlDelta );
+    }
+  }
+
+  private static Cost getCost( String cubeName, String stack ) {
+    ConcurrentMap<String, Cost> costs = PROFILES.get( cubeName );
+    if ( costs == null ) {
+      costs = new ConcurrentHashMap<String, Cost>();
+      final ConcurrentMap<String, Cost> previous = PROFILES.putIfAbsent( cubeName, costs );
+      if ( previous != null ) {
+        costs = previous;
+      }
+    }
+    Cost cost = costs.get( stack );
+    if ( cost == null ) {
+      if ( costs.size() >= MAX_STACKS ) {
+        stack = OTHER_STACK;
+      }
+      cost = new Cost();
+      final Cost previous = costs.putIfAbsent( stack, cost );
+      if ( previous != null ) {
+        cost = previous;
+      }
+    }
+    return cost;
+  }
+
+  /**
+   * Returns the names of the cubes for which queries have been profiled.
+   */
+  public static List<String> getCubeNames() {
+    final List<String> list = new ArrayList<String>( PROFILES.keySet() );
+    Collections.sort( list );
+    return list;
+  }
+
+  /**
+   * Writes the profile of a cube as collapsed stacks, one per line, in order of stack. Stacks with no cost are
+   * omitted.
+   *
+   * @param w        Writer
+   * @param cubeName Cube name
+   * @param weight   Measure by which to weight stacks
+   * @throws IOException on error
+   */
+  public static void write( Writer w, String cubeName, Weight weight ) throws IOException {
+    final Map<String, Cost> costs = PROFILES.get( cubeName );
+    if ( costs == null ) {
+      return;
+    }
+    for ( Map.Entry<String, Cost> entry : new TreeMap<String, Cost>( costs ).entrySet() ) {
+      final long value = entry.getValue().get( weight );
+      if ( value > 0 ) {
+        w.write( entry.getKey() + " " + value + "\n" );
+      }
+    }
+  }
+
+  /**
+   * Returns the self cost of each expression of a cube's profile: the cost of the stacks in which it is the last
+   * frame.
+   *
+   * @param cubeName Cube name
+   * @param weight   Measure of cost
+   * @return Map from expression to cost
+   */
+  public static SortedMap<String, Long> getSelfCost( String cubeName, Weight weight ) {
+    final SortedMap<String, Long> map = new TreeMap<String, Long>();
+    final Map<String, Cost> costs = PROFILES.get( cubeName );
+    if ( costs != null ) {
+      for ( Map.Entry<String, Cost> entry : costs.entrySet() ) {
+        final String stack = entry.getKey();
+        final String frame = stack.substring( stack.lastIndexOf( ';' ) + 1 );
+        final Long previous = map.get( frame );
+        final long value = entry.getValue().get( weight );
+        map.put( frame, previous == null ? value : previous + value );
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Discards all profiles.
+   */
+  public static void reset() {
+    PROFILES.clear();
+  }
+
+  /**
+   * Stack of the expressions being evaluated by a query, and the costs counted while evaluating them.
+   *
+   * <p>Only the query's thread calls {@link #enter}, {@link #exit} and {@link #countCell}. The sampler reads the
+   * counters without locking, and may miss the latest increments; they are charged at the next sample.</p>
+   */
+  public static class ThreadProfile {
+    private final long threadId;
+    private final String cubeName;
+    private volatile Frame top;
+    private long cellCount;
+    private long sqlCount;
+
+    // Values at the previous sample; guarded by this.
+    private long sampledCpuNanos;
+    private long sampledCellCount;
+    private long sampledSqlCount;
+
+    ThreadProfile( Thread thread, String cubeName ) {
+      this.threadId = thread.getId();
+      this.cubeName = cubeName;
+    }
+
+    /**
+     * Pushes an expression onto the stack.
+     *
+     * @param name Description of the expression, such as the unique name of a calculated member
+     * @return Previous top of the stack, to be passed to {@link #exit}
+     */
+    public Frame enter( String name ) {
+      final Frame previous = top;
+      top = new Frame( previous, name );
+      return previous;
+    }
+
+    /**
+     * Pops expressions off the stack.
+     *
+     * @param previous Value returned by the matching call to {@link #enter}
+     */
+    public void exit( Frame previous ) {
+      top = previous;
+    }
+
+    /**
+     * Counts a stored cell read.
+     */
+    public void countCell() {
+      ++cellCount;
+    }
+  }
+
+  /**
+   * Element of the stack of a {@link ThreadProfile}. Immutable, so that the sampler can read a stack while the query
+   * pushes and pops.
+   */
+  public static class Frame {
+    private final Frame parent;
+    private final String name;
+    private String path;
+
+    Frame( Frame parent, String name ) {
+      this.parent = parent;
+      this.name = name;
+    }
+
+    /**
+     * Returns the names of the frames from the bottom of the stack to this one, separated by semicolons.
+     */
+    String getPath() {
+      String path = this.path;
+      if ( path == null ) {
+        // Semicolons separate frames and line breaks separate stacks;
+        // neither may appear in a name.
+        final String safeName = name.replace( ';', ',' ).replace( '\n', ' ' );
+        path = parent == null ? safeName : parent.getPath() + ";" + safeName;
+        this.path = path;
+      }
+      return path;
+    }
+  }
+
+  /**
+   * Costs charged to a stack.
+   */
+  private static class Cost {
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final AtomicLong cells = new AtomicLong();
+    private final AtomicLong sql = new AtomicLong();
+
+    long get( Weight weight ) {
+      switch ( weight ) {
+        case SAMPLES:
+          return samples.get();
+        case CPU:
+          return cpuNanos.get() / 1000;
+        case CELLS:
+          return cells.get();
+        case SQL:
+          return sql.get();
+        default:
+          throw Util.unexpected( weight );
+      }
+    }
+  }
+}
+
+// End SamplingProfiler.java
@@ -105,6 +105,21 @@ public class ServerInfo extends Info {
      */
     public final int cellCoordinateCount;
 
+    /**
+     * The number of executions whose result was found in the result cache
+     * since the server started.
+     *
+     * @see mondrian.rolap.RolapResultCache
+     */
+    public final int resultCacheHitCount;
+
+    /**
+     * The number of executions whose result was looked up in the result
+     * cache but not found since the server started. Executions whose result
+     * cannot be cached are not counted.
+     */
+    public final int resultCacheMissCount;
+
     public ServerInfo(
         String stack,
         int connectionStartCount,
@@ -133,7 +148,9 @@ public class ServerInfo extends Info {
         int segmentCreateViaRollupCount,
         int segmentCreateViaSqlCount,
         int cellCount,
-        int cellCoordinateCount)
+        int cellCoordinateCount,
+        int resultCacheHitCount,
+        int resultCacheMissCount)
     {
         super(stack);
         this.connectionStartCount = connectionStartCount;
@@ -163,6 +180,8 @@ public class ServerInfo extends Info {
         this.segmentCreateViaSqlCount = segmentCreateViaSqlCount;
         this.cellCount = cellCount;
         this.cellCoordinateCount = cellCoordinateCount;
+        this.resultCacheHitCount = resultCacheHitCount;
+        this.resultCacheMissCount = resultCacheMissCount;
     }
 
     public int getCellCacheMissCount() {
@@ -300,6 +319,14 @@ public class ServerInfo extends Info {
     public int getCellCoordinateCount() {
         return cellCoordinateCount;
     }
+
+    public int getResultCacheHitCount() {
+        return resultCacheHitCount;
+    }
+
+    public int getResultCacheMissCount() {
+        return resultCacheMissCount;
+    }
 }
 
 // End ServerInfo.java
@@ -646,6 +646,42 @@ public interface Dialect {
         int type,
         int concurrency);
 
+    /**
+     * Returns the fetch size to pass to
+     * {@link java.sql.Statement#setFetchSize(int)} for a forward-only,
+     * read-only statement whose rows are consumed as a stream and should
+     * not be buffered by the driver.
+     *
+     * <p>Most drivers honor a positive fetch size, and this default
+     * implementation returns the requested size. Some drivers need a
+     * special value to switch on row-by-row streaming; for example, MySQL
+     * Connector/J streams only if the fetch size is
+     * {@link Integer#MIN_VALUE}.
+     *
+     * @param fetchSize Requested number of rows per round trip
+     * @return Fetch size hint, or 0 to leave the driver's default
+     */
+    default int getStreamingFetchSize(int fetchSize) {
+        return fetchSize;
+    }
+
+    /**
+     * Returns whether the driver honors the fetch size of a streaming
+     * statement only if auto-commit is switched off.
+     *
+     * <p>For example, the PostgreSQL driver reads the whole result into
+     * memory unless the statement runs inside a transaction. If this method
+     * returns true, Mondrian switches off auto-commit for the statement, and
+     * rolls back and restores auto-commit when the statement is closed.
+     *
+     * <p>The default implementation returns false.
+     *
+     * @return Whether streaming requires auto-commit to be off
+     */
+    default boolean requiresTransactionForStreaming() {
+        return false;
+    }
+
     /**
      * Returns the maximum length of the name of a database column or query
      * alias allowed by this dialect.
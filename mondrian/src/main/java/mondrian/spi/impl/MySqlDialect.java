@@ -31,6 +31,12 @@ public class MySqlDialect extends JdbcDialectImpl {
     private final String escapeRegexp = "(\\\\Q([^\\\\Q]+)\\\\E)";
     private final Pattern escapePattern = Pattern.compile(escapeRegexp);
 
+    /**
+     * Whether the connect string asks Connector/J to read results through a
+     * server-side cursor, in which case it honors a positive fetch size.
+     */
+    private final boolean useCursorFetch;
+
     public static final JdbcDialectFactory FACTORY =
         new JdbcDialectFactory(
             MySqlDialect.class,
@@ -59,6 +65,10 @@ public class MySqlDialect extends JdbcDialectImpl {
      */
     public MySqlDialect(Connection connection) throws SQLException {
         super(connection);
+        final String url = connection.getMetaData().getURL();
+        this.useCursorFetch =
+            url != null
+            && url.toLowerCase().contains("usecursorfetch=true");
     }
 
     /**
@@ -280,6 +290,18 @@ public class MySqlDialect extends JdbcDialectImpl {
         return true;
     }
 
+    @Override
+    public int getStreamingFetchSize(int fetchSize) {
+        if (fetchSize <= 0 || useCursorFetch) {
+            // With useCursorFetch=true, Connector/J fetches fetchSize rows
+            // per round trip.
+            return fetchSize;
+        }
+        // Otherwise Connector/J reads the whole result into memory unless
+        // the fetch size is MIN_VALUE, in which case it streams row by row.
+        return Integer.MIN_VALUE;
+    }
+
     private enum Scope {
         SESSION,
         GLOBAL
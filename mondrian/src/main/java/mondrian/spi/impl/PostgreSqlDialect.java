@@ -55,6 +55,13 @@ public class PostgreSqlDialect extends JdbcDialectImpl {
         return true;
     }
 
+    @Override
+    public boolean requiresTransactionForStreaming() {
+        // pgjdbc ignores the fetch size, and reads the whole result, while
+        // the connection is in auto-commit mode.
+        return true;
+    }
+
     @Override
     protected String generateOrderByNulls(
         String expr,
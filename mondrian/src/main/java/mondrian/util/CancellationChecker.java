@@ -15,14 +15,47 @@ package mondrian.util;
 import mondrian.olap.MondrianProperties;
 import mondrian.server.Execution;
 
+import org.eigenbase.util.property.Property;
+import org.eigenbase.util.property.Trigger;
+
 /**
  * Encapsulates cancel and timeouts checks
  *
+ * <p>A check is cheap enough to make in inner loops: it reads the
+ * execution's volatile state, without locking and without reading the clock
+ * (see {@link Execution#checkCancelOrTimeout()}), and the interval between
+ * checks is cached rather than read from the properties on each call.</p>
+ *
  * @author Yury_Bakhmutski
  * @since Jan 18, 2016
  */
 public class CancellationChecker {
 
+  /**
+   * Value of {@link MondrianProperties#CheckCancelOrTimeoutInterval}, kept
+   * up to date by a trigger.
+   */
+  private static volatile int checkCancelOrTimeoutInterval =
+      MondrianProperties.instance().CheckCancelOrTimeoutInterval.get();
+
+  static {
+    // There is no need to provide equals/hashCode methods for this
+    // Trigger since it is a singleton and is never removed.
+    MondrianProperties.instance().CheckCancelOrTimeoutInterval.addTrigger(
+        new Trigger() {
+          public boolean isPersistent() {
+            return true;
+          }
+          public int phase() {
+            return Trigger.PRIMARY_PHASE;
+          }
+          public void execute(Property property, String value) {
+            checkCancelOrTimeoutInterval = MondrianProperties.instance()
+                .CheckCancelOrTimeoutInterval.get();
+          }
+        });
+  }
+
   public static void checkCancelOrTimeout(
       int currentIteration, Execution execution)
   {
@@ -32,16 +65,12 @@ public class CancellationChecker {
   public static void checkCancelOrTimeout(
       long currentIteration, Execution execution)
   {
-    int checkCancelOrTimeoutInterval = MondrianProperties.instance()
-        .CheckCancelOrTimeoutInterval.get();
-    if (execution != null) {
-      synchronized (execution) {
-        if (checkCancelOrTimeoutInterval > 0
-            && currentIteration % checkCancelOrTimeoutInterval == 0)
-        {
-          execution.checkCancelOrTimeout();
-        }
-      }
+    final int interval = checkCancelOrTimeoutInterval;
+    if (execution != null
+        && interval > 0
+        && currentIteration % interval == 0)
+    {
+      execution.checkCancelOrTimeout();
     }
   }
 }
@@ -0,0 +1,90 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.web.servlet;
+
+import mondrian.server.monitor.Metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.*;
+
+/**
+ * <code>MetricsServlet</code> is a servlet which writes the latency
+ * histograms of {@link Metrics} in the Prometheus text exposition format,
+ * so that a Prometheus server can scrape them.
+ *
+ * <p>Deploy it alongside the XMLA servlet, for example mapped to
+ * <code>/metrics</code>. The metrics name cubes, so the servlet is off
+ * unless it is switched on, and can be restricted to a role:<ul>
+ * <li><code>enabled</code> init parameter: "true" to serve metrics;
+ *     otherwise every request gets 404 (not found).</li>
+ * <li><code>role</code> init parameter, optional: the role that the
+ *     authenticated user must have; an unauthenticated request gets 401
+ *     (unauthorized), and a user without the role gets 403 (forbidden).
+ *     Authentication itself is configured in the container, by a
+ *     <code>security-constraint</code> on the servlet's URL.</li>
+ * </ul></p>
+ */
+public class MetricsServlet extends HttpServlet {
+    private static final String CONTENT_TYPE =
+        "text/plain; version=0.0.4; charset=utf-8";
+
+    private boolean enabled;
+    private String role;
+
+    /**
+     * Initializes the servlet.
+     */
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        enabled = "true".equalsIgnoreCase(config.getInitParameter("enabled"));
+        role = config.getInitParameter("role");
+        if (role != null && role.trim().length() == 0) {
+            role = null;
+        }
+    }
+
+    protected void doGet(
+        HttpServletRequest request, HttpServletResponse response)
+        throws ServletException, IOException
+    {
+        if (!enabled) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (role != null) {
+            if (request.getRemoteUser() == null) {
+                response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+                return;
+            }
+            if (!request.isUserInRole(role)) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return;
+            }
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        final Writer writer = response.getWriter();
+        try {
+            Metrics.write(writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
+
+// End MetricsServlet.java
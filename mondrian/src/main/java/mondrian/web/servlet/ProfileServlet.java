@@ -0,0 +1,74 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package mondrian.web.servlet;
+
+import mondrian.olap.Util;
+import mondrian.server.monitor.SamplingProfiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import javax.servlet.ServletException;
+import javax.servlet.http.*;
+
+/**
+ * <code>ProfileServlet</code> is a servlet which writes the profile of a
+ * cube, as gathered by the {@link SamplingProfiler}, as collapsed stacks
+ * that flame graph tools can render.
+ *
+ * <p>Parameters:</p>
+ * <ul>
+ * <li><code>cube</code>: name of the cube; if absent, the servlet lists
+ * the names of the profiled cubes, one per line;</li>
+ * <li><code>weight</code>: <code>samples</code> (default), <code>cpu</code>
+ * (microseconds), <code>cells</code> or <code>sql</code>.</li>
+ * </ul>
+ */
+public class ProfileServlet extends HttpServlet {
+    protected void doGet(
+        HttpServletRequest request, HttpServletResponse response)
+        throws ServletException, IOException
+    {
+        final String cube = request.getParameter("cube");
+        final String weightName = request.getParameter("weight");
+        final SamplingProfiler.Weight weight =
+            weightName == null
+                ? SamplingProfiler.Weight.SAMPLES
+                : Util.lookup(
+                    SamplingProfiler.Weight.class,
+                    weightName.toUpperCase(),
+                    null);
+        if (weight == null) {
+            response.sendError(
+                HttpServletResponse.SC_BAD_REQUEST,
+                "Unknown weight '" + weightName + "'");
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/plain; charset=utf-8");
+        final Writer writer = response.getWriter();
+        try {
+            if (cube == null) {
+                for (String cubeName : SamplingProfiler.getCubeNames()) {
+                    writer.write(cubeName + "\n");
+                }
+            } else {
+                SamplingProfiler.write(writer, cube, weight);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
+
+// End ProfileServlet.java
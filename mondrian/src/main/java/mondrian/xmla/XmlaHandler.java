@@ -931,6 +931,10 @@ public class XmlaHandler {
     final boolean enableRowCount = MondrianProperties.instance().EnableTotalCount.booleanValue();
     final int[] rowCountSlot = enableRowCount ? new int[] { 0 } : null;
 
+    if ( MondrianProperties.instance().DrillThroughStreaming.get() ) {
+      return executeStreamingDrillThroughQuery( request, advanced, tabFields, rowCountSlot );
+    }
+
     try ( OlapConnection connection = getConnection( request, Collections.emptyMap() );
           OlapStatement statement = connection.createStatement();
           ResultSet resultSet = getExtra( connection )
@@ -949,6 +953,38 @@ public class XmlaHandler {
     }
   }
 
+  /**
+   * Executes a drill-through request whose rows are written to the response as they are fetched. The connection,
+   * statement and result set stay open until the returned {@link QueryResult} is closed.
+   */
+  private QueryResult executeStreamingDrillThroughQuery( XmlaRequest request, boolean advanced, String tabFields,
+                                                         int[] rowCountSlot ) throws XmlaException {
+    OlapConnection connection = null;
+    OlapStatement statement = null;
+    ResultSet resultSet = null;
+
+    try {
+      connection = getConnection( request, Collections.emptyMap() );
+      statement = connection.createStatement();
+      resultSet =
+        getExtra( connection ).executeDrillthrough( statement, request.getStatement(), advanced, tabFields,
+          rowCountSlot );
+      int rowCount = rowCountSlot != null ? rowCountSlot[ 0 ] : -1;
+
+      return new StreamingTabularRowSet( connection, statement, resultSet, rowCount );
+    } catch ( XmlaException xex ) {
+      Util.close( resultSet, statement, connection );
+      throw xex;
+    } catch ( SQLException sqle ) {
+      Util.close( resultSet, statement, connection );
+      throw new XmlaException( SERVER_FAULT_FC, HSB_DRILL_THROUGH_SQL_CODE, HSB_DRILL_THROUGH_SQL_FAULT_FS,
+        Util.newError( sqle, "Error in drill through" ) );
+    } catch ( RuntimeException e ) {
+      Util.close( resultSet, statement, connection );
+      throw new XmlaException( SERVER_FAULT_FC, HSB_DRILL_THROUGH_SQL_CODE, HSB_DRILL_THROUGH_SQL_FAULT_FS, e );
+    }
+  }
+
   private QueryResult executeQuery( XmlaRequest request ) throws XmlaException {
     final String mdx = request.getStatement();
 
@@ -1804,27 +1840,51 @@ public class XmlaHandler {
      */
     public TabularRowSet( ResultSet rs, int totalCount ) throws SQLException {
       this.totalCount = totalCount;
+      int columnCount = populateColumns( rs );
+
+      // Populate data; assume that SqlStatement is already positioned on first row (or isDone() is true), and assume
+      // that the number of rows returned is limited.
+      rows = new ArrayList<>();
+
+      while ( rs.next() ) {
+        rows.add( readRow( rs, columnCount ) );
+      }
+    }
+
+    /**
+     * Creates a TabularRowSet whose rows are not held in memory; for subclasses that produce rows on demand.
+     *
+     * @param rs         Result set, used only for its metadata
+     * @param totalCount Total number of rows. If >= 0, writes the "totalCount" attribute into the XMLA response.
+     * @param streaming  Must be true
+     * @throws SQLException on error
+     */
+    protected TabularRowSet( ResultSet rs, int totalCount, boolean streaming ) throws SQLException {
+      assert streaming;
+      this.totalCount = totalCount;
+      populateColumns( rs );
+      rows = Collections.emptyList();
+    }
+
+    private int populateColumns( ResultSet rs ) throws SQLException {
       ResultSetMetaData md = rs.getMetaData();
       int columnCount = md.getColumnCount();
 
-      // populate column defs
       for ( int i = 0; i < columnCount; i++ ) {
         columns.add( new Column( md.getColumnLabel( i + 1 ), md.getColumnType( i + 1 ), md.getScale( i + 1 ) ) );
       }
 
-      // Populate data; assume that SqlStatement is already positioned on first row (or isDone() is true), and assume
-      // that the number of rows returned is limited.
-      rows = new ArrayList<>();
-
-      while ( rs.next() ) {
-        Object[] row = new Object[ columnCount ];
+      return columnCount;
+    }
 
-        for ( int i = 0; i < columnCount; i++ ) {
-          row[ i ] = rs.getObject( i + 1 );
-        }
+    protected static Object[] readRow( ResultSet rs, int columnCount ) throws SQLException {
+      Object[] row = new Object[ columnCount ];
 
-        rows.add( row );
+      for ( int i = 0; i < columnCount; i++ ) {
+        row[ i ] = rs.getObject( i + 1 );
       }
+
+      return row;
     }
 
     /**
@@ -1853,11 +1913,19 @@ public class XmlaHandler {
       rows.add( row );
     }
 
-    public void close() {
+    public void close() throws SQLException {
       // no resources to close
     }
 
-    public void unparse( SaxWriter writer ) throws SAXException {
+    public void unparse( SaxWriter writer ) throws SAXException, OlapException {
+      unparseTotalCount( writer );
+
+      for ( Object[] row : rows ) {
+        unparseRow( writer, row );
+      }
+    }
+
+    protected void unparseTotalCount( SaxWriter writer ) {
       // write total count row if enabled
       if ( totalCount >= 0 ) {
         String countStr = Integer.toString( totalCount );
@@ -1871,31 +1939,31 @@ public class XmlaHandler {
 
         writer.endElement(); // row
       }
+    }
 
-      for ( Object[] row : rows ) {
-        writer.startElement( "row" );
-
-        for ( int i = 0; i < row.length; i++ ) {
-          writer.startElement( columns.get( i ).encodedName, "xsi:type", columns.get( i ).xsdType );
-          Object value = row[ i ];
+    protected void unparseRow( SaxWriter writer, Object[] row ) {
+      writer.startElement( "row" );
 
-          if ( value == null ) {
-            writer.characters( "null" );
-          } else {
-            String valueString = value.toString();
+      for ( int i = 0; i < row.length; i++ ) {
+        writer.startElement( columns.get( i ).encodedName, "xsi:type", columns.get( i ).xsdType );
+        Object value = row[ i ];
 
-            if ( value instanceof Number ) {
-              valueString = XmlaUtil.normalizeNumericString( valueString );
-            }
+        if ( value == null ) {
+          writer.characters( "null" );
+        } else {
+          String valueString = value.toString();
 
-            writer.characters( valueString );
+          if ( value instanceof Number ) {
+            valueString = XmlaUtil.normalizeNumericString( valueString );
           }
 
-          writer.endElement();
+          writer.characters( valueString );
         }
 
-        writer.endElement(); // row
+        writer.endElement();
       }
+
+      writer.endElement(); // row
     }
 
     /**
@@ -1942,6 +2010,49 @@ public class XmlaHandler {
     }
   }
 
+  /**
+   * Tabular row set that reads rows from an open drill-through result set while it writes the response, so that
+   * memory use does not depend on the number of rows. Owns the connection, statement and result set, and closes them
+   * in {@link #close()}.
+   */
+  static class StreamingTabularRowSet extends TabularRowSet {
+    private final OlapConnection connection;
+    private final OlapStatement statement;
+    private final ResultSet resultSet;
+    private final int columnCount;
+
+    StreamingTabularRowSet( OlapConnection connection, OlapStatement statement, ResultSet resultSet, int totalCount )
+      throws SQLException {
+      super( resultSet, totalCount, true );
+      this.connection = connection;
+      this.statement = statement;
+      this.resultSet = resultSet;
+      this.columnCount = resultSet.getMetaData().getColumnCount();
+    }
+
+    @Override
+    public void unparse( SaxWriter writer ) throws SAXException, OlapException {
+      unparseTotalCount( writer );
+
+      try {
+        while ( resultSet.next() ) {
+          unparseRow( writer, readRow( resultSet, columnCount ) );
+        }
+      } catch ( SQLException e ) {
+        throw new OlapException( "Error while streaming drill-through rows", e );
+      }
+    }
+
+    @Override
+    public void close() throws SQLException {
+      SQLException e = Util.close( resultSet, statement, connection );
+
+      if ( e != null ) {
+        throw e;
+      }
+    }
+  }
+
   abstract static class MDDataSet implements QueryResult {
     protected static final List<Property> cellProps = Arrays.asList(
       rename( StandardCellProperty.VALUE, "Value" ),